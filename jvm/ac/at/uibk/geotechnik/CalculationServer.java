@@ -0,0 +1,804 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Embedded HTTP/JSON service computing T_K_mod according to equation 25b,
+ * for planning tools without the app. Desktop JVM only.
+ *
+ * Endpoints:
+ * <ul>
+ * <li>GET /tkmod?b=10&amp;h=5 computes one case and answers
+ * {"b":10.0,"h":5.0,"t":2.19...}, with b clamped as in the app</li>
+ * <li>POST /tkmod with a JSON array of [B, H] pairs, e.g. [[10,5],[3,2]],
+ * answers an array of such objects in the same order</li>
+ * <li>GET /stats answers the number of requests, the throughput and the
+ * latency percentiles in microseconds; /stats?reset=1 starts a new
+ * measurement</li>
+ * </ul>
+ *
+ * All connections are served by one non-blocking selector thread with
+ * keep-alive and pipelining. Single cases read in one round of the selector
+ * are coalesced and computed with one vectorized
+ * {@link EmbedmentSolver#solve(double[], double[], double[], double[], int, int)}
+ * call before their responses are written. Large batches are computed on a
+ * worker pool, so they do not delay the other connections; further requests
+ * of such a connection wait until its batch is answered. The latency is
+ * measured from reading a request to queueing its response.
+ *
+ * @author phoenix
+ *
+ */
+public final class CalculationServer implements Closeable, Runnable {
+
+	/** Default port */
+	static final int DEFAULT_PORT = 8025;
+	/** Largest accepted request including headers in bytes */
+	private static final int MAX_REQUEST = 1 << 20;
+	/** Batches with at least this many cases are computed on the workers */
+	private static final int OFFLOAD_CASES = 1024;
+	/** Initial size of the buffers of a connection */
+	private static final int BUFFER_SIZE = 4096;
+
+	/** State of one client connection, only used by the selector thread */
+	private static final class Connection {
+		final SocketChannel channel;
+		/** Received bytes not yet consumed, in write mode */
+		ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+		/** Response bytes not yet sent, in write mode */
+		ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+		/** Time the last bytes were read */
+		long readNanos;
+		/** Set while a batch of this connection is computed by a worker */
+		boolean busy = false;
+		/** Number of single cases waiting for the end of the round */
+		int pending = 0;
+		/** Close once the out buffer has been sent */
+		boolean closeAfterWrite = false;
+
+		Connection(final SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/** Response computed by a worker */
+	private static final class Completion {
+		final Connection connection;
+		final byte[] response;
+		final long readNanos;
+
+		Completion(final Connection connection, final byte[] response, final long readNanos) {
+			this.connection = connection;
+			this.response = response;
+			this.readNanos = readNanos;
+		}
+	}
+
+	/** Thrown for requests that cannot be answered */
+	private static final class BadRequest extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		final int status;
+
+		BadRequest(final int status, final String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	private final ServerSocketChannel server;
+	private final Selector selector;
+	private final ExecutorService workers;
+	/** Responses of the workers waiting to be written */
+	private final ConcurrentLinkedQueue<Completion> completions = new ConcurrentLinkedQueue<Completion>();
+	private volatile boolean running = true;
+
+	/* Single cases of the current selector round */
+	private Connection[] pendingConnections = new Connection[64];
+	private long[] pendingNanos = new long[64];
+	private double[] pendingB = new double[64];
+	private double[] pendingH = new double[64];
+	private double[] pendingClamped = new double[64];
+	private double[] pendingT = new double[64];
+	private int pendingCount = 0;
+
+	/* Statistics, only used by the selector thread */
+	private QuantileSketch latency = new QuantileSketch(0.01);
+	private long requests = 0;
+	private long cases = 0;
+	private long solves = 0;
+	private long statsStart = System.nanoTime();
+
+	/** Reused for building responses on the selector thread */
+	private final StringBuilder text = new StringBuilder(256);
+
+	/**
+	 * Opens the server socket
+	 *
+	 * @param port
+	 *            to listen on, 0 for any free port
+	 * @param threads
+	 *            number of workers for large batches
+	 * @throws IOException
+	 *             if the socket cannot be opened
+	 */
+	public CalculationServer(final int port, final int threads) throws IOException {
+		if (threads < 1)
+			throw new IllegalArgumentException("At least one worker is needed");
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.socket().setReuseAddress(true);
+		server.socket().bind(new InetSocketAddress(port), 1024);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "CalculationServer worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/** Serve until {@link #close()} is called */
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select();
+				final long now = System.nanoTime();
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (!key.isValid())
+							continue;
+						if (key.isAcceptable())
+							accept();
+						else {
+							if (key.isReadable())
+								read(key, now);
+							if (key.isValid() && key.isWritable())
+								write(key);
+						}
+					} catch (IOException e) {
+						drop(key);
+					}
+				}
+				// Completions may release requests pipelined behind a batch,
+				// which add single cases, so they are handled before the flush
+				Completion completion;
+				while ((completion = completions.poll()) != null)
+					complete(completion);
+				flushPending();
+			}
+		} catch (IOException e) {
+			if (running)
+				System.err.println("Server stopped: " + e.getMessage());
+		} finally {
+			for (final SelectionKey key : selector.keys()) {
+				try {
+					key.channel().close();
+				} catch (IOException e) {
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/** Stop serving and close all connections */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		selector.wakeup();
+		workers.shutdown();
+		try {
+			workers.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void accept() throws IOException {
+		final SocketChannel channel = server.accept();
+		if (channel == null)
+			return;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+	}
+
+	private void read(final SelectionKey key, final long now) throws IOException {
+		final Connection connection = (Connection) key.attachment();
+		if (!connection.in.hasRemaining()) {
+			if (connection.in.capacity() >= MAX_REQUEST) {
+				flushBefore(connection);
+				respondError(connection, 413, "Request too large");
+				connection.closeAfterWrite = true;
+				send(connection);
+				return;
+			}
+			connection.in = grow(connection.in, 2 * connection.in.capacity());
+		}
+		if (connection.channel.read(connection.in) < 0) {
+			drop(key);
+			return;
+		}
+		connection.readNanos = now;
+		parse(connection);
+	}
+
+	/** Handle all complete requests in the input buffer of a connection */
+	private void parse(final Connection connection) throws IOException {
+		final ByteBuffer in = connection.in;
+		int start = 0;
+		while (!connection.busy && !connection.closeAfterWrite) {
+			final int headerEnd = indexOfHeaderEnd(in, start);
+			if (headerEnd < 0)
+				break;
+			final String header = ascii(in.array(), start, headerEnd - start);
+			final int contentLength = headerValue(header, "content-length");
+			if (contentLength < 0 || contentLength > MAX_REQUEST) {
+				flushBefore(connection);
+				respondError(connection, 400, "Invalid Content-Length");
+				connection.closeAfterWrite = true;
+				break;
+			}
+			final int bodyStart = headerEnd + 4;
+			if (in.position() - bodyStart < contentLength) {
+				if (bodyStart + contentLength > in.capacity())
+					connection.in = grow(in, bodyStart + contentLength);
+				break;
+			}
+			start = bodyStart + contentLength;
+			requests++;
+			final boolean close = closeRequested(header);
+			// Only single cases wait for the end of the round, anything else
+			// is answered after the cases before it
+			if (close || !header.startsWith("GET /tkmod?"))
+				flushBefore(connection);
+			connection.closeAfterWrite = close;
+			try {
+				handle(connection, header, bodyStart, contentLength);
+			} catch (BadRequest e) {
+				flushBefore(connection);
+				respondError(connection, e.status, e.getMessage());
+			}
+		}
+		compact(connection, start);
+		send(connection);
+	}
+
+	/** Route one request */
+	private void handle(final Connection connection, final String header, final int bodyStart, final int length)
+			throws BadRequest {
+		final int methodEnd = header.indexOf(' ');
+		final int targetEnd = header.indexOf(' ', methodEnd + 1);
+		if (methodEnd < 0 || targetEnd < 0)
+			throw new BadRequest(400, "Malformed request line");
+		final String method = header.substring(0, methodEnd);
+		final String target = header.substring(methodEnd + 1, targetEnd);
+		final int queryStart = target.indexOf('?');
+		final String path = queryStart < 0 ? target : target.substring(0, queryStart);
+		final String query = queryStart < 0 ? "" : target.substring(queryStart + 1);
+
+		if (path.equals("/tkmod")) {
+			if (method.equals("GET")) {
+				addPending(connection, parameter(query, "b"), parameter(query, "h"));
+				return;
+			} else if (method.equals("POST")) {
+				batch(connection, bodyStart, length);
+				return;
+			}
+			throw new BadRequest(405, "Use GET or POST");
+		} else if (path.equals("/stats")) {
+			if (!method.equals("GET"))
+				throw new BadRequest(405, "Use GET");
+			respondStats(connection, query.contains("reset=1"));
+			return;
+		}
+		throw new BadRequest(404, "Unknown path " + path);
+	}
+
+	/** Queue a single case for the coalesced computation of this round */
+	private void addPending(final Connection connection, final double b, final double h) {
+		if (pendingCount == pendingB.length) {
+			final int size = 2 * pendingCount;
+			final Connection[] connections = new Connection[size];
+			System.arraycopy(pendingConnections, 0, connections, 0, pendingCount);
+			pendingConnections = connections;
+			pendingNanos = grow(pendingNanos, size);
+			pendingB = grow(pendingB, size);
+			pendingH = grow(pendingH, size);
+			pendingClamped = new double[size];
+			pendingT = new double[size];
+		}
+		pendingConnections[pendingCount] = connection;
+		pendingNanos[pendingCount] = connection.readNanos;
+		pendingB[pendingCount] = b;
+		pendingH[pendingCount] = h;
+		pendingCount++;
+		connection.pending++;
+	}
+
+	/**
+	 * Compute the single cases of this round and write their responses. A
+	 * connection may have several pipelined cases, whose responses are
+	 * appended in order
+	 */
+	private void flushPending() {
+		if (pendingCount == 0)
+			return;
+		EmbedmentSolver.solve(pendingB, pendingH, pendingClamped, pendingT, 0, pendingCount);
+		solves++;
+		cases += pendingCount;
+		for (int i = 0; i < pendingCount; i++) {
+			final Connection connection = pendingConnections[i];
+			text.setLength(0);
+			appendCase(text, pendingClamped[i], pendingH[i], pendingT[i]);
+			connection.pending--;
+			respond(connection, 200, text);
+			latency.add((System.nanoTime() - pendingNanos[i]) / 1000.0);
+		}
+		for (int i = 0; i < pendingCount; i++) {
+			final Connection connection = pendingConnections[i];
+			pendingConnections[i] = null;
+			// Pipelined cases of a connection are sent together
+			if (connection.out.position() > 0) {
+				try {
+					send(connection);
+				} catch (IOException e) {
+					drop(connection.channel.keyFor(selector));
+				}
+			}
+		}
+		pendingCount = 0;
+	}
+
+	/** Answer the pending single cases before another response of a connection */
+	private void flushBefore(final Connection connection) {
+		if (connection.pending > 0)
+			flushPending();
+	}
+
+	/** Compute a batch of cases, on a worker if it is large */
+	private void batch(final Connection connection, final int bodyStart, final int length) throws BadRequest {
+		final double[][] pairs = parsePairs(connection.in.array(), bodyStart, length);
+		final double[] b = pairs[0];
+		final double[] h = pairs[1];
+		if (b.length < OFFLOAD_CASES) {
+			final byte[] response = solveBatch(b, h);
+			solves++;
+			cases += b.length;
+			respond(connection, 200, response);
+			latency.add((System.nanoTime() - connection.readNanos) / 1000.0);
+			return;
+		}
+		connection.busy = true;
+		final long readNanos = connection.readNanos;
+		workers.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				completions.add(new Completion(connection, solveBatch(b, h), readNanos));
+				selector.wakeup();
+			}
+		});
+		solves++;
+		cases += b.length;
+	}
+
+	/** Write the response of a batch computed by a worker */
+	private void complete(final Completion completion) {
+		final Connection connection = completion.connection;
+		final SelectionKey key = connection.channel.keyFor(selector);
+		if (key == null || !key.isValid())
+			return;
+		respond(connection, 200, completion.response);
+		latency.add((System.nanoTime() - completion.readNanos) / 1000.0);
+		connection.busy = false;
+		try {
+			// Requests that arrived during the computation
+			parse(connection);
+		} catch (IOException e) {
+			drop(key);
+		}
+	}
+
+	/**
+	 * Compute a batch and format the response body
+	 *
+	 * @param b
+	 *            widths in meter
+	 * @param h
+	 *            head differences in meter
+	 * @return the JSON array of results
+	 */
+	static byte[] solveBatch(final double[] b, final double[] h) {
+		final double[] clamped = new double[b.length];
+		final double[] t = new double[b.length];
+		EmbedmentSolver.solve(b, h, clamped, t, 0, b.length);
+		final StringBuilder json = new StringBuilder(48 * b.length + 2);
+		json.append('[');
+		for (int i = 0; i < b.length; i++) {
+			if (i > 0)
+				json.append(',');
+			appendCase(json, clamped[i], h[i], t[i]);
+		}
+		json.append(']');
+		return ascii(json);
+	}
+
+	/** Append the JSON object of a case */
+	private static void appendCase(final StringBuilder json, final double b, final double h, final double t) {
+		json.append("{\"b\":").append(b).append(",\"h\":").append(h).append(",\"t\":").append(t).append('}');
+	}
+
+	private void respondStats(final Connection connection, final boolean reset) {
+		final double seconds = (System.nanoTime() - statsStart) / 1e9;
+		text.setLength(0);
+		text.append("{\"requests\":").append(requests).append(",\"cases\":").append(cases)
+				.append(",\"solves\":").append(solves).append(",\"seconds\":").append(seconds)
+				.append(",\"requestsPerSecond\":").append(requests / seconds).append(",\"casesPerSolve\":")
+				.append(solves == 0 ? 0 : (double) cases / solves).append(",\"latencyMicros\":{");
+		final double[] quantiles = { 0.5, 0.9, 0.99, 0.999 };
+		final String[] names = { "p50", "p90", "p99", "p999" };
+		for (int i = 0; i < quantiles.length; i++) {
+			if (i > 0)
+				text.append(',');
+			final double value = latency.getQuantile(quantiles[i]);
+			text.append('"').append(names[i]).append("\":");
+			if (value == value)
+				text.append(value);
+			else
+				text.append("null");
+		}
+		text.append("}}");
+		respond(connection, 200, text);
+		if (reset) {
+			latency = new QuantileSketch(0.01);
+			requests = 0;
+			cases = 0;
+			solves = 0;
+			statsStart = System.nanoTime();
+		}
+	}
+
+	private void respondError(final Connection connection, final int status, final String message) {
+		text.setLength(0);
+		text.append("{\"error\":\"");
+		for (int i = 0; i < message.length(); i++) {
+			final char c = message.charAt(i);
+			if (c == '"' || c == '\\')
+				text.append('\\');
+			text.append(c < 0x20 || c > 0x7E ? '?' : c);
+		}
+		text.append("\"}");
+		respond(connection, status, text);
+	}
+
+	private void respond(final Connection connection, final int status, final CharSequence body) {
+		respond(connection, status, ascii(body));
+	}
+
+	/**
+	 * Append a response to the output of a connection. The last response
+	 * before closing announces it
+	 */
+	private void respond(final Connection connection, final int status, final byte[] body) {
+		final String reason;
+		switch (status) {
+		case 200:
+			reason = "OK";
+			break;
+		case 400:
+			reason = "Bad Request";
+			break;
+		case 404:
+			reason = "Not Found";
+			break;
+		case 405:
+			reason = "Method Not Allowed";
+			break;
+		default:
+			reason = "Payload Too Large";
+			break;
+		}
+		final byte[] head = ascii("HTTP/1.1 " + status + " " + reason
+				+ "\r\nContent-Type: application/json\r\nContent-Length: " + body.length
+				+ (connection.closeAfterWrite && connection.pending == 0 ? "\r\nConnection: close" : "") + "\r\n\r\n");
+		final int needed = head.length + body.length;
+		if (connection.out.remaining() < needed)
+			connection.out = grow(connection.out, Math.max(2 * connection.out.capacity(), connection.out.position()
+					+ needed));
+		connection.out.put(head).put(body);
+	}
+
+	/** Write as much output as possible, waiting for OP_WRITE for the rest */
+	private void send(final Connection connection) throws IOException {
+		final ByteBuffer out = connection.out;
+		final SelectionKey key = connection.channel.keyFor(selector);
+		if (key == null || !key.isValid())
+			return;
+		if (out.position() > 0) {
+			out.flip();
+			connection.channel.write(out);
+			out.compact();
+		}
+		if (out.position() > 0) {
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		} else if (connection.closeAfterWrite && !connection.busy && connection.pending == 0) {
+			drop(key);
+		} else {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	private void write(final SelectionKey key) throws IOException {
+		send((Connection) key.attachment());
+	}
+
+	private void drop(final SelectionKey key) {
+		if (key == null)
+			return;
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+		}
+	}
+
+	/** Remove the consumed bytes from the input buffer */
+	private static void compact(final Connection connection, final int consumed) {
+		if (consumed == 0)
+			return;
+		final ByteBuffer in = connection.in;
+		in.flip();
+		in.position(consumed);
+		in.compact();
+	}
+
+	/**
+	 * Parse a JSON array of [B, H] pairs
+	 *
+	 * @return the widths and head differences
+	 */
+	static double[][] parsePairs(final byte[] data, final int offset, final int length) throws BadRequest {
+		double[] b = new double[16];
+		double[] h = new double[16];
+		int count = 0;
+		final int end = offset + length;
+		int i = skipSpace(data, offset, end);
+		if (i == end || data[i] != '[')
+			throw new BadRequest(400, "Expected an array of [B, H] pairs");
+		i = skipSpace(data, i + 1, end);
+		if (i < end && data[i] == ']') {
+			i++;
+		} else {
+			while (true) {
+				if (i == end || data[i] != '[')
+					throw new BadRequest(400, "Expected [B, H] at pair " + count);
+				final int bEnd = numberEnd(data, skipSpace(data, i + 1, end), end);
+				final double bValue = parseNumber(data, skipSpace(data, i + 1, end), bEnd, count);
+				i = skipSpace(data, bEnd, end);
+				if (i == end || data[i] != ',')
+					throw new BadRequest(400, "Expected [B, H] at pair " + count);
+				final int hStart = skipSpace(data, i + 1, end);
+				final int hEnd = numberEnd(data, hStart, end);
+				final double hValue = parseNumber(data, hStart, hEnd, count);
+				i = skipSpace(data, hEnd, end);
+				if (i == end || data[i] != ']')
+					throw new BadRequest(400, "Expected [B, H] at pair " + count);
+				if (count == b.length) {
+					b = grow(b, 2 * count);
+					h = grow(h, 2 * count);
+				}
+				b[count] = bValue;
+				h[count] = hValue;
+				count++;
+				i = skipSpace(data, i + 1, end);
+				if (i < end && data[i] == ',') {
+					i = skipSpace(data, i + 1, end);
+				} else if (i < end && data[i] == ']') {
+					i++;
+					break;
+				} else {
+					throw new BadRequest(400, "Expected , or ] after pair " + (count - 1));
+				}
+			}
+		}
+		if (skipSpace(data, i, end) != end)
+			throw new BadRequest(400, "Unexpected data after the array");
+		final double[] widths = new double[count];
+		final double[] heads = new double[count];
+		System.arraycopy(b, 0, widths, 0, count);
+		System.arraycopy(h, 0, heads, 0, count);
+		return new double[][] { widths, heads };
+	}
+
+	private static int skipSpace(final byte[] data, int i, final int end) {
+		while (i < end && (data[i] == ' ' || data[i] == '\t' || data[i] == '\r' || data[i] == '\n'))
+			i++;
+		return i;
+	}
+
+	private static int numberEnd(final byte[] data, int i, final int end) {
+		while (i < end && (data[i] >= '0' && data[i] <= '9' || data[i] == '.' || data[i] == '-' || data[i] == '+'
+				|| data[i] == 'e' || data[i] == 'E'))
+			i++;
+		return i;
+	}
+
+	/** Parse a positive finite number */
+	private static double parseNumber(final byte[] data, final int start, final int end, final int pair)
+			throws BadRequest {
+		return checked(ascii(data, start, end - start), "pair " + pair);
+	}
+
+	/** Get a positive finite number of the query string */
+	private static double parameter(final String query, final String name) throws BadRequest {
+		int start = 0;
+		while (start < query.length()) {
+			int end = query.indexOf('&', start);
+			if (end < 0)
+				end = query.length();
+			if (query.startsWith(name, start) && start + name.length() < end
+					&& query.charAt(start + name.length()) == '=')
+				return checked(query.substring(start + name.length() + 1, end), name);
+			start = end + 1;
+		}
+		throw new BadRequest(400, "Missing parameter " + name);
+	}
+
+	private static double checked(final String text, final String what) throws BadRequest {
+		final double value;
+		try {
+			value = Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			throw new BadRequest(400, "Invalid number for " + what);
+		}
+		if (!(value > 0) || Double.isInfinite(value))
+			throw new BadRequest(400, "B and H must be positive at " + what);
+		return value;
+	}
+
+	/** Find the empty line after the headers, or -1 */
+	private static int indexOfHeaderEnd(final ByteBuffer in, final int start) {
+		final byte[] data = in.array();
+		for (int i = start; i + 3 < in.position(); i++) {
+			if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n')
+				return i;
+		}
+		return -1;
+	}
+
+	/** Get a numeric header value, 0 if it is missing or -1 if invalid */
+	private static int headerValue(final String header, final String name) {
+		final String value = headerText(header, name);
+		if (value == null)
+			return 0;
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/** Get the trimmed value of a header, or null */
+	private static String headerText(final String header, final String name) {
+		int line = header.indexOf("\r\n");
+		while (line >= 0) {
+			final int start = line + 2;
+			final int colon = header.indexOf(':', start);
+			int end = header.indexOf("\r\n", start);
+			if (end < 0)
+				end = header.length();
+			if (colon > 0 && colon < end && header.substring(start, colon).trim().equalsIgnoreCase(name))
+				return header.substring(colon + 1, end).trim();
+			line = end < header.length() ? end : -1;
+		}
+		return null;
+	}
+
+	/** HTTP/1.0 closes unless asked to keep alive, HTTP/1.1 on request */
+	private static boolean closeRequested(final String header) {
+		final String connection = headerText(header, "connection");
+		final int lineEnd = header.indexOf("\r\n");
+		final boolean http10 = (lineEnd < 0 ? header : header.substring(0, lineEnd)).endsWith("HTTP/1.0");
+		if (http10)
+			return connection == null || !connection.equalsIgnoreCase("keep-alive");
+		return connection != null && connection.equalsIgnoreCase("close");
+	}
+
+	private static String ascii(final byte[] data, final int offset, final int length) {
+		final char[] chars = new char[length];
+		for (int i = 0; i < length; i++)
+			chars[i] = (char) (data[offset + i] & 0xFF);
+		return new String(chars);
+	}
+
+	private static byte[] ascii(final CharSequence text) {
+		final byte[] bytes = new byte[text.length()];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) text.charAt(i);
+		return bytes;
+	}
+
+	private static ByteBuffer grow(final ByteBuffer buffer, final int capacity) {
+		final ByteBuffer grown = ByteBuffer.allocate(capacity);
+		buffer.flip();
+		grown.put(buffer);
+		return grown;
+	}
+
+	private static double[] grow(final double[] array, final int length) {
+		final double[] grown = new double[length];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static long[] grow(final long[] array, final int length) {
+		final long[] grown = new long[length];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	/**
+	 * Start the service
+	 *
+	 * @param args
+	 *            [-p port] [-t workers]
+	 */
+	public static void main(final String[] args) {
+		int port = DEFAULT_PORT;
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-p") && i + 1 < args.length)
+					port = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-t") && i + 1 < args.length)
+					threads = Integer.parseInt(args[++i]);
+				else
+					throw new IllegalArgumentException(args[i]);
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println("Usage: CalculationServer [-p port] [-t workers]");
+			System.exit(1);
+			return;
+		}
+		try {
+			final CalculationServer server = new CalculationServer(port, threads);
+			System.out.println("Listening on port " + server.getPort());
+			server.run();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
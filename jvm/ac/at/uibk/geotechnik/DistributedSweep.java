@@ -0,0 +1,582 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coordinator of a sweep that is computed by several {@link SweepWorker}
+ * processes. Desktop JVM only.
+ *
+ * The study, a grid of widths B and head differences H with one set of soil
+ * parameters, is split into chunks of consecutive cases. Workers connect
+ * over TCP and are handed one chunk at a time with the
+ * {@link SweepProtocol}, so faster workers take more chunks. If a worker
+ * fails, i.e. its connection breaks or a chunk is not answered within the
+ * timeout, its chunk goes back to the front of the queue and is computed by
+ * another worker. A chunk that is answered twice is only stored once.
+ *
+ * The results are merged into one output file: a {@link CaseFile} (.ebt, T
+ * and the clamp flags written into the mapped columns as chunks arrive) or a
+ * CSV file with all values of the mode, written in case order at the end.
+ * Worker processes can be started on the same machine with -w; if all of
+ * them fail, a replacement is started. If no worker is connected and no
+ * chunk has been stored for the timeout, the sweep fails instead of waiting
+ * forever.
+ *
+ * @author phoenix
+ *
+ */
+public final class DistributedSweep {
+
+	/** Cases per chunk in formula mode */
+	static final int FORMULA_CHUNK = 1 << 16;
+	/** Cases per chunk in seepage mode */
+	static final int SEEPAGE_CHUNK = 8;
+	/** Default time to answer a chunk in milliseconds */
+	static final int DEFAULT_TIMEOUT = 600000;
+
+	/** Receiver of the results */
+	private interface ResultSink {
+		/**
+		 * Store the values of a chunk. Called for each chunk exactly once, from
+		 * any thread but never concurrently
+		 */
+		void put(int first, int count, double[] values) throws IOException;
+
+		/** Write the output */
+		void close() throws IOException;
+	}
+
+	private final SweepProtocol.Study study;
+	private final int chunkCases;
+	private final int chunkCount;
+	private final int timeout;
+	private final ResultSink sink;
+	private final ServerSocket server;
+
+	/** Chunks waiting for a worker */
+	private final LinkedBlockingDeque<Integer> queue = new LinkedBlockingDeque<Integer>();
+	/** Stored chunks, guarded by this */
+	private final boolean[] stored;
+	/** Number of chunks not yet stored, guarded by this */
+	private int remaining;
+	/** First error of the sink or null, guarded by this */
+	private IOException error = null;
+
+	/** Number of connected workers, guarded by processes */
+	private int connected = 0;
+	/** Time of the last connection change or stored chunk in nanoseconds */
+	private volatile long lastActivity = System.nanoTime();
+	/** Number of failed workers */
+	private final AtomicInteger failures = new AtomicInteger();
+	/** Number of chunks given back after a failure */
+	private final AtomicInteger reassigned = new AtomicInteger();
+
+	/** Started worker processes, guarded by itself */
+	private final List<Process> processes = new ArrayList<Process>();
+	/** Number of replacement processes that may still be started */
+	private int respawns = 0;
+
+	/**
+	 * Creates the coordinator and opens the server socket
+	 *
+	 * @param study
+	 *            to be computed
+	 * @param output
+	 *            file, .ebt for a case file (formula mode with the script
+	 *            coefficients only) or CSV
+	 * @param chunkCases
+	 *            number of cases per chunk
+	 * @param port
+	 *            to listen on, 0 for any free port
+	 * @param timeout
+	 *            time for answering a chunk in milliseconds
+	 * @throws IOException
+	 *             if the output or the socket cannot be opened
+	 */
+	DistributedSweep(final SweepProtocol.Study study, final File output, final int chunkCases, final int port,
+			final int timeout) throws IOException {
+		if (chunkCases < 1)
+			throw new IllegalArgumentException("Chunks must have at least one case");
+		this.study = study;
+		this.chunkCases = chunkCases;
+		this.timeout = timeout;
+		final int cases = study.getCaseCount();
+		chunkCount = (int) ((cases + (long) chunkCases - 1) / chunkCases);
+		stored = new boolean[chunkCount];
+		remaining = chunkCount;
+		for (int i = 0; i < chunkCount; i++)
+			queue.add(i);
+		if (output.getName().toLowerCase(Locale.US).endsWith(".ebt")) {
+			if (study.mode != SweepProtocol.MODE_FORMULA)
+				throw new IllegalArgumentException("Case files only hold the formula results");
+			// The header has no field for the coefficients, solved means eq. 25b
+			if (study.c1 != EmbedmentSolver.C1 || study.c2 != EmbedmentSolver.C2 || study.iZul != EmbedmentSolver.I_ZUL)
+				throw new IllegalArgumentException("Case files only hold the results of the script coefficients");
+			sink = new CaseFileSink(output);
+		} else {
+			sink = new CsvSink(output);
+		}
+		server = new ServerSocket(port);
+	}
+
+	/**
+	 * @return the port the coordinator listens on
+	 */
+	int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Start worker processes on this machine with the class path of this JVM
+	 *
+	 * @param count
+	 *            number of processes
+	 * @param failAfter
+	 *            number of chunks after which the first process fails on
+	 *            purpose, 0 for none
+	 * @throws IOException
+	 *             if a process cannot be started
+	 */
+	void spawn(final int count, final int failAfter) throws IOException {
+		for (int i = 0; i < count; i++)
+			spawn(i == 0 ? failAfter : 0);
+		respawns = count;
+	}
+
+	private void spawn(final int failAfter) throws IOException {
+		final List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(SweepWorker.class.getName());
+		if (failAfter > 0) {
+			command.add("-f");
+			command.add(Integer.toString(failAfter));
+		}
+		command.add("localhost:" + getPort());
+		final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		synchronized (processes) {
+			processes.add(process);
+		}
+		// Forward the output, the process blocks if it is not read
+		final Thread forward = new Thread("Worker output") {
+
+			@Override
+			public void run() {
+				final InputStream in = process.getInputStream();
+				final byte[] buffer = new byte[4096];
+				try {
+					int read;
+					while ((read = in.read(buffer)) > 0)
+						System.err.write(buffer, 0, read);
+				} catch (IOException e) {
+				}
+			}
+		};
+		forward.setDaemon(true);
+		forward.start();
+	}
+
+	/**
+	 * Accept workers until all chunks have been stored, then write the output
+	 *
+	 * @throws IOException
+	 *             if the output cannot be written
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	void run() throws IOException, InterruptedException {
+		final Thread acceptor = new Thread("Sweep acceptor") {
+
+			@Override
+			public void run() {
+				int number = 0;
+				while (true) {
+					final Socket socket;
+					try {
+						socket = server.accept();
+					} catch (IOException e) {
+						// Closed after the last chunk
+						return;
+					}
+					final Thread thread = new WorkerConnection(socket, number++);
+					thread.setDaemon(true);
+					thread.start();
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		synchronized (this) {
+			while (remaining > 0 && error == null) {
+				wait(1000);
+				if (getConnected() == 0 && !running()
+						&& System.nanoTime() - lastActivity > TimeUnit.MILLISECONDS.toNanos(timeout))
+					error = new IOException("No worker for " + timeout / 1000 + " s, " + remaining + " chunks missing");
+			}
+		}
+		server.close();
+		try {
+			synchronized (this) {
+				if (error != null)
+					throw error;
+			}
+		} finally {
+			sink.close();
+			// Give the workers time to receive the shutdown and exit
+			for (int i = 0; i < 50 && (getConnected() > 0 || running()); i++)
+				Thread.sleep(100);
+			synchronized (processes) {
+				for (final Process process : processes)
+					process.destroy();
+			}
+		}
+	}
+
+	/** @return the number of connected workers */
+	private int getConnected() {
+		synchronized (processes) {
+			return connected;
+		}
+	}
+
+	/**
+	 * Count a worker as disconnected
+	 *
+	 * @return the number of workers still connected
+	 */
+	private int disconnect() {
+		lastActivity = System.nanoTime();
+		synchronized (processes) {
+			return --connected;
+		}
+	}
+
+	/** @return true if a started worker process is still running */
+	private boolean running() {
+		synchronized (processes) {
+			for (final Process process : processes) {
+				try {
+					process.exitValue();
+				} catch (IllegalThreadStateException e) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/** Store the result of a chunk unless it has been stored before */
+	private synchronized void store(final int chunk, final int count, final double[] values) {
+		if (stored[chunk] || error != null)
+			return;
+		try {
+			sink.put(chunk * chunkCases, count, values);
+		} catch (IOException e) {
+			error = e;
+			notifyAll();
+			return;
+		}
+		stored[chunk] = true;
+		remaining--;
+		lastActivity = System.nanoTime();
+		if (remaining % Math.max(1, chunkCount / 20) == 0)
+			System.err.println(String.format(Locale.US, "%d of %d chunks done", chunkCount - remaining, chunkCount));
+		if (remaining == 0)
+			notifyAll();
+	}
+
+	private synchronized boolean isFinished() {
+		return remaining == 0 || error != null;
+	}
+
+	private synchronized boolean isStored(final int chunk) {
+		return stored[chunk];
+	}
+
+	/** Connection to one worker, handing out chunks until all are stored */
+	private final class WorkerConnection extends Thread {
+		private final Socket socket;
+
+		WorkerConnection(final Socket socket, final int number) {
+			super("Sweep worker " + number);
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			synchronized (processes) {
+				connected++;
+			}
+			lastActivity = System.nanoTime();
+			Integer chunk = null;
+			boolean failed = false;
+			try {
+				socket.setTcpNoDelay(true);
+				socket.setSoTimeout(timeout);
+				final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(),
+						1 << 16));
+				final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				SweepProtocol.expect(in, SweepProtocol.HELLO);
+				if (in.readInt() != SweepProtocol.MAGIC || in.readInt() != SweepProtocol.VERSION)
+					throw new IOException("Incompatible worker");
+				study.write(out);
+				out.flush();
+
+				final int valueCount = study.getValueCount();
+				final double[] values = new double[chunkCases * valueCount];
+				while (true) {
+					while (chunk == null) {
+						if (isFinished()) {
+							out.writeByte(SweepProtocol.SHUTDOWN);
+							out.flush();
+							return;
+						}
+						chunk = queue.poll(100, TimeUnit.MILLISECONDS);
+						// Chunks given back after a failure may be done already
+						if (chunk != null && isStored(chunk))
+							chunk = null;
+					}
+					final int first = chunk * chunkCases;
+					final int count = Math.min(chunkCases, study.getCaseCount() - first);
+					out.writeByte(SweepProtocol.CHUNK);
+					out.writeInt(chunk);
+					out.writeInt(first);
+					out.writeInt(count);
+					out.flush();
+
+					SweepProtocol.expect(in, SweepProtocol.RESULT);
+					if (in.readInt() != chunk || in.readInt() != count)
+						throw new IOException("Result does not match chunk " + chunk);
+					for (int i = 0; i < count * valueCount; i++)
+						values[i] = in.readDouble();
+					store(chunk, count, values);
+					chunk = null;
+				}
+			} catch (IOException e) {
+				failed = true;
+				fail(chunk, e);
+			} catch (InterruptedException e) {
+				failed = true;
+				fail(chunk, null);
+			} finally {
+				try {
+					socket.close();
+				} catch (IOException e) {
+				}
+				if (!failed)
+					disconnect();
+			}
+		}
+
+		/** Give the chunk back and start a replacement if no worker is left */
+		private void fail(final Integer chunk, final IOException e) {
+			failures.incrementAndGet();
+			if (chunk != null && !isStored(chunk)) {
+				queue.addFirst(chunk);
+				reassigned.incrementAndGet();
+			}
+			System.err.println(getName() + " failed" + (e instanceof SocketException || e == null ? "" : ": " + e)
+					+ (chunk != null ? ", chunk " + chunk + " reassigned" : ""));
+			final boolean finished = isFinished();
+			synchronized (processes) {
+				// Counted down under the lock, so of several workers failing at
+				// the same time exactly the last one sees no worker left
+				if (disconnect() == 0 && !finished && respawns > 0) {
+					respawns--;
+					try {
+						spawn(0);
+					} catch (IOException spawnError) {
+						System.err.println("Cannot start a worker: " + spawnError.getMessage());
+					}
+				}
+			}
+		}
+	}
+
+	/** Writes the formula results into a case file */
+	private final class CaseFileSink implements ResultSink {
+		private final CaseFile file;
+		private final DoubleBuffer t;
+		private final ByteBuffer clamped;
+
+		CaseFileSink(final File output) throws IOException {
+			file = CaseFile.create(output, study.getCaseCount());
+			final DoubleBuffer b = file.getB();
+			final DoubleBuffer h = file.getH();
+			for (int i = 0; i < study.getCaseCount(); i++) {
+				b.put(i, study.getB(i));
+				h.put(i, study.getH(i));
+			}
+			t = file.getT();
+			clamped = file.getClamped();
+		}
+
+		@Override
+		public void put(final int first, final int count, final double[] values) {
+			for (int i = 0; i < count; i++) {
+				final double b = study.getB(first + i);
+				final double h = study.getH(first + i);
+				t.put(first + i, values[i]);
+				clamped.put(first + i, (byte) (b / h > EmbedmentSolver.MAX_B_OVER_H ? 1 : 0));
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			synchronized (DistributedSweep.this) {
+				if (remaining == 0)
+					file.markSolved();
+			}
+			file.close();
+		}
+	}
+
+	/** Collects all values and writes them as CSV in case order */
+	private final class CsvSink implements ResultSink {
+		private final File output;
+		private final double[] values;
+
+		CsvSink(final File output) {
+			this.output = output;
+			values = new double[study.getCaseCount() * study.getValueCount()];
+		}
+
+		@Override
+		public void put(final int first, final int count, final double[] chunk) {
+			final int n = study.getValueCount();
+			System.arraycopy(chunk, 0, values, first * n, count * n);
+		}
+
+		@Override
+		public void close() throws IOException {
+			final FileOutputStream stream = new FileOutputStream(output);
+			try {
+				final CsvOutput out = new CsvOutput(stream.getChannel(), CsvOutput.DEFAULT_BUFFER_SIZE);
+				final boolean seepage = study.mode == SweepProtocol.MODE_SEEPAGE;
+				out.put(seepage ? "B;H;T_K_mod;max_exit_gradient;utilisation" : "B;H;T_K_mod");
+				out.newLine();
+				final int n = study.getValueCount();
+				for (int i = 0; i < study.getCaseCount(); i++) {
+					out.put(study.getB(i), 4);
+					out.put((byte) ';');
+					out.put(study.getH(i), 4);
+					for (int k = 0; k < n; k++) {
+						out.put((byte) ';');
+						out.put(values[i * n + k], 6);
+					}
+					out.newLine();
+				}
+				out.flush();
+			} finally {
+				stream.close();
+			}
+		}
+	}
+
+	/**
+	 * Command line entry point
+	 *
+	 * @param args
+	 *            [-m formula|seepage] [-n cells] [-s c1,c2,i_zul] [-c chunk
+	 *            cases] [-p port] [-w local workers] [-f fail after] [-t
+	 *            timeout s] bMin bMax hMin hMax step output.ebt|output.csv
+	 */
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		byte mode = SweepProtocol.MODE_FORMULA;
+		int cells = 64;
+		double c1 = EmbedmentSolver.C1;
+		double c2 = EmbedmentSolver.C2;
+		double iZul = EmbedmentSolver.I_ZUL;
+		int chunkCases = 0;
+		int port = 0;
+		int workers = 0;
+		int failAfter = 0;
+		int timeout = DEFAULT_TIMEOUT;
+		final List<String> positional = new ArrayList<String>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				final boolean value = i + 1 < args.length;
+				if (args[i].equals("-m") && value) {
+					final String name = args[++i];
+					if (name.equals("formula"))
+						mode = SweepProtocol.MODE_FORMULA;
+					else if (name.equals("seepage"))
+						mode = SweepProtocol.MODE_SEEPAGE;
+					else
+						throw new IllegalArgumentException(name);
+				} else if (args[i].equals("-n") && value) {
+					cells = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-s") && value) {
+					final String[] soil = args[++i].split(",");
+					if (soil.length != 3)
+						throw new IllegalArgumentException(args[i]);
+					c1 = Double.parseDouble(soil[0]);
+					c2 = Double.parseDouble(soil[1]);
+					iZul = Double.parseDouble(soil[2]);
+				} else if (args[i].equals("-c") && value) {
+					chunkCases = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-p") && value) {
+					port = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-w") && value) {
+					workers = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-f") && value) {
+					failAfter = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-t") && value) {
+					timeout = (int) (1000 * Double.parseDouble(args[++i]));
+				} else {
+					positional.add(args[i]);
+				}
+			}
+			if (positional.size() != 6)
+				throw new IllegalArgumentException();
+		} catch (IllegalArgumentException e) {
+			System.err.println("Usage: DistributedSweep [-m formula|seepage] [-n cells] [-s c1,c2,i_zul] "
+					+ "[-c chunk cases] [-p port] [-w local workers] [-f fail after] [-t timeout s] "
+					+ "bMin bMax hMin hMax step output.ebt|output.csv");
+			System.exit(1);
+			return;
+		}
+		final double bMin = Double.parseDouble(positional.get(0));
+		final double bMax = Double.parseDouble(positional.get(1));
+		final double hMin = Double.parseDouble(positional.get(2));
+		final double hMax = Double.parseDouble(positional.get(3));
+		final double step = Double.parseDouble(positional.get(4));
+		final int nb = (int) Math.round((bMax - bMin) / step) + 1;
+		final int nh = (int) Math.round((hMax - hMin) / step) + 1;
+		final SweepProtocol.Study study = new SweepProtocol.Study(mode, bMin, step, nb, hMin, step, nh, c1, c2, iZul,
+				cells);
+		if (chunkCases == 0)
+			chunkCases = mode == SweepProtocol.MODE_FORMULA ? FORMULA_CHUNK : SEEPAGE_CHUNK;
+
+		final long start = System.nanoTime();
+		final DistributedSweep sweep = new DistributedSweep(study, new File(positional.get(5)), chunkCases, port,
+				timeout);
+		System.err.println(String.format(Locale.US, "%d cases in %d chunks, listening on port %d",
+				study.getCaseCount(), sweep.chunkCount, sweep.getPort()));
+		if (workers > 0)
+			sweep.spawn(workers, failAfter);
+		sweep.run();
+		System.err.println(String.format(Locale.US, "Done in %.2f s, %d worker failures, %d chunks reassigned",
+				(System.nanoTime() - start) / 1e9, sweep.failures.get(), sweep.reassigned.get()));
+	}
+}
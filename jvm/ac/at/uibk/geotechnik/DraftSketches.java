@@ -0,0 +1,253 @@
+package ac.at.uibk.geotechnik;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Command line tool that renders the draft picture of every case of a CSV
+ * file (id, B, H) as PNG, SVG or PDF, without an Android device. Uses the same
+ * {@link DraftLayout} and {@link DraftPainter} as the app. Desktop JVM only;
+ * run with -Djava.awt.headless=true on servers without a display.
+ *
+ * @author phoenix
+ *
+ */
+public final class DraftSketches {
+
+	/** Output formats */
+	enum Format {
+		PNG, SVG, PDF
+	}
+
+	/** Identifiers of the cases */
+	private final List<String> ids = new ArrayList<String>();
+	/** Effective widths of the cases */
+	private final List<Double> widths = new ArrayList<Double>();
+	/** Head differences of the cases */
+	private final List<Double> heads = new ArrayList<Double>();
+
+	/** Output format */
+	private final Format format;
+	/** Size of the pictures in pixel */
+	private final int size;
+
+	/**
+	 * Creates the renderer
+	 *
+	 * @param format
+	 *            of the pictures
+	 * @param size
+	 *            width and height of the pictures in pixel
+	 */
+	DraftSketches(final Format format, final int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("Size must be positive");
+		this.format = format;
+		this.size = size;
+	}
+
+	/**
+	 * Read the cases of a CSV file. A first line that cannot be parsed is
+	 * taken as header
+	 *
+	 * @param input
+	 *            CSV or TSV file with id, B and H
+	 * @return the number of skipped malformed lines
+	 * @throws IOException
+	 *             if reading fails
+	 */
+	int read(final File input) throws IOException {
+		final FileInputStream in = new FileInputStream(input);
+		int skipped = 0;
+		try {
+			final CsvScanner scanner = new CsvScanner(in.getChannel(), CsvScanner.DEFAULT_BUFFER_SIZE);
+			boolean header = true;
+			while (scanner.nextLine()) {
+				final double b, h;
+				try {
+					b = scanner.parseDouble(1);
+					h = scanner.parseDouble(2);
+				} catch (NumberFormatException e) {
+					if (!header)
+						skipped++;
+					header = false;
+					continue;
+				}
+				header = false;
+				ids.add(scanner.getField(0));
+				widths.add(b);
+				heads.add(h);
+			}
+		} finally {
+			in.close();
+		}
+		return skipped;
+	}
+
+	/**
+	 * @return the number of cases
+	 */
+	int getCount() {
+		return ids.size();
+	}
+
+	/**
+	 * Render all cases in parallel. Each worker reuses its own image and
+	 * surface
+	 *
+	 * @param dir
+	 *            output directory
+	 * @param threads
+	 *            number of worker threads
+	 * @throws IOException
+	 *             if writing fails
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the workers
+	 */
+	void render(final File dir, final int threads) throws IOException, InterruptedException {
+		final AtomicInteger next = new AtomicInteger();
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			final List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < Math.max(1, threads); i++) {
+				futures.add(executor.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws IOException {
+						BufferedImage image = null;
+						Graphics2D graphics = null;
+						Java2DSurface surface = null;
+						if (format == Format.PNG) {
+							image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+							graphics = image.createGraphics();
+							surface = new Java2DSurface(graphics);
+						}
+						try {
+							int i;
+							while ((i = next.getAndIncrement()) < ids.size())
+								render(i, dir, image, surface);
+						} finally {
+							if (graphics != null)
+								graphics.dispose();
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw new IOException(e.getCause().toString());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** Render one case */
+	private void render(final int index, final File dir, final BufferedImage image, final Java2DSurface surface)
+			throws IOException {
+		final double b = widths.get(index);
+		final double h = heads.get(index);
+		final double t = EmbedmentSolver.tkMod(b, h);
+		// Drawn with the effective width like in the app
+		final DraftLayout layout = new DraftLayout(EmbedmentSolver.clampedWidth(b, h), h, t, size, size);
+		final File file = new File(dir, fileName(ids.get(index)) + "." + format.name().toLowerCase(Locale.US));
+		if (format == Format.PNG) {
+			DraftPainter.paint(layout, surface, true);
+			if (!ImageIO.write(image, "png", file))
+				throw new IOException("No PNG writer available");
+		} else if (format == Format.PDF) {
+			final PdfSurface pdf = new PdfSurface(new BufferedOutputStream(new FileOutputStream(file)), size, size);
+			try {
+				DraftPainter.paint(layout, pdf, true);
+			} finally {
+				pdf.close();
+			}
+		} else {
+			final SvgSurface svg = new SvgSurface(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+					file), "UTF-8")), size, size);
+			try {
+				DraftPainter.paint(layout, svg, true);
+			} finally {
+				svg.close();
+			}
+		}
+	}
+
+	/** Replace characters that are not safe in file names */
+	private static String fileName(final String id) {
+		final StringBuilder name = new StringBuilder(id.length());
+		for (int i = 0; i < id.length(); i++) {
+			final char c = id.charAt(i);
+			name.append(Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.' ? c : '_');
+		}
+		if (name.length() == 0 || name.charAt(0) == '.')
+			name.insert(0, '_');
+		return name.toString();
+	}
+
+	/**
+	 * Command line entry point
+	 *
+	 * @param args
+	 *            [-j threads] [-f png|svg|pdf] [-s size] input outdir
+	 * @throws Exception
+	 *             if rendering fails
+	 */
+	public static void main(final String[] args) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		Format format = Format.PNG;
+		int size = DraftLayout.REFERENCE_SIZE;
+		int i = 0;
+		for (; i < args.length - 2; i++) {
+			if (args[i].equals("-j"))
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-f"))
+				format = Format.valueOf(args[++i].toUpperCase(Locale.US));
+			else if (args[i].equals("-s"))
+				size = Integer.parseInt(args[++i]);
+			else
+				break;
+		}
+		if (args.length - i != 2) {
+			System.err.println("Usage: DraftSketches [-j threads] [-f png|svg|pdf] [-s size] input outdir");
+			System.exit(1);
+		}
+		final File dir = new File(args[i + 1]);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			System.err.println("Cannot create " + dir);
+			System.exit(1);
+		}
+
+		final DraftSketches sketches = new DraftSketches(format, size);
+		final int skipped = sketches.read(new File(args[i]));
+		final long start = System.nanoTime();
+		sketches.render(dir, threads);
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.println(String.format(Locale.US, "%d sketches, %d skipped lines in %.3f s (%.0f sketches/s)",
+				sketches.getCount(), skipped, seconds, sketches.getCount() / seconds));
+	}
+}
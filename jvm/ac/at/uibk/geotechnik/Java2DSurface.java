@@ -0,0 +1,100 @@
+package ac.at.uibk.geotechnik;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * {@link DraftSurface} drawing with Java2D, e.g. into a
+ * {@link java.awt.image.BufferedImage}. Works in headless mode
+ * (-Djava.awt.headless=true). Desktop JVM only, java.awt is not available on
+ * Android.
+ *
+ * The last colour, stroke and font are kept, so a surface must not be shared
+ * between threads.
+ *
+ * @author phoenix
+ *
+ */
+public final class Java2DSurface implements DraftSurface {
+
+	/** Font of size 1 the label fonts are derived from */
+	private static final Font BASE_FONT = new Font(Font.SANS_SERIF, Font.PLAIN, 1);
+
+	/** Graphics that is drawn to */
+	private final Graphics2D graphics;
+	/** Reused shapes */
+	private final Rectangle2D.Float rect = new Rectangle2D.Float();
+	private final Line2D.Float line = new Line2D.Float();
+
+	private int lastColor = 0;
+	private Color color = null;
+	private float lastWidth = -1;
+	private float lastSize = -1;
+	private Font font = null;
+
+	/**
+	 * Creates a surface with antialiasing enabled
+	 *
+	 * @param graphics
+	 *            to draw to
+	 */
+	public Java2DSurface(final Graphics2D graphics) {
+		this.graphics = graphics;
+		graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+	}
+
+	@Override
+	public void fillRect(final float left, final float top, final float right, final float bottom, final int color) {
+		setColor(color);
+		rect.setRect(left, top, right - left, bottom - top);
+		graphics.fill(rect);
+	}
+
+	@Override
+	public void drawLine(final float startX, final float startY, final float endX, final float endY,
+			final float width, final int color) {
+		setColor(color);
+		if (width != lastWidth) {
+			graphics.setStroke(new BasicStroke(width));
+			lastWidth = width;
+		}
+		line.setLine(startX, startY, endX, endY);
+		graphics.draw(line);
+	}
+
+	@Override
+	public void drawText(final String text, final float x, final float y, final float size, final int color) {
+		setColor(color);
+		setFont(size);
+		graphics.drawString(text, x, y);
+	}
+
+	@Override
+	public float measureText(final String text, final float size) {
+		setFont(size);
+		return (float) font.getStringBounds(text, graphics.getFontRenderContext()).getWidth();
+	}
+
+	private void setColor(final int argb) {
+		if (color == null || argb != lastColor) {
+			color = new Color(argb, true);
+			lastColor = argb;
+			graphics.setColor(color);
+		}
+	}
+
+	private void setFont(final float size) {
+		if (size != lastSize) {
+			font = BASE_FONT.deriveFont(size);
+			lastSize = size;
+			graphics.setFont(font);
+		}
+	}
+}
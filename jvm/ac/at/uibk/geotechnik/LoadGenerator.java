@@ -0,0 +1,326 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Load generator for the {@link CalculationServer}. Every connection runs in
+ * its own thread and sends single case requests with random B and H as fast
+ * as the answers arrive (closed loop), optionally with several requests in
+ * flight per connection. At the end the throughput and the latency
+ * percentiles seen by the clients are printed together with the statistics
+ * of the server. Desktop JVM only.
+ *
+ * Without an address a server is started in the same process on a free
+ * port. Before the load test a request pipelined behind a large batch is
+ * checked to be answered.
+ *
+ * @author phoenix
+ *
+ */
+public final class LoadGenerator {
+
+	/** Number of different requests prepared per connection */
+	private static final int REQUESTS = 1024;
+
+	/** One client connection */
+	private static final class Client extends Thread {
+		private final String host;
+		private final int port;
+		private final int pipeline;
+		private final long endNanos;
+		private final CountDownLatch done;
+		/** Latencies of this client in microseconds */
+		final QuantileSketch latency = new QuantileSketch(0.01);
+		/** Number of answered requests */
+		long answered = 0;
+		/** Error that stopped the client or null */
+		IOException error = null;
+
+		Client(final int index, final String host, final int port, final int pipeline, final long endNanos,
+				final CountDownLatch done) {
+			super("LoadGenerator " + index);
+			setDaemon(true);
+			this.host = host;
+			this.port = port;
+			this.pipeline = pipeline;
+			this.endNanos = endNanos;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			final SplitMix64 random = SplitMix64.forStream(42, getId());
+			final byte[][] requests = new byte[REQUESTS][];
+			for (int i = 0; i < REQUESTS; i++) {
+				final double b = 1 + 49 * random.nextDouble();
+				final double h = 1 + 19 * random.nextDouble();
+				requests[i] = ascii(String.format(Locale.ROOT,
+						"GET /tkmod?b=%.3f&h=%.3f HTTP/1.1\r\nHost: %s\r\n\r\n", b, h, host));
+			}
+			final long[] sent = new long[pipeline];
+			Socket socket = null;
+			try {
+				socket = new Socket(host, port);
+				socket.setTcpNoDelay(true);
+				final OutputStream out = socket.getOutputStream();
+				final ResponseReader in = new ResponseReader(socket.getInputStream());
+				int next = 0;
+				for (int i = 0; i < pipeline; i++) {
+					sent[i] = System.nanoTime();
+					out.write(requests[next++ % REQUESTS]);
+				}
+				out.flush();
+				int oldest = 0;
+				while (true) {
+					in.readResponse();
+					final long now = System.nanoTime();
+					latency.add((now - sent[oldest]) / 1000.0);
+					answered++;
+					if (now >= endNanos)
+						break;
+					sent[oldest] = now;
+					out.write(requests[next++ % REQUESTS]);
+					out.flush();
+					oldest = (oldest + 1) % pipeline;
+				}
+			} catch (IOException e) {
+				error = e;
+			} finally {
+				if (socket != null) {
+					try {
+						socket.close();
+					} catch (IOException e) {
+					}
+				}
+				done.countDown();
+			}
+		}
+	}
+
+	/** Reads HTTP responses with a Content-Length from a stream */
+	private static final class ResponseReader {
+		private final InputStream in;
+		private final byte[] buffer = new byte[16384];
+		private int position = 0;
+		private int limit = 0;
+
+		ResponseReader(final InputStream in) {
+			this.in = in;
+		}
+
+		/** Read one response and return its body */
+		String readResponse() throws IOException {
+			int contentLength = -1;
+			String line = readLine();
+			if (!line.startsWith("HTTP/1.1 "))
+				throw new IOException("Unexpected response " + line);
+			final int status = Integer.parseInt(line.substring(9, 12));
+			while ((line = readLine()).length() > 0) {
+				if (line.regionMatches(true, 0, "Content-Length:", 0, 15))
+					contentLength = Integer.parseInt(line.substring(15).trim());
+			}
+			if (contentLength < 0)
+				throw new IOException("Response without Content-Length");
+			final char[] body = new char[contentLength];
+			for (int i = 0; i < contentLength; i++)
+				body[i] = (char) read();
+			if (status != 200)
+				throw new IOException("Status " + status + ": " + new String(body));
+			return new String(body);
+		}
+
+		private String readLine() throws IOException {
+			final StringBuilder line = new StringBuilder(64);
+			int c;
+			while ((c = read()) != '\n') {
+				if (c != '\r')
+					line.append((char) c);
+			}
+			return line.toString();
+		}
+
+		private int read() throws IOException {
+			if (position == limit) {
+				limit = in.read(buffer);
+				position = 0;
+				if (limit <= 0)
+					throw new IOException("Connection closed");
+			}
+			return buffer[position++] & 0xFF;
+		}
+	}
+
+	private LoadGenerator() {
+	}
+
+	/**
+	 * Send one request and read the answer
+	 *
+	 * @param host
+	 *            of the server
+	 * @param port
+	 *            of the server
+	 * @param target
+	 *            path and query
+	 * @return the body of the answer
+	 * @throws IOException
+	 *             if the request fails
+	 */
+	static String get(final String host, final int port, final String target) throws IOException {
+		final Socket socket = new Socket(host, port);
+		try {
+			socket.getOutputStream().write(
+					ascii("GET " + target + " HTTP/1.1\r\nHost: " + host + "\r\nConnection: close\r\n\r\n"));
+			return new ResponseReader(socket.getInputStream()).readResponse();
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Check that a single case pipelined behind a batch that is computed by a
+	 * worker is answered without further traffic on the server
+	 *
+	 * @param host
+	 *            of the server
+	 * @param port
+	 *            of the server
+	 * @throws IOException
+	 *             if the check fails
+	 */
+	static void checkPipelinedBatch(final String host, final int port) throws IOException {
+		final StringBuilder body = new StringBuilder("[");
+		for (int i = 0; i < 2000; i++)
+			body.append(i > 0 ? ",[" : "[").append(5 + i % 10).append(",1]");
+		body.append(']');
+		final Socket socket = new Socket(host, port);
+		try {
+			socket.setSoTimeout(2000);
+			socket.getOutputStream().write(
+					ascii("POST /tkmod HTTP/1.1\r\nHost: " + host + "\r\nContent-Length: " + body.length() + "\r\n\r\n"
+							+ body + "GET /tkmod?b=6&h=1 HTTP/1.1\r\nHost: " + host
+							+ "\r\nConnection: close\r\n\r\n"));
+			final ResponseReader in = new ResponseReader(socket.getInputStream());
+			in.readResponse();
+			if (!in.readResponse().contains("\"b\":6.0"))
+				throw new IOException("Wrong answer to a request pipelined behind a batch");
+		} catch (SocketTimeoutException e) {
+			throw new IOException("No answer to a request pipelined behind a batch");
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static byte[] ascii(final String text) {
+		final byte[] bytes = new byte[text.length()];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) text.charAt(i);
+		return bytes;
+	}
+
+	/**
+	 * Run the load test
+	 *
+	 * @param args
+	 *            [-c connections] [-d seconds] [-w warmup seconds] [-p
+	 *            pipeline depth] [host:port]
+	 */
+	public static void main(final String[] args) throws Exception {
+		int connections = 16;
+		double seconds = 10;
+		double warmup = 2;
+		int pipeline = 1;
+		String address = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-c") && i + 1 < args.length)
+					connections = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-d") && i + 1 < args.length)
+					seconds = Double.parseDouble(args[++i]);
+				else if (args[i].equals("-w") && i + 1 < args.length)
+					warmup = Double.parseDouble(args[++i]);
+				else if (args[i].equals("-p") && i + 1 < args.length)
+					pipeline = Integer.parseInt(args[++i]);
+				else if (address == null && !args[i].startsWith("-"))
+					address = args[i];
+				else
+					throw new IllegalArgumentException(args[i]);
+			}
+			if (connections < 1 || pipeline < 1 || !(seconds > 0) || !(warmup >= 0))
+				throw new IllegalArgumentException();
+		} catch (IllegalArgumentException e) {
+			System.err.println("Usage: LoadGenerator [-c connections] [-d seconds] [-w warmup seconds] "
+					+ "[-p pipeline depth] [host:port]");
+			System.exit(1);
+			return;
+		}
+
+		String host = "localhost";
+		final int port;
+		CalculationServer server = null;
+		if (address == null) {
+			server = new CalculationServer(0, 1);
+			port = server.getPort();
+			final Thread thread = new Thread(server, "CalculationServer");
+			thread.setDaemon(true);
+			thread.start();
+			System.out.println("Started server on port " + port);
+		} else {
+			final int colon = address.lastIndexOf(':');
+			if (colon > 0)
+				host = address.substring(0, colon);
+			port = Integer.parseInt(address.substring(colon + 1));
+		}
+
+		try {
+			checkPipelinedBatch(host, port);
+		} catch (IOException e) {
+			System.err.println("Check failed: " + e.getMessage());
+			System.exit(2);
+		}
+		if (warmup > 0) {
+			run(host, port, connections, pipeline, warmup);
+			System.out.println("Warm-up done");
+		}
+		get(host, port, "/stats?reset=1");
+		final Client[] clients = run(host, port, connections, pipeline, seconds);
+
+		final QuantileSketch latency = new QuantileSketch(0.01);
+		long answered = 0;
+		for (final Client client : clients) {
+			if (client.error != null)
+				System.err.println(client.getName() + ": " + client.error.getMessage());
+			latency.merge(client.latency);
+			answered += client.answered;
+		}
+		System.out.println(String.format(Locale.ROOT,
+				"%d connections, pipeline %d: %d requests in %.1f s, %.0f requests/s", connections, pipeline,
+				answered, seconds, answered / seconds));
+		System.out.println(String.format(Locale.ROOT,
+				"Client latency in us: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f", latency.getQuantile(0.5),
+				latency.getQuantile(0.9), latency.getQuantile(0.99), latency.getQuantile(0.999)));
+		System.out.println("Server: " + get(host, port, "/stats"));
+		if (server != null)
+			server.close();
+	}
+
+	/** Run all clients for the given time and wait for them */
+	private static Client[] run(final String host, final int port, final int connections, final int pipeline,
+			final double seconds) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(connections);
+		final long endNanos = System.nanoTime() + (long) (seconds * 1e9);
+		final Client[] clients = new Client[connections];
+		for (int i = 0; i < connections; i++) {
+			clients[i] = new Client(i, host, port, pipeline, endNanos, done);
+			clients[i].start();
+		}
+		done.await();
+		return clients;
+	}
+}
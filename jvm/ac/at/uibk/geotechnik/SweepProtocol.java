@@ -0,0 +1,204 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary protocol between the coordinator of a {@link DistributedSweep} and
+ * its {@link SweepWorker}s, and the study they compute.
+ *
+ * All values are big endian as written by {@link DataOutputStream}. Each
+ * message starts with one type byte:
+ *
+ * <pre>
+ * HELLO    worker      int magic, int version
+ * STUDY    coordinator byte mode, double bMin, bStep, int widthCount,
+ *                      double hMin, hStep, int headCount,
+ *                      double c1, c2, iZul, int cells
+ * CHUNK    coordinator int chunk, int first case, int count
+ * RESULT   worker      int chunk, int count, count * values doubles
+ * SHUTDOWN coordinator
+ * </pre>
+ *
+ * Cases are numbered row major over the grid, case = row * widthCount +
+ * column, so a chunk is sent as a range of numbers and B and H are never
+ * transferred.
+ *
+ * @author phoenix
+ *
+ */
+final class SweepProtocol {
+
+	/** Magic number "EBTS" */
+	static final int MAGIC = 0x45425453;
+	/** Version of the protocol */
+	static final int VERSION = 1;
+
+	/* Message types */
+	static final byte HELLO = 1;
+	static final byte STUDY = 2;
+	static final byte CHUNK = 3;
+	static final byte RESULT = 4;
+	static final byte SHUTDOWN = 5;
+
+	/* Modes of a study */
+	/** T_K_mod by equation 25b; value T */
+	static final byte MODE_FORMULA = 0;
+	/**
+	 * Numerical seepage check at T_K_mod; values T, maximum exit gradient and
+	 * utilisation
+	 */
+	static final byte MODE_SEEPAGE = 1;
+
+	private SweepProtocol() {
+	}
+
+	/** Description of a study, immutable */
+	static final class Study {
+		final byte mode;
+		final double bMin;
+		final double bStep;
+		final int widthCount;
+		final double hMin;
+		final double hStep;
+		final int headCount;
+		final double c1;
+		final double c2;
+		final double iZul;
+		/** Cells per direction of the seepage model */
+		final int cells;
+
+		Study(final byte mode, final double bMin, final double bStep, final int widthCount, final double hMin,
+				final double hStep, final int headCount, final double c1, final double c2, final double iZul,
+				final int cells) {
+			if (mode != MODE_FORMULA && mode != MODE_SEEPAGE)
+				throw new IllegalArgumentException("Unknown mode " + mode);
+			if (widthCount <= 0 || headCount <= 0)
+				throw new IllegalArgumentException("Empty grid");
+			if ((long) widthCount * headCount > Integer.MAX_VALUE / getValueCount(mode))
+				throw new IllegalArgumentException("Grid too large");
+			if (mode == MODE_SEEPAGE && cells < 4)
+				throw new IllegalArgumentException("At least 4 cells are needed");
+			this.mode = mode;
+			this.bMin = bMin;
+			this.bStep = bStep;
+			this.widthCount = widthCount;
+			this.hMin = hMin;
+			this.hStep = hStep;
+			this.headCount = headCount;
+			this.c1 = c1;
+			this.c2 = c2;
+			this.iZul = iZul;
+			this.cells = cells;
+		}
+
+		/**
+		 * @return the number of cases
+		 */
+		int getCaseCount() {
+			return widthCount * headCount;
+		}
+
+		/**
+		 * @return the number of values per case
+		 */
+		int getValueCount() {
+			return getValueCount(mode);
+		}
+
+		private static int getValueCount(final byte mode) {
+			return mode == MODE_FORMULA ? 1 : 3;
+		}
+
+		/**
+		 * @param index
+		 *            number of the case
+		 * @return the width B of the case in meter
+		 */
+		double getB(final int index) {
+			return bMin + (index % widthCount) * bStep;
+		}
+
+		/**
+		 * @param index
+		 *            number of the case
+		 * @return the head difference H of the case in meter
+		 */
+		double getH(final int index) {
+			return hMin + (index / widthCount) * hStep;
+		}
+
+		/**
+		 * Compute a range of cases
+		 *
+		 * @param first
+		 *            number of the first case
+		 * @param count
+		 *            number of cases
+		 * @param values
+		 *            receives {@link #getValueCount()} values per case
+		 */
+		void compute(final int first, final int count, final double[] values) {
+			final int n = getValueCount();
+			for (int i = 0; i < count; i++) {
+				final double b = getB(first + i);
+				final double h = getH(first + i);
+				final double t = EmbedmentSolver.tkMod(b, h, c1, c2, iZul);
+				values[n * i] = t;
+				if (mode == MODE_SEEPAGE) {
+					final SeepageModel model = SeepageModel.create(EmbedmentSolver.clampedWidth(b, h), h, t, cells,
+							cells, 1);
+					try {
+						model.solve();
+						values[n * i + 1] = model.getMaxExitGradient();
+						values[n * i + 2] = model.getMaxExitGradient() / iZul;
+					} finally {
+						model.shutdown();
+					}
+				}
+			}
+		}
+
+		void write(final DataOutputStream out) throws IOException {
+			out.writeByte(STUDY);
+			out.writeByte(mode);
+			out.writeDouble(bMin);
+			out.writeDouble(bStep);
+			out.writeInt(widthCount);
+			out.writeDouble(hMin);
+			out.writeDouble(hStep);
+			out.writeInt(headCount);
+			out.writeDouble(c1);
+			out.writeDouble(c2);
+			out.writeDouble(iZul);
+			out.writeInt(cells);
+		}
+
+		static Study read(final DataInputStream in) throws IOException {
+			expect(in, STUDY);
+			try {
+				return new Study(in.readByte(), in.readDouble(), in.readDouble(), in.readInt(), in.readDouble(),
+						in.readDouble(), in.readInt(), in.readDouble(), in.readDouble(), in.readDouble(), in.readInt());
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid study: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Read a message type and check it
+	 *
+	 * @param in
+	 *            stream of the connection
+	 * @param type
+	 *            expected type
+	 * @throws IOException
+	 *             if reading fails or another type has been received
+	 */
+	static void expect(final DataInputStream in, final byte type) throws IOException {
+		final byte received = in.readByte();
+		if (received != type)
+			throw new IOException("Expected message " + type + " but received " + received);
+	}
+}
@@ -0,0 +1,114 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Worker process of a {@link DistributedSweep}. Connects to the coordinator,
+ * receives the study and computes chunks until it is told to shut down or
+ * the connection is lost. Desktop JVM only.
+ *
+ * @author phoenix
+ *
+ */
+public final class SweepWorker {
+
+	private SweepWorker() {
+	}
+
+	/**
+	 * Serve one coordinator
+	 *
+	 * @param host
+	 *            of the coordinator
+	 * @param port
+	 *            of the coordinator
+	 * @param failAfter
+	 *            number of chunks after which the process exits without
+	 *            answering, to test the failure handling, or 0
+	 * @return the number of computed chunks
+	 * @throws IOException
+	 *             if the connection fails
+	 */
+	static int serve(final String host, final int port, final int failAfter) throws IOException {
+		final Socket socket = new Socket(host, port);
+		try {
+			socket.setTcpNoDelay(true);
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+					1 << 16));
+			out.writeByte(SweepProtocol.HELLO);
+			out.writeInt(SweepProtocol.MAGIC);
+			out.writeInt(SweepProtocol.VERSION);
+			out.flush();
+
+			final SweepProtocol.Study study = SweepProtocol.Study.read(in);
+			final int valueCount = study.getValueCount();
+			double[] values = new double[0];
+			int chunks = 0;
+			while (true) {
+				final byte type = in.readByte();
+				if (type == SweepProtocol.SHUTDOWN)
+					return chunks;
+				if (type != SweepProtocol.CHUNK)
+					throw new IOException("Unexpected message " + type);
+				final int chunk = in.readInt();
+				final int first = in.readInt();
+				final int count = in.readInt();
+				if (first < 0 || count < 0 || (long) first + count > study.getCaseCount())
+					throw new IOException("Chunk outside of the study");
+				if (failAfter > 0 && chunks == failAfter) {
+					System.err.println("Worker failing on purpose at chunk " + chunk);
+					System.exit(3);
+				}
+				if (values.length < count * valueCount)
+					values = new double[count * valueCount];
+				study.compute(first, count, values);
+				out.writeByte(SweepProtocol.RESULT);
+				out.writeInt(chunk);
+				out.writeInt(count);
+				for (int i = 0; i < count * valueCount; i++)
+					out.writeDouble(values[i]);
+				out.flush();
+				chunks++;
+			}
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Command line entry point
+	 *
+	 * @param args
+	 *            [-f chunks] host:port. With -f the worker exits after the
+	 *            given number of chunks
+	 */
+	public static void main(final String[] args) {
+		int failAfter = 0;
+		String address = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-f") && i + 1 < args.length)
+				failAfter = Integer.parseInt(args[++i]);
+			else
+				address = args[i];
+		}
+		if (address == null || address.lastIndexOf(':') < 0) {
+			System.err.println("Usage: SweepWorker [-f chunks] host:port");
+			System.exit(1);
+		}
+		final int colon = address.lastIndexOf(':');
+		try {
+			final int chunks = serve(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)),
+					failAfter);
+			System.err.println("Worker done after " + chunks + " chunks");
+		} catch (IOException e) {
+			System.err.println("Worker stopped: " + e.getMessage());
+			System.exit(2);
+		}
+	}
+}
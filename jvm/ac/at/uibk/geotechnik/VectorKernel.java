@@ -0,0 +1,99 @@
+package ac.at.uibk.geotechnik;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD loops of {@link EmbedmentKernel} with the incubating Vector API.
+ * Loaded by the kernel on its own if the runtime provides the module, so
+ * callers never use this class directly. Desktop JVM only.
+ *
+ * Unlike the rest of the jvm tree this class needs JDK 16 or later: compile
+ * and run with --add-modules jdk.incubator.vector. Without it the class is
+ * missing or cannot be linked and the kernel keeps its scalar loops.
+ *
+ * The clamp of B/H is a lane mask and both selects are blends. The
+ * operations are the same and in the same order as in the scalar loops, and
+ * no fused multiply-add is used, so every lane gives the bit-identical result.
+ *
+ * @author phoenix
+ *
+ */
+final class VectorKernel implements EmbedmentKernel.Accelerator {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final double MAX = EmbedmentSolver.MAX_B_OVER_H;
+
+	@Override
+	public int solve(final double[] b, final double[] h, final double[] t, final int offset, final int length,
+			final double c1, final double c2, final double i_zul) {
+		final int done = SPECIES.loopBound(length);
+		final int end = offset + done;
+		for (int i = offset; i < end; i += SPECIES.length()) {
+			final DoubleVector hi = DoubleVector.fromArray(SPECIES, h, i);
+			final DoubleVector bi = DoubleVector.fromArray(SPECIES, b, i);
+			final DoubleVector ratio = bi.div(hi);
+			final VectorMask<Double> clamp = ratio.compare(VectorOperators.GT, MAX);
+			final DoubleVector x = ratio.blend(MAX, clamp);
+			final DoubleVector k = x.mul(c2).add(c1).mul(8);
+			hi.div(i_zul).sub(bi.blend(hi.mul(7), clamp).div(k)).div(x.div(k).add(1)).intoArray(t, i);
+		}
+		return done;
+	}
+
+	@Override
+	public int solve(final double[] b, final double[] h, final double[] c1, final double[] c2, final double[] i_zul,
+			final double[] t, final int offset, final int length) {
+		final int done = SPECIES.loopBound(length);
+		final int end = offset + done;
+		for (int i = offset; i < end; i += SPECIES.length()) {
+			final DoubleVector hi = DoubleVector.fromArray(SPECIES, h, i);
+			final DoubleVector bi = DoubleVector.fromArray(SPECIES, b, i);
+			final DoubleVector ratio = bi.div(hi);
+			final VectorMask<Double> clamp = ratio.compare(VectorOperators.GT, MAX);
+			final DoubleVector x = ratio.blend(MAX, clamp);
+			final DoubleVector k = x.mul(DoubleVector.fromArray(SPECIES, c2, i))
+					.add(DoubleVector.fromArray(SPECIES, c1, i)).mul(8);
+			hi.div(DoubleVector.fromArray(SPECIES, i_zul, i)).sub(bi.blend(hi.mul(7), clamp).div(k))
+					.div(x.div(k).add(1)).intoArray(t, i);
+		}
+		return done;
+	}
+
+	@Override
+	public int solveRow(final double[] b, final double h, final double[] t, final int tOffset, final int length,
+			final double c1, final double c2, final double i_zul) {
+		final DoubleVector hOverI = DoubleVector.broadcast(SPECIES, h / i_zul);
+		final double bMax = 7 * h;
+		final int done = SPECIES.loopBound(length);
+		for (int i = 0; i < done; i += SPECIES.length()) {
+			final DoubleVector bi = DoubleVector.fromArray(SPECIES, b, i);
+			final DoubleVector ratio = bi.div(h);
+			final VectorMask<Double> clamp = ratio.compare(VectorOperators.GT, MAX);
+			final DoubleVector x = ratio.blend(MAX, clamp);
+			final DoubleVector k = x.mul(c2).add(c1).mul(8);
+			hOverI.sub(bi.blend(bMax, clamp).div(k)).div(x.div(k).add(1)).intoArray(t, tOffset + i);
+		}
+		return done;
+	}
+
+	@Override
+	public int solve(final double[] b, final double[] h, final double[] bClamped, final double[] t, final int offset,
+			final int length, final double c1, final double c2, final double i_zul) {
+		final int done = SPECIES.loopBound(length);
+		final int end = offset + done;
+		for (int i = offset; i < end; i += SPECIES.length()) {
+			final DoubleVector hi = DoubleVector.fromArray(SPECIES, h, i);
+			final DoubleVector ratio = DoubleVector.fromArray(SPECIES, b, i).div(hi);
+			final VectorMask<Double> clamp = ratio.compare(VectorOperators.GT, MAX);
+			final DoubleVector x = ratio.blend(MAX, clamp);
+			final DoubleVector bi = DoubleVector.fromArray(SPECIES, b, i).blend(hi.mul(7), clamp);
+			final DoubleVector k = x.mul(c2).add(c1).mul(8);
+			bi.intoArray(bClamped, i);
+			hi.div(i_zul).sub(bi.div(k)).div(x.div(k).add(1)).intoArray(t, i);
+		}
+		return done;
+	}
+}
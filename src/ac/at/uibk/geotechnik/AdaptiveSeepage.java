@@ -0,0 +1,396 @@
+package ac.at.uibk.geotechnik;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Adaptive refinement of the {@link SeepageModel}.
+ *
+ * The potential is smooth almost everywhere but changes rapidly around the
+ * pile toe and along the excavation floor next to the wall. Instead of a
+ * uniformly fine grid, the model is solved on a coarse grid first; columns
+ * and rows with a large refinement indicator (see
+ * {@link SeepageModel#computeIndicators(double[], double[])}) are then split
+ * in half and the model is solved again. Neighbouring columns and rows differ
+ * at most by a factor of two in size, which keeps the finite volume
+ * discretisation accurate. Every level starts from the solution of the
+ * previous one. The levels are solved to the full tolerance of the model, so
+ * the warm start saves less than it seems: the iteration count depends on the
+ * grading of the grid rather than on the initial error. Whether a level
+ * converged and its final residual are part of its {@link Level} statistics.
+ *
+ * The refinement is done for whole columns and rows, so the grid stays a
+ * tensor grid and the multigrid solver can be used unchanged.
+ *
+ * @author phoenix
+ *
+ */
+public final class AdaptiveSeepage {
+
+	/** Statistics of one refinement level */
+	public static final class Level {
+		/** Number of columns */
+		public final int nx;
+		/** Number of rows */
+		public final int ny;
+		/** Solver iterations */
+		public final int iterations;
+		/** Whether the solver converged */
+		public final boolean converged;
+		/** Relative residual reached by the solver */
+		public final double residual;
+		/** Duration of the solve in seconds */
+		public final double solveSeconds;
+		/** Memory of the model and the solver in bytes */
+		public final long memoryBytes;
+		/** Maximum exit gradient */
+		public final double maxExitGradient;
+		/** Mean exit gradient */
+		public final double meanExitGradient;
+		/** Smallest cell width in meter */
+		public final double minDx;
+		/** Smallest cell height in meter */
+		public final double minDy;
+
+		private Level(final SeepageModel model) {
+			final SeepageGrid grid = model.getGrid();
+			nx = grid.getNx();
+			ny = grid.getNy();
+			iterations = model.getIterations();
+			converged = model.isConverged();
+			residual = model.getResidual();
+			solveSeconds = model.getSolveSeconds();
+			memoryBytes = model.getMemoryBytes();
+			maxExitGradient = model.getMaxExitGradient();
+			meanExitGradient = model.getMeanExitGradient();
+			double dx = Double.MAX_VALUE;
+			for (int i = 0; i < nx; i++)
+				dx = Math.min(dx, grid.getDx(i));
+			double dy = Double.MAX_VALUE;
+			for (int j = 0; j < ny; j++)
+				dy = Math.min(dy, grid.getDy(j));
+			minDx = dx;
+			minDy = dy;
+		}
+
+		/**
+		 * @return the number of cells (unknowns)
+		 */
+		public long getCellCount() {
+			return (long) nx * ny;
+		}
+	}
+
+	/** Default number of columns and rows of the initial grid */
+	public static final int INITIAL_CELLS = 32;
+	/** Default maximum number of refinement levels */
+	public static final int MAX_LEVELS = 12;
+	/** Default fraction of the maximum indicator above which lines are split */
+	public static final double REFINE_FRACTION = 0.25;
+	/** Default relative change of the exit gradient to stop the refinement */
+	public static final double TOLERANCE = 1e-3;
+
+	/** Width of the excavation in meter */
+	private final double b;
+	/** Head difference in meter */
+	private final double h;
+	/** Embedment depth in meter */
+	private final double t;
+	/** Parallel loop shared by all levels */
+	private final ParallelLoop loop;
+
+	/** Number of columns and rows of the initial grid */
+	private int initialCells = INITIAL_CELLS;
+	/** Maximum number of levels */
+	private int maxLevels = MAX_LEVELS;
+	/** Fraction of the maximum indicator above which lines are split */
+	private double refineFraction = REFINE_FRACTION;
+	/** Relative change of the exit gradient to stop the refinement */
+	private double tolerance = TOLERANCE;
+	/** Maximum number of cells */
+	private long maxCells = 4000000;
+
+	/** Statistics of the levels of the last run */
+	private final List<Level> levels = new ArrayList<Level>();
+	/** Model of the finest level */
+	private SeepageModel model = null;
+
+	/**
+	 * Creates a new adaptive model on the default domain of
+	 * {@link SeepageModel}
+	 *
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @param t
+	 *            embedment depth below the excavation floor in meter
+	 * @param threads
+	 *            number of threads for the solver
+	 */
+	public AdaptiveSeepage(final double b, final double h, final double t, final int threads) {
+		if (!(b > 0 && h > 0 && t > 0))
+			throw new IllegalArgumentException("B, H and T must be positive");
+		this.b = b;
+		this.h = h;
+		this.t = t;
+		loop = new ParallelLoop(threads);
+	}
+
+	/**
+	 * @param cells
+	 *            number of columns and rows of the initial grid
+	 */
+	public void setInitialCells(final int cells) {
+		if (cells < 4)
+			throw new IllegalArgumentException("At least 4 initial cells required");
+		initialCells = cells;
+	}
+
+	/**
+	 * @param levels
+	 *            maximum number of levels including the initial grid
+	 */
+	public void setMaxLevels(final int levels) {
+		if (levels < 1)
+			throw new IllegalArgumentException("At least one level required");
+		maxLevels = levels;
+	}
+
+	/**
+	 * @param fraction
+	 *            columns and rows with an indicator above this fraction of the
+	 *            maximum indicator are split, 0 to 1
+	 */
+	public void setRefineFraction(final double fraction) {
+		if (!(fraction > 0 && fraction <= 1))
+			throw new IllegalArgumentException("Fraction must be in (0, 1]");
+		refineFraction = fraction;
+	}
+
+	/**
+	 * @param tolerance
+	 *            relative change of the maximum exit gradient between two
+	 *            levels at which the refinement stops
+	 */
+	public void setTolerance(final double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param cells
+	 *            maximum number of cells of the finest level
+	 */
+	public void setMaxCells(final long cells) {
+		maxCells = cells;
+	}
+
+	/**
+	 * Solve the model on successively refined grids
+	 *
+	 * @return the statistics of all levels, coarsest first
+	 */
+	public List<Level> run() {
+		levels.clear();
+		final double length = h + t;
+		final double[] xBreaks = { 0, b / 2, b / 2 + SeepageModel.LATERAL_EXTENT * length };
+		final double[] yBreaks = { 0, h, h + t, h + t + SeepageModel.BASE_DEPTH * length };
+		SeepageGrid grid = SeepageGrid.piecewiseUniform(xBreaks, initialCells, yBreaks, initialCells);
+		double[] previous = null;
+		int[] parentX = null;
+		int[] parentY = null;
+		int previousNx = 0;
+
+		for (int level = 0; level < maxLevels; level++) {
+			model = new SeepageModel(grid, b, h, t, loop);
+			if (previous != null)
+				model.setInitialPotential(prolongate(previous, previousNx, parentX, parentY));
+			model.solve();
+			final Level stats = new Level(model);
+			levels.add(stats);
+			if (level > 0) {
+				final double last = levels.get(level - 1).maxExitGradient;
+				if (Math.abs(stats.maxExitGradient - last) <= tolerance * stats.maxExitGradient)
+					break;
+			}
+
+			final int nx = grid.getNx();
+			final int ny = grid.getNy();
+			final double[] columns = new double[nx];
+			final double[] rows = new double[ny];
+			model.computeIndicators(columns, rows);
+			final boolean[] splitX = mark(columns, refineFraction);
+			final boolean[] splitY = mark(rows, refineFraction);
+			grade(grid, splitX, true);
+			grade(grid, splitY, false);
+			final double[] xEdges = split(grid, splitX, true);
+			final double[] yEdges = split(grid, splitY, false);
+			if ((long) (xEdges.length - 1) * (yEdges.length - 1) > maxCells)
+				break;
+
+			parentX = parents(splitX, xEdges.length - 1);
+			parentY = parents(splitY, yEdges.length - 1);
+			previous = model.getPotential();
+			previousNx = nx;
+			grid = new SeepageGrid(xEdges, yEdges);
+		}
+		return Collections.unmodifiableList(levels);
+	}
+
+	/** Mark the lines with an indicator above the fraction of the maximum */
+	private static boolean[] mark(final double[] indicators, final double fraction) {
+		double max = 0;
+		for (double indicator : indicators)
+			max = Math.max(max, indicator);
+		final boolean[] split = new boolean[indicators.length];
+		for (int i = 0; i < indicators.length; i++)
+			split[i] = max > 0 && indicators[i] >= fraction * max;
+		return split;
+	}
+
+	/** Split additional lines so that neighbours differ at most by two */
+	private static void grade(final SeepageGrid grid, final boolean[] split, final boolean x) {
+		final int n = split.length;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < n; i++) {
+				if (split[i])
+					continue;
+				final double size = x ? grid.getDx(i) : grid.getDy(i);
+				for (int d = -1; d <= 1; d += 2) {
+					final int k = i + d;
+					if (k < 0 || k >= n)
+						continue;
+					final double neighbour = (x ? grid.getDx(k) : grid.getDy(k)) * (split[k] ? 0.5 : 1);
+					if (size > 2.0001 * neighbour) {
+						split[i] = true;
+						changed = true;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/** Edges of the grid with the marked lines split in half */
+	private static double[] split(final SeepageGrid grid, final boolean[] split, final boolean x) {
+		int count = split.length;
+		for (boolean s : split) {
+			if (s)
+				count++;
+		}
+		final double[] edges = new double[count + 1];
+		int e = 0;
+		for (int i = 0; i < split.length; i++) {
+			final double lo = x ? grid.getXEdge(i) : grid.getYEdge(i);
+			final double hi = x ? grid.getXEdge(i + 1) : grid.getYEdge(i + 1);
+			edges[e++] = lo;
+			if (split[i])
+				edges[e++] = 0.5 * (lo + hi);
+		}
+		edges[count] = x ? grid.getXEdge(split.length) : grid.getYEdge(split.length);
+		return edges;
+	}
+
+	/** Index of the parent line for every line of the refined grid */
+	private static int[] parents(final boolean[] split, final int count) {
+		final int[] parent = new int[count];
+		int e = 0;
+		for (int i = 0; i < split.length; i++) {
+			parent[e++] = i;
+			if (split[i])
+				parent[e++] = i;
+		}
+		return parent;
+	}
+
+	/** Transfer the potential to the refined grid by injection */
+	private static double[] prolongate(final double[] coarse, final int coarseNx, final int[] parentX,
+			final int[] parentY) {
+		final int nx = parentX.length;
+		final int ny = parentY.length;
+		final double[] fine = new double[nx * ny];
+		for (int j = 0; j < ny; j++) {
+			final int row = parentY[j] * coarseNx;
+			for (int i = 0; i < nx; i++)
+				fine[j * nx + i] = coarse[row + parentX[i]];
+		}
+		return fine;
+	}
+
+	/**
+	 * @return the statistics of the levels of the last run
+	 */
+	public List<Level> getLevels() {
+		return Collections.unmodifiableList(levels);
+	}
+
+	/**
+	 * @return the model of the finest level of the last run or null
+	 */
+	public SeepageModel getModel() {
+		return model;
+	}
+
+	/** Stop the worker threads of the solver */
+	public void shutdown() {
+		loop.shutdown();
+	}
+
+	/**
+	 * Command line entry point. Prints the statistics of every level and
+	 * optionally compares the result with a uniform grid
+	 *
+	 * @param args
+	 *            B H [T [uniform n [threads]]]. T defaults to T_K_mod, a
+	 *            uniform grid of n x n cells is solved for comparison if n &gt;
+	 *            0
+	 */
+	public static void main(final String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: AdaptiveSeepage B H [T [uniform n [threads]]]");
+			System.exit(1);
+		}
+		final double b = Double.parseDouble(args[0]);
+		final double h = Double.parseDouble(args[1]);
+		final double t = args.length > 2 ? Double.parseDouble(args[2]) : EmbedmentSolver.tkMod(b, h);
+		final int uniform = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+		final int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+		System.out.println(String.format(Locale.US, "B = %.2f m, H = %.2f m, T = %.2f m (T_K_mod = %.2f m)", b, h, t,
+				EmbedmentSolver.tkMod(b, h)));
+		final AdaptiveSeepage adaptive = new AdaptiveSeepage(b, h, t, threads);
+		try {
+			final long start = System.nanoTime();
+			final List<Level> result = adaptive.run();
+			final double total = (System.nanoTime() - start) / 1e9;
+			System.out.println("level     grid      cells  iter  residual  solve [s]  memory [MB]  min dx [m]  min dy [m]   i_max   i_mean");
+			for (int l = 0; l < result.size(); l++) {
+				final Level level = result.get(l);
+				System.out.println(String.format(Locale.US, "%5d %4d x %-4d %9d %5d %9.1e %10.3f %12.2f %11.2e %11.2e %7.4f %8.4f%s", l,
+						level.nx, level.ny, level.getCellCount(), level.iterations, level.residual, level.solveSeconds,
+						level.memoryBytes / 1048576.0, level.minDx, level.minDy, level.maxExitGradient,
+						level.meanExitGradient, level.converged ? "" : " NOT CONVERGED"));
+			}
+			System.out.println(String.format(Locale.US, "Total %.3f s", total));
+		} finally {
+			adaptive.shutdown();
+		}
+
+		if (uniform > 0) {
+			final SeepageModel model = SeepageModel.create(b, h, t, uniform, uniform, threads);
+			try {
+				model.solve();
+				System.out.println(String.format(Locale.US,
+						"Uniform %d x %d: %d cells, %d iterations, %.3f s, %.2f MB, i_max %.4f, i_mean %.4f", uniform, uniform,
+						model.getGrid().getCellCount(), model.getIterations(), model.getSolveSeconds(),
+						model.getMemoryBytes() / 1048576.0, model.getMaxExitGradient(), model.getMeanExitGradient()));
+			} finally {
+				model.shutdown();
+			}
+		}
+	}
+}
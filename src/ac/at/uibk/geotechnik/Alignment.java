@@ -0,0 +1,453 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Alignment of a cofferdam: stations along the excavation with their
+ * chainage, width B and head difference H. Between two stations B and H are
+ * interpolated linearly, so T_K_mod can be evaluated at any chainage and at
+ * any resolution, see {@link AlignmentEvaluation}.
+ *
+ * Chainages are given in meter, either as plain numbers or in the usual
+ * kilometer notation "km+m", e.g. 1+250.5 for 1250.5 m. The stations are kept
+ * in primitive arrays, so alignments with millions of stations are cheap.
+ *
+ * @author phoenix
+ *
+ */
+public final class Alignment {
+
+	/** Maximum number of reported malformed lines */
+	private static final int MAX_REPORTED_ERRORS = 10;
+
+	/** Chainages of the stations in meter, strictly increasing */
+	private final double[] chainage;
+	/** Widths of the excavation in meter */
+	private final double[] width;
+	/** Head differences in meter */
+	private final double[] head;
+
+	/**
+	 * Creates a new alignment. The arrays are not copied
+	 *
+	 * @param chainage
+	 *            chainages of the stations in meter, strictly increasing
+	 * @param width
+	 *            widths of the excavation at the stations in meter
+	 * @param head
+	 *            head differences at the stations in meter
+	 */
+	public Alignment(final double[] chainage, final double[] width, final double[] head) {
+		if (chainage.length == 0)
+			throw new IllegalArgumentException("Alignment without stations");
+		if (width.length != chainage.length || head.length != chainage.length)
+			throw new IllegalArgumentException("Array lengths differ");
+		for (int i = 0; i < chainage.length; i++) {
+			if (i > 0 && !(chainage[i] > chainage[i - 1]))
+				throw new IllegalArgumentException("Chainage not increasing at " + formatChainage(chainage[i], 3));
+			if (!(width[i] > 0) || !(head[i] > 0))
+				throw new IllegalArgumentException("B and H must be positive at " + formatChainage(chainage[i], 3));
+		}
+		this.chainage = chainage;
+		this.width = width;
+		this.head = head;
+	}
+
+	/**
+	 * @return the number of stations
+	 */
+	public int getStationCount() {
+		return chainage.length;
+	}
+
+	/**
+	 * @param station
+	 *            index of the station
+	 * @return the chainage of the station in meter
+	 */
+	public double getChainage(final int station) {
+		return chainage[station];
+	}
+
+	/**
+	 * @return the chainage of the first station in meter
+	 */
+	public double getStart() {
+		return chainage[0];
+	}
+
+	/**
+	 * @return the chainage of the last station in meter
+	 */
+	public double getEnd() {
+		return chainage[chainage.length - 1];
+	}
+
+	/**
+	 * Find the station at or before the given chainage
+	 *
+	 * @param at
+	 *            chainage in meter between {@link #getStart()} and
+	 *            {@link #getEnd()}
+	 * @return index of the station
+	 */
+	int stationBefore(final double at) {
+		if (!(at >= getStart() && at <= getEnd()))
+			throw new IllegalArgumentException("Chainage " + formatChainage(at, 3) + " outside of the alignment");
+		final int i = Arrays.binarySearch(chainage, at);
+		return i >= 0 ? i : -i - 2;
+	}
+
+	/**
+	 * Find the first station at or after the given chainage
+	 *
+	 * @param at
+	 *            chainage in meter between {@link #getStart()} and
+	 *            {@link #getEnd()}
+	 * @return index of the station
+	 */
+	int stationAfter(final double at) {
+		final int i = stationBefore(at);
+		return chainage[i] < at ? i + 1 : i;
+	}
+
+	/**
+	 * Calculate T_K_mod at all stations
+	 *
+	 * @param profile
+	 *            coefficients of the calculation
+	 * @param t
+	 *            output array for T_K_mod in meter, one per station
+	 */
+	void solveStations(final CoefficientProfile profile, final double[] t) {
+		profile.solve(width, head, t, 0, chainage.length);
+	}
+
+	/**
+	 * Interpolate the width of the excavation
+	 *
+	 * @param at
+	 *            chainage in meter
+	 * @return the width B in meter
+	 */
+	public double widthAt(final double at) {
+		return interpolate(width, stationBefore(at), at);
+	}
+
+	/**
+	 * Interpolate the head difference
+	 *
+	 * @param at
+	 *            chainage in meter
+	 * @return the head difference H in meter
+	 */
+	public double headAt(final double at) {
+		return interpolate(head, stationBefore(at), at);
+	}
+
+	/**
+	 * Calculate T_K_mod with the interpolated B and H
+	 *
+	 * @param at
+	 *            chainage in meter
+	 * @param profile
+	 *            coefficients of the calculation
+	 * @return the required embedment depth T_K_mod in meter
+	 */
+	public double tkModAt(final double at, final CoefficientProfile profile) {
+		final int i = stationBefore(at);
+		return profile.tkMod(interpolate(width, i, at), interpolate(head, i, at));
+	}
+
+	/** Linear interpolation between station i and i + 1 */
+	private double interpolate(final double[] values, final int i, final double at) {
+		if (i == chainage.length - 1 || at == chainage[i])
+			return values[i];
+		final double f = (at - chainage[i]) / (chainage[i + 1] - chainage[i]);
+		return values[i] + f * (values[i + 1] - values[i]);
+	}
+
+	/**
+	 * Interpolate B and H at equidistant chainages. Walks along the stations
+	 * instead of searching for every point
+	 *
+	 * @param first
+	 *            chainage of the first point in meter
+	 * @param step
+	 *            distance of the points in meter
+	 * @param index
+	 *            number of the first point
+	 * @param count
+	 *            number of points
+	 * @param b
+	 *            output array for the widths in meter, from 0
+	 * @param h
+	 *            output array for the head differences in meter, from 0
+	 */
+	void sample(final double first, final double step, final long index, final int count, final double[] b,
+			final double[] h) {
+		int station = stationBefore(Math.min(first + index * step, getEnd()));
+		final int last = chainage.length - 1;
+		for (int i = 0; i < count; i++) {
+			final double at = Math.min(first + (index + i) * step, getEnd());
+			while (station < last && chainage[station + 1] <= at)
+				station++;
+			b[i] = interpolate(width, station, at);
+			h[i] = interpolate(head, station, at);
+		}
+	}
+
+	/**
+	 * Evaluate T_K_mod along the whole alignment
+	 *
+	 * @param step
+	 *            distance of the evaluated points in meter
+	 * @param profile
+	 *            coefficients of the calculation
+	 * @return the evaluation with its range index
+	 */
+	public AlignmentEvaluation evaluate(final double step, final CoefficientProfile profile) {
+		return new AlignmentEvaluation(this, step, profile);
+	}
+
+	/**
+	 * Parse a chainage
+	 *
+	 * @param text
+	 *            chainage in meter or as km+m, e.g. 0+120 or 1+250.5
+	 * @return the chainage in meter
+	 * @throws NumberFormatException
+	 *             if the text is not a chainage
+	 */
+	public static double parseChainage(final String text) {
+		final String trimmed = text.trim();
+		final int plus = trimmed.indexOf('+', 1);
+		if (plus < 0 || trimmed.charAt(plus - 1) == 'e' || trimmed.charAt(plus - 1) == 'E')
+			return Double.parseDouble(trimmed);
+		final String km = trimmed.substring(0, plus);
+		final String m = trimmed.substring(plus + 1);
+		if (km.length() == 0 || m.length() == 0 || m.charAt(0) == '-' || m.charAt(0) == '+')
+			throw new NumberFormatException("Illegal chainage " + text);
+		for (int i = km.charAt(0) == '-' ? 1 : 0; i < km.length(); i++) {
+			if (km.charAt(i) < '0' || km.charAt(i) > '9')
+				throw new NumberFormatException("Illegal chainage " + text);
+		}
+		final double meters = Double.parseDouble(m);
+		final double kilometers = Math.abs(Double.parseDouble(km));
+		return km.charAt(0) == '-' ? -(kilometers * 1000 + meters) : kilometers * 1000 + meters;
+	}
+
+	/**
+	 * Format a chainage as km+m
+	 *
+	 * @param meters
+	 *            chainage in meter
+	 * @param decimals
+	 *            number of decimals of the meters
+	 * @return the chainage, e.g. 1+250.500
+	 */
+	public static String formatChainage(final double meters, final int decimals) {
+		final String m = String.format(Locale.ROOT, "%0" + (decimals > 0 ? 4 + decimals : 3) + "." + decimals + "f",
+				Math.abs(meters) % 1000);
+		long km = (long) (Math.abs(meters) / 1000);
+		String rest = m;
+		// Rounding may carry into the kilometers
+		if (m.startsWith("1000")) {
+			km++;
+			rest = m.substring(1);
+		}
+		return (meters < 0 ? "-" : "") + km + "+" + rest;
+	}
+
+	/**
+	 * Read the stations from a CSV or TSV file with chainage, B and H per
+	 * line. An optional header line is skipped
+	 *
+	 * @param channel
+	 *            to read from
+	 * @return the alignment
+	 * @throws IOException
+	 *             if reading fails or the stations are not in order
+	 */
+	public static Alignment read(final ReadableByteChannel channel) throws IOException {
+		final CsvScanner in = new CsvScanner(channel, CsvScanner.DEFAULT_BUFFER_SIZE);
+		double[] chainage = new double[1024];
+		double[] width = new double[1024];
+		double[] head = new double[1024];
+		int count = 0;
+		int skipped = 0;
+		boolean header = true;
+		while (in.nextLine()) {
+			final double at, b, h;
+			try {
+				b = in.parseDouble(1);
+				h = in.parseDouble(2);
+				at = parseChainage(in, 0);
+			} catch (NumberFormatException e) {
+				if (!header && ++skipped <= MAX_REPORTED_ERRORS)
+					System.err.println(e.getMessage());
+				header = false;
+				continue;
+			}
+			header = false;
+			if (count > 0 && !(at > chainage[count - 1]))
+				throw new IOException("Chainage not increasing in " + in.getLocation());
+			if (!(b > 0) || !(h > 0))
+				throw new IOException("B and H must be positive in " + in.getLocation());
+			if (count == chainage.length) {
+				chainage = grow(chainage);
+				width = grow(width);
+				head = grow(head);
+			}
+			chainage[count] = at;
+			width[count] = b;
+			head[count] = h;
+			count++;
+		}
+		if (count == 0)
+			throw new IOException("No stations");
+		return new Alignment(trim(chainage, count), trim(width, count), trim(head, count));
+	}
+
+	/**
+	 * Parse the chainage of the current line in place. The kilometers of the
+	 * km+m notation are read here and the meters with the number parser of
+	 * the scanner, so nothing is allocated per line
+	 */
+	private static double parseChainage(final CsvScanner in, final int field) {
+		if (field >= in.getFieldCount())
+			return in.parseDouble(field);
+		final byte[] data = in.getData();
+		final int start = in.getFieldStart(field);
+		final int end = start + in.getFieldLength(field);
+		int i = start;
+		final boolean negative = i < end && data[i] == '-';
+		if (negative)
+			i++;
+		long km = 0;
+		int digits = 0;
+		while (i < end && data[i] >= '0' && data[i] <= '9' && digits < 15) {
+			km = km * 10 + (data[i++] - '0');
+			digits++;
+		}
+		if (digits == 0 || i + 1 >= end || data[i] != '+')
+			return in.parseDouble(field);
+		if (data[i + 1] == '-' || data[i + 1] == '+')
+			throw new NumberFormatException("Illegal chainage '" + in.getField(field) + "' in " + in.getLocation());
+		final double meters = km * 1000.0 + in.parseDouble(field, i + 1 - start);
+		return negative ? -meters : meters;
+	}
+
+	private static double[] grow(final double[] array) {
+		final double[] grown = new double[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static double[] trim(final double[] array, final int length) {
+		if (array.length == length)
+			return array;
+		final double[] trimmed = new double[length];
+		System.arraycopy(array, 0, trimmed, 0, length);
+		return trimmed;
+	}
+
+	/**
+	 * Command line entry point. Evaluates the alignment and then answers range
+	 * queries read from stdin, one pair of chainages per line
+	 *
+	 * @param args
+	 *            [-r resolution] [-p profiles -n name] stations. The
+	 *            resolution is given in meter and defaults to 1
+	 * @throws Exception
+	 *             if reading fails
+	 */
+	public static void main(final String[] args) throws Exception {
+		double resolution = 1;
+		String profileFile = null;
+		String profileName = null;
+		int i = 0;
+		try {
+			for (; i < args.length - 1; i++) {
+				if (args[i].equals("-r"))
+					resolution = Double.parseDouble(args[++i]);
+				else if (args[i].equals("-p"))
+					profileFile = args[++i];
+				else if (args[i].equals("-n"))
+					profileName = args[++i];
+				else
+					break;
+			}
+			if (args.length - i != 1 || !(resolution > 0) || (profileName != null && profileFile == null))
+				throw new IllegalArgumentException();
+		} catch (RuntimeException e) {
+			System.err.println("Usage: Alignment [-r resolution] [-p profiles -n name] stations");
+			System.exit(1);
+			return;
+		}
+		CoefficientProfile profile = CoefficientProfile.SCRIPT;
+		if (profileFile != null) {
+			final List<CoefficientProfile> loaded = CoefficientProfile.load(new File(profileFile));
+			profile = profileName != null ? CoefficientProfile.find(loaded, profileName) : loaded.size() == 1 ? loaded
+					.get(0) : null;
+			if (profile == null) {
+				System.err.println(profileName != null ? "No profile " + profileName + " in " + profileFile
+						: "Select one of the profiles in " + profileFile + " with -n");
+				System.exit(1);
+			}
+		}
+
+		long start = System.nanoTime();
+		final FileInputStream in = new FileInputStream(args[i]);
+		final Alignment alignment;
+		try {
+			alignment = read(in.getChannel());
+		} finally {
+			in.close();
+		}
+		final double readSeconds = (System.nanoTime() - start) / 1e9;
+		start = System.nanoTime();
+		final AlignmentEvaluation evaluation = alignment.evaluate(resolution, profile);
+		final double evaluateSeconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format(Locale.ROOT, "%d stations from %s to %s read in %.3f s",
+				alignment.getStationCount(), formatChainage(alignment.getStart(), 1),
+				formatChainage(alignment.getEnd(), 1), readSeconds));
+		System.out.println(String.format(Locale.ROOT, "%d points every %s m evaluated and indexed in %.3f s",
+				evaluation.getCount(), resolution, evaluateSeconds));
+		final double[] location = new double[1];
+		final double max = evaluation.max(alignment.getStart(), alignment.getEnd(), location);
+		System.out.println(String.format(Locale.ROOT, "Maximum T_K_mod %.3f m at %s", max,
+				formatChainage(location[0], 1)));
+
+		final BufferedReader queries = new BufferedReader(new InputStreamReader(System.in));
+		String line;
+		while ((line = queries.readLine()) != null) {
+			final String[] range = line.trim().split("[\\s;]+");
+			if (range.length != 2) {
+				if (line.trim().length() > 0)
+					System.out.println("Enter two chainages, e.g. 0+120 0+480");
+				continue;
+			}
+			try {
+				final double from = parseChainage(range[0]);
+				final double to = parseChainage(range[1]);
+				final long queryStart = System.nanoTime();
+				final double t = evaluation.max(from, to, location);
+				final double micros = (System.nanoTime() - queryStart) / 1e3;
+				System.out.println(String.format(Locale.ROOT, "%s to %s: maximum T_K_mod %.3f m at %s (%.1f us)",
+						formatChainage(Math.min(from, to), 1), formatChainage(Math.max(from, to), 1), t,
+						formatChainage(location[0], 1), micros));
+			} catch (IllegalArgumentException e) {
+				System.out.println(e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package ac.at.uibk.geotechnik;
+
+/**
+ * T_K_mod evaluated along an {@link Alignment} at equidistant chainages,
+ * together with a {@link MaxSegmentTree} over T_K_mod at the stations, so the
+ * exact maximum between any two chainages is found in logarithmic time.
+ *
+ * The points are placed every step meters from the first station; the last
+ * point is at the last station. B and H are interpolated block by block and
+ * T_K_mod is calculated with the batch loop of the profile, so evaluating
+ * millions of points takes a fraction of a second.
+ *
+ * Range maxima do not depend on the step: T_K_mod = H f(B/H) with a
+ * decreasing, convex f (a linear fraction (a + bx) / (c + dx) with ad > bc,
+ * held at its value at the B/H bound beyond it). Such a function is convex
+ * along every straight line in (B, H), so between two neighbouring stations
+ * it has no interior maximum and the maximum of a range is found among the
+ * stations inside it and its two ends.
+ *
+ * @author phoenix
+ *
+ */
+public final class AlignmentEvaluation {
+
+	/** Number of points interpolated and evaluated at once */
+	private static final int BLOCK = 1024;
+
+	private final Alignment alignment;
+	private final CoefficientProfile profile;
+	/** Distance of the points in meter */
+	private final double step;
+	/** Number of points */
+	private final int count;
+	/** T_K_mod per point in meter */
+	private final double[] t;
+	/** T_K_mod per station in meter */
+	private final double[] stationT;
+	/** Range maximum index over {@link #stationT} */
+	private final MaxSegmentTree tree;
+
+	/**
+	 * Evaluate an alignment
+	 *
+	 * @param alignment
+	 *            to evaluate
+	 * @param step
+	 *            distance of the points in meter
+	 * @param profile
+	 *            coefficients of the calculation
+	 */
+	AlignmentEvaluation(final Alignment alignment, final double step, final CoefficientProfile profile) {
+		if (!(step > 0) || Double.isInfinite(step))
+			throw new IllegalArgumentException("Illegal step " + step);
+		final double intervals = Math.ceil((alignment.getEnd() - alignment.getStart()) / step);
+		if (intervals >= Integer.MAX_VALUE / 2)
+			throw new IllegalArgumentException("Step " + step + " m is too fine for this alignment");
+		this.alignment = alignment;
+		this.profile = profile;
+		this.step = step;
+		this.count = (int) intervals + 1;
+		this.t = new double[count];
+
+		final double[] b = new double[BLOCK];
+		final double[] h = new double[BLOCK];
+		final double[] block = new double[BLOCK];
+		for (int i = 0; i < count; i += BLOCK) {
+			final int n = Math.min(BLOCK, count - i);
+			alignment.sample(alignment.getStart(), step, i, n, b, h);
+			profile.solve(b, h, block, 0, n);
+			System.arraycopy(block, 0, t, i, n);
+		}
+		this.stationT = new double[alignment.getStationCount()];
+		alignment.solveStations(profile, stationT);
+		this.tree = new MaxSegmentTree(stationT, stationT.length);
+	}
+
+	/**
+	 * @return the evaluated alignment
+	 */
+	public Alignment getAlignment() {
+		return alignment;
+	}
+
+	/**
+	 * @return the coefficients of the calculation
+	 */
+	public CoefficientProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * @return the distance of the points in meter
+	 */
+	public double getStep() {
+		return step;
+	}
+
+	/**
+	 * @return the number of evaluated points
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @param point
+	 *            index of the point
+	 * @return the chainage of the point in meter
+	 */
+	public double getChainage(final int point) {
+		return Math.min(alignment.getStart() + point * step, alignment.getEnd());
+	}
+
+	/**
+	 * @param point
+	 *            index of the point
+	 * @return T_K_mod at the point in meter
+	 */
+	public double getTkMod(final int point) {
+		return t[point];
+	}
+
+	/**
+	 * Find the maximum of T_K_mod between two chainages. It is exact, not
+	 * limited to the evaluated points: the stations inside the range are
+	 * searched in the index and the two ends of the range are calculated
+	 *
+	 * @param from
+	 *            chainage of one end of the range in meter
+	 * @param to
+	 *            chainage of the other end of the range in meter
+	 * @param location
+	 *            receives the chainage of the maximum in meter, may be null
+	 * @return the maximum of T_K_mod in meter
+	 */
+	public double max(final double from, final double to, final double[] location) {
+		final double start = Math.min(from, to);
+		final double end = Math.max(from, to);
+		double max = alignment.tkModAt(start, profile);
+		double at = start;
+		final int first = alignment.stationAfter(start);
+		final int last = alignment.stationBefore(end);
+		if (first <= last) {
+			final int station = tree.argMax(first, last);
+			if (stationT[station] > max) {
+				max = stationT[station];
+				at = alignment.getChainage(station);
+			}
+		}
+		final double tEnd = alignment.tkModAt(end, profile);
+		if (tEnd > max) {
+			max = tEnd;
+			at = end;
+		}
+		if (location != null)
+			location[0] = at;
+		return max;
+	}
+}
@@ -0,0 +1,68 @@
+package ac.at.uibk.geotechnik;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * {@link DraftSurface} drawing onto an Android {@link Canvas}.
+ *
+ * The surface keeps one paint per kind of primitive and only changes colour,
+ * width and size between calls, so it must not be shared between threads.
+ *
+ * @author phoenix
+ *
+ */
+final class CanvasSurface implements DraftSurface {
+
+	/** Paint for filled rectangles */
+	private final Paint pntFill = new Paint();
+	/** Paint for lines */
+	private final Paint pntLine = new Paint();
+	/** Paint for texts */
+	private final Paint pntText = new Paint();
+	/** Canvas that is drawn to */
+	private Canvas canvas;
+
+	CanvasSurface() {
+		pntFill.setStyle(Paint.Style.FILL);
+		pntLine.setStyle(Paint.Style.STROKE);
+		pntText.setAntiAlias(true);
+	}
+
+	/**
+	 * @param canvas
+	 *            to draw to
+	 * @return this surface
+	 */
+	CanvasSurface setCanvas(final Canvas canvas) {
+		this.canvas = canvas;
+		return this;
+	}
+
+	@Override
+	public void fillRect(final float left, final float top, final float right, final float bottom, final int color) {
+		pntFill.setColor(color);
+		canvas.drawRect(left, top, right, bottom, pntFill);
+	}
+
+	@Override
+	public void drawLine(final float startX, final float startY, final float endX, final float endY,
+			final float width, final int color) {
+		pntLine.setColor(color);
+		pntLine.setStrokeWidth(width);
+		canvas.drawLine(startX, startY, endX, endY, pntLine);
+	}
+
+	@Override
+	public void drawText(final String text, final float x, final float y, final float size, final int color) {
+		pntText.setColor(color);
+		pntText.setTextSize(size);
+		canvas.drawText(text, x, y, pntText);
+	}
+
+	@Override
+	public float measureText(final String text, final float size) {
+		pntText.setTextSize(size);
+		return pntText.measureText(text);
+	}
+}
@@ -0,0 +1,392 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Locale;
+
+/**
+ * Binary columnar container for cofferdam cases and their results.
+ *
+ * The file consists of a header of {@link #HEADER_SIZE} bytes followed by
+ * contiguous little endian columns: B, H and T as doubles and the clamp flag
+ * as one byte per case. The columns are memory mapped, so they can be read
+ * and written without copying.
+ *
+ * Header layout (little endian):
+ *
+ * <pre>
+ *  0  int   magic "EBTC"
+ *  4  int   version
+ *  8  int   header size
+ * 12  int   flags, bit 0 set if T and the clamp flags are valid
+ * 16  long  number of cases
+ * 24  long  offset of column B
+ * 32  long  offset of column H
+ * 40  long  offset of column T
+ * 48  long  offset of the clamp flags
+ * </pre>
+ *
+ * Readers use the stored offsets instead of computing them, so every file
+ * written with a version up to {@link #VERSION} stays readable.
+ *
+ * @author phoenix
+ *
+ */
+public final class CaseFile {
+
+	/** Magic number "EBTC" */
+	static final int MAGIC = 0x43544245;
+	/** Current version of the format */
+	public static final int VERSION = 1;
+	/** Size of the header in bytes */
+	public static final int HEADER_SIZE = 64;
+	/** Flag set if T and the clamp flags are valid */
+	public static final int FLAG_SOLVED = 1;
+	/** Maximum number of cases, limited by the size of one mapping */
+	public static final long MAX_CASES = Integer.MAX_VALUE / 8;
+
+	/** Underlying file */
+	private final RandomAccessFile file;
+	/** Whether the file has been opened for writing */
+	private final boolean writable;
+	/** Header of the file */
+	private final MappedByteBuffer header;
+	/** Number of cases */
+	private final int count;
+	/** Column B */
+	private final DoubleBuffer b;
+	/** Column H */
+	private final DoubleBuffer h;
+	/** Column T */
+	private final DoubleBuffer t;
+	/** Clamp flags */
+	private final MappedByteBuffer clamped;
+	/** Mappings of the double columns B, H and T */
+	private final MappedByteBuffer[] columns = new MappedByteBuffer[3];
+
+	private CaseFile(final RandomAccessFile file, final boolean writable) throws IOException {
+		this.file = file;
+		this.writable = writable;
+		final FileChannel channel = file.getChannel();
+		final MapMode mode = writable ? MapMode.READ_WRITE : MapMode.READ_ONLY;
+		if (channel.size() < HEADER_SIZE)
+			throw new IOException("Not a case file: too short");
+		header = channel.map(mode, 0, HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		if (header.getInt(0) != MAGIC)
+			throw new IOException("Not a case file: wrong magic number");
+		final int version = header.getInt(4);
+		if (version < 1 || version > VERSION)
+			throw new IOException("Unsupported case file version " + version);
+		final long cases = header.getLong(16);
+		if (cases < 0 || cases > MAX_CASES)
+			throw new IOException("Illegal number of cases: " + cases);
+		count = (int) cases;
+		b = mapDoubles(channel, mode, header.getLong(24), 0);
+		h = mapDoubles(channel, mode, header.getLong(32), 1);
+		t = mapDoubles(channel, mode, header.getLong(40), 2);
+		final long flagOffset = header.getLong(48);
+		if (flagOffset < HEADER_SIZE || flagOffset + count > channel.size())
+			throw new IOException("Clamp flags outside of the file");
+		clamped = channel.map(mode, flagOffset, count);
+	}
+
+	/** Map a column of doubles */
+	private DoubleBuffer mapDoubles(final FileChannel channel, final MapMode mode, final long offset, final int column)
+			throws IOException {
+		if (offset < HEADER_SIZE || offset + 8L * count > channel.size())
+			throw new IOException("Column outside of the file");
+		final MappedByteBuffer buffer = channel.map(mode, offset, 8L * count);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		columns[column] = buffer;
+		return buffer.asDoubleBuffer();
+	}
+
+	/**
+	 * Create a new case file. Existing files are replaced
+	 *
+	 * @param file
+	 *            to be created
+	 * @param count
+	 *            number of cases
+	 * @return the opened file, ready for writing B and H
+	 * @throws IOException
+	 *             if the file cannot be created
+	 */
+	public static CaseFile create(final File file, final long count) throws IOException {
+		if (count < 0 || count > MAX_CASES)
+			throw new IllegalArgumentException("Illegal number of cases: " + count);
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			final long offB = HEADER_SIZE;
+			final long offH = offB + 8 * count;
+			final long offT = offH + 8 * count;
+			final long offFlags = offT + 8 * count;
+			raf.setLength(0);
+			raf.setLength(offFlags + count);
+
+			final ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			head.putInt(MAGIC).putInt(VERSION).putInt(HEADER_SIZE).putInt(0);
+			head.putLong(count).putLong(offB).putLong(offH).putLong(offT).putLong(offFlags);
+			head.clear();
+			final FileChannel channel = raf.getChannel();
+			while (head.hasRemaining())
+				channel.write(head, head.position());
+			return new CaseFile(raf, true);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Open an existing case file
+	 *
+	 * @param file
+	 *            to be opened
+	 * @param writable
+	 *            true to open the file for writing
+	 * @return the opened file
+	 * @throws IOException
+	 *             if the file cannot be opened or is not a valid case file
+	 */
+	public static CaseFile open(final File file, final boolean writable) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+		try {
+			return new CaseFile(raf, writable);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the number of cases
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return the version of the opened file
+	 */
+	public int getVersion() {
+		return header.getInt(4);
+	}
+
+	/**
+	 * @return true if T and the clamp flags are valid
+	 */
+	public boolean isSolved() {
+		return (header.getInt(12) & FLAG_SOLVED) != 0;
+	}
+
+	/**
+	 * @return the mapped column B in meter
+	 */
+	public DoubleBuffer getB() {
+		return b.duplicate();
+	}
+
+	/**
+	 * @return the mapped column H in meter
+	 */
+	public DoubleBuffer getH() {
+		return h.duplicate();
+	}
+
+	/**
+	 * @return the mapped column T_K_mod in meter
+	 */
+	public DoubleBuffer getT() {
+		return t.duplicate();
+	}
+
+	/**
+	 * @return the mapped clamp flags, 1 if B/H has been clamped to 7
+	 */
+	public ByteBuffer getClamped() {
+		return clamped.duplicate();
+	}
+
+	/**
+	 * Calculate T_K_mod for all cases directly into the mapped columns and
+	 * mark the file as solved
+	 */
+	public void solve() {
+		if (!writable)
+			throw new IllegalStateException("Case file is read only");
+		EmbedmentKernel.solve(b, h, t, clamped);
+		header.putInt(12, header.getInt(12) | FLAG_SOLVED);
+	}
+
+	/**
+	 * Mark T and the clamp flags as valid after they have been written by
+	 * another solver, e.g. a {@code DistributedSweep}
+	 */
+	void markSolved() {
+		if (!writable)
+			throw new IllegalStateException("Case file is read only");
+		header.putInt(12, header.getInt(12) | FLAG_SOLVED);
+	}
+
+	/**
+	 * Write all changes to the disk and close the file
+	 *
+	 * @throws IOException
+	 *             if closing fails
+	 */
+	public void close() throws IOException {
+		if (writable) {
+			for (MappedByteBuffer column : columns)
+				column.force();
+			clamped.force();
+			header.force();
+		}
+		file.close();
+	}
+
+	/**
+	 * Convert a CSV or TSV file with the columns id, B, H into a case file.
+	 * The ids are not stored; cases keep the order of the input
+	 *
+	 * @param csv
+	 *            input file
+	 * @param target
+	 *            case file to be created
+	 * @return number of converted cases
+	 * @throws IOException
+	 *             if reading or writing fails
+	 */
+	public static long fromCsv(final File csv, final File target) throws IOException {
+		// First pass counts the cases, second pass fills the columns
+		long cases = 0;
+		FileInputStream in = new FileInputStream(csv);
+		try {
+			final CsvScanner scanner = new CsvScanner(in.getChannel(), CsvScanner.DEFAULT_BUFFER_SIZE);
+			while (scanner.nextLine()) {
+				if (isCase(scanner))
+					cases++;
+			}
+		} finally {
+			in.close();
+		}
+
+		final CaseFile out = create(target, cases);
+		try {
+			in = new FileInputStream(csv);
+			try {
+				final CsvScanner scanner = new CsvScanner(in.getChannel(), CsvScanner.DEFAULT_BUFFER_SIZE);
+				int i = 0;
+				while (scanner.nextLine() && i < cases) {
+					if (!isCase(scanner))
+						continue;
+					out.b.put(i, scanner.parseDouble(1));
+					out.h.put(i, scanner.parseDouble(2));
+					i++;
+				}
+			} finally {
+				in.close();
+			}
+		} finally {
+			out.close();
+		}
+		return cases;
+	}
+
+	/** Checks if the current line holds a valid case */
+	private static boolean isCase(final CsvScanner scanner) {
+		try {
+			scanner.parseDouble(1);
+			scanner.parseDouble(2);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Write the cases of this file as CSV with the columns id, B, H, clamped,
+	 * T_K_mod. The id is the number of the case, starting with 1
+	 *
+	 * @param csv
+	 *            output file
+	 * @param decimals
+	 *            number of decimals, 0 to 9
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void toCsv(final File csv, final int decimals) throws IOException {
+		final FileOutputStream stream = new FileOutputStream(csv);
+		try {
+			final CsvOutput out = new CsvOutput(stream.getChannel(), CsvOutput.DEFAULT_BUFFER_SIZE);
+			final boolean solved = isSolved();
+			out.put("id;B;H;clamped;T_K_mod");
+			out.newLine();
+			for (int i = 0; i < count; i++) {
+				out.put(i + 1, 0);
+				out.put((byte) ';');
+				out.put(b.get(i), decimals);
+				out.put((byte) ';');
+				out.put(h.get(i), decimals);
+				out.put((byte) ';');
+				if (solved) {
+					out.put(clamped.get(i), 0);
+					out.put((byte) ';');
+					out.put(t.get(i), decimals);
+				} else {
+					out.put((byte) ';');
+				}
+				out.newLine();
+			}
+			out.flush();
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Command line entry point
+	 *
+	 * @param args
+	 *            tobin input.csv output.ebt | tocsv input.ebt output.csv |
+	 *            solve file.ebt
+	 * @throws IOException
+	 *             if reading or writing fails
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length == 3 && args[0].equals("tobin")) {
+			final long cases = fromCsv(new File(args[1]), new File(args[2]));
+			System.err.println(cases + " cases converted");
+		} else if (args.length == 3 && args[0].equals("tocsv")) {
+			final CaseFile file = open(new File(args[1]), false);
+			try {
+				file.toCsv(new File(args[2]), 4);
+			} finally {
+				file.close();
+			}
+		} else if (args.length == 2 && args[0].equals("solve")) {
+			final CaseFile file = open(new File(args[1]), true);
+			try {
+				final long start = System.nanoTime();
+				file.solve();
+				final double seconds = (System.nanoTime() - start) / 1e9;
+				System.err.println(String.format(Locale.US, "%d cases solved in %.3f s", file.size(), seconds));
+			} finally {
+				file.close();
+			}
+		} else {
+			System.err.println("Usage: CaseFile tobin input.csv output.ebt | tocsv input.ebt output.csv | solve file.ebt");
+			System.exit(1);
+		}
+	}
+}
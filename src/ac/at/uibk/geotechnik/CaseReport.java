@@ -0,0 +1,521 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Report of many cofferdam cases in one PDF or HTML document, with a draft
+ * and a table row (B, H, clamped B, B/H, T_K_mod) per case.
+ *
+ * The cases are read as a stream and the rows are rendered in parallel. The
+ * finished rows are written in input order: at most a small window of rows
+ * is pending at any time, so memory does not grow with the number of cases
+ * and the document is streamed to the output.
+ *
+ * @author phoenix
+ *
+ */
+public final class CaseReport {
+
+	/** Document formats */
+	public enum Format {
+		PDF, HTML
+	}
+
+	/** Title of the report */
+	private static final String TITLE = "Hydraulisch erforderliche Einbindetiefe";
+	/** Column titles after the draft */
+	private static final String[] COLUMNS = { "Fall", "B [m]", "H [m]", "B' [m]", "B/H", "T [m]" };
+	/** Buffer size of the output */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/** Pending rows per thread */
+	private static final int WINDOW_PER_THREAD = 4;
+
+	/* PDF page layout in point, A4 portrait */
+	private static final int PAGE_WIDTH = 595;
+	private static final int PAGE_HEIGHT = 842;
+	private static final float MARGIN = 40;
+	private static final float TABLE_TOP = 92;
+	private static final float ROW_HEIGHT = 140;
+	private static final int ROWS_PER_PAGE = 5;
+	private static final int SKETCH_SIZE = 130;
+	private static final float TEXT_SIZE = 10;
+	/** Left edge of the columns relative to the margin */
+	private static final float[] COLUMN_X = { 145, 250, 305, 360, 420, 470 };
+	/** Colour of the rules */
+	private static final int RULE = 0xFF999999;
+	/** Colour of the text */
+	private static final int TEXT = 0xFF000000;
+
+	/** Size of the drafts in HTML in pixel */
+	private static final int HTML_SKETCH_SIZE = 160;
+
+	/** One case of the report */
+	static final class Case {
+		final String id;
+		final double b;
+		final double h;
+
+		Case(final String id, final double b, final double h) {
+			this.id = id;
+			this.b = b;
+			this.h = h;
+		}
+	}
+
+	/** Stream of cases */
+	interface Source {
+		/**
+		 * @return the next case or null at the end
+		 * @throws IOException
+		 *             if reading fails
+		 */
+		Case next() throws IOException;
+	}
+
+	private final Format format;
+	private final int threads;
+	private final Locale locale;
+
+	/** Number of cases of the last report */
+	private long cases = 0;
+	/** Number of pages of the last report, 0 for HTML */
+	private int pages = 0;
+
+	/**
+	 * Creates a report generator with numbers in the default locale
+	 *
+	 * @param format
+	 *            of the document
+	 * @param threads
+	 *            number of threads rendering the rows
+	 */
+	public CaseReport(final Format format, final int threads) {
+		this(format, threads, Locale.getDefault());
+	}
+
+	/**
+	 * Creates a report generator
+	 *
+	 * @param format
+	 *            of the document
+	 * @param threads
+	 *            number of threads rendering the rows
+	 * @param locale
+	 *            of the numbers
+	 */
+	public CaseReport(final Format format, final int threads, final Locale locale) {
+		this.format = format;
+		this.threads = Math.max(1, threads);
+		this.locale = locale;
+	}
+
+	/**
+	 * @return the number of cases of the last report
+	 */
+	public long getCases() {
+		return cases;
+	}
+
+	/**
+	 * @return the number of pages of the last PDF report
+	 */
+	public int getPages() {
+		return pages;
+	}
+
+	/**
+	 * Write a report of the given cases
+	 *
+	 * @param ids
+	 *            names of the cases
+	 * @param b
+	 *            widths of the excavations in meter
+	 * @param h
+	 *            head differences in meter
+	 * @param out
+	 *            target of the document, closed when finished
+	 * @param listener
+	 *            called with the number of written rows or null
+	 * @throws IOException
+	 *             if writing fails
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a row
+	 */
+	public void write(final String[] ids, final double[] b, final double[] h, final OutputStream out,
+			final GridSweep.ProgressListener listener) throws IOException, InterruptedException {
+		if (ids.length != b.length || ids.length != h.length)
+			throw new IllegalArgumentException("Arrays differ in length");
+		write(new Source() {
+			private int next = 0;
+
+			@Override
+			public Case next() {
+				if (next == ids.length)
+					return null;
+				final int i = next++;
+				return new Case(ids[i], b[i], h[i]);
+			}
+		}, ids.length, out, listener);
+	}
+
+	/**
+	 * Write a report of the cases (id, B, H) of a CSV file. Lines that do not
+	 * hold a case, e.g. a header, are skipped
+	 *
+	 * @param in
+	 *            scanner of the CSV file
+	 * @param out
+	 *            target of the document, closed when finished
+	 * @param listener
+	 *            called with the number of written rows or null
+	 * @throws IOException
+	 *             if reading or writing fails
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a row
+	 */
+	void write(final CsvScanner in, final OutputStream out, final GridSweep.ProgressListener listener)
+			throws IOException, InterruptedException {
+		write(new Source() {
+
+			@Override
+			public Case next() throws IOException {
+				while (in.nextLine()) {
+					try {
+						final double b = in.parseDouble(1);
+						final double h = in.parseDouble(2);
+						return new Case(in.getField(0), b, h);
+					} catch (NumberFormatException e) {
+						continue;
+					}
+				}
+				return null;
+			}
+		}, -1, out, listener);
+	}
+
+	/** Render the rows in parallel and write them in order */
+	private void write(final Source source, final long total, final OutputStream out,
+			final GridSweep.ProgressListener listener) throws IOException, InterruptedException {
+		final Document document = format == Format.PDF ? new PdfReport(out) : new HtmlReport(out);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final LinkedList<Future<String>> window = new LinkedList<Future<String>>();
+		final int windowSize = WINDOW_PER_THREAD * threads;
+		long rows = 0;
+		boolean complete = false;
+		try {
+			Case next;
+			while ((next = source.next()) != null) {
+				final Case c = next;
+				window.add(executor.submit(new Callable<String>() {
+
+					@Override
+					public String call() throws IOException {
+						return document.render(c);
+					}
+				}));
+				if (window.size() >= windowSize) {
+					document.write(get(window.removeFirst()));
+					rows++;
+					if (listener != null)
+						listener.onProgress(rows, total);
+				}
+			}
+			while (!window.isEmpty()) {
+				document.write(get(window.removeFirst()));
+				rows++;
+				if (listener != null)
+					listener.onProgress(rows, total);
+			}
+			complete = true;
+		} finally {
+			executor.shutdownNow();
+			cases = rows;
+			if (complete)
+				document.close();
+			else
+				document.abort();
+		}
+		pages = document.getPages();
+	}
+
+	/** Wait for a rendered row */
+	private static String get(final Future<String> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause().toString());
+		}
+	}
+
+	/** Square draft of a case with the effective width, like in the app */
+	private DraftLayout sketch(final Case c, final double t, final int size) {
+		return new DraftLayout(EmbedmentSolver.clampedWidth(c.b, c.h), c.h, t, size, size, locale);
+	}
+
+	/** Formatted cells of a case after the draft */
+	private String[] cells(final Case c, final double t) {
+		return new String[] { c.id, format(c.b), format(c.h), format(EmbedmentSolver.clampedWidth(c.b, c.h)),
+				format(EmbedmentSolver.bOverH(c.b, c.h)), format(t) };
+	}
+
+	private String format(final double value) {
+		return String.format(locale, "%.2f", value);
+	}
+
+	/** Output document, rows are rendered in parallel and written in order */
+	private abstract static class Document {
+		/**
+		 * Render one row. Called on the worker threads
+		 *
+		 * @param c
+		 *            the case
+		 * @return the row in the format of the document
+		 * @throws IOException
+		 *             if the row cannot be rendered
+		 */
+		abstract String render(Case c) throws IOException;
+
+		/** Write the next row */
+		abstract void write(String row) throws IOException;
+
+		/** Finish the document and close the stream */
+		abstract void close() throws IOException;
+
+		/** Close the stream after an error */
+		abstract void abort();
+
+		int getPages() {
+			return 0;
+		}
+	}
+
+	/** Multi page PDF with {@link #ROWS_PER_PAGE} rows per page */
+	private final class PdfReport extends Document {
+		private final OutputStream out;
+		private final PdfDocument pdf;
+		private long rows = 0;
+
+		PdfReport(final OutputStream out) throws IOException {
+			this.out = out;
+			pdf = new PdfDocument(new BufferedOutputStream(out, BUFFER_SIZE));
+		}
+
+		@Override
+		String render(final Case c) {
+			final double t = EmbedmentSolver.tkMod(c.b, c.h);
+			final StringBuilder operators = new StringBuilder(2048);
+			final PdfSurface surface = new PdfSurface(operators, ROW_HEIGHT);
+			DraftPainter.paint(sketch(c, t, SKETCH_SIZE), surface, true);
+			final String[] cells = cells(c, t);
+			final float y = ROW_HEIGHT / 2 + TEXT_SIZE / 2;
+			// The case name may not overlap the next column
+			cells[0] = fit(cells[0], COLUMN_X[1] - COLUMN_X[0] - 5);
+			for (int i = 0; i < cells.length; i++)
+				surface.drawText(cells[i], COLUMN_X[i], y, TEXT_SIZE, TEXT);
+			surface.drawLine(0, ROW_HEIGHT - 0.5F, PAGE_WIDTH - 2 * MARGIN, ROW_HEIGHT - 0.5F, 0.5F, RULE);
+			return operators.toString();
+		}
+
+		@Override
+		void write(final String row) throws IOException {
+			final int slot = (int) (rows % ROWS_PER_PAGE);
+			if (slot == 0)
+				beginPage();
+			final float bottom = PAGE_HEIGHT - (TABLE_TOP + (slot + 1) * ROW_HEIGHT);
+			final StringBuilder placed = new StringBuilder(row.length() + 40);
+			placed.append("q 1 0 0 1 ");
+			SvgSurface.appendNumber(placed, MARGIN);
+			placed.append(' ');
+			SvgSurface.appendNumber(placed, bottom);
+			placed.append(" cm\n").append(row).append("Q\n");
+			pdf.write(placed);
+			rows++;
+		}
+
+		/** Start a page with title, page number and column titles */
+		private void beginPage() throws IOException {
+			pdf.beginPage(PAGE_WIDTH, PAGE_HEIGHT);
+			final StringBuilder operators = new StringBuilder(1024);
+			final PdfSurface surface = new PdfSurface(operators, PAGE_HEIGHT);
+			surface.drawText(TITLE, MARGIN, MARGIN + 14, 14, TEXT);
+			final String page = "Seite " + pdf.getPageCount();
+			surface.drawText(page, PAGE_WIDTH - MARGIN - surface.measureText(page, TEXT_SIZE), MARGIN + 14,
+					TEXT_SIZE, TEXT);
+			for (int i = 0; i < COLUMNS.length; i++)
+				surface.drawText(COLUMNS[i], MARGIN + COLUMN_X[i], TABLE_TOP - 12, TEXT_SIZE, TEXT);
+			surface.drawLine(MARGIN, TABLE_TOP - 6, PAGE_WIDTH - MARGIN, TABLE_TOP - 6, 1, TEXT);
+			pdf.write(operators);
+		}
+
+		/** Shorten a text to the given width */
+		private String fit(final String text, final float width) {
+			if (HelveticaMetrics.measure(text, TEXT_SIZE) <= width)
+				return text;
+			int length = text.length();
+			while (length > 0 && HelveticaMetrics.measure(text.substring(0, length) + "...", TEXT_SIZE) > width)
+				length--;
+			return text.substring(0, length) + "...";
+		}
+
+		@Override
+		void close() throws IOException {
+			if (rows == 0)
+				beginPage();
+			pdf.close();
+		}
+
+		@Override
+		void abort() {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+		}
+
+		@Override
+		int getPages() {
+			return pdf.getPageCount();
+		}
+	}
+
+	/** HTML page with one table, the drafts are embedded as SVG */
+	private final class HtmlReport extends Document {
+		private final Writer out;
+
+		HtmlReport(final OutputStream out) throws IOException {
+			this.out = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+			this.out.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n<title>" + TITLE
+					+ "</title>\n<style>\n" + "body { font-family: Helvetica, Arial, sans-serif; }\n"
+					+ "table { border-collapse: collapse; }\n"
+					+ "th, td { border-bottom: 1px solid #999; padding: 4px 12px; text-align: right; }\n"
+					+ "th:first-child, td:first-child, th:nth-child(2), td:nth-child(2) { text-align: left; }\n"
+					+ "tr { page-break-inside: avoid; }\n" + "</style>\n</head>\n<body>\n<h1>" + TITLE
+					+ "</h1>\n<table>\n<thead><tr><th></th>");
+			for (String column : COLUMNS)
+				this.out.write("<th>" + escape(column) + "</th>");
+			this.out.write("</tr></thead>\n<tbody>\n");
+		}
+
+		@Override
+		String render(final Case c) throws IOException {
+			final double t = EmbedmentSolver.tkMod(c.b, c.h);
+			final StringWriter row = new StringWriter(4096);
+			row.write("<tr><td>");
+			final SvgSurface svg = new SvgSurface(row, HTML_SKETCH_SIZE, HTML_SKETCH_SIZE, false);
+			DraftPainter.paint(sketch(c, t, HTML_SKETCH_SIZE), svg, true);
+			svg.close();
+			row.write("</td>");
+			for (String cell : cells(c, t))
+				row.write("<td>" + escape(cell) + "</td>");
+			row.write("</tr>\n");
+			return row.toString();
+		}
+
+		@Override
+		void write(final String row) throws IOException {
+			out.write(row);
+		}
+
+		@Override
+		void close() throws IOException {
+			try {
+				out.write("</tbody>\n</table>\n</body>\n</html>\n");
+			} finally {
+				out.close();
+			}
+		}
+
+		@Override
+		void abort() {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+
+	/** Escape a text for HTML */
+	private static String escape(final String text) {
+		final StringBuilder escaped = new StringBuilder(text.length() + 8);
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			switch (c) {
+			case '<':
+				escaped.append("&lt;");
+				break;
+			case '>':
+				escaped.append("&gt;");
+				break;
+			case '&':
+				escaped.append("&amp;");
+				break;
+			case '"':
+				escaped.append("&quot;");
+				break;
+			default:
+				escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+	/**
+	 * Command line entry point
+	 *
+	 * @param args
+	 *            [-j threads] input.csv output.pdf|output.html
+	 * @throws Exception
+	 *             if the report cannot be written
+	 */
+	public static void main(final String[] args) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		int i = 0;
+		for (; i < args.length - 2; i++) {
+			if (args[i].equals("-j"))
+				threads = Integer.parseInt(args[++i]);
+			else
+				break;
+		}
+		if (args.length - i != 2) {
+			System.err.println("Usage: CaseReport [-j threads] input.csv output.pdf|output.html");
+			System.exit(1);
+		}
+		final String output = args[i + 1];
+		final Format format = output.toLowerCase(Locale.US).endsWith(".pdf") ? Format.PDF : Format.HTML;
+
+		final CaseReport report = new CaseReport(format, threads);
+		final long start = System.nanoTime();
+		final FileInputStream in = new FileInputStream(new File(args[i]));
+		try {
+			report.write(new CsvScanner(in.getChannel(), CsvScanner.DEFAULT_BUFFER_SIZE), new FileOutputStream(
+					output), null);
+		} finally {
+			in.close();
+		}
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.println(String.format(Locale.US, "%d cases, %d pages in %.3f s (%.0f cases/s)",
+				report.getCases(), report.getPages(), seconds, report.getCases() / seconds));
+	}
+}
@@ -0,0 +1,338 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Named set of coefficients for equation 25b (c1, c2, allowed hydraulic
+ * gradient and the upper bound of B/H) together with the evaluator for it.
+ *
+ * Profiles are read from a properties file with one key per coefficient:
+ *
+ * <pre>
+ * # name.c1, name.c2, name.i_zul and optionally name.max_b_over_h (default 7)
+ * silt.c1 = 0.165
+ * silt.c2 = 0.141
+ * silt.i_zul = 0.6
+ * </pre>
+ *
+ * Every profile is an immutable instance of this final class whose derived
+ * constants are computed once when it is created. Because there is only one
+ * implementation, every call site stays monomorphic no matter how many
+ * profiles are in use, and selecting a profile costs one field load per batch
+ * instead of anything per case. The loops are branch free like the ones in
+ * {@link EmbedmentKernel} and give bit-identical results to
+ * {@link EmbedmentSolver#tkMod(double, double, double, double, double)} for
+ * the same coefficients (multiplying by 8 is exact, so folding it into c1 and
+ * c2 does not change the rounding).
+ *
+ * @author phoenix
+ *
+ */
+public final class CoefficientProfile {
+
+	/** Name of the profile with the coefficients given in the script */
+	public static final String SCRIPT_NAME = "script";
+	/** Profile with the coefficients given in the script */
+	public static final CoefficientProfile SCRIPT = new CoefficientProfile(SCRIPT_NAME, EmbedmentSolver.C1,
+			EmbedmentSolver.C2, EmbedmentSolver.I_ZUL, EmbedmentSolver.MAX_B_OVER_H);
+
+	/** Number of cases evaluated for all profiles before moving on */
+	private static final int BLOCK = 1024;
+
+	private final String name;
+	private final double c1;
+	private final double c2;
+	private final double iZul;
+	private final double maxBOverH;
+	/* Folded constants: k = 8 * (c1 + c2 * x) = k1 + k2 * x */
+	private final double k1;
+	private final double k2;
+
+	/**
+	 * Creates a new profile
+	 *
+	 * @param name
+	 *            of the profile
+	 * @param c1
+	 *            coefficient c1
+	 * @param c2
+	 *            coefficient c2
+	 * @param iZul
+	 *            allowed hydraulic gradient
+	 * @param maxBOverH
+	 *            upper bound of B/H
+	 */
+	public CoefficientProfile(final String name, final double c1, final double c2, final double iZul,
+			final double maxBOverH) {
+		if (name == null || name.length() == 0)
+			throw new IllegalArgumentException("Profile without name");
+		if (!(c1 > 0) || !(c2 >= 0) || Double.isInfinite(c1) || Double.isInfinite(c2))
+			throw new IllegalArgumentException("Illegal coefficients in profile " + name);
+		if (!(iZul > 0) || Double.isInfinite(iZul))
+			throw new IllegalArgumentException("Illegal allowed gradient in profile " + name);
+		if (!(maxBOverH > 0) || Double.isInfinite(maxBOverH))
+			throw new IllegalArgumentException("Illegal bound of B/H in profile " + name);
+		this.name = name;
+		this.c1 = c1;
+		this.c2 = c2;
+		this.iZul = iZul;
+		this.maxBOverH = maxBOverH;
+		this.k1 = 8 * c1;
+		this.k2 = 8 * c2;
+	}
+
+	/**
+	 * @return the name of the profile
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return coefficient c1
+	 */
+	public double getC1() {
+		return c1;
+	}
+
+	/**
+	 * @return coefficient c2
+	 */
+	public double getC2() {
+		return c2;
+	}
+
+	/**
+	 * @return the allowed hydraulic gradient
+	 */
+	public double getIZul() {
+		return iZul;
+	}
+
+	/**
+	 * @return the upper bound of B/H
+	 */
+	public double getMaxBOverH() {
+		return maxBOverH;
+	}
+
+	/**
+	 * Get the effective width B used in the calculation
+	 *
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @return the clamped width in meter
+	 */
+	public double clampedWidth(final double b, final double h) {
+		return b / h > maxBOverH ? maxBOverH * h : b;
+	}
+
+	/**
+	 * Get the ratio B/H used in the calculation, clamped to
+	 * {@link #getMaxBOverH()}
+	 *
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @return the clamped ratio B/H
+	 */
+	public double bOverH(final double b, final double h) {
+		return b / h > maxBOverH ? maxBOverH : b / h;
+	}
+
+	/**
+	 * Calculate T_K_mod according to equation 25b
+	 *
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @return the required embedment depth T_K_mod in meter
+	 */
+	public double tkMod(final double b, final double h) {
+		final double ratio = b / h;
+		final boolean clamp = ratio > maxBOverH;
+		final double x = clamp ? maxBOverH : ratio;
+		final double bi = clamp ? maxBOverH * h : b;
+		final double k = k1 + k2 * x;
+		return (h / iZul - bi / k) / (1 + x / k);
+	}
+
+	/**
+	 * Calculate T_K_mod for the given range of cases
+	 *
+	 * @param b
+	 *            widths of the excavations in meter
+	 * @param h
+	 *            head differences in meter
+	 * @param t
+	 *            output array for T_K_mod in meter
+	 * @param offset
+	 *            index of the first case
+	 * @param length
+	 *            number of cases
+	 */
+	public void solve(final double[] b, final double[] h, final double[] t, final int offset, final int length) {
+		final double max = maxBOverH;
+		final double k1 = this.k1;
+		final double k2 = this.k2;
+		final double iZul = this.iZul;
+		final int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			final double hi = h[i];
+			final double ratio = b[i] / hi;
+			final boolean clamp = ratio > max;
+			final double x = clamp ? max : ratio;
+			final double bi = clamp ? max * hi : b[i];
+			final double k = k1 + k2 * x;
+			t[i] = (hi / iZul - bi / k) / (1 + x / k);
+		}
+	}
+
+	/**
+	 * Calculate T_K_mod for the given range of cases with several profiles in
+	 * one pass over the input. The cases are processed in blocks small enough
+	 * to stay in the L1 cache, and each block is run through the loop of every
+	 * profile before the next block is read, so B and H are fetched from
+	 * memory only once however many profiles are evaluated
+	 *
+	 * @param profiles
+	 *            profiles to evaluate
+	 * @param b
+	 *            widths of the excavations in meter
+	 * @param h
+	 *            head differences in meter
+	 * @param t
+	 *            output arrays for T_K_mod in meter, one per profile
+	 * @param offset
+	 *            index of the first case
+	 * @param length
+	 *            number of cases
+	 */
+	public static void solve(final CoefficientProfile[] profiles, final double[] b, final double[] h,
+			final double[][] t, final int offset, final int length) {
+		if (t.length < profiles.length)
+			throw new IllegalArgumentException("One output array per profile needed");
+		final int end = offset + length;
+		for (int start = offset; start < end; start += BLOCK) {
+			final int count = Math.min(BLOCK, end - start);
+			for (int p = 0; p < profiles.length; p++)
+				profiles[p].solve(b, h, t[p], start, count);
+		}
+	}
+
+	/**
+	 * Read the profiles from a properties file
+	 *
+	 * @param file
+	 *            to read
+	 * @return the profiles sorted by name
+	 * @throws IOException
+	 *             if reading fails or a profile is incomplete or invalid
+	 */
+	public static List<CoefficientProfile> load(final File file) throws IOException {
+		final InputStream in = new FileInputStream(file);
+		try {
+			return load(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read the profiles from a properties stream. The stream is not closed
+	 *
+	 * @param in
+	 *            stream to read
+	 * @return the profiles sorted by name
+	 * @throws IOException
+	 *             if reading fails or a profile is incomplete or invalid
+	 */
+	public static List<CoefficientProfile> load(final InputStream in) throws IOException {
+		final Properties properties = new Properties();
+		properties.load(in);
+		final Map<String, Map<String, String>> entries = new TreeMap<String, Map<String, String>>();
+		for (final Enumeration<?> names = properties.propertyNames(); names.hasMoreElements();) {
+			final String key = (String) names.nextElement();
+			final int dot = key.lastIndexOf('.');
+			if (dot <= 0)
+				throw new IOException("Key without profile name: " + key);
+			final String profile = key.substring(0, dot);
+			Map<String, String> values = entries.get(profile);
+			if (values == null) {
+				values = new TreeMap<String, String>();
+				entries.put(profile, values);
+			}
+			values.put(key.substring(dot + 1), properties.getProperty(key).trim());
+		}
+
+		final List<CoefficientProfile> profiles = new ArrayList<CoefficientProfile>(entries.size());
+		for (final Map.Entry<String, Map<String, String>> entry : entries.entrySet()) {
+			final String profile = entry.getKey();
+			final Map<String, String> values = entry.getValue();
+			for (final String key : values.keySet()) {
+				if (!key.equals("c1") && !key.equals("c2") && !key.equals("i_zul") && !key.equals("max_b_over_h"))
+					throw new IOException("Unknown coefficient " + profile + "." + key);
+			}
+			try {
+				final double c1 = parse(profile, values, "c1");
+				final double c2 = parse(profile, values, "c2");
+				final double iZul = parse(profile, values, "i_zul");
+				final double max = values.containsKey("max_b_over_h") ? parse(profile, values, "max_b_over_h")
+						: EmbedmentSolver.MAX_B_OVER_H;
+				profiles.add(new CoefficientProfile(profile, c1, c2, iZul, max));
+			} catch (IllegalArgumentException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+		return Collections.unmodifiableList(profiles);
+	}
+
+	/** Parse one coefficient of a profile */
+	private static double parse(final String profile, final Map<String, String> values, final String key)
+			throws IOException {
+		final String value = values.get(key);
+		if (value == null)
+			throw new IOException("Profile " + profile + " has no " + key);
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new IOException("Illegal value of " + profile + "." + key + ": " + value);
+		}
+	}
+
+	/**
+	 * Find a profile by name
+	 *
+	 * @param profiles
+	 *            to search
+	 * @param name
+	 *            of the profile
+	 * @return the profile or null if there is none with this name
+	 */
+	public static CoefficientProfile find(final List<CoefficientProfile> profiles, final String name) {
+		for (final CoefficientProfile profile : profiles) {
+			if (profile.name.equals(name))
+				return profile;
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return name + " (c1 = " + c1 + ", c2 = " + c2 + ", i_zul = " + iZul + ", B/H <= " + maxBOverH + ")";
+	}
+}
@@ -0,0 +1,394 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command line batch mode. Reads cofferdam cases (id, B, H) from a CSV or TSV
+ * file and writes id, B, H, clamped B, B/H and T_K_mod for each case, using
+ * the same calculation as the app. With several coefficient profiles the
+ * output is id, B, H and T_K_mod for each profile.
+ *
+ * The input is streamed, so files much larger than the heap can be
+ * processed. In parallel mode the file is split into chunks at line
+ * boundaries, each chunk is processed into a temporary file and the temporary
+ * files are concatenated in order.
+ *
+ * @author phoenix
+ *
+ */
+public final class CsvBatch {
+
+	/** Maximum number of reported malformed lines */
+	private static final int MAX_REPORTED_ERRORS = 10;
+
+	/** Number of decimals in the output */
+	private final int decimals;
+	/** Coefficient profiles to evaluate */
+	private final CoefficientProfile[] profiles;
+
+	/** Number of processed cases */
+	private final AtomicLong rows = new AtomicLong();
+	/** Number of skipped malformed lines */
+	private final AtomicLong skipped = new AtomicLong();
+
+	/**
+	 * Creates a new batch
+	 *
+	 * @param decimals
+	 *            number of decimals in the output, 0 to 9
+	 */
+	public CsvBatch(final int decimals) {
+		this(decimals, new CoefficientProfile[] { CoefficientProfile.SCRIPT });
+	}
+
+	/**
+	 * Creates a new batch
+	 *
+	 * @param decimals
+	 *            number of decimals in the output, 0 to 9
+	 * @param profiles
+	 *            coefficient profiles to evaluate, at least one
+	 */
+	public CsvBatch(final int decimals, final CoefficientProfile[] profiles) {
+		if (decimals < 0 || decimals > 9)
+			throw new IllegalArgumentException("Decimals must be between 0 and 9");
+		if (profiles.length == 0)
+			throw new IllegalArgumentException("No coefficient profile");
+		this.decimals = decimals;
+		this.profiles = profiles.clone();
+	}
+
+	/**
+	 * @return the number of processed cases
+	 */
+	public long getRows() {
+		return rows.get();
+	}
+
+	/**
+	 * @return the number of skipped malformed lines
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	/**
+	 * Process all lines of the scanner
+	 *
+	 * @param in
+	 *            input lines
+	 * @param out
+	 *            output
+	 * @param first
+	 *            true if the input starts at the beginning of the file, so the
+	 *            first line may be a header
+	 * @throws IOException
+	 *             if reading or writing fails
+	 */
+	void process(final CsvScanner in, final CsvOutput out, final boolean first) throws IOException {
+		boolean header = first;
+		long count = 0;
+		final CoefficientProfile[] profiles = this.profiles;
+		final CoefficientProfile single = profiles.length == 1 ? profiles[0] : null;
+		while (in.nextLine()) {
+			final byte delimiter = in.getDelimiter();
+			final double b, h;
+			try {
+				b = in.parseDouble(1);
+				h = in.parseDouble(2);
+			} catch (NumberFormatException e) {
+				if (header) {
+					header = false;
+					writeHeader(out, delimiter, profiles);
+					continue;
+				}
+				if (skipped.incrementAndGet() <= MAX_REPORTED_ERRORS)
+					System.err.println(e.getMessage());
+				continue;
+			}
+			header = false;
+
+			out.put(in.getData(), in.getFieldStart(0), in.getFieldLength(0));
+			out.put(delimiter);
+			out.put(b, decimals);
+			out.put(delimiter);
+			out.put(h, decimals);
+			if (single != null) {
+				out.put(delimiter);
+				out.put(single.clampedWidth(b, h), decimals);
+				out.put(delimiter);
+				out.put(single.bOverH(b, h), decimals);
+				out.put(delimiter);
+				out.put(single.tkMod(b, h), decimals);
+			} else {
+				for (int p = 0; p < profiles.length; p++) {
+					out.put(delimiter);
+					out.put(profiles[p].tkMod(b, h), decimals);
+				}
+			}
+			out.newLine();
+			count++;
+		}
+		out.flush();
+		rows.addAndGet(count);
+	}
+
+	/** Write the header line */
+	private static void writeHeader(final CsvOutput out, final byte delimiter, final CoefficientProfile[] profiles)
+			throws IOException {
+		final String[] names;
+		if (profiles.length == 1) {
+			names = new String[] { "id", "B", "H", "B_eff", "B/H", "T_K_mod" };
+		} else {
+			names = new String[3 + profiles.length];
+			names[0] = "id";
+			names[1] = "B";
+			names[2] = "H";
+			for (int i = 0; i < profiles.length; i++)
+				names[3 + i] = "T_K_mod_" + profiles[i].getName();
+		}
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0)
+				out.put(delimiter);
+			out.put(names[i]);
+		}
+		out.newLine();
+	}
+
+	/**
+	 * Process the input sequentially
+	 *
+	 * @param input
+	 *            channel to read from. The delimiter is detected from the
+	 *            first line
+	 * @param output
+	 *            channel to write to
+	 * @throws IOException
+	 *             if reading or writing fails
+	 */
+	public void run(final ReadableByteChannel input, final WritableByteChannel output) throws IOException {
+		final CsvScanner scanner = new CsvScanner(input, CsvScanner.DEFAULT_BUFFER_SIZE);
+		process(scanner, new CsvOutput(output, CsvOutput.DEFAULT_BUFFER_SIZE), true);
+	}
+
+	/**
+	 * Process the input file in parallel chunks
+	 *
+	 * @param input
+	 *            file to read from
+	 * @param output
+	 *            file to write to
+	 * @param threads
+	 *            number of worker threads
+	 * @throws IOException
+	 *             if reading or writing fails
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the workers
+	 */
+	public void run(final File input, final File output, final int threads) throws IOException, InterruptedException {
+		final RandomAccessFile in = new RandomAccessFile(input, "r");
+		final List<File> parts = new ArrayList<File>();
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			final FileChannel channel = in.getChannel();
+			final byte delimiter = CsvScanner.detectDelimiter(channel);
+			final long[] bounds = chunkBounds(channel, threads <= 1 ? 1 : threads * 4);
+
+			final File dir = output.getAbsoluteFile().getParentFile();
+			final List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i + 1 < bounds.length; i++) {
+				final File part = File.createTempFile("einbindetiefe", ".part", dir);
+				parts.add(part);
+				final long start = bounds[i];
+				final long end = bounds[i + 1];
+				futures.add(executor.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws IOException {
+						final CsvScanner scanner = new CsvScanner(channel, start, end, CsvScanner.DEFAULT_BUFFER_SIZE);
+						scanner.setDelimiter(delimiter);
+						final FileOutputStream out = new FileOutputStream(part);
+						try {
+							process(scanner, new CsvOutput(out.getChannel(), CsvOutput.DEFAULT_BUFFER_SIZE), start == 0);
+						} finally {
+							out.close();
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw new IOException(e.getCause().toString());
+				}
+			}
+			concatenate(parts, output);
+		} finally {
+			executor.shutdownNow();
+			in.close();
+			for (File part : parts)
+				part.delete();
+		}
+	}
+
+	/**
+	 * Split the file into chunks at line boundaries
+	 *
+	 * @param channel
+	 *            of the file
+	 * @param chunks
+	 *            desired number of chunks
+	 * @return the chunk boundaries, starting with 0 and ending with the file
+	 *         size
+	 * @throws IOException
+	 *             if reading fails
+	 */
+	static long[] chunkBounds(final FileChannel channel, final int chunks) throws IOException {
+		final long size = channel.size();
+		final long[] bounds = new long[chunks + 1];
+		final ByteBuffer probe = ByteBuffer.allocate(64 * 1024);
+		bounds[chunks] = size;
+		for (int i = 1; i < chunks; i++) {
+			long pos = Math.max(bounds[i - 1], size / chunks * i);
+			// Advance to the start of the next line
+			search: while (pos < size) {
+				probe.clear();
+				final int n = channel.read(probe, pos);
+				if (n <= 0)
+					break;
+				for (int j = 0; j < n; j++) {
+					if (probe.get(j) == '\n') {
+						pos += j + 1;
+						break search;
+					}
+				}
+				pos += n;
+			}
+			bounds[i] = Math.min(pos, size);
+		}
+		return bounds;
+	}
+
+	/** Concatenate the parts into the output file */
+	private static void concatenate(final List<File> parts, final File output) throws IOException {
+		final FileOutputStream out = new FileOutputStream(output, false);
+		try {
+			final FileChannel target = out.getChannel();
+			for (File part : parts) {
+				final FileInputStream in = new FileInputStream(part);
+				try {
+					final FileChannel source = in.getChannel();
+					final long size = source.size();
+					long done = 0;
+					while (done < size)
+						done += source.transferTo(done, size - done, target);
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Command line entry point
+	 *
+	 * @param args
+	 *            [-j threads] [-d decimals] [-p profiles [-n name,...]]
+	 *            input output. Use - for stdin or stdout in sequential mode.
+	 *            With -p the coefficient profiles are read from the given
+	 *            properties file and all of them, or the ones named with -n,
+	 *            are evaluated
+	 * @throws Exception
+	 *             if processing fails
+	 */
+	public static void main(final String[] args) throws Exception {
+		int threads = 1;
+		int decimals = 4;
+		String profileFile = null;
+		String profileNames = null;
+		int i = 0;
+		for (; i < args.length - 2; i++) {
+			if (args[i].equals("-j"))
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-d"))
+				decimals = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-p"))
+				profileFile = args[++i];
+			else if (args[i].equals("-n"))
+				profileNames = args[++i];
+			else
+				break;
+		}
+		if (args.length - i != 2 || (profileNames != null && profileFile == null)) {
+			System.err.println("Usage: CsvBatch [-j threads] [-d decimals] [-p profiles [-n name,...]] input output");
+			System.exit(1);
+		}
+		CoefficientProfile[] profiles = { CoefficientProfile.SCRIPT };
+		if (profileFile != null) {
+			final List<CoefficientProfile> loaded = CoefficientProfile.load(new File(profileFile));
+			if (profileNames == null) {
+				profiles = loaded.toArray(new CoefficientProfile[loaded.size()]);
+			} else {
+				final String[] names = profileNames.split(",");
+				profiles = new CoefficientProfile[names.length];
+				for (int j = 0; j < names.length; j++) {
+					profiles[j] = CoefficientProfile.find(loaded, names[j].trim());
+					if (profiles[j] == null) {
+						System.err.println("No profile " + names[j] + " in " + profileFile);
+						System.exit(1);
+					}
+				}
+			}
+			if (profiles.length == 0) {
+				System.err.println("No profiles in " + profileFile);
+				System.exit(1);
+			}
+		}
+		final String input = args[i];
+		final String output = args[i + 1];
+
+		final CsvBatch batch = new CsvBatch(decimals, profiles);
+		final long start = System.nanoTime();
+		if (threads > 1 && !input.equals("-") && !output.equals("-")) {
+			batch.run(new File(input), new File(output), threads);
+		} else {
+			final ReadableByteChannel in = input.equals("-") ? Channels.newChannel(System.in) : new FileInputStream(input)
+					.getChannel();
+			final WritableByteChannel out = output.equals("-") ? Channels.newChannel(System.out) : new FileOutputStream(output)
+					.getChannel();
+			try {
+				batch.run(in, out);
+			} finally {
+				in.close();
+				out.close();
+			}
+		}
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.println(String.format(Locale.US, "%d cases, %d skipped lines in %.3f s (%.0f cases/min)", batch.getRows(),
+				batch.getSkipped(), seconds, batch.getRows() / seconds * 60));
+	}
+}
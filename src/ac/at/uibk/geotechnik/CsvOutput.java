@@ -0,0 +1,174 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Buffered writer for delimited text files on top of a channel. Numbers are
+ * formatted into the buffer directly, so writing a line does not allocate
+ * anything.
+ *
+ * @author phoenix
+ *
+ */
+final class CsvOutput {
+
+	/** Default size of the write buffer */
+	static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+	/** Powers of ten for the supported number of decimals */
+	private static final long[] POW10 = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L,
+			1000000000L };
+	/** Largest scaled value that is formatted without fallback */
+	private static final double MAX_SCALED = 1e15;
+
+	/** Channel to write to */
+	private final WritableByteChannel channel;
+	/** Write buffer */
+	private final byte[] data;
+	/** Write buffer wrapping {@link #data} */
+	private final ByteBuffer buffer;
+	/** Number of bytes in the buffer */
+	private int size = 0;
+	/** Scratch space for digits */
+	private final byte[] digits = new byte[20];
+
+	/**
+	 * Creates a new output
+	 *
+	 * @param channel
+	 *            to write to
+	 * @param bufferSize
+	 *            size of the write buffer
+	 */
+	CsvOutput(final WritableByteChannel channel, final int bufferSize) {
+		this.channel = channel;
+		this.data = new byte[Math.max(bufferSize, 256)];
+		this.buffer = ByteBuffer.wrap(data);
+	}
+
+	/** Make sure that the given number of bytes fits into the buffer */
+	private void ensure(final int bytes) throws IOException {
+		if (size + bytes > data.length)
+			flush();
+	}
+
+	/**
+	 * Write a single byte
+	 *
+	 * @param b
+	 *            byte to be written
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	void put(final byte b) throws IOException {
+		ensure(1);
+		data[size++] = b;
+	}
+
+	/**
+	 * Write a range of bytes
+	 *
+	 * @param src
+	 *            source array
+	 * @param offset
+	 *            of the first byte
+	 * @param length
+	 *            number of bytes
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	void put(final byte[] src, final int offset, final int length) throws IOException {
+		if (length > data.length) {
+			flush();
+			write(ByteBuffer.wrap(src, offset, length));
+			return;
+		}
+		ensure(length);
+		System.arraycopy(src, offset, data, size, length);
+		size += length;
+	}
+
+	/**
+	 * Write a string of ASCII characters
+	 *
+	 * @param text
+	 *            to be written
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	void put(final String text) throws IOException {
+		final int length = text.length();
+		ensure(length);
+		for (int i = 0; i < length; i++)
+			data[size++] = (byte) text.charAt(i);
+	}
+
+	/**
+	 * Write a line break
+	 *
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	void newLine() throws IOException {
+		put((byte) '\n');
+	}
+
+	/**
+	 * Write a number with a fixed number of decimals and '.' as decimal
+	 * separator
+	 *
+	 * @param value
+	 *            to be written
+	 * @param decimals
+	 *            number of decimals, 0 to 9
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	void put(final double value, final int decimals) throws IOException {
+		if (Double.isNaN(value)) {
+			put("NaN");
+			return;
+		}
+		final double scaled = Math.abs(value) * POW10[decimals];
+		if (!(scaled < MAX_SCALED)) {
+			// Infinite or too large for the fixed point path
+			put(Double.toString(value));
+			return;
+		}
+		long number = Math.round(scaled);
+		ensure(digits.length + 2);
+		if (value < 0 && number != 0)
+			data[size++] = '-';
+
+		int count = 0;
+		do {
+			digits[count++] = (byte) ('0' + number % 10);
+			number /= 10;
+		} while (number != 0 || count <= decimals);
+		for (int i = count - 1; i >= 0; i--) {
+			data[size++] = digits[i];
+			if (i == decimals && decimals > 0)
+				data[size++] = '.';
+		}
+	}
+
+	/**
+	 * Write the buffered data to the channel
+	 *
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	void flush() throws IOException {
+		buffer.clear();
+		buffer.limit(size);
+		write(buffer);
+		size = 0;
+	}
+
+	/** Write the whole buffer to the channel */
+	private void write(final ByteBuffer src) throws IOException {
+		while (src.hasRemaining())
+			channel.write(src);
+	}
+}
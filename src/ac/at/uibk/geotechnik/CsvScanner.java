@@ -0,0 +1,414 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Streaming line and field scanner for delimited text files (CSV, TSV).
+ *
+ * The input is read through one large buffer with NIO, so files of any size
+ * can be processed with constant memory. Fields are only referenced by their
+ * position in the buffer and numbers are parsed in place, so scanning does
+ * not allocate anything per line.
+ *
+ * Numbers may use either '.' or ',' as decimal separator, unless ',' is the
+ * field delimiter.
+ *
+ * @author phoenix
+ *
+ */
+final class CsvScanner {
+
+	/** Default size of the read buffer */
+	static final int DEFAULT_BUFFER_SIZE = 4 << 20;
+	/** Maximum number of fields per line */
+	private static final int MAX_FIELDS = 64;
+
+	/** Exactly representable powers of ten */
+	private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14,
+			1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	/** Largest mantissa that is exactly representable as double */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	/** Channel to read from */
+	private final ReadableByteChannel channel;
+	/** Channel for positional reads or null if read sequentially */
+	private final FileChannel fileChannel;
+	/** Start of the region read from the file channel */
+	private final long start;
+	/** Next position to read from the file channel */
+	private long position;
+	/** End of the region to read from the file channel */
+	private final long end;
+
+	/** Read buffer */
+	private final byte[] data;
+	/** Read buffer wrapping {@link #data} */
+	private final ByteBuffer buffer;
+	/** Number of valid bytes in {@link #data} */
+	private int limit = 0;
+	/** Start of the next line in {@link #data} */
+	private int next = 0;
+	/** Set when the input is exhausted */
+	private boolean eof = false;
+
+	/** Field delimiter or 0 to detect it from the first line */
+	private byte delimiter = 0;
+	/** Whether ',' is accepted as decimal separator */
+	private boolean decimalComma = true;
+
+	/** Start of the current line */
+	private int lineStart = 0;
+	/** End of the current line, exclusive */
+	private int lineEnd = 0;
+	/** Number of the current line, starting with 1 */
+	private long lineNumber = 0;
+	/** Number of fields in the current line */
+	private int fields = 0;
+	/** Start offsets of the fields */
+	private final int[] fieldStart = new int[MAX_FIELDS];
+	/** End offsets of the fields, exclusive */
+	private final int[] fieldEnd = new int[MAX_FIELDS];
+
+	/**
+	 * Creates a scanner reading the channel sequentially
+	 *
+	 * @param channel
+	 *            to read from
+	 * @param bufferSize
+	 *            size of the read buffer. Must hold the longest line
+	 */
+	CsvScanner(final ReadableByteChannel channel, final int bufferSize) {
+		this.channel = channel;
+		this.fileChannel = null;
+		this.start = 0;
+		this.position = 0;
+		this.end = Long.MAX_VALUE;
+		this.data = new byte[bufferSize];
+		this.buffer = ByteBuffer.wrap(data);
+	}
+
+	/**
+	 * Creates a scanner reading a region of a file with positional reads.
+	 * Several scanners may share the same channel
+	 *
+	 * @param channel
+	 *            to read from
+	 * @param start
+	 *            first byte of the region. Must be the start of a line
+	 * @param end
+	 *            end of the region, exclusive. Must be the end of a line
+	 * @param bufferSize
+	 *            size of the read buffer. Must hold the longest line
+	 */
+	CsvScanner(final FileChannel channel, final long start, final long end, final int bufferSize) {
+		this.channel = channel;
+		this.fileChannel = channel;
+		this.start = start;
+		this.position = start;
+		this.end = end;
+		this.data = new byte[bufferSize];
+		this.buffer = ByteBuffer.wrap(data);
+	}
+
+	/**
+	 * Set the field delimiter. If the delimiter is ',' only '.' is accepted
+	 * as decimal separator. If no delimiter is set, it is detected from the
+	 * first line, see {@link #detectDelimiter(byte[], int)}
+	 *
+	 * @param delimiter
+	 *            the field delimiter
+	 */
+	void setDelimiter(final byte delimiter) {
+		this.delimiter = delimiter;
+		this.decimalComma = delimiter != ',';
+	}
+
+	/**
+	 * @return the field delimiter or 0 if not yet known
+	 */
+	byte getDelimiter() {
+		return delimiter;
+	}
+
+	/**
+	 * Guess the field delimiter from the first line of the given sample. Tabs
+	 * are preferred over ';', which is preferred over ','
+	 *
+	 * @param sample
+	 *            beginning of the file
+	 * @param length
+	 *            number of valid bytes in sample
+	 * @return the delimiter
+	 */
+	static byte detectDelimiter(final byte[] sample, final int length) {
+		boolean semicolon = false;
+		for (int i = 0; i < length && sample[i] != '\n'; i++) {
+			if (sample[i] == '\t')
+				return '\t';
+			if (sample[i] == ';')
+				semicolon = true;
+		}
+		return semicolon ? (byte) ';' : (byte) ',';
+	}
+
+	/**
+	 * Guess the field delimiter of the given file
+	 *
+	 * @param channel
+	 *            of the file
+	 * @return the delimiter
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	static byte detectDelimiter(final FileChannel channel) throws IOException {
+		final byte[] sample = new byte[64 * 1024];
+		final ByteBuffer buf = ByteBuffer.wrap(sample);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, buf.position()) < 0)
+				break;
+		}
+		return detectDelimiter(sample, buf.position());
+	}
+
+	/**
+	 * Advance to the next non empty line. Lines starting with '#' are treated
+	 * as comments and skipped
+	 *
+	 * @return true if a line is available, false at the end of the input
+	 * @throws IOException
+	 *             if reading fails or a line does not fit into the buffer
+	 */
+	boolean nextLine() throws IOException {
+		for (;;) {
+			int i = next;
+			while (i < limit && data[i] != '\n')
+				i++;
+			if (i < limit || (eof && next < limit)) {
+				lineStart = next;
+				lineEnd = i;
+				next = i < limit ? i + 1 : limit;
+				lineNumber++;
+				if (lineEnd > lineStart && data[lineEnd - 1] == '\r')
+					lineEnd--;
+				if (lineEnd == lineStart || data[lineStart] == '#')
+					continue;
+				split();
+				return true;
+			}
+			if (eof)
+				return false;
+			if (next == 0 && limit == data.length)
+				throw new IOException("Line after " + getLocation() + " exceeds the buffer size of " + data.length + " bytes");
+			fill();
+		}
+	}
+
+	/** Move the remaining bytes to the start of the buffer and read more */
+	private void fill() throws IOException {
+		final int remaining = limit - next;
+		System.arraycopy(data, next, data, 0, remaining);
+		limit = remaining;
+		next = 0;
+		buffer.clear();
+		buffer.position(limit);
+		int n;
+		if (fileChannel != null) {
+			buffer.limit((int) Math.min(data.length, limit + (end - position)));
+			n = buffer.hasRemaining() ? fileChannel.read(buffer, position) : -1;
+			if (n > 0)
+				position += n;
+			if (position >= end)
+				eof = true;
+		} else {
+			n = channel.read(buffer);
+		}
+		if (n < 0)
+			eof = true;
+		else
+			limit += n;
+	}
+
+	/** Split the current line into fields */
+	private void split() {
+		if (delimiter == 0) {
+			final byte[] line = new byte[lineEnd - lineStart];
+			System.arraycopy(data, lineStart, line, 0, line.length);
+			setDelimiter(detectDelimiter(line, line.length));
+		}
+		fields = 0;
+		int start = lineStart;
+		for (int i = lineStart; i <= lineEnd; i++) {
+			if (i == lineEnd || data[i] == delimiter) {
+				if (fields < MAX_FIELDS) {
+					int s = start;
+					int e = i;
+					while (s < e && (data[s] == ' ' || data[s] == '"'))
+						s++;
+					while (e > s && (data[e - 1] == ' ' || data[e - 1] == '"'))
+						e--;
+					fieldStart[fields] = s;
+					fieldEnd[fields] = e;
+					fields++;
+				}
+				start = i + 1;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of the current line, starting with 1 at the start
+	 *         of the region
+	 */
+	long getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * @return the location of the current line for error messages
+	 */
+	String getLocation() {
+		return start > 0 ? "line " + lineNumber + " after byte " + start : "line " + lineNumber;
+	}
+
+	/**
+	 * @return the number of fields in the current line
+	 */
+	int getFieldCount() {
+		return fields;
+	}
+
+	/**
+	 * @return the internal buffer, valid for the offsets of the current line
+	 */
+	byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * @param field
+	 *            index of the field
+	 * @return offset of the given field in {@link #getData()}
+	 */
+	int getFieldStart(final int field) {
+		return fieldStart[field];
+	}
+
+	/**
+	 * @param field
+	 *            index of the field
+	 * @return length of the given field
+	 */
+	int getFieldLength(final int field) {
+		return fieldEnd[field] - fieldStart[field];
+	}
+
+	/**
+	 * @param field
+	 *            index of the field
+	 * @return the given field as string. Allocates, use only for rare cases
+	 */
+	String getField(final int field) {
+		return new String(data, fieldStart[field], fieldEnd[field] - fieldStart[field]);
+	}
+
+	/**
+	 * Parse the given field as number. The common case of up to 15
+	 * significant digits is parsed in place without allocation and is
+	 * correctly rounded like {@link Double#parseDouble(String)}
+	 *
+	 * @param field
+	 *            index of the field
+	 * @return the parsed value
+	 * @throws NumberFormatException
+	 *             if the field is missing or not a number
+	 */
+	double parseDouble(final int field) {
+		return parseDouble(field, 0);
+	}
+
+	/**
+	 * Parse the remainder of the given field as number, see
+	 * {@link #parseDouble(int)}
+	 *
+	 * @param field
+	 *            index of the field
+	 * @param skip
+	 *            number of bytes to skip at the start of the field
+	 * @return the parsed value
+	 * @throws NumberFormatException
+	 *             if the field is missing or not a number
+	 */
+	double parseDouble(final int field, final int skip) {
+		if (field >= fields)
+			throw new NumberFormatException("Missing field " + (field + 1) + " in " + getLocation());
+		final int s = fieldStart[field] + skip;
+		final int e = fieldEnd[field];
+		int i = s;
+		boolean negative = false;
+		if (i < e && (data[i] == '-' || data[i] == '+')) {
+			negative = data[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int exponent = 0;
+		int digits = 0;
+		boolean separator = false;
+		boolean exact = true;
+		for (; i < e; i++) {
+			final byte c = data[i];
+			if (c >= '0' && c <= '9') {
+				if (mantissa < MAX_EXACT_MANTISSA / 10) {
+					mantissa = mantissa * 10 + (c - '0');
+					if (separator)
+						exponent--;
+				} else {
+					exact = false;
+					break;
+				}
+				digits++;
+			} else if ((c == '.' || (c == ',' && decimalComma)) && !separator) {
+				separator = true;
+			} else {
+				break;
+			}
+		}
+		if (digits == 0)
+			return parseSlow(field, skip);
+		if (exact && i < e && (data[i] == 'e' || data[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < e && (data[i] == '-' || data[i] == '+')) {
+				negativeExponent = data[i] == '-';
+				i++;
+			}
+			int value = 0;
+			final int expStart = i;
+			for (; i < e && data[i] >= '0' && data[i] <= '9' && value < 10000; i++)
+				value = value * 10 + (data[i] - '0');
+			if (i == expStart)
+				throw new NumberFormatException("Illegal number '" + getField(field) + "' in " + getLocation());
+			exponent += negativeExponent ? -value : value;
+		}
+		if (exact && i == e && exponent >= -22 && exponent <= 22) {
+			// Both operands are exact, so one operation rounds correctly
+			final double value = exponent >= 0 ? mantissa * POW10[exponent] : mantissa / POW10[-exponent];
+			return negative ? -value : value;
+		}
+		return parseSlow(field, skip);
+	}
+
+	/** Fallback for numbers outside the fast path */
+	private double parseSlow(final int field, final int skip) {
+		String text = getField(field).substring(skip);
+		if (decimalComma)
+			text = text.replace(',', '.');
+		try {
+			return Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			throw new NumberFormatException("Illegal number '" + getField(field) + "' in " + getLocation());
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package ac.at.uibk.geotechnik;
+
+import java.util.Locale;
+
+/**
+ * Precomputed table of the dimensionless embedment depth T/H over B/H for one
+ * set of coefficients.
+ *
+ * For a fixed ratio x = B/H equation 25b scales with H, so T = H * f(x) with
+ * x clamped to [0, {@link EmbedmentSolver#MAX_B_OVER_H}]. f is tabulated on a
+ * uniform grid together with its derivative and evaluated by cubic Hermite
+ * interpolation. f is a linear fractional function of x, so all derivatives
+ * are known in closed form and the interpolation error is bounded a priori by
+ * {@link #getErrorBound()}.
+ *
+ * @author phoenix
+ *
+ */
+public final class DimensionlessTable {
+
+	/** Coefficient c1 */
+	private final double c1;
+	/** Coefficient c2 */
+	private final double c2;
+	/** Allowed hydraulic gradient */
+	private final double i_zul;
+
+	/** Number of intervals */
+	private final int intervals;
+	/** Width of one interval */
+	private final double delta;
+	/** Inverse width of one interval */
+	private final double invDelta;
+	/** Values of T/H at the grid points */
+	private final double[] values;
+	/** Derivatives of T/H at the grid points, multiplied by delta */
+	private final double[] slopes;
+
+	/** A priori bound for the interpolation error of T/H */
+	private final double errorBound;
+
+	/**
+	 * Creates a new table
+	 *
+	 * @param c1
+	 *            coefficient c1
+	 * @param c2
+	 *            coefficient c2
+	 * @param i_zul
+	 *            allowed hydraulic gradient
+	 * @param intervals
+	 *            number of intervals on [0, 7]
+	 */
+	public DimensionlessTable(final double c1, final double c2, final double i_zul, final int intervals) {
+		if (intervals < 1)
+			throw new IllegalArgumentException("At least one interval required");
+		this.c1 = c1;
+		this.c2 = c2;
+		this.i_zul = i_zul;
+
+		// f(x) = (n0 + n1 x) / (d0 + d1 x)
+		final double d0 = 8 * c1;
+		final double d1 = 8 * c2 + 1;
+		final double dMin = Math.min(d0, d0 + d1 * EmbedmentSolver.MAX_B_OVER_H);
+		if (!(d0 > 0 && dMin > 0))
+			throw new IllegalArgumentException("Coefficients yield a pole on [0, 7]");
+
+		this.intervals = intervals;
+		this.delta = EmbedmentSolver.MAX_B_OVER_H / intervals;
+		this.invDelta = intervals / EmbedmentSolver.MAX_B_OVER_H;
+		this.values = new double[intervals + 1];
+		this.slopes = new double[intervals + 1];
+		for (int i = 0; i <= intervals; i++) {
+			final double x = getX(i);
+			values[i] = exact(x);
+			slopes[i] = derivative(x) * delta;
+		}
+
+		// |f''''| = 24 |K| d1^4 / D^5 with K = n0 - n1 d0 / d1, maximal where D
+		// is minimal. The cubic Hermite error is at most delta^4 / 384 * |f''''|
+		final double n0 = d0 / i_zul;
+		final double n1 = 8 * c2 / i_zul - 1;
+		final double k = Math.abs(n0 - n1 * d0 / d1);
+		final double d4 = 24 * k * Math.pow(d1, 4) / Math.pow(dMin, 5);
+		this.errorBound = Math.pow(delta, 4) / 384 * d4;
+	}
+
+	/**
+	 * Creates the smallest table whose a priori error bound is below the given
+	 * tolerance
+	 *
+	 * @param c1
+	 *            coefficient c1
+	 * @param c2
+	 *            coefficient c2
+	 * @param i_zul
+	 *            allowed hydraulic gradient
+	 * @param tolerance
+	 *            maximum allowed error of T/H
+	 * @return the created table
+	 */
+	public static DimensionlessTable forTolerance(final double c1, final double c2, final double i_zul, final double tolerance) {
+		if (!(tolerance > 0))
+			throw new IllegalArgumentException("Tolerance must be positive");
+		final DimensionlessTable probe = new DimensionlessTable(c1, c2, i_zul, 1);
+		// The bound scales with intervals^-4
+		final double n = Math.ceil(Math.pow(probe.errorBound / tolerance, 0.25));
+		return new DimensionlessTable(c1, c2, i_zul, (int) Math.max(1, Math.min(n, 1 << 24)));
+	}
+
+	/**
+	 * Creates the table for the coefficients given in the script
+	 *
+	 * @param tolerance
+	 *            maximum allowed error of T/H
+	 * @return the created table
+	 */
+	public static DimensionlessTable forTolerance(final double tolerance) {
+		return forTolerance(EmbedmentSolver.C1, EmbedmentSolver.C2, EmbedmentSolver.I_ZUL, tolerance);
+	}
+
+	/**
+	 * Exact value of T/H according to equation 25b
+	 *
+	 * @param x
+	 *            ratio B/H, clamped to [0, 7]
+	 * @return T/H
+	 */
+	private double exact(final double x) {
+		final double k = 8 * (c1 + c2 * x);
+		return (1 / i_zul - x / k) / (1 + x / k);
+	}
+
+	/**
+	 * Exact derivative of T/H with respect to B/H
+	 *
+	 * @param x
+	 *            ratio B/H, clamped to [0, 7]
+	 * @return d(T/H)/dx
+	 */
+	private double derivative(final double x) {
+		final double d0 = 8 * c1;
+		final double d1 = 8 * c2 + 1;
+		final double n0 = d0 / i_zul;
+		final double n1 = 8 * c2 / i_zul - 1;
+		final double d = d0 + d1 * x;
+		return (n1 * d0 - n0 * d1) / (d * d);
+	}
+
+	/**
+	 * Get the interpolated value of T/H
+	 *
+	 * @param bOverH
+	 *            ratio B/H. Values above 7 are clamped
+	 * @return T/H
+	 */
+	public double tOverH(final double bOverH) {
+		if (!(bOverH >= 0))
+			return exact(bOverH);
+		final double x = Math.min(bOverH, EmbedmentSolver.MAX_B_OVER_H);
+		final double u = x * invDelta;
+		int i = (int) u;
+		if (i >= intervals)
+			i = intervals - 1;
+		final double s = u - i;
+		final double s2 = s * s;
+		final double s3 = s2 * s;
+		final double h00 = 2 * s3 - 3 * s2 + 1;
+		final double h10 = s3 - 2 * s2 + s;
+		final double h01 = -2 * s3 + 3 * s2;
+		final double h11 = s3 - s2;
+		return h00 * values[i] + h10 * slopes[i] + h01 * values[i + 1] + h11 * slopes[i + 1];
+	}
+
+	/**
+	 * Get T_K_mod out of the table
+	 *
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @return the required embedment depth T_K_mod in meter
+	 */
+	public double tkMod(final double b, final double h) {
+		return h * tOverH(b / h);
+	}
+
+	/**
+	 * Get T_K_mod out of the table for the given range of cases
+	 *
+	 * @param b
+	 *            widths of the excavations in meter
+	 * @param h
+	 *            head differences in meter
+	 * @param t
+	 *            output array for T_K_mod in meter
+	 * @param offset
+	 *            index of the first case
+	 * @param length
+	 *            number of cases
+	 */
+	public void solve(final double[] b, final double[] h, final double[] t, final int offset, final int length) {
+		final int end = offset + length;
+		for (int i = offset; i < end; i++)
+			t[i] = h[i] * tOverH(b[i] / h[i]);
+	}
+
+	/**
+	 * @return the number of grid points
+	 */
+	public int size() {
+		return intervals + 1;
+	}
+
+	/**
+	 * @param index
+	 *            of the grid point
+	 * @return the ratio B/H at the given grid point
+	 */
+	public double getX(final int index) {
+		return index == intervals ? EmbedmentSolver.MAX_B_OVER_H : index * delta;
+	}
+
+	/**
+	 * @param index
+	 *            of the grid point
+	 * @return the exact value of T/H at the given grid point
+	 */
+	public double getValue(final int index) {
+		return values[index];
+	}
+
+	/**
+	 * @return the a priori bound for the absolute error of T/H, without
+	 *         floating point rounding
+	 */
+	public double getErrorBound() {
+		return errorBound;
+	}
+
+	/**
+	 * Measures the maximum absolute error of T/H against the exact formula
+	 *
+	 * @param samples
+	 *            number of uniformly distributed sample points on [0, 7]
+	 * @return the maximum absolute error found
+	 */
+	public double measureMaxError(final int samples) {
+		double max = 0;
+		for (int i = 0; i <= samples; i++) {
+			final double x = EmbedmentSolver.MAX_B_OVER_H * i / samples;
+			max = Math.max(max, Math.abs(tOverH(x) - exact(x)));
+		}
+		return max;
+	}
+
+	/**
+	 * Creates a report on the accuracy of the table against the exact formula
+	 *
+	 * @param samples
+	 *            number of uniformly distributed sample points on [0, 7]
+	 * @return the report as human readable text
+	 */
+	public String accuracyReport(final int samples) {
+		double maxAbs = 0;
+		double maxRel = 0;
+		double worstX = 0;
+		double sumSq = 0;
+		for (int i = 0; i <= samples; i++) {
+			final double x = EmbedmentSolver.MAX_B_OVER_H * i / samples;
+			final double exact = exact(x);
+			final double err = Math.abs(tOverH(x) - exact);
+			if (err > maxAbs) {
+				maxAbs = err;
+				worstX = x;
+			}
+			if (exact != 0)
+				maxRel = Math.max(maxRel, err / Math.abs(exact));
+			sumSq += err * err;
+		}
+		final StringBuilder report = new StringBuilder();
+		report.append(String.format(Locale.US, "Coefficients     c1 = %.4f, c2 = %.4f, i_zul = %.4f%n", c1, c2, i_zul));
+		report.append(String.format(Locale.US, "Grid points      %d (delta B/H = %.3e)%n", size(), delta));
+		report.append(String.format(Locale.US, "Samples          %d on [0, 7]%n", samples + 1));
+		report.append(String.format(Locale.US, "A priori bound   %.3e%n", errorBound));
+		report.append(String.format(Locale.US, "Max abs. error   %.3e at B/H = %.4f%n", maxAbs, worstX));
+		report.append(String.format(Locale.US, "Max rel. error   %.3e%n", maxRel));
+		report.append(String.format(Locale.US, "RMS error        %.3e%n", Math.sqrt(sumSq / (samples + 1))));
+		report.append(String.format(Locale.US, "Within bound     %s%n", maxAbs <= errorBound + 1e-15 ? "yes" : "NO"));
+		return report.toString();
+	}
+
+	/**
+	 * Prints the accuracy report for the coefficients of the script
+	 *
+	 * @param args
+	 *            optional tolerance of T/H, default 1e-9
+	 */
+	public static void main(final String[] args) {
+		final double tolerance = args.length > 0 ? Double.parseDouble(args[0]) : 1e-9;
+		final DimensionlessTable table = forTolerance(tolerance);
+		System.out.print(table.accuracyReport(1000000));
+	}
+}
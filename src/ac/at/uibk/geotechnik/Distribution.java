@@ -0,0 +1,391 @@
+package ac.at.uibk.geotechnik;
+
+import java.util.Locale;
+
+/**
+ * Probability distribution of an uncertain input value.
+ *
+ * Distributions are immutable and can be shared between threads; the random
+ * numbers come from the generator passed to {@link #fill}.
+ *
+ * @author phoenix
+ *
+ */
+public abstract class Distribution {
+
+	private Distribution() {
+	}
+
+	/**
+	 * Fill an array with samples of this distribution
+	 *
+	 * @param random
+	 *            generator
+	 * @param values
+	 *            output array
+	 * @param length
+	 *            number of samples, starting at index 0
+	 */
+	abstract void fill(SplitMix64 random, double[] values, int length);
+
+	/**
+	 * Transform a standard normal value into a value of this distribution
+	 * with the same probability of non-exceedance
+	 *
+	 * @param u
+	 *            standard normal value
+	 * @return the value of this distribution
+	 */
+	abstract double fromStandardNormal(double u);
+
+	/**
+	 * Derivative of {@link #fromStandardNormal(double)}
+	 *
+	 * @param u
+	 *            standard normal value
+	 * @param x
+	 *            the transformed value of u
+	 * @return dx/du
+	 */
+	abstract double derivative(double u, double x);
+
+	/**
+	 * @return the mean of the distribution
+	 */
+	public abstract double getMean();
+
+	/**
+	 * @return the standard deviation of the distribution
+	 */
+	public abstract double getStandardDeviation();
+
+	/**
+	 * @param value
+	 *            fixed value
+	 * @return a distribution that always gives the value
+	 */
+	public static Distribution constant(final double value) {
+		return new Constant(value);
+	}
+
+	/**
+	 * @param min
+	 *            lower bound
+	 * @param max
+	 *            upper bound
+	 * @return a uniform distribution on [min, max)
+	 */
+	public static Distribution uniform(final double min, final double max) {
+		if (!(max > min))
+			throw new IllegalArgumentException("max must be greater than min");
+		return new Uniform(min, max);
+	}
+
+	/**
+	 * @param mean
+	 *            mean value
+	 * @param sd
+	 *            standard deviation
+	 * @return a normal distribution
+	 */
+	public static Distribution normal(final double mean, final double sd) {
+		if (!(sd > 0))
+			throw new IllegalArgumentException("Standard deviation must be positive");
+		return new Normal(mean, sd);
+	}
+
+	/**
+	 * @param mean
+	 *            mean of the value (not of its logarithm)
+	 * @param sd
+	 *            standard deviation of the value
+	 * @return a lognormal distribution
+	 */
+	public static Distribution lognormal(final double mean, final double sd) {
+		if (!(mean > 0 && sd > 0))
+			throw new IllegalArgumentException("Mean and standard deviation must be positive");
+		return new Lognormal(mean, sd);
+	}
+
+	/**
+	 * @param min
+	 *            lower bound
+	 * @param mode
+	 *            most likely value
+	 * @param max
+	 *            upper bound
+	 * @return a triangular distribution
+	 */
+	public static Distribution triangular(final double min, final double mode, final double max) {
+		if (!(min <= mode && mode <= max && max > min))
+			throw new IllegalArgumentException("min <= mode <= max required");
+		return new Triangular(min, mode, max);
+	}
+
+	/**
+	 * Parse a distribution. Accepted are a number for a constant and
+	 * uniform:min,max, normal:mean,sd, lognormal:mean,sd and
+	 * triangular:min,mode,max
+	 *
+	 * @param text
+	 *            to be parsed
+	 * @return the distribution
+	 * @throws IllegalArgumentException
+	 *             if the text is not a valid distribution
+	 */
+	public static Distribution parse(final String text) {
+		final int colon = text.indexOf(':');
+		if (colon < 0)
+			return constant(Double.parseDouble(text.trim()));
+		final String type = text.substring(0, colon).trim().toLowerCase(Locale.US);
+		final String[] parts = text.substring(colon + 1).split(",");
+		final double[] p = new double[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			p[i] = Double.parseDouble(parts[i].trim());
+		if (type.equals("uniform") && p.length == 2)
+			return uniform(p[0], p[1]);
+		if (type.equals("normal") && p.length == 2)
+			return normal(p[0], p[1]);
+		if (type.equals("lognormal") && p.length == 2)
+			return lognormal(p[0], p[1]);
+		if (type.equals("triangular") && p.length == 3)
+			return triangular(p[0], p[1], p[2]);
+		throw new IllegalArgumentException("Unknown distribution: " + text);
+	}
+
+	/** Fixed value */
+	private static final class Constant extends Distribution {
+		private final double value;
+
+		Constant(final double value) {
+			this.value = value;
+		}
+
+		@Override
+		void fill(final SplitMix64 random, final double[] values, final int length) {
+			for (int i = 0; i < length; i++)
+				values[i] = value;
+		}
+
+		@Override
+		double fromStandardNormal(final double u) {
+			return value;
+		}
+
+		@Override
+		double derivative(final double u, final double x) {
+			return 0;
+		}
+
+		@Override
+		public double getMean() {
+			return value;
+		}
+
+		@Override
+		public double getStandardDeviation() {
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return Double.toString(value);
+		}
+	}
+
+	/** Uniform distribution */
+	private static final class Uniform extends Distribution {
+		private final double min;
+		private final double range;
+
+		Uniform(final double min, final double max) {
+			this.min = min;
+			this.range = max - min;
+		}
+
+		@Override
+		void fill(final SplitMix64 random, final double[] values, final int length) {
+			for (int i = 0; i < length; i++)
+				values[i] = min + range * random.nextDouble();
+		}
+
+		@Override
+		double fromStandardNormal(final double u) {
+			// Use the smaller tail for accuracy
+			return u < 0 ? min + range * StandardNormal.cdf(u) : min + range - range * StandardNormal.cdf(-u);
+		}
+
+		@Override
+		double derivative(final double u, final double x) {
+			return range * StandardNormal.density(u);
+		}
+
+		@Override
+		public double getMean() {
+			return min + 0.5 * range;
+		}
+
+		@Override
+		public double getStandardDeviation() {
+			return range / Math.sqrt(12);
+		}
+
+		@Override
+		public String toString() {
+			return "uniform:" + min + "," + (min + range);
+		}
+	}
+
+	/** Normal distribution */
+	private static final class Normal extends Distribution {
+		private final double mean;
+		private final double sd;
+
+		Normal(final double mean, final double sd) {
+			this.mean = mean;
+			this.sd = sd;
+		}
+
+		@Override
+		void fill(final SplitMix64 random, final double[] values, final int length) {
+			for (int i = 0; i < length; i++)
+				values[i] = mean + sd * random.nextGaussian();
+		}
+
+		@Override
+		double fromStandardNormal(final double u) {
+			return mean + sd * u;
+		}
+
+		@Override
+		double derivative(final double u, final double x) {
+			return sd;
+		}
+
+		@Override
+		public double getMean() {
+			return mean;
+		}
+
+		@Override
+		public double getStandardDeviation() {
+			return sd;
+		}
+
+		@Override
+		public String toString() {
+			return "normal:" + mean + "," + sd;
+		}
+	}
+
+	/** Lognormal distribution, given by mean and standard deviation */
+	private static final class Lognormal extends Distribution {
+		private final double mean;
+		private final double sd;
+		/** Mean of the logarithm */
+		private final double mu;
+		/** Standard deviation of the logarithm */
+		private final double sigma;
+
+		Lognormal(final double mean, final double sd) {
+			this.mean = mean;
+			this.sd = sd;
+			final double cov = sd / mean;
+			sigma = Math.sqrt(Math.log(1 + cov * cov));
+			mu = Math.log(mean) - 0.5 * sigma * sigma;
+		}
+
+		@Override
+		void fill(final SplitMix64 random, final double[] values, final int length) {
+			for (int i = 0; i < length; i++)
+				values[i] = Math.exp(mu + sigma * random.nextGaussian());
+		}
+
+		@Override
+		double fromStandardNormal(final double u) {
+			return Math.exp(mu + sigma * u);
+		}
+
+		@Override
+		double derivative(final double u, final double x) {
+			return sigma * x;
+		}
+
+		@Override
+		public double getMean() {
+			return mean;
+		}
+
+		@Override
+		public double getStandardDeviation() {
+			return sd;
+		}
+
+		@Override
+		public String toString() {
+			return "lognormal:" + mean + "," + sd;
+		}
+	}
+
+	/** Triangular distribution, sampled by inversion */
+	private static final class Triangular extends Distribution {
+		private final double min;
+		private final double mode;
+		private final double max;
+		/** Value of the distribution function at the mode */
+		private final double split;
+
+		Triangular(final double min, final double mode, final double max) {
+			this.min = min;
+			this.mode = mode;
+			this.max = max;
+			split = (mode - min) / (max - min);
+		}
+
+		@Override
+		void fill(final SplitMix64 random, final double[] values, final int length) {
+			final double lower = (max - min) * (mode - min);
+			final double upper = (max - min) * (max - mode);
+			for (int i = 0; i < length; i++) {
+				final double u = random.nextDouble();
+				values[i] = u < split ? min + Math.sqrt(u * lower) : max - Math.sqrt((1 - u) * upper);
+			}
+		}
+
+		@Override
+		double fromStandardNormal(final double u) {
+			if (u < 0) {
+				final double p = StandardNormal.cdf(u);
+				if (p < split)
+					return min + Math.sqrt(p * (max - min) * (mode - min));
+			}
+			final double q = StandardNormal.cdf(-u);
+			if (q <= 1 - split)
+				return max - Math.sqrt(q * (max - min) * (max - mode));
+			return min + Math.sqrt((1 - q) * (max - min) * (mode - min));
+		}
+
+		@Override
+		double derivative(final double u, final double x) {
+			// dx/du = phi(u) / f(x)
+			final double f = x < mode ? 2 * (x - min) / ((max - min) * (mode - min))
+					: 2 * (max - x) / ((max - min) * (max - mode));
+			return f > 0 ? StandardNormal.density(u) / f : 0;
+		}
+
+		@Override
+		public double getMean() {
+			return (min + mode + max) / 3;
+		}
+
+		@Override
+		public double getStandardDeviation() {
+			return Math.sqrt((min * min + mode * mode + max * max - min * mode - min * max - mode * max) / 18);
+		}
+
+		@Override
+		public String toString() {
+			return "triangular:" + min + "," + mode + "," + max;
+		}
+	}
+}
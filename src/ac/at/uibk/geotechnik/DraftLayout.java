@@ -0,0 +1,155 @@
+package ac.at.uibk.geotechnik;
+
+import java.util.Locale;
+
+/**
+ * Geometry and labels of the draft picture of one result. The layout is
+ * computed once and can be drawn any number of times onto any
+ * {@link DraftSurface} by {@link DraftPainter}.
+ *
+ * The proportions are those of the original 400 x 400 pixel draft; larger
+ * pictures scale text and arrow heads with the width.
+ *
+ * @author phoenix
+ *
+ */
+public final class DraftLayout {
+
+	/** Width of the reference draft in pixel */
+	public static final int REFERENCE_SIZE = 400;
+
+	/** Effective width of the excavation in meter */
+	final double b;
+	/** Head difference in meter */
+	final double h;
+	/** Embedment depth in meter */
+	final double t;
+
+	/** Width of the picture in pixel */
+	final float width;
+	/** Height of the picture in pixel */
+	final float height;
+	/** Scale relative to the reference draft */
+	final float scale;
+	/** Upper edge of the soil */
+	final float top;
+	/** Distance between the picture border and the wall */
+	final float margin;
+	/** Soil below the pile toe */
+	final float d;
+	/** Thickness of the wall */
+	final float barSize;
+	/** Height of H in pixel */
+	final float heightH;
+	/** Height of T in pixel */
+	final float heightT;
+	/** Width of B in pixel */
+	final float widthB;
+	/** Font size of the labels */
+	final float textSize;
+	/** Size of the arrow heads */
+	final float arrowSize;
+	/** Line width of the arrows */
+	final float lineWidth;
+
+	/** Label of B */
+	final String textB;
+	/** Label of H */
+	final String textH;
+	/** Label of T */
+	final String textT;
+
+	/**
+	 * Creates the layout of a result with the labels formatted in the default
+	 * locale
+	 *
+	 * @param b
+	 *            effective width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @param t
+	 *            embedment depth in meter
+	 * @param width
+	 *            width of the picture in pixel
+	 * @param height
+	 *            height of the picture in pixel
+	 */
+	public DraftLayout(final double b, final double h, final double t, final int width, final int height) {
+		this(b, h, t, width, height, Locale.getDefault());
+	}
+
+	/**
+	 * Creates the layout of a result
+	 *
+	 * @param b
+	 *            effective width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @param t
+	 *            embedment depth in meter
+	 * @param width
+	 *            width of the picture in pixel
+	 * @param height
+	 *            height of the picture in pixel
+	 * @param locale
+	 *            locale of the labels
+	 */
+	public DraftLayout(final double b, final double h, final double t, final int width, final int height,
+			final Locale locale) {
+		this.b = b;
+		this.h = h;
+		this.t = t;
+		this.width = width;
+		this.height = height;
+		scale = this.width / REFERENCE_SIZE;
+		top = this.height * 1 / 4;
+		margin = this.width * 1 / 8;
+		d = this.height / 8;
+		barSize = 5 * scale;
+		final float realHeight = this.height - top - d;
+		final float ht = (float) (h + t);
+		heightH = (float) (realHeight * h / ht);
+		heightT = (float) (realHeight * t / ht);
+		widthB = this.width - 2 * margin;
+		textSize = 25 * scale;
+		arrowSize = 15 * scale;
+		lineWidth = scale;
+
+		textB = "B = " + String.format(locale, "%.2f", b) + " m";
+		textH = "H = " + String.format(locale, "%.2f", h) + " m";
+		textT = "T = " + String.format(locale, "%.2f", t) + " m";
+	}
+
+	/**
+	 * Checks if this layout belongs to the given result and size
+	 *
+	 * @param b
+	 *            effective width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @param t
+	 *            embedment depth in meter
+	 * @param width
+	 *            width of the picture in pixel
+	 * @param height
+	 *            height of the picture in pixel
+	 * @return true if the layout can be reused
+	 */
+	public boolean matches(final double b, final double h, final double t, final int width, final int height) {
+		return this.b == b && this.h == h && this.t == t && this.width == width && this.height == height;
+	}
+
+	/**
+	 * @return the width of the picture in pixel
+	 */
+	public int getWidth() {
+		return (int) width;
+	}
+
+	/**
+	 * @return the height of the picture in pixel
+	 */
+	public int getHeight() {
+		return (int) height;
+	}
+}
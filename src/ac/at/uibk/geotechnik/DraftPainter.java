@@ -0,0 +1,238 @@
+package ac.at.uibk.geotechnik;
+
+/**
+ * Draws the draft picture of a {@link DraftLayout} onto a
+ * {@link DraftSurface}. The painter is stateless and can be used from any
+ * number of threads at the same time.
+ *
+ * @author phoenix
+ *
+ */
+public final class DraftPainter {
+
+	/** Colour of the area above the soil */
+	public static final int BACKGROUND = 0xFFCCCCCC;
+	/** Colour of the soil */
+	public static final int EARTH = 0xFFFF8000;
+	/** Colour of the sheet pile walls */
+	public static final int WALL = 0xFF000000;
+	/** Colour of H */
+	public static final int COLOR_H = 0xFF0000FF;
+	/** Colour of T */
+	public static final int COLOR_T = 0xFFFF0000;
+	/** Colour of B */
+	public static final int COLOR_B = 0xFFFF00FF;
+
+	private DraftPainter() {
+	}
+
+	/**
+	 * Paint the draft picture
+	 *
+	 * @param layout
+	 *            of the picture
+	 * @param surface
+	 *            to draw on
+	 * @param background
+	 *            true to fill the whole picture with {@link #BACKGROUND}
+	 *            first, false to leave the area above the soil untouched
+	 */
+	public static void paint(final DraftLayout layout, final DraftSurface surface, final boolean background) {
+		final float WIDTH = layout.width;
+		final float HEIGHT = layout.height;
+		final float TOP = layout.top;
+		final float MARGIN = layout.margin;
+		final float D = layout.d;
+		final float BAR_SIZE = layout.barSize;
+		final float H = layout.heightH;
+		final float T = layout.heightT;
+		final float B = layout.widthB;
+		final float TEXT_SIZE = layout.textSize;
+
+		if (background)
+			surface.fillRect(0, 0, WIDTH, HEIGHT, BACKGROUND);
+
+		// Areas without arrows
+		surface.fillRect(0, TOP, WIDTH, HEIGHT, EARTH);
+		surface.fillRect(MARGIN, TOP, WIDTH - MARGIN, HEIGHT - D, BACKGROUND);
+		surface.fillRect(MARGIN, TOP + H, WIDTH - MARGIN, HEIGHT - D, EARTH);
+		// The walls are outlined by half a line on each side
+		final float outline = 0.5F * layout.lineWidth;
+		surface.fillRect(MARGIN - BAR_SIZE - outline, TOP - outline, MARGIN + outline, HEIGHT - D + outline, WALL);
+		surface.fillRect(WIDTH - MARGIN - outline, TOP - outline, WIDTH - MARGIN + BAR_SIZE + outline, HEIGHT - D
+				+ outline, WALL);
+
+		// Draw arrows
+		drawArrowBidirectional(surface, layout, 2 * MARGIN, TOP, 0, H, COLOR_H);
+		drawArrowBidirectional(surface, layout, 2 * MARGIN, TOP + H, 0, T, COLOR_T);
+		drawArrowBidirectional(surface, layout, MARGIN, TOP - MARGIN * 0.5F, B, 0, COLOR_B);
+
+		surface.drawText(layout.textH, labelX(layout), labelYH(layout), TEXT_SIZE, COLOR_H);
+		surface.drawText(layout.textT, labelX(layout), labelYT(layout), TEXT_SIZE, COLOR_T);
+		final float widthB = surface.measureText(layout.textB, TEXT_SIZE);
+		surface.drawText(layout.textB, labelXB(layout, widthB), labelYB(layout), TEXT_SIZE, COLOR_B);
+	}
+
+	/**
+	 * Get the area that differs between the pictures of two layouts of the
+	 * same size, so that only this area has to be painted again. Everything
+	 * but the labels and the split between H and T stays in place when the
+	 * values change.
+	 *
+	 * @param previous
+	 *            layout of the picture that is shown or null
+	 * @param layout
+	 *            new layout
+	 * @param surface
+	 *            for measuring the labels
+	 * @param bounds
+	 *            receives left, top, right and bottom of the area
+	 * @return false if nothing changed
+	 */
+	static boolean changedBounds(final DraftLayout previous, final DraftLayout layout, final DraftSurface surface,
+			final float[] bounds) {
+		if (previous == null || previous.width != layout.width || previous.height != layout.height) {
+			bounds[0] = 0;
+			bounds[1] = 0;
+			bounds[2] = layout.width;
+			bounds[3] = layout.height;
+			return true;
+		}
+		bounds[0] = bounds[1] = Float.MAX_VALUE;
+		bounds[2] = bounds[3] = -Float.MAX_VALUE;
+		if (previous.heightH != layout.heightH) {
+			// Water level, soil and both vertical arrows between the walls
+			union(bounds, layout.margin, layout.top, layout.width - layout.margin, layout.height - layout.d);
+		}
+		if (previous.heightH != layout.heightH || !previous.textH.equals(layout.textH)) {
+			unionLabel(bounds, surface, previous, previous.textH, labelX(previous), labelYH(previous));
+			unionLabel(bounds, surface, layout, layout.textH, labelX(layout), labelYH(layout));
+		}
+		if (previous.heightH != layout.heightH || !previous.textT.equals(layout.textT)) {
+			unionLabel(bounds, surface, previous, previous.textT, labelX(previous), labelYT(previous));
+			unionLabel(bounds, surface, layout, layout.textT, labelX(layout), labelYT(layout));
+		}
+		if (!previous.textB.equals(layout.textB)) {
+			final float previousWidth = surface.measureText(previous.textB, previous.textSize);
+			unionLabel(bounds, surface, previous, previous.textB, labelXB(previous, previousWidth), labelYB(previous));
+			final float width = surface.measureText(layout.textB, layout.textSize);
+			unionLabel(bounds, surface, layout, layout.textB, labelXB(layout, width), labelYB(layout));
+		}
+		return bounds[0] <= bounds[2];
+	}
+
+	/** Extend the bounds by the box of a label, including its descent */
+	private static void unionLabel(final float[] bounds, final DraftSurface surface, final DraftLayout layout,
+			final String text, final float x, final float y) {
+		union(bounds, x, y - layout.textSize, x + surface.measureText(text, layout.textSize), y + 0.3F
+				* layout.textSize);
+	}
+
+	/** Extend the bounds by a rectangle */
+	private static void union(final float[] bounds, final float left, final float top, final float right,
+			final float bottom) {
+		bounds[0] = Math.min(bounds[0], left);
+		bounds[1] = Math.min(bounds[1], top);
+		bounds[2] = Math.max(bounds[2], right);
+		bounds[3] = Math.max(bounds[3], bottom);
+	}
+
+	/* Positions of the labels, shared by painting and changedBounds */
+
+	private static float labelX(final DraftLayout layout) {
+		return 2.5F * layout.margin;
+	}
+
+	private static float labelYH(final DraftLayout layout) {
+		return layout.top + layout.heightH / 2.0F + layout.textSize / 2.0F;
+	}
+
+	private static float labelYT(final DraftLayout layout) {
+		return layout.top + layout.heightH + layout.heightT / 2.0F + layout.textSize / 2.0F;
+	}
+
+	private static float labelXB(final DraftLayout layout, final float widthB) {
+		return layout.width / 2.0F - layout.textSize / 2.0F - widthB / 2.0F;
+	}
+
+	private static float labelYB(final DraftLayout layout) {
+		return layout.top - -layout.margin * 0.5F - layout.textSize * 2.2F;
+	}
+
+	/**
+	 * Draw an arrow with two endpoints
+	 *
+	 * @param surface
+	 *            the arrow is drawn to
+	 * @param layout
+	 *            giving the size of the arrow heads and the line width
+	 * @param startX
+	 *            starting x position
+	 * @param startY
+	 *            starting y position
+	 * @param width
+	 *            of the arrow
+	 * @param height
+	 *            of the arrow
+	 * @param color
+	 *            of the arrow
+	 */
+	private static void drawArrowBidirectional(final DraftSurface surface, final DraftLayout layout,
+			final float startX, final float startY, final float width, final float height, final int color) {
+		drawArrow(surface, startX, startY, width, height, layout.arrowSize, layout.lineWidth, color);
+		drawArrow(surface, startX + width, startY + height, -width, -height, layout.arrowSize, layout.lineWidth,
+				color);
+	}
+
+	/**
+	 * Draw an arrow
+	 *
+	 * @param surface
+	 *            the arrow is drawn to
+	 * @param startX
+	 *            starting x position
+	 * @param startY
+	 *            starting y position
+	 * @param width
+	 *            of the arrow
+	 * @param height
+	 *            of the arrow
+	 * @param size
+	 *            of the arrow head
+	 * @param lineWidth
+	 *            width of the lines
+	 * @param color
+	 *            of the arrow
+	 */
+	private static void drawArrow(final DraftSurface surface, final float startX, final float startY,
+			final float width, final float height, final float size, final float lineWidth, final int color) {
+
+		final float endX = startX + width;
+		final float endY = startY + height;
+
+		surface.drawLine(startX, startY, endX, endY, lineWidth, color);
+
+		final float sizeX = size;
+		final float sizeY = size * 1.2F;
+		if (width == 0) {
+			if (height > 0) {
+				surface.drawLine(endX, endY, endX + sizeX, endY - sizeY, lineWidth, color);
+				surface.drawLine(endX, endY, endX - sizeX, endY - sizeY, lineWidth, color);
+			} else {
+				surface.drawLine(endX, endY, endX + sizeX, endY + sizeY, lineWidth, color);
+				surface.drawLine(endX, endY, endX - sizeX, endY + sizeY, lineWidth, color);
+			}
+		} else if (height == 0) {
+			if (width > 0) {
+				surface.drawLine(endX, endY, endX - sizeY, endY + sizeX, lineWidth, color);
+				surface.drawLine(endX, endY, endX - sizeY, endY - sizeX, lineWidth, color);
+			} else {
+				surface.drawLine(endX, endY, endX + sizeY, endY + sizeX, lineWidth, color);
+				surface.drawLine(endX, endY, endX + sizeY, endY - sizeX, lineWidth, color);
+			}
+		} else {
+			// XXX: Currently we only support straight arrows
+			System.err.println("Currently only straight arrorws are supported");
+		}
+	}
+}
@@ -0,0 +1,310 @@
+package ac.at.uibk.geotechnik;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.util.Log;
+import android.view.View;
+import android.widget.ImageView;
+
+/**
+ * Renders the draft picture of a result on a background thread.
+ *
+ * All drafts are drawn by one shared worker thread, so the canvas surface can
+ * be created once and reused without synchronisation. Bitmaps are taken from
+ * a small pool and are reference counted: a rendered bitmap has one
+ * reference, further users such as a running export take one with
+ * {@link #retain(Bitmap)}, and every user gives it back with
+ * {@link #release(Bitmap)}. The bitmap is reused once the last reference is
+ * gone. The layout is computed once per result and reused when the same
+ * result is drawn again, e.g. after a rotation.
+ *
+ * The worker also decodes the picture of the input screen, downsampled to
+ * the size it is shown at; see {@link #decode(Resources, int, int, int, View, Callback)}.
+ *
+ * @author phoenix
+ *
+ */
+final class DraftRenderer {
+
+	/** Tag for the log */
+	private static final String TAG = "DraftRenderer";
+
+	/** Width of the draft in pixel */
+	static final int WIDTH = 400;
+	/** Height of the draft in pixel */
+	static final int HEIGHT = 400;
+	/** Background colour of the draft */
+	static final int BACKGROUND = DraftPainter.BACKGROUND;
+	/** Maximum number of pooled bitmaps */
+	private static final int POOL_SIZE = 2;
+
+	/** Callback for finished drafts, called on the UI thread */
+	interface Callback {
+		/**
+		 * Called when the draft has been published to the image view
+		 *
+		 * @param bitmap
+		 *            the rendered draft
+		 */
+		void onDraftRendered(Bitmap bitmap);
+	}
+
+	/** Handle of a pending render request */
+	static final class Request {
+		/** Set if the result is not needed anymore */
+		private volatile boolean cancelled = false;
+
+		/** Cancel the request. The bitmap is returned to the pool */
+		void cancel() {
+			cancelled = true;
+		}
+	}
+
+	/** Worker thread for all drafts */
+	private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, TAG);
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		}
+	});
+
+	/** Bitmaps that can be reused */
+	private static final List<Bitmap> pool = new ArrayList<Bitmap>(POOL_SIZE);
+	/** Number of references of the bitmaps in use, guarded by pool */
+	private static final Map<Bitmap, Integer> references = new IdentityHashMap<Bitmap, Integer>();
+
+	/** Surface of the worker thread */
+	private static final CanvasSurface surface = new CanvasSurface();
+	/** Layout of the last draft, only used by the worker thread */
+	private static DraftLayout layout = null;
+	/** Duration of the last rendering in nanoseconds */
+	private static volatile long lastRenderNanos = 0;
+
+	/** Last decoded picture, only used by the worker thread */
+	private static Bitmap picture = null;
+	/** Resource id of the decoded picture */
+	private static int pictureId = 0;
+	/** Sample size of the decoded picture */
+	private static int pictureSample = 0;
+
+	private DraftRenderer() {
+	}
+
+	/**
+	 * Render a draft in the background and show it in the image view
+	 *
+	 * @param b
+	 *            effective width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @param t
+	 *            embedment depth in meter
+	 * @param target
+	 *            view that shows the draft
+	 * @param callback
+	 *            called after the draft has been shown or null
+	 * @return handle of the request
+	 */
+	static Request render(final double b, final double h, final double t, final ImageView target,
+			final Callback callback) {
+		final Request request = new Request();
+		EXECUTOR.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				if (request.cancelled)
+					return;
+				final long start = System.nanoTime();
+				final Bitmap bitmap = acquire(WIDTH, HEIGHT);
+				if (layout == null || !layout.matches(b, h, t, WIDTH, HEIGHT))
+					layout = new DraftLayout(b, h, t, WIDTH, HEIGHT);
+				DraftPainter.paint(layout, surface.setCanvas(new Canvas(bitmap)), false);
+				surface.setCanvas(null);
+				lastRenderNanos = System.nanoTime() - start;
+				Log.d(TAG, "Draft rendered in " + lastRenderNanos / 1000 + " us");
+
+				target.post(new Runnable() {
+
+					@Override
+					public void run() {
+						if (request.cancelled) {
+							release(bitmap);
+							return;
+						}
+						target.setImageBitmap(bitmap);
+						if (callback != null)
+							callback.onDraftRendered(bitmap);
+					}
+				});
+			}
+		});
+		return request;
+	}
+
+	/**
+	 * Decode a picture in the background at the smallest power of two
+	 * downsampling that still covers the given size. The decoded picture is
+	 * kept and reused as long as the same resource is decoded at the same
+	 * sample size. It is not pooled and must not be given to
+	 * {@link #release(Bitmap)}
+	 *
+	 * @param resources
+	 *            of the picture
+	 * @param id
+	 *            of the drawable, should be in drawable-nodpi so it is not
+	 *            scaled when decoded
+	 * @param width
+	 *            width the picture is shown at in pixel
+	 * @param height
+	 *            height the picture is shown at in pixel
+	 * @param poster
+	 *            view to run the callback on the UI thread
+	 * @param callback
+	 *            called with the picture unless the request has been
+	 *            cancelled. Does not show the picture itself
+	 * @return handle of the request
+	 */
+	static Request decode(final Resources resources, final int id, final int width, final int height,
+			final View poster, final Callback callback) {
+		final Request request = new Request();
+		EXECUTOR.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				if (request.cancelled)
+					return;
+				final long start = System.nanoTime();
+				final BitmapFactory.Options options = new BitmapFactory.Options();
+				options.inJustDecodeBounds = true;
+				BitmapFactory.decodeResource(resources, id, options);
+				final int minWidth = Math.max(1, width);
+				final int minHeight = Math.max(1, height);
+				int sample = 1;
+				while (options.outWidth / (2 * sample) >= minWidth && options.outHeight / (2 * sample) >= minHeight)
+					sample *= 2;
+
+				if (picture == null || pictureId != id || pictureSample != sample) {
+					options.inJustDecodeBounds = false;
+					options.inSampleSize = sample;
+					// The picture is a JPEG, so it has no alpha
+					options.inPreferredConfig = Bitmap.Config.RGB_565;
+					options.inPurgeable = true;
+					options.inInputShareable = true;
+					picture = BitmapFactory.decodeResource(resources, id, options);
+					pictureId = id;
+					pictureSample = sample;
+					Log.d(TAG, "Picture decoded with sample size " + sample + " in " + (System.nanoTime() - start)
+							/ 1000 + " us");
+				}
+				final Bitmap decoded = picture;
+				if (decoded == null)
+					return;
+				poster.post(new Runnable() {
+
+					@Override
+					public void run() {
+						if (!request.cancelled)
+							callback.onDraftRendered(decoded);
+					}
+				});
+			}
+		});
+		return request;
+	}
+
+	/**
+	 * @return the duration of the last rendering in milliseconds
+	 */
+	static double getLastRenderMillis() {
+		return lastRenderNanos / 1e6;
+	}
+
+	/**
+	 * Get a bitmap of the given size from the pool or create a new one
+	 *
+	 * @param width
+	 *            in pixel
+	 * @param height
+	 *            in pixel
+	 * @return a cleared bitmap with one reference
+	 */
+	static Bitmap acquire(final int width, final int height) {
+		synchronized (pool) {
+			for (int i = pool.size() - 1; i >= 0; i--) {
+				final Bitmap bitmap = pool.get(i);
+				if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+					pool.remove(i);
+					bitmap.eraseColor(Color.TRANSPARENT);
+					references.put(bitmap, 1);
+					return bitmap;
+				}
+			}
+		}
+		final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		synchronized (pool) {
+			references.put(bitmap, 1);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Take another reference of a bitmap in use
+	 *
+	 * @param bitmap
+	 *            from {@link #acquire(int, int)}
+	 * @return false if the bitmap has already been released and must not be
+	 *         used
+	 */
+	static boolean retain(final Bitmap bitmap) {
+		synchronized (pool) {
+			final Integer count = references.get(bitmap);
+			if (count == null)
+				return false;
+			references.put(bitmap, count + 1);
+			return true;
+		}
+	}
+
+	/**
+	 * Give back a reference of a bitmap. The last reference returns the bitmap
+	 * to the pool. Bitmaps without references, i.e. released already or never
+	 * acquired, are ignored
+	 *
+	 * @param bitmap
+	 *            to be reused, may be null
+	 */
+	static void release(final Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled())
+			return;
+		synchronized (pool) {
+			final Integer count = references.get(bitmap);
+			if (count == null)
+				return;
+			if (count > 1) {
+				references.put(bitmap, count - 1);
+				return;
+			}
+			references.remove(bitmap);
+			if (pool.size() < POOL_SIZE) {
+				pool.add(bitmap);
+				return;
+			}
+		}
+		bitmap.recycle();
+	}
+}
@@ -0,0 +1,74 @@
+package ac.at.uibk.geotechnik;
+
+/**
+ * Minimal drawing surface for the draft picture, implemented for the Android
+ * {@link android.graphics.Canvas} ({@link CanvasSurface}), for SVG
+ * ({@link SvgSurface}) and for Java2D on desktop JVMs. Coordinates are in
+ * pixel with the origin in the top left corner, colours are ARGB.
+ *
+ * @author phoenix
+ *
+ */
+public interface DraftSurface {
+
+	/**
+	 * Fill a rectangle
+	 *
+	 * @param left
+	 *            left edge
+	 * @param top
+	 *            top edge
+	 * @param right
+	 *            right edge
+	 * @param bottom
+	 *            bottom edge
+	 * @param color
+	 *            ARGB colour
+	 */
+	void fillRect(float left, float top, float right, float bottom, int color);
+
+	/**
+	 * Draw a straight line
+	 *
+	 * @param startX
+	 *            x of the start point
+	 * @param startY
+	 *            y of the start point
+	 * @param endX
+	 *            x of the end point
+	 * @param endY
+	 *            y of the end point
+	 * @param width
+	 *            line width
+	 * @param color
+	 *            ARGB colour
+	 */
+	void drawLine(float startX, float startY, float endX, float endY, float width, int color);
+
+	/**
+	 * Draw a text in a sans serif font
+	 *
+	 * @param text
+	 *            to be drawn
+	 * @param x
+	 *            left end of the baseline
+	 * @param y
+	 *            baseline
+	 * @param size
+	 *            font size in pixel
+	 * @param color
+	 *            ARGB colour
+	 */
+	void drawText(String text, float x, float y, float size, int color);
+
+	/**
+	 * Measure the width of a text
+	 *
+	 * @param text
+	 *            to be measured
+	 * @param size
+	 *            font size in pixel
+	 * @return the width in pixel
+	 */
+	float measureText(String text, float size);
+}
@@ -5,6 +5,7 @@ import android.app.AlertDialog;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.view.Gravity;
 import android.view.Menu;
@@ -40,6 +41,16 @@ public class Einbindetiefe extends Activity {
 	private ProgressBar prgCalculate = null;
 	/** Draft image */
 	private ImageView imgDraft = null;
+	/** Live result of the input */
+	private TextView txtLiveResult = null;
+
+	/** Live preview of the input */
+	private LivePreview livePreview = null;
+	/** Pending decoding of the draft picture or null */
+	private DraftRenderer.Request pictureRequest = null;
+
+	/** Version of the app, read when the about dialog is first shown */
+	private static String version = null;
 
 	/* END OF GUIT Components */
 
@@ -48,6 +59,22 @@ public class Einbindetiefe extends Activity {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_input);
 		initComponents();
+		StartupTrace.mark(StartupTrace.ACTIVITY);
+	}
+
+	@Override
+	protected void onDestroy() {
+		if (pictureRequest != null)
+			pictureRequest.cancel();
+		livePreview.release();
+		super.onDestroy();
+	}
+
+	@Override
+	public void onLowMemory() {
+		// Cached results and drafts are held even while no result is shown
+		ResultCache.clear();
+		super.onLowMemory();
 	}
 
 	@Override
@@ -75,14 +102,15 @@ public class Einbindetiefe extends Activity {
 	 * Shows the about dialog
 	 */
 	private void showAbout() {
-		String version = "?";
-		try {
-			final PackageInfo pInfo = getPackageManager().getPackageInfo(getPackageName(), 0);
-			version = pInfo.versionName;
-		} catch (NameNotFoundException e) {
+		if (version == null) {
+			version = "?";
+			try {
+				final PackageInfo pInfo = getPackageManager().getPackageInfo(getPackageName(), 0);
+				version = pInfo.versionName;
+			} catch (NameNotFoundException e) {
+			}
 		}
-		
-		
+
 		final String aboutMessage = "Version " + version + ", 2013; Licensed under the GPLv3\n\nWritten by: Felix Niederwanger\nIm Auftrag der Universität Innsbruck\n\n" +
 		"See http://gplv3.fsf.org/\nhttps://github.com/grisu48/Hydraulische_Einbindetiefe";
 
@@ -108,6 +136,16 @@ public class Einbindetiefe extends Activity {
 		prgCalculate = (ProgressBar) this.findViewById(R.id.prgCalculate);
 		txtHint = (TextView) this.findViewById(R.id.txtInputHint);
 		imgDraft = (ImageView) this.findViewById(R.id.imgDraft);
+		txtLiveResult = (TextView) this.findViewById(R.id.txtLiveResult);
+		livePreview = new LivePreview(edB, edH, imgDraft, txtLiveResult);
+		// The picture is decoded once the size of the view is known
+		StartupTrace.watchFirstFrame(imgDraft, new Runnable() {
+
+			@Override
+			public void run() {
+				loadPicture();
+			}
+		});
 
 		btnCalculate.setOnClickListener(new OnClickListener() {
 
@@ -118,6 +156,28 @@ public class Einbindetiefe extends Activity {
 		});
 	}
 
+	/** Decodes the draft picture at the size of the view */
+	private void loadPicture() {
+		int width = imgDraft.getWidth();
+		int height = imgDraft.getHeight();
+		if (width <= 0 || height <= 0) {
+			width = DraftRenderer.WIDTH;
+			height = DraftRenderer.HEIGHT;
+		}
+		pictureRequest = DraftRenderer.decode(getResources(), R.drawable.draft, width, height, imgDraft,
+				new DraftRenderer.Callback() {
+
+					@Override
+					public void onDraftRendered(final Bitmap picture) {
+						pictureRequest = null;
+						// The draft of the input replaces the picture
+						if (!livePreview.isShowing())
+							imgDraft.setImageBitmap(picture);
+						StartupTrace.mark(StartupTrace.DRAFT);
+					}
+				});
+	}
+
 	/** Invokes the calculation process */
 	private synchronized void doCalculation() {
 		try {
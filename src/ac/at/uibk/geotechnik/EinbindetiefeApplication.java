@@ -0,0 +1,22 @@
+package ac.at.uibk.geotechnik;
+
+import android.app.Application;
+
+/**
+ * Application of the app, starts the {@link StartupTrace}.
+ *
+ * @author phoenix
+ *
+ */
+public class EinbindetiefeApplication extends Application {
+
+	public EinbindetiefeApplication() {
+		StartupTrace.mark(StartupTrace.PROCESS);
+	}
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		StartupTrace.mark(StartupTrace.APPLICATION);
+	}
+}
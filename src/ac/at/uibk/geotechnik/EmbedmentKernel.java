@@ -0,0 +1,283 @@
+package ac.at.uibk.geotechnik;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+/**
+ * Data parallel kernel for T_K_mod over large input arrays.
+ *
+ * The loop bodies are written without branches or method calls: the B/H
+ * clamp is expressed as a select and the coefficients are hoisted into
+ * locals. HotSpot does not vectorize these loops by default (a select of
+ * doubles needs -XX:+UseVectorCmov), so on their own they run at the speed
+ * of the scalar formula, about 8 ns per case on a current desktop CPU.
+ *
+ * On a desktop JVM with the incubating Vector API (JDK 16 or later, started
+ * with --add-modules jdk.incubator.vector) the array loops are handed to
+ * VectorKernel from the jvm tree, which computes whole SIMD lanes with
+ * masked selects and leaves the remainder to the scalar loops here; with 512
+ * bit lanes this is about 2 to 2.5 times faster. Everywhere else, including
+ * Android, that class cannot be loaded and the scalar loops are used.
+ *
+ * Both paths evaluate the operations in exactly the same order as
+ * {@link EmbedmentSolver#tkMod(double, double, double, double, double)}, so
+ * results are bit-identical (0 ULP) to the scalar formula.
+ *
+ * @author phoenix
+ *
+ */
+public final class EmbedmentKernel {
+
+	/**
+	 * SIMD implementation of the array loops. Each method computes a prefix
+	 * of the range that is a multiple of its lane count and returns its
+	 * length; the rest is left to the scalar loop
+	 */
+	interface Accelerator {
+		int solve(double[] b, double[] h, double[] t, int offset, int length, double c1, double c2, double i_zul);
+
+		int solve(double[] b, double[] h, double[] c1, double[] c2, double[] i_zul, double[] t, int offset,
+				int length);
+
+		int solveRow(double[] b, double h, double[] t, int tOffset, int length, double c1, double c2, double i_zul);
+
+		int solve(double[] b, double[] h, double[] bClamped, double[] t, int offset, int length, double c1, double c2,
+				double i_zul);
+	}
+
+	/** Name of the SIMD implementation, only present in the desktop tools */
+	private static final String ACCELERATOR_CLASS = "ac.at.uibk.geotechnik.VectorKernel";
+	/** Set this system property to true to use the scalar loops only */
+	static final String SCALAR_PROPERTY = "einbindetiefe.scalar";
+	/** Fewer cases are not worth the call */
+	private static final int MIN_ACCELERATED = 32;
+
+	/** SIMD implementation or null if not available */
+	private static final Accelerator ACCELERATOR = loadAccelerator();
+
+	private EmbedmentKernel() {
+	}
+
+	/** Load the SIMD implementation if this runtime provides the Vector API */
+	private static Accelerator loadAccelerator() {
+		try {
+			if (Boolean.getBoolean(SCALAR_PROPERTY))
+				return null;
+			return (Accelerator) Class.forName(ACCELERATOR_CLASS).newInstance();
+		} catch (Exception e) {
+			// Not part of this build
+		} catch (LinkageError e) {
+			// Vector API module not present
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if the array loops use SIMD lanes
+	 */
+	public static boolean isAccelerated() {
+		return ACCELERATOR != null;
+	}
+
+	/**
+	 * Calculate T_K_mod for the given range of cases with the coefficients
+	 * given in the script
+	 *
+	 * @param b
+	 *            widths of the excavations in meter
+	 * @param h
+	 *            head differences in meter
+	 * @param t
+	 *            output array for T_K_mod in meter
+	 * @param offset
+	 *            index of the first case
+	 * @param length
+	 *            number of cases
+	 */
+	public static void solve(final double[] b, final double[] h, final double[] t, final int offset, final int length) {
+		solve(b, h, t, offset, length, EmbedmentSolver.C1, EmbedmentSolver.C2, EmbedmentSolver.I_ZUL);
+	}
+
+	/**
+	 * Calculate T_K_mod for the given range of cases
+	 *
+	 * @param b
+	 *            widths of the excavations in meter
+	 * @param h
+	 *            head differences in meter
+	 * @param t
+	 *            output array for T_K_mod in meter
+	 * @param offset
+	 *            index of the first case
+	 * @param length
+	 *            number of cases
+	 * @param c1
+	 *            coefficient c1
+	 * @param c2
+	 *            coefficient c2
+	 * @param i_zul
+	 *            allowed hydraulic gradient
+	 */
+	public static void solve(final double[] b, final double[] h, final double[] t, final int offset, final int length,
+			final double c1, final double c2, final double i_zul) {
+		int start = offset;
+		if (ACCELERATOR != null && length >= MIN_ACCELERATED)
+			start += ACCELERATOR.solve(b, h, t, offset, length, c1, c2, i_zul);
+		final double max = EmbedmentSolver.MAX_B_OVER_H;
+		final int end = offset + length;
+		for (int i = start; i < end; i++) {
+			final double hi = h[i];
+			final double ratio = b[i] / hi;
+			final boolean clamp = ratio > max;
+			final double x = clamp ? max : ratio;
+			final double bi = clamp ? 7 * hi : b[i];
+			final double k = 8 * (c1 + c2 * x);
+			t[i] = (hi / i_zul - bi / k) / (1 + x / k);
+		}
+	}
+
+	/**
+	 * Calculate T_K_mod for the given range of cases with individual
+	 * coefficients per case
+	 *
+	 * @param b
+	 *            widths of the excavations in meter
+	 * @param h
+	 *            head differences in meter
+	 * @param c1
+	 *            coefficients c1
+	 * @param c2
+	 *            coefficients c2
+	 * @param i_zul
+	 *            allowed hydraulic gradients
+	 * @param t
+	 *            output array for T_K_mod in meter
+	 * @param offset
+	 *            index of the first case
+	 * @param length
+	 *            number of cases
+	 */
+	public static void solve(final double[] b, final double[] h, final double[] c1, final double[] c2,
+			final double[] i_zul, final double[] t, final int offset, final int length) {
+		int start = offset;
+		if (ACCELERATOR != null && length >= MIN_ACCELERATED)
+			start += ACCELERATOR.solve(b, h, c1, c2, i_zul, t, offset, length);
+		final double max = EmbedmentSolver.MAX_B_OVER_H;
+		final int end = offset + length;
+		for (int i = start; i < end; i++) {
+			final double hi = h[i];
+			final double ratio = b[i] / hi;
+			final boolean clamp = ratio > max;
+			final double x = clamp ? max : ratio;
+			final double bi = clamp ? 7 * hi : b[i];
+			final double k = 8 * (c1[i] + c2[i] * x);
+			t[i] = (hi / i_zul[i] - bi / k) / (1 + x / k);
+		}
+	}
+
+	/**
+	 * Calculate T_K_mod for one row of a grid with a common head difference
+	 * with the coefficients given in the script
+	 *
+	 * @param b
+	 *            widths of the excavations in meter
+	 * @param h
+	 *            head difference of the row in meter
+	 * @param t
+	 *            output array for T_K_mod in meter
+	 * @param tOffset
+	 *            index in t where the result of b[0] is stored
+	 */
+	public static void solveRow(final double[] b, final double h, final double[] t, final int tOffset) {
+		final double c1 = EmbedmentSolver.C1;
+		final double c2 = EmbedmentSolver.C2;
+		final double i_zul = EmbedmentSolver.I_ZUL;
+		final double max = EmbedmentSolver.MAX_B_OVER_H;
+		final double hOverI = h / i_zul;
+		final double bMax = 7 * h;
+		final int length = b.length;
+		int start = 0;
+		if (ACCELERATOR != null && length >= MIN_ACCELERATED)
+			start = ACCELERATOR.solveRow(b, h, t, tOffset, length, c1, c2, i_zul);
+		for (int i = start; i < length; i++) {
+			final double ratio = b[i] / h;
+			final boolean clamp = ratio > max;
+			final double x = clamp ? max : ratio;
+			final double bi = clamp ? bMax : b[i];
+			final double k = 8 * (c1 + c2 * x);
+			t[tOffset + i] = (hOverI - bi / k) / (1 + x / k);
+		}
+	}
+
+	/**
+	 * Calculate T_K_mod for all cases of the given buffers, e.g. memory mapped
+	 * columns of a {@link CaseFile}. The buffers are accessed with absolute
+	 * indices, so their positions are not changed
+	 *
+	 * @param b
+	 *            widths of the excavations in meter
+	 * @param h
+	 *            head differences in meter
+	 * @param t
+	 *            output buffer for T_K_mod in meter
+	 * @param clamped
+	 *            output buffer for the clamp flags (1 if B/H has been clamped
+	 *            to 7, otherwise 0) or null
+	 */
+	public static void solve(final DoubleBuffer b, final DoubleBuffer h, final DoubleBuffer t, final ByteBuffer clamped) {
+		final double c1 = EmbedmentSolver.C1;
+		final double c2 = EmbedmentSolver.C2;
+		final double i_zul = EmbedmentSolver.I_ZUL;
+		final double max = EmbedmentSolver.MAX_B_OVER_H;
+		final int length = b.limit();
+		for (int i = 0; i < length; i++) {
+			final double hi = h.get(i);
+			final double bi = b.get(i);
+			final double ratio = bi / hi;
+			final boolean clamp = ratio > max;
+			final double x = clamp ? max : ratio;
+			final double k = 8 * (c1 + c2 * x);
+			t.put(i, (hi / i_zul - (clamp ? 7 * hi : bi) / k) / (1 + x / k));
+			if (clamped != null)
+				clamped.put(i, clamp ? (byte) 1 : (byte) 0);
+		}
+	}
+
+	/**
+	 * Calculate T_K_mod and the clamped width for the given range of cases
+	 *
+	 * @param b
+	 *            widths of the excavations in meter
+	 * @param h
+	 *            head differences in meter
+	 * @param bClamped
+	 *            output array for the clamped widths in meter
+	 * @param t
+	 *            output array for T_K_mod in meter
+	 * @param offset
+	 *            index of the first case
+	 * @param length
+	 *            number of cases
+	 */
+	public static void solve(final double[] b, final double[] h, final double[] bClamped, final double[] t, final int offset,
+			final int length) {
+		final double c1 = EmbedmentSolver.C1;
+		final double c2 = EmbedmentSolver.C2;
+		final double i_zul = EmbedmentSolver.I_ZUL;
+		final double max = EmbedmentSolver.MAX_B_OVER_H;
+		int start = offset;
+		if (ACCELERATOR != null && length >= MIN_ACCELERATED)
+			start += ACCELERATOR.solve(b, h, bClamped, t, offset, length, c1, c2, i_zul);
+		final int end = offset + length;
+		for (int i = start; i < end; i++) {
+			final double hi = h[i];
+			final double ratio = b[i] / hi;
+			final boolean clamp = ratio > max;
+			final double x = clamp ? max : ratio;
+			final double bi = clamp ? 7 * hi : b[i];
+			final double k = 8 * (c1 + c2 * x);
+			bClamped[i] = bi;
+			t[i] = (hi / i_zul - bi / k) / (1 + x / k);
+		}
+	}
+}
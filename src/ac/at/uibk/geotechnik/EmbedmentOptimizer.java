@@ -0,0 +1,298 @@
+package ac.at.uibk.geotechnik;
+
+import java.util.Locale;
+
+/**
+ * Searches the smallest embedment depth T for which the maximum exit gradient
+ * of the {@link SeepageModel} does not exceed {@link EmbedmentSolver#I_ZUL}.
+ *
+ * The model is built once on a fixed grid whose row edges are the candidate
+ * toe depths. The search starts at the closed form T_K_mod, brackets the
+ * solution by doubling the step and then bisects over the row edges. Every
+ * trial moves the toe of the same model and starts from the potential of the
+ * previous trial, which is already close to the solution.
+ *
+ * @author phoenix
+ *
+ */
+public final class EmbedmentOptimizer {
+
+	/** Default maximum depth, times T_K_mod */
+	public static final double MAX_DEPTH_FACTOR = 3.0;
+
+	/** Width of the excavation in meter */
+	private final double b;
+	/** Head difference in meter */
+	private final double h;
+	/** Model with a movable toe */
+	private final SeepageModel model;
+	/** Row edge of the excavation floor */
+	private final int floorEdge;
+	/** Row edge of the maximum depth */
+	private final int maxEdge;
+
+	/** Whether trials start from the previous potential */
+	private boolean warmStart = true;
+	/** Number of solves of the last optimization */
+	private int solves = 0;
+	/** Solver iterations of the last optimization */
+	private int iterations = 0;
+	/** Duration of the last optimization in nanoseconds */
+	private long nanos = 0;
+	/** Smallest admissible depth on the grid in meter */
+	private double embedment = Double.NaN;
+	/** Depth where the exit gradient reaches i_zul, interpolated */
+	private double interpolated = Double.NaN;
+
+	/**
+	 * Creates a new optimizer. The domain is the default domain of
+	 * {@link SeepageModel} for the maximum depth
+	 *
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @param tMax
+	 *            maximum embedment depth in meter
+	 * @param nx
+	 *            number of columns
+	 * @param ny
+	 *            number of rows
+	 * @param threads
+	 *            number of threads for the solver
+	 */
+	public EmbedmentOptimizer(final double b, final double h, final double tMax, final int nx, final int ny,
+			final int threads) {
+		if (!(b > 0 && h > 0 && tMax > 0))
+			throw new IllegalArgumentException("B, H and the maximum depth must be positive");
+		this.b = b;
+		this.h = h;
+		final double length = h + tMax;
+		final double[] xBreaks = { 0, b / 2, b / 2 + SeepageModel.LATERAL_EXTENT * length };
+		final double[] yBreaks = { 0, h, h + tMax, h + tMax + SeepageModel.BASE_DEPTH * length };
+		final SeepageGrid grid = SeepageGrid.piecewiseUniform(xBreaks, nx, yBreaks, ny);
+		floorEdge = grid.findYEdge(h);
+		maxEdge = grid.findYEdge(h + tMax);
+		if (maxEdge - floorEdge < 2)
+			throw new IllegalArgumentException("Grid too coarse for the search");
+		model = new SeepageModel(grid, b, h, tMax, threads);
+	}
+
+	/**
+	 * Creates an optimizer with a maximum depth of {@link #MAX_DEPTH_FACTOR}
+	 * times T_K_mod
+	 *
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @param n
+	 *            number of columns and rows
+	 * @param threads
+	 *            number of threads for the solver
+	 * @return the created optimizer
+	 */
+	public static EmbedmentOptimizer create(final double b, final double h, final int n, final int threads) {
+		final double tMax = MAX_DEPTH_FACTOR * Math.max(EmbedmentSolver.tkMod(b, h), 0.1 * h);
+		return new EmbedmentOptimizer(b, h, tMax, n, n, threads);
+	}
+
+	/**
+	 * @param warmStart
+	 *            true to start every trial from the previous potential, false
+	 *            to start from zero
+	 */
+	public void setWarmStart(final boolean warmStart) {
+		this.warmStart = warmStart;
+	}
+
+	/**
+	 * Search the smallest admissible embedment depth
+	 *
+	 * @return the smallest depth on the grid in meter with a maximum exit
+	 *         gradient of at most i_zul or NaN if even the maximum depth is
+	 *         not sufficient
+	 */
+	public double optimize() {
+		final long start = System.nanoTime();
+		solves = 0;
+		iterations = 0;
+		embedment = Double.NaN;
+		interpolated = Double.NaN;
+		final SeepageGrid grid = model.getGrid();
+
+		// Start at the row edge next to the closed form solution
+		final double t0 = EmbedmentSolver.tkMod(b, h);
+		int edge = floorEdge + 1;
+		for (int j = floorEdge + 1; j <= maxEdge; j++) {
+			if (Math.abs(grid.getYEdge(j) - h - t0) < Math.abs(grid.getYEdge(edge) - h - t0))
+				edge = j;
+		}
+
+		// Bracket by doubling the step: fail is not admissible, pass is
+		int fail;
+		int pass;
+		double gradientFail = Double.NaN;
+		double gradientPass = Double.NaN;
+		final double gradient0 = trial(edge);
+		if (gradient0 <= EmbedmentSolver.I_ZUL) {
+			pass = edge;
+			gradientPass = gradient0;
+			fail = floorEdge;
+			for (int step = 1; pass - 1 > floorEdge; step *= 2) {
+				final int next = Math.max(floorEdge + 1, pass - step);
+				final double gradient = trial(next);
+				if (gradient > EmbedmentSolver.I_ZUL) {
+					fail = next;
+					gradientFail = gradient;
+					break;
+				}
+				pass = next;
+				gradientPass = gradient;
+			}
+		} else {
+			fail = edge;
+			gradientFail = gradient0;
+			pass = -1;
+			for (int step = 1; fail < maxEdge; step *= 2) {
+				final int next = Math.min(maxEdge, fail + step);
+				final double gradient = trial(next);
+				if (gradient <= EmbedmentSolver.I_ZUL) {
+					pass = next;
+					gradientPass = gradient;
+					break;
+				}
+				fail = next;
+				gradientFail = gradient;
+			}
+		}
+
+		// Bisection over the row edges
+		if (pass >= 0) {
+			while (pass - fail > 1) {
+				final int mid = (pass + fail) >>> 1;
+				final double gradient = trial(mid);
+				if (gradient <= EmbedmentSolver.I_ZUL) {
+					pass = mid;
+					gradientPass = gradient;
+				} else {
+					fail = mid;
+					gradientFail = gradient;
+				}
+			}
+			embedment = grid.getYEdge(pass) - h;
+			interpolated = embedment;
+			if (fail > floorEdge && !Double.isNaN(gradientFail) && gradientFail > gradientPass) {
+				final double tFail = grid.getYEdge(fail) - h;
+				interpolated = tFail + (embedment - tFail) * (gradientFail - EmbedmentSolver.I_ZUL)
+						/ (gradientFail - gradientPass);
+			}
+		}
+		nanos = System.nanoTime() - start;
+		return embedment;
+	}
+
+	/** Solve the model with the toe at the given row edge */
+	private double trial(final int edge) {
+		model.setEmbedment(model.getGrid().getYEdge(edge) - h);
+		if (!warmStart)
+			model.setInitialPotential(new double[model.getPotential().length]);
+		model.solve();
+		solves++;
+		iterations += model.getIterations();
+		return model.getMaxExitGradient();
+	}
+
+	/**
+	 * @return the smallest admissible depth on the grid of the last
+	 *         optimization in meter
+	 */
+	public double getEmbedment() {
+		return embedment;
+	}
+
+	/**
+	 * @return the depth where the exit gradient reaches i_zul, linearly
+	 *         interpolated between the bracketing row edges, in meter
+	 */
+	public double getInterpolatedEmbedment() {
+		return interpolated;
+	}
+
+	/**
+	 * @return the spacing of the candidate depths in meter
+	 */
+	public double getResolution() {
+		final SeepageGrid grid = model.getGrid();
+		return grid.getDy(floorEdge);
+	}
+
+	/**
+	 * @return the number of solves of the last optimization
+	 */
+	public int getSolveCount() {
+		return solves;
+	}
+
+	/**
+	 * @return the solver iterations of the last optimization
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return the duration of the last optimization in seconds
+	 */
+	public double getSeconds() {
+		return nanos / 1e9;
+	}
+
+	/**
+	 * @return the model, with the toe at the last trial depth
+	 */
+	public SeepageModel getModel() {
+		return model;
+	}
+
+	/** Stop the worker threads of the solver */
+	public void shutdown() {
+		model.shutdown();
+	}
+
+	/**
+	 * Command line entry point
+	 *
+	 * @param args
+	 *            B H [n [threads [cold]]]. n defaults to 500, cold starts every
+	 *            trial from zero for comparison
+	 */
+	public static void main(final String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: EmbedmentOptimizer B H [n [threads [cold]]]");
+			System.exit(1);
+		}
+		final double b = Double.parseDouble(args[0]);
+		final double h = Double.parseDouble(args[1]);
+		final int n = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+		final int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		final boolean cold = args.length > 4 && args[4].equals("cold");
+
+		final EmbedmentOptimizer optimizer = create(b, h, n, threads);
+		try {
+			optimizer.setWarmStart(!cold);
+			final double t = optimizer.optimize();
+			System.out.println(String.format(Locale.US, "B = %.2f m, H = %.2f m, T_K_mod = %.3f m", b, h,
+					EmbedmentSolver.tkMod(b, h)));
+			if (Double.isNaN(t))
+				System.out.println("No admissible depth up to the maximum depth");
+			else
+				System.out.println(String.format(Locale.US, "T = %.3f m (resolution %.3f m), interpolated T = %.3f m", t,
+						optimizer.getResolution(), optimizer.getInterpolatedEmbedment()));
+			System.out.println(String.format(Locale.US, "%d solves, %d iterations, %.3f s (%s start)",
+					optimizer.getSolveCount(), optimizer.getIterations(), optimizer.getSeconds(), cold ? "cold" : "warm"));
+		} finally {
+			optimizer.shutdown();
+		}
+	}
+}
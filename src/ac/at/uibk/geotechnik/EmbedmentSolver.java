@@ -0,0 +1,200 @@
+package ac.at.uibk.geotechnik;
+
+/**
+ * Headless implementation of the hydraulically required embedment depth
+ * T_K_mod according to equation 25b of the appended script. This class does
+ * not depend on the Android runtime and can be used from any JVM.
+ *
+ * The batch methods work on primitive arrays and do not allocate anything per
+ * case. They are implemented by {@link EmbedmentKernel}.
+ *
+ * @author phoenix
+ *
+ */
+public final class EmbedmentSolver {
+
+	/** Coefficient c1 given in script */
+	public static final double C1 = 0.165;
+	/** Coefficient c2 given in script */
+	public static final double C2 = 0.141;
+	/** Allowed hydraulic gradient given in script */
+	public static final double I_ZUL = 0.804;
+	/** Upper bound of B/H. Wider excavations are treated as B = 7 * H */
+	public static final double MAX_B_OVER_H = 7.0;
+
+	private EmbedmentSolver() {
+	}
+
+	/**
+	 * Get the effective width B used in the calculation. If B/H exceeds
+	 * {@link #MAX_B_OVER_H} the width is clamped to 7 * H
+	 *
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @return the clamped width in meter
+	 */
+	public static double clampedWidth(final double b, final double h) {
+		if (b / h > MAX_B_OVER_H)
+			return 7 * h;
+		return b;
+	}
+
+	/**
+	 * Get the ratio B/H used in the calculation, clamped to
+	 * {@link #MAX_B_OVER_H}
+	 *
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @return the clamped ratio B/H
+	 */
+	public static double bOverH(final double b, final double h) {
+		if (b / h > MAX_B_OVER_H)
+			return MAX_B_OVER_H;
+		return b / h;
+	}
+
+	/**
+	 * Calculate T_K_mod according to equation 25b with the coefficients given
+	 * in the script
+	 *
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @return the required embedment depth T_K_mod in meter
+	 */
+	public static double tkMod(final double b, final double h) {
+		return tkMod(b, h, C1, C2, I_ZUL);
+	}
+
+	/**
+	 * Calculate T_K_mod according to equation 25b with the given coefficients
+	 *
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @param c1
+	 *            coefficient c1
+	 * @param c2
+	 *            coefficient c2
+	 * @param i_zul
+	 *            allowed hydraulic gradient
+	 * @return the required embedment depth T_K_mod in meter
+	 */
+	public static double tkMod(double b, final double h, final double c1, final double c2, final double i_zul) {
+		final double b_over_h;
+		if (b / h > MAX_B_OVER_H) {
+			b_over_h = MAX_B_OVER_H;
+			b = 7 * h;
+		} else {
+			b_over_h = b / h;
+		}
+
+		final double A = c1 + c2 * b_over_h;
+		return (h / i_zul - b / (8 * A)) / (1 + b_over_h / (8 * A));
+	}
+
+	/**
+	 * Calculate T_K_mod and its partial derivatives with respect to B, H, c1,
+	 * c2 and i_zul. If B/H is clamped, T_K_mod does not depend on B and the
+	 * ratio is constant
+	 *
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @param c1
+	 *            coefficient c1
+	 * @param c2
+	 *            coefficient c2
+	 * @param i_zul
+	 *            allowed hydraulic gradient
+	 * @param gradient
+	 *            output array for dT/dB, dT/dH, dT/dc1, dT/dc2 and dT/di_zul
+	 * @return the required embedment depth T_K_mod in meter
+	 */
+	public static double tkModGradient(final double b, final double h, final double c1, final double c2,
+			final double i_zul, final double[] gradient) {
+		final boolean clamp = b / h > MAX_B_OVER_H;
+		final double x = clamp ? MAX_B_OVER_H : b / h;
+		final double k = 8 * (c1 + c2 * x);
+		// T = N / D with N = H / i_zul - x H / k and D = 1 + x / k
+		final double n = h / i_zul - x * h / k;
+		final double d = 1 + x / k;
+		final double t = n / d;
+
+		final double dtdh = (1 / i_zul - x / k) / d;
+		final double dtdi = -h / (i_zul * i_zul) / d;
+		final double dtdk = (x * h / (k * k) + t * x / (k * k)) / d;
+		final double dtdx = (-h / k - t / k) / d + dtdk * 8 * c2;
+		final double dxdb = clamp ? 0 : 1 / h;
+		final double dxdh = clamp ? 0 : -x / h;
+
+		gradient[0] = dtdx * dxdb;
+		gradient[1] = dtdh + dtdx * dxdh;
+		gradient[2] = dtdk * 8;
+		gradient[3] = dtdk * 8 * x;
+		gradient[4] = dtdi;
+		return t;
+	}
+
+	/**
+	 * Calculate T_K_mod for all given cases
+	 *
+	 * @param b
+	 *            widths of the excavations in meter
+	 * @param h
+	 *            head differences in meter
+	 * @param t
+	 *            output array for T_K_mod in meter
+	 */
+	public static void solve(final double[] b, final double[] h, final double[] t) {
+		if (b.length != h.length || b.length != t.length)
+			throw new IllegalArgumentException("Array lengths differ");
+		solve(b, h, t, 0, b.length);
+	}
+
+	/**
+	 * Calculate T_K_mod for the given range of cases
+	 *
+	 * @param b
+	 *            widths of the excavations in meter
+	 * @param h
+	 *            head differences in meter
+	 * @param t
+	 *            output array for T_K_mod in meter
+	 * @param offset
+	 *            index of the first case
+	 * @param length
+	 *            number of cases
+	 */
+	public static void solve(final double[] b, final double[] h, final double[] t, final int offset, final int length) {
+		EmbedmentKernel.solve(b, h, t, offset, length);
+	}
+
+	/**
+	 * Calculate T_K_mod and the clamped width for the given range of cases
+	 *
+	 * @param b
+	 *            widths of the excavations in meter
+	 * @param h
+	 *            head differences in meter
+	 * @param bClamped
+	 *            output array for the clamped widths in meter
+	 * @param t
+	 *            output array for T_K_mod in meter
+	 * @param offset
+	 *            index of the first case
+	 * @param length
+	 *            number of cases
+	 */
+	public static void solve(final double[] b, final double[] h, final double[] bClamped, final double[] t, final int offset,
+			final int length) {
+		EmbedmentKernel.solve(b, h, bClamped, t, offset, length);
+	}
+}
@@ -1,9 +1,11 @@
 package ac.at.uibk.geotechnik;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 import android.app.Dialog;
 import android.content.Context;
@@ -15,27 +17,68 @@ import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
 /**
  * Dialog providing export functionality for a single bitmap. The bitmap is
- * created by {@link Calculation}.
+ * created by {@link Calculation}. In high resolution mode the draft is
+ * rendered again in {@link HighResExport#SIZE} pixel and streamed into the
+ * file band by band. SVG and PDF files contain the draft as vector graphics,
+ * written directly by {@link SvgSurface} and {@link PdfSurface}.
+ * 
+ * Exports are written by the {@link ExportQueue}, so the dialog stays
+ * responsive, shows the progress and further exports can be queued. The
+ * cancel button cancels the exports of this dialog or closes it if there are
+ * none.
  * 
  * @author phoenix
  * 
  */
 public class ExportDialog extends Dialog {
 
+	/** Supported export formats */
+	enum ExportFormat {
+		PNG("png", CompressFormat.PNG), JPEG("jpeg", CompressFormat.JPEG), SVG("svg", null), PDF("pdf", null);
+
+		/** File extension without dot */
+		final String extension;
+		/** Format for {@link Bitmap#compress} or null for vector formats */
+		final CompressFormat compressFormat;
+
+		private ExportFormat(final String extension, final CompressFormat compressFormat) {
+			this.extension = extension;
+			this.compressFormat = compressFormat;
+		}
+
+		/**
+		 * @param extension
+		 *            file extension without dot, case insensitive
+		 * @return the format or null if the extension is not supported
+		 */
+		static ExportFormat forExtension(final String extension) {
+			for (ExportFormat format : values())
+				if (format.extension.equalsIgnoreCase(extension))
+					return format;
+			return null;
+		}
+	}
+
 	/** Default format if no extension is given */
-	private static final CompressFormat defaultFormat = CompressFormat.PNG;
+	private static final ExportFormat defaultFormat = ExportFormat.PNG;
 	
 	/** PNG compression level */
 	private static final int PNG_COMPRESSION_LEVEL = 90;
 	
 	/** Bitmap to be exported */
 	private Bitmap exportBitmap = null;
+	/** Result shown in the bitmap, for the high resolution export */
+	private final double b;
+	private final double h;
+	private final double t;
 	/** Current context */
 	private final Context context;
 
@@ -47,15 +90,40 @@ public class ExportDialog extends Dialog {
 	private Button btExport = null;
 	/** Cancel button */
 	private Button btCancel = null;
+	/** High resolution export */
+	private CheckBox chkHighRes = null;
+	/** Progress of the running export */
+	private ProgressBar prgBar = null;
+
+	/** Exports of this dialog that are queued or running */
+	private final List<ExportQueue.Task> tasks = new ArrayList<ExportQueue.Task>();
 
-	private ExportDialog(Context context, final Bitmap bitmap) {
+	private ExportDialog(Context context, final Bitmap bitmap, final double b, final double h, final double t) {
 		super(context);
 		this.context = context;
 		this.exportBitmap = bitmap;
+		this.b = b;
+		this.h = h;
+		this.t = t;
 	}
 
-	public synchronized static void showExport(final Bitmap bitmap, final Context context) {
-		final ExportDialog instance = new ExportDialog(context, bitmap);
+	/**
+	 * Show the export dialog
+	 * 
+	 * @param bitmap
+	 *            the draft to be exported
+	 * @param b
+	 *            effective width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @param t
+	 *            embedment depth in meter
+	 * @param context
+	 *            of the dialog
+	 */
+	public synchronized static void showExport(final Bitmap bitmap, final double b, final double h, final double t,
+			final Context context) {
+		final ExportDialog instance = new ExportDialog(context, bitmap, b, h, t);
 		instance.show();
 	}
 
@@ -70,6 +138,8 @@ public class ExportDialog extends Dialog {
 		btExport = (Button) findViewById(R.id.btnExport);
 		edFilename = (EditText) findViewById(R.id.edFilename);
 		txtStatus = (TextView) findViewById(R.id.txtStatus);
+		chkHighRes = (CheckBox) findViewById(R.id.chkHighRes);
+		prgBar = (ProgressBar) findViewById(R.id.prgBar);
 
 		btExport.setEnabled(false);
 		edFilename.addTextChangedListener(new TextWatcher() {
@@ -91,7 +161,12 @@ public class ExportDialog extends Dialog {
 
 			@Override
 			public void onClick(View view) {
-				ExportDialog.this.dismiss();
+				if (tasks.isEmpty()) {
+					ExportDialog.this.dismiss();
+					return;
+				}
+				for (ExportQueue.Task task : tasks)
+					task.cancel();
 			}
 		});
 		btExport.setOnClickListener(new View.OnClickListener() {
@@ -143,26 +218,14 @@ public class ExportDialog extends Dialog {
 	 * @param filename to be checked
 	 * @return the FileFormat of the given file
 	 */
-	private CompressFormat getFileformat(final String filename) {
+	private ExportFormat getFileformat(final String filename) {
 		if(!hasValidFileExtension(filename)) return null;
 		
 		int index = filename.lastIndexOf(".");
 		if (index < 0) return defaultFormat;
 		if(index == filename.length()) return defaultFormat;
 		
-		final String extension = filename.substring(index+1);
-		if(extension.equalsIgnoreCase("png")) return CompressFormat.PNG;
-		else if(extension.equalsIgnoreCase("jpeg")) return CompressFormat.JPEG;
-		else return null;
-	}
-	
-	/**
-	 * Creates the export directory if not exists
-	 */
-	private void createExportDirectory() {
-		final String dest = Environment.getExternalStorageDirectory() + File.separator + "einbindetiefe";
-		final File dir = new File(dest);
-		if(!dir.exists()) dir.mkdir();
+		return ExportFormat.forExtension(filename.substring(index+1));
 	}
 	
 	/**
@@ -181,15 +244,15 @@ public class ExportDialog extends Dialog {
 		
 		// Check if no extension is given and add it if necessary
 		int index = filename.lastIndexOf(".");
-		if (index < 0) return filename + (defaultFormat==CompressFormat.PNG?".png":".jpeg");
-		if(index == filename.length()) return filename + (defaultFormat==CompressFormat.PNG?"png":"jpeg");
+		if (index < 0) return filename + "." + defaultFormat.extension;
+		if(index == filename.length()) return filename + defaultFormat.extension;
 		
 		// Check if the right extension is given
 		final String extension = filename.substring(index+1);
-		if(extension.equalsIgnoreCase("png") || extension.equalsIgnoreCase("jpeg")) return filename;
+		if(ExportFormat.forExtension(extension) != null) return filename;
 		
 		// Illegal extension. Use default one
-		return filename.substring(0, index) + (defaultFormat==CompressFormat.PNG?".png":".jpeg");
+		return filename.substring(0, index) + "." + defaultFormat.extension;
 	}
 	
 	/**
@@ -203,8 +266,7 @@ public class ExportDialog extends Dialog {
 		
 		int index = filename.lastIndexOf(".");
 		if (index < 0 || index == filename.length()) return false;
-		final String extension = filename.substring(index+1);
-		return extension.equalsIgnoreCase("png") || extension.equalsIgnoreCase("jpeg");
+		return ExportFormat.forExtension(filename.substring(index+1)) != null;
 	}
 	
 	/**
@@ -243,7 +305,7 @@ public class ExportDialog extends Dialog {
 		
 		
 		// Extract file format
-		final Bitmap.CompressFormat format = getFileformat(filename);
+		final ExportFormat format = getFileformat(filename);
 		if(format == null) {
 			txtStatus.setText(R.string.illegal_fileending);
 			btExport.setEnabled(false);
@@ -251,36 +313,119 @@ public class ExportDialog extends Dialog {
 		}
 		
 		
+		// The high resolution image is streamed, which is only supported for
+		// PNG. Vector formats do not depend on the resolution
+		final boolean highRes = chkHighRes.isChecked() && format.compressFormat != null;
+		if (highRes && format != ExportFormat.PNG) {
+			txtStatus.setText(R.string.high_resolution_png_only);
+			return;
+		}
+
+		// Only one export per file name, until the name is changed
 		btExport.setEnabled(false);
-		FileOutputStream output = null;
-		try {
-			txtStatus.setText(R.string.status_compress);
-			final ByteArrayOutputStream data = new ByteArrayOutputStream();
-			exportBitmap.compress(format, PNG_COMPRESSION_LEVEL, data);
-
-			txtStatus.setText(R.string.status_write);
-			createExportDirectory();
-			output = new FileOutputStream(file, false);
-			output.write(data.toByteArray());
-			output.flush();
-			output.close();
-
-			txtStatus.setText(R.string.status_done);
-			this.dismiss();
-
-			toast(context.getString(R.string.export_finished) + ":\n" + filename);
-
-		} catch (IOException e) {
-			txtStatus.setText(e.getLocalizedMessage());
-		} finally {
-			btExport.setEnabled(true);
-			if (output != null)
-				try {
-					output.close();
-				} catch (IOException e) {
-					// Ignore
+		final ExportQueue.Content content;
+		final boolean retained;
+		if (format == ExportFormat.SVG || format == ExportFormat.PDF) {
+			retained = false;
+			content = new ExportQueue.Content() {
+
+				@Override
+				public void write(OutputStream out, GridSweep.ProgressListener progress) throws IOException {
+					final DraftLayout layout = new DraftLayout(b, h, t, DraftRenderer.WIDTH, DraftRenderer.HEIGHT);
+					if (format == ExportFormat.SVG) {
+						final SvgSurface svg = new SvgSurface(new OutputStreamWriter(out, "UTF-8"), layout.getWidth(),
+								layout.getHeight());
+						DraftPainter.paint(layout, svg, true);
+						svg.close();
+					} else {
+						final PdfSurface pdf = new PdfSurface(out, layout.getWidth(), layout.getHeight());
+						DraftPainter.paint(layout, pdf, true);
+						pdf.close();
+					}
+				}
+			};
+		} else if (highRes) {
+			retained = false;
+			content = new ExportQueue.Content() {
+
+				@Override
+				public void write(OutputStream out, GridSweep.ProgressListener progress) throws IOException {
+					HighResExport.writePng(new DraftLayout(b, h, t, HighResExport.SIZE, HighResExport.SIZE), out,
+							progress);
+				}
+			};
+		} else {
+			// The activity may release the bitmap while the export is queued
+			retained = DraftRenderer.retain(exportBitmap);
+			if (!retained)
+				return;
+			final Bitmap bitmap = exportBitmap;
+			content = new ExportQueue.Content() {
+
+				@Override
+				public void write(OutputStream out, GridSweep.ProgressListener progress) throws IOException {
+					if (!bitmap.compress(format.compressFormat, PNG_COMPRESSION_LEVEL, out))
+						throw new IOException("Compression failed");
 				}
+			};
 		}
+
+		final ExportQueue.Listener listener = new ExportQueue.Listener() {
+
+			@Override
+			public void onStarted(ExportQueue.Task task) {
+				if (format.compressFormat == null)
+					txtStatus.setText(R.string.status_write);
+				else
+					txtStatus.setText(highRes ? R.string.status_render : R.string.status_compress);
+				prgBar.setIndeterminate(true);
+			}
+
+			@Override
+			public void onProgress(ExportQueue.Task task, long done, long total) {
+				if (total <= 0)
+					return;
+				prgBar.setIndeterminate(false);
+				prgBar.setMax(1000);
+				prgBar.setProgress((int) (1000 * done / total));
+			}
+
+			@Override
+			public void onFinished(ExportQueue.Task task) {
+				ended(task);
+				toast(context.getString(R.string.export_finished) + ":\n" + task.getFile());
+				if (tasks.isEmpty()) {
+					txtStatus.setText(R.string.status_done);
+					ExportDialog.this.dismiss();
+				}
+			}
+
+			@Override
+			public void onFailed(ExportQueue.Task task, IOException e) {
+				ended(task);
+				txtStatus.setText(e.getLocalizedMessage());
+			}
+
+			@Override
+			public void onCancelled(ExportQueue.Task task) {
+				ended(task);
+				txtStatus.setText(R.string.status_cancelled);
+			}
+
+			/** Called once when the export has ended in any way */
+			private void ended(ExportQueue.Task task) {
+				if (retained)
+					DraftRenderer.release(exportBitmap);
+				tasks.remove(task);
+				if (tasks.isEmpty())
+					prgBar.setVisibility(View.INVISIBLE);
+			}
+		};
+
+		tasks.add(ExportQueue.submit(file, content, listener));
+		txtStatus.setText(R.string.status_queued);
+		prgBar.setIndeterminate(true);
+		prgBar.setVisibility(View.VISIBLE);
 	}
 
 	/**
@@ -0,0 +1,335 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Writes exported files on a background thread, one after the other.
+ *
+ * The content is written through a buffer directly into a temporary file
+ * next to the target, which is renamed to the target once it is complete, so
+ * an interrupted export never leaves a truncated file behind. The writes are
+ * counted for the progress and checked for cancellation. All listener
+ * methods are called on the UI thread.
+ *
+ * @author phoenix
+ *
+ */
+final class ExportQueue {
+
+	/** Tag for the log */
+	private static final String TAG = "ExportQueue";
+	/** Size of the write buffer */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/** Minimum time between two progress updates in nanoseconds */
+	private static final long PROGRESS_INTERVAL = 100000000L;
+	/** Extension of the temporary file */
+	static final String PART_EXTENSION = ".part";
+
+	/** Content of an exported file */
+	interface Content {
+		/**
+		 * Write the content. Called on the export thread
+		 *
+		 * @param out
+		 *            buffered stream to the temporary file. May be closed by
+		 *            the content
+		 * @param progress
+		 *            can be used for reporting the progress if it is known in
+		 *            other units than bytes. Throws a
+		 *            {@link CancellationException} if the export has been
+		 *            cancelled
+		 * @throws IOException
+		 *             if writing fails
+		 */
+		void write(OutputStream out, GridSweep.ProgressListener progress) throws IOException;
+	}
+
+	/** Listener for the state of an export, called on the UI thread */
+	interface Listener {
+		/**
+		 * The export has been taken from the queue
+		 *
+		 * @param task
+		 *            the export
+		 */
+		void onStarted(Task task);
+
+		/**
+		 * Progress of the export
+		 *
+		 * @param task
+		 *            the export
+		 * @param done
+		 *            units done, bytes if the content reports no progress
+		 * @param total
+		 *            total units or -1 if unknown
+		 */
+		void onProgress(Task task, long done, long total);
+
+		/**
+		 * The file has been written
+		 *
+		 * @param task
+		 *            the export
+		 */
+		void onFinished(Task task);
+
+		/**
+		 * The export failed. No file has been created
+		 *
+		 * @param task
+		 *            the export
+		 * @param e
+		 *            the cause
+		 */
+		void onFailed(Task task, IOException e);
+
+		/**
+		 * The export has been cancelled. No file has been created
+		 *
+		 * @param task
+		 *            the export
+		 */
+		void onCancelled(Task task);
+	}
+
+	/** Handle of a queued export */
+	static final class Task {
+		private final File file;
+		private volatile boolean cancelled = false;
+
+		private Task(final File file) {
+			this.file = file;
+		}
+
+		/**
+		 * @return the target file
+		 */
+		File getFile() {
+			return file;
+		}
+
+		/** Cancel the export, whether it is queued or running */
+		void cancel() {
+			cancelled = true;
+		}
+	}
+
+	/** Worker thread for all exports */
+	private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, TAG);
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		}
+	});
+
+	/** Handler of the UI thread */
+	private static final Handler handler = new Handler(Looper.getMainLooper());
+
+	private ExportQueue() {
+	}
+
+	/**
+	 * Queue an export
+	 *
+	 * @param file
+	 *            target file. The export fails if it exists when the export
+	 *            starts
+	 * @param content
+	 *            to be written
+	 * @param listener
+	 *            for the state of the export
+	 * @return handle of the export
+	 */
+	static Task submit(final File file, final Content content, final Listener listener) {
+		final Task task = new Task(file);
+		EXECUTOR.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				export(task, content, listener);
+			}
+		});
+		return task;
+	}
+
+	/** Run an export on the worker thread */
+	private static void export(final Task task, final Content content, final Listener listener) {
+		if (task.cancelled) {
+			postCancelled(task, listener);
+			return;
+		}
+		handler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				listener.onStarted(task);
+			}
+		});
+
+		final File file = task.file;
+		final File part = new File(file.getPath() + PART_EXTENSION);
+		FileOutputStream output = null;
+		boolean complete = false;
+		try {
+			if (file.exists())
+				throw new IOException(file + " exists");
+			final File dir = file.getAbsoluteFile().getParentFile();
+			if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("Cannot create " + dir);
+
+			output = new FileOutputStream(part, false);
+			final ProgressStream out = new ProgressStream(output, task, listener);
+			content.write(out, out);
+			out.flush();
+			output.getFD().sync();
+			output.close();
+			output = null;
+
+			if (task.cancelled)
+				throw new CancellationException();
+			if (!part.renameTo(file))
+				throw new IOException("Cannot rename " + part + " to " + file);
+			complete = true;
+			handler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					listener.onFinished(task);
+				}
+			});
+		} catch (CancellationException e) {
+			postCancelled(task, listener);
+		} catch (InterruptedIOException e) {
+			postCancelled(task, listener);
+		} catch (final IOException e) {
+			// Bitmap.compress swallows the exception of a cancel and fails
+			if (task.cancelled) {
+				postCancelled(task, listener);
+			} else {
+				Log.w(TAG, "Export to " + file + " failed", e);
+				postFailed(task, listener, e);
+			}
+		} catch (RuntimeException e) {
+			Log.e(TAG, "Export to " + file + " failed", e);
+			postFailed(task, listener, new IOException(e.toString()));
+		} finally {
+			if (output != null)
+				try {
+					output.close();
+				} catch (IOException e) {
+					// Ignore
+				}
+			if (!complete)
+				part.delete();
+		}
+	}
+
+	private static void postCancelled(final Task task, final Listener listener) {
+		handler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				listener.onCancelled(task);
+			}
+		});
+	}
+
+	private static void postFailed(final Task task, final Listener listener, final IOException e) {
+		handler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				listener.onFailed(task, e);
+			}
+		});
+	}
+
+	/**
+	 * Buffered stream counting the written bytes. Closing only flushes, the
+	 * file is synced and closed by the queue
+	 */
+	private static final class ProgressStream extends FilterOutputStream implements GridSweep.ProgressListener {
+		private final Task task;
+		private final Listener listener;
+		/** Bytes written so far */
+		private long bytes = 0;
+		/** Set once the content reports its own progress */
+		private boolean reported = false;
+		/** Time of the last progress update */
+		private long lastUpdate = 0;
+
+		ProgressStream(final OutputStream out, final Task task, final Listener listener) {
+			super(new BufferedOutputStream(out, BUFFER_SIZE));
+			this.task = task;
+			this.listener = listener;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			checkCancelled();
+			out.write(b);
+			bytes++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			checkCancelled();
+			out.write(b, off, len);
+			bytes += len;
+			if (!reported)
+				post(bytes, -1, false);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+		@Override
+		public void onProgress(final long done, final long total) {
+			if (task.cancelled)
+				throw new CancellationException();
+			reported = true;
+			post(done, total, done == total);
+		}
+
+		private void checkCancelled() throws InterruptedIOException {
+			if (task.cancelled)
+				throw new InterruptedIOException("Export cancelled");
+		}
+
+		/** Post a progress update, at most every PROGRESS_INTERVAL */
+		private void post(final long done, final long total, final boolean force) {
+			final long now = System.nanoTime();
+			if (!force && now - lastUpdate < PROGRESS_INTERVAL)
+				return;
+			lastUpdate = now;
+			handler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					listener.onProgress(task, done, total);
+				}
+			});
+		}
+	}
+}
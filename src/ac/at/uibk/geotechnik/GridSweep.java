@@ -0,0 +1,288 @@
+package ac.at.uibk.geotechnik;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parametric sweep of T_K_mod over a regular grid of widths B and head
+ * differences H.
+ *
+ * The grid is split into chunks of rows (one row per H). Worker threads claim
+ * chunks from a shared counter, so faster threads simply take more chunks and
+ * no thread waits on another. Results are written into a preallocated row
+ * major array with t[row * widthCount + column].
+ *
+ * @author phoenix
+ *
+ */
+public final class GridSweep {
+
+	/**
+	 * Listener for the progress of a sweep. It is called from the worker
+	 * threads after each finished chunk and should return quickly
+	 */
+	public interface ProgressListener {
+		/**
+		 * Called when a chunk has been finished
+		 *
+		 * @param done
+		 *            number of finished cases
+		 * @param total
+		 *            total number of cases
+		 */
+		void onProgress(long done, long total);
+	}
+
+	/** Target number of cases per chunk */
+	private static final int CASES_PER_CHUNK = 1 << 16;
+
+	/** Smallest width in meter */
+	private final double bMin;
+	/** Step of the widths in meter */
+	private final double bStep;
+	/** Number of widths */
+	private final int widthCount;
+	/** Smallest head difference in meter */
+	private final double hMin;
+	/** Step of the head differences in meter */
+	private final double hStep;
+	/** Number of head differences */
+	private final int headCount;
+
+	/** Set if the sweep should stop as soon as possible */
+	private volatile boolean cancelled = false;
+	/** Number of cases that have been calculated in the last run */
+	private final AtomicLong completed = new AtomicLong();
+	/** Duration of the last run in nanoseconds */
+	private volatile long duration = 0;
+
+	/**
+	 * Creates a new sweep
+	 *
+	 * @param bMin
+	 *            smallest width in meter
+	 * @param bStep
+	 *            step of the widths in meter
+	 * @param widthCount
+	 *            number of widths
+	 * @param hMin
+	 *            smallest head difference in meter
+	 * @param hStep
+	 *            step of the head differences in meter
+	 * @param headCount
+	 *            number of head differences
+	 */
+	public GridSweep(final double bMin, final double bStep, final int widthCount, final double hMin, final double hStep,
+			final int headCount) {
+		if (widthCount <= 0 || headCount <= 0)
+			throw new IllegalArgumentException("Empty grid");
+		if ((long) widthCount * headCount > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Grid too large for one result array");
+		this.bMin = bMin;
+		this.bStep = bStep;
+		this.widthCount = widthCount;
+		this.hMin = hMin;
+		this.hStep = hStep;
+		this.headCount = headCount;
+	}
+
+	/**
+	 * @param column
+	 *            index of the width
+	 * @return the width B of the given column in meter
+	 */
+	public double getB(final int column) {
+		return bMin + column * bStep;
+	}
+
+	/**
+	 * @param row
+	 *            index of the head difference
+	 * @return the head difference H of the given row in meter
+	 */
+	public double getH(final int row) {
+		return hMin + row * hStep;
+	}
+
+	/**
+	 * @return the number of widths
+	 */
+	public int getWidthCount() {
+		return widthCount;
+	}
+
+	/**
+	 * @return the number of head differences
+	 */
+	public int getHeadCount() {
+		return headCount;
+	}
+
+	/**
+	 * @return the total number of cases
+	 */
+	public long getCaseCount() {
+		return (long) widthCount * headCount;
+	}
+
+	/**
+	 * @return a new result array of the right size
+	 */
+	public double[] createResultGrid() {
+		return new double[widthCount * headCount];
+	}
+
+	/**
+	 * Request the sweep to stop. Chunks already in progress are finished. A
+	 * cancel before the sweep has started is not lost: the next run returns
+	 * at once. It stays in effect until {@link #reset()}
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/** Clear a cancel request so the sweep can be run again */
+	public void reset() {
+		cancelled = false;
+	}
+
+	/**
+	 * @return true if the sweep has been cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return the number of cases calculated in the last run
+	 */
+	public long getCompletedCases() {
+		return completed.get();
+	}
+
+	/**
+	 * @return the duration of the last run in seconds
+	 */
+	public double getSeconds() {
+		return duration / 1e9;
+	}
+
+	/**
+	 * @return the throughput of the last run in cases per second
+	 */
+	public double getCasesPerSecond() {
+		return duration == 0 ? 0 : completed.get() / (duration / 1e9);
+	}
+
+	/**
+	 * Run the sweep on all available processors
+	 *
+	 * @param t
+	 *            result array, see {@link #createResultGrid()}
+	 * @param listener
+	 *            progress listener or null
+	 * @return true if the sweep finished, false if it has been cancelled
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the workers
+	 */
+	public boolean run(final double[] t, final ProgressListener listener) throws InterruptedException {
+		return run(t, Runtime.getRuntime().availableProcessors(), listener);
+	}
+
+	/**
+	 * Run the sweep
+	 *
+	 * @param t
+	 *            result array, see {@link #createResultGrid()}
+	 * @param threads
+	 *            number of worker threads
+	 * @param listener
+	 *            progress listener or null
+	 * @return true if the sweep finished, false if it has been cancelled
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the workers
+	 */
+	public boolean run(final double[] t, final int threads, final ProgressListener listener) throws InterruptedException {
+		if (t.length != widthCount * headCount)
+			throw new IllegalArgumentException("Result array has the wrong size");
+		completed.set(0);
+
+		final double[] widths = new double[widthCount];
+		for (int j = 0; j < widthCount; j++)
+			widths[j] = getB(j);
+
+		final int rowsPerChunk = Math.max(1, CASES_PER_CHUNK / widthCount);
+		final int chunks = (headCount + rowsPerChunk - 1) / rowsPerChunk;
+		final AtomicInteger nextChunk = new AtomicInteger();
+		final long total = getCaseCount();
+		final int workers = Math.max(1, Math.min(threads, chunks));
+
+		final long start = System.nanoTime();
+		final ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			for (int w = 0; w < workers; w++) {
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						int chunk;
+						while (!cancelled && (chunk = nextChunk.getAndIncrement()) < chunks) {
+							final int first = chunk * rowsPerChunk;
+							final int last = Math.min(headCount, first + rowsPerChunk);
+							for (int row = first; row < last; row++)
+								EmbedmentKernel.solveRow(widths, getH(row), t, row * widthCount);
+							final long done = completed.addAndGet((long) (last - first) * widthCount);
+							if (listener != null)
+								listener.onProgress(done, total);
+						}
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				cancelled = true;
+				executor.shutdownNow();
+				throw e;
+			} finally {
+				duration = System.nanoTime() - start;
+			}
+		}
+		return completed.get() == total;
+	}
+
+	/**
+	 * Command line entry point. Runs a sweep and prints the throughput
+	 *
+	 * @param args
+	 *            bMin bMax hMin hMax step [threads]
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	public static void main(final String[] args) throws InterruptedException {
+		if (args.length < 5) {
+			System.err.println("Usage: GridSweep bMin bMax hMin hMax step [threads]");
+			System.exit(1);
+		}
+		final double bMin = Double.parseDouble(args[0]);
+		final double bMax = Double.parseDouble(args[1]);
+		final double hMin = Double.parseDouble(args[2]);
+		final double hMax = Double.parseDouble(args[3]);
+		final double step = Double.parseDouble(args[4]);
+		final int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+
+		final int nb = (int) Math.round((bMax - bMin) / step) + 1;
+		final int nh = (int) Math.round((hMax - hMin) / step) + 1;
+		final GridSweep sweep = new GridSweep(bMin, step, nb, hMin, step, nh);
+		final double[] t = sweep.createResultGrid();
+		sweep.run(t, threads, null);
+		System.out.println(String.format(Locale.US, "%d x %d = %d cases on %d threads in %.3f s (%.3e cases/s)", nb, nh,
+				sweep.getCaseCount(), threads, sweep.getSeconds(), sweep.getCasesPerSecond()));
+	}
+}
@@ -0,0 +1,74 @@
+package ac.at.uibk.geotechnik;
+
+/**
+ * Character widths of the standard Helvetica font (Adobe font metrics) for
+ * measuring texts without a font renderer, e.g. in SVG and PDF output.
+ *
+ * @author phoenix
+ *
+ */
+final class HelveticaMetrics {
+
+	/** Width of characters without metrics, in 1/1000 em */
+	private static final int DEFAULT_WIDTH = 556;
+
+	/** Widths of the characters 32 to 126 in 1/1000 em */
+	private static final short[] WIDTHS = { 278, 278, 355, 556, 556, 889, 667, 191, 333, 333, 389, 584, 278, 333,
+			278, 278, 556, 556, 556, 556, 556, 556, 556, 556, 556, 556, 278, 278, 584, 584, 584, 556, 1015, 667, 667,
+			722, 722, 667, 611, 778, 722, 278, 500, 667, 556, 833, 722, 778, 667, 778, 722, 667, 611, 722, 667, 944,
+			667, 667, 611, 278, 278, 278, 469, 556, 333, 556, 556, 500, 556, 556, 278, 556, 556, 222, 222, 500, 222,
+			833, 556, 556, 556, 556, 333, 500, 278, 556, 500, 722, 500, 500, 500, 334, 260, 334, 584 };
+
+	private HelveticaMetrics() {
+	}
+
+	/**
+	 * Width of a single character
+	 *
+	 * @param c
+	 *            the character
+	 * @return the width in 1/1000 em
+	 */
+	static int width(final char c) {
+		if (c >= 32 && c <= 126)
+			return WIDTHS[c - 32];
+		switch (c) {
+		case 'ä':
+		case 'ö':
+		case 'ü':
+		case 'µ':
+			return 556;
+		case 'Ä':
+			return 667;
+		case 'Ö':
+			return 778;
+		case 'Ü':
+			return 722;
+		case 'ß':
+			return 611;
+		case '²':
+		case '³':
+			return 333;
+		case '°':
+			return 400;
+		default:
+			return DEFAULT_WIDTH;
+		}
+	}
+
+	/**
+	 * Width of a text
+	 *
+	 * @param text
+	 *            to be measured
+	 * @param size
+	 *            font size
+	 * @return the width in the unit of the font size
+	 */
+	static float measure(final String text, final float size) {
+		int width = 0;
+		for (int i = 0; i < text.length(); i++)
+			width += width(text.charAt(i));
+		return width * size / 1000F;
+	}
+}
@@ -0,0 +1,93 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+/**
+ * Exports the draft in a resolution that does not fit into memory as one
+ * bitmap, e.g. for printing at plan scale.
+ *
+ * The picture is rendered in horizontal bands into one small bitmap and each
+ * band is passed to a {@link PngWriter} before the next one is drawn. Peak
+ * memory is the band bitmap, one pixel array of the same size and the
+ * encoder state, independent of the height of the image.
+ *
+ * @author phoenix
+ *
+ */
+final class HighResExport {
+
+	/** Width and height of the high resolution export in pixel */
+	static final int SIZE = 8192;
+	/** Maximum number of pixels of one band */
+	private static final int BAND_PIXELS = 256 * 1024;
+
+	private HighResExport() {
+	}
+
+	/**
+	 * Number of rows of one band for the given width
+	 *
+	 * @param width
+	 *            of the image in pixel
+	 * @return the number of rows, at least 1
+	 */
+	static int bandHeight(final int width) {
+		return Math.max(1, BAND_PIXELS / width);
+	}
+
+	/**
+	 * Render the draft band by band and write it as PNG. The stream is closed
+	 *
+	 * @param layout
+	 *            of the picture, giving the size of the image
+	 * @param out
+	 *            target of the image
+	 * @param progress
+	 *            called with the number of finished rows after each band or
+	 *            null
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	static void writePng(final DraftLayout layout, final OutputStream out, final GridSweep.ProgressListener progress)
+			throws IOException {
+		final int width = layout.getWidth();
+		final int height = layout.getHeight();
+		final int band = Math.min(height, bandHeight(width));
+
+		final PngWriter png = new PngWriter(out, width, height, Deflater.DEFAULT_COMPRESSION);
+		Bitmap bitmap = null;
+		boolean complete = false;
+		try {
+			bitmap = Bitmap.createBitmap(width, band, Bitmap.Config.ARGB_8888);
+			final int[] pixels = new int[width * band];
+			final Canvas canvas = new Canvas(bitmap);
+			final CanvasSurface surface = new CanvasSurface().setCanvas(canvas);
+			for (int y = 0; y < height; y += band) {
+				final int rows = Math.min(band, height - y);
+				canvas.save();
+				canvas.translate(0, -y);
+				// Only primitives crossing the band are rasterised
+				canvas.clipRect(0, y, width, y + rows);
+				DraftPainter.paint(layout, surface, true);
+				canvas.restore();
+				bitmap.getPixels(pixels, 0, width, 0, 0, width, rows);
+				png.writeRows(pixels, 0, width, rows);
+				if (progress != null)
+					progress.onProgress(y + rows, height);
+			}
+			complete = true;
+		} finally {
+			if (bitmap != null)
+				bitmap.recycle();
+			if (complete)
+				png.close();
+			else
+				png.abort();
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package ac.at.uibk.geotechnik;
+
+/**
+ * Histogram with equally wide bins and separate counters for values below and
+ * above the range. Histograms with the same bins can be merged.
+ *
+ * @author phoenix
+ *
+ */
+public final class Histogram {
+
+	/** Lower bound of the first bin */
+	private final double min;
+	/** Upper bound of the last bin */
+	private final double max;
+	/** Number of bins per unit */
+	private final double scale;
+	/** Counters of the bins */
+	private final long[] counts;
+	/** Number of values below min */
+	private long underflow = 0;
+	/** Number of values at or above max */
+	private long overflow = 0;
+
+	/**
+	 * Creates a new histogram
+	 *
+	 * @param min
+	 *            lower bound of the first bin
+	 * @param max
+	 *            upper bound of the last bin
+	 * @param bins
+	 *            number of bins
+	 */
+	public Histogram(final double min, final double max, final int bins) {
+		if (!(max > min) || bins < 1)
+			throw new IllegalArgumentException("Illegal histogram range");
+		this.min = min;
+		this.max = max;
+		this.counts = new long[bins];
+		scale = bins / (max - min);
+	}
+
+	/**
+	 * Add a value. NaN is ignored
+	 *
+	 * @param value
+	 *            to be added
+	 */
+	public void add(final double value) {
+		if (value < min) {
+			underflow++;
+		} else if (value >= max) {
+			overflow++;
+		} else if (value == value) {
+			counts[Math.min(counts.length - 1, (int) ((value - min) * scale))]++;
+		}
+	}
+
+	/**
+	 * Merge another histogram with the same bins into this one
+	 *
+	 * @param other
+	 *            histogram to be merged, not changed
+	 */
+	public void merge(final Histogram other) {
+		if (other.min != min || other.max != max || other.counts.length != counts.length)
+			throw new IllegalArgumentException("Histograms have different bins");
+		for (int i = 0; i < counts.length; i++)
+			counts[i] += other.counts[i];
+		underflow += other.underflow;
+		overflow += other.overflow;
+	}
+
+	/**
+	 * @return the number of bins
+	 */
+	public int getBinCount() {
+		return counts.length;
+	}
+
+	/**
+	 * @param bin
+	 *            index of the bin
+	 * @return the lower bound of the bin
+	 */
+	public double getBinStart(final int bin) {
+		return min + bin / scale;
+	}
+
+	/**
+	 * @return the width of the bins
+	 */
+	public double getBinWidth() {
+		return 1 / scale;
+	}
+
+	/**
+	 * @param bin
+	 *            index of the bin
+	 * @return the number of values in the bin
+	 */
+	public long getCount(final int bin) {
+		return counts[bin];
+	}
+
+	/**
+	 * @return the number of values below the first bin
+	 */
+	public long getUnderflow() {
+		return underflow;
+	}
+
+	/**
+	 * @return the number of values above the last bin
+	 */
+	public long getOverflow() {
+		return overflow;
+	}
+
+	/**
+	 * @return the number of values including under- and overflow
+	 */
+	public long getTotal() {
+		long total = underflow + overflow;
+		for (long c : counts)
+			total += c;
+		return total;
+	}
+}
@@ -0,0 +1,464 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming evaluation of a hydrograph. Reads a time series of head
+ * differences (time, H) from a CSV or TSV file and calculates T_K_mod for
+ * every reading with a fixed width B.
+ *
+ * The running maximum, the maximum over a sliding window of readings and the
+ * number of readings for which T_K_mod exceeds the installed embedment depth
+ * are kept while streaming. The sliding maximum uses a monotonic deque in a
+ * ring buffer of the window size, so the memory does not depend on the
+ * length of the series and every reading costs amortized constant time.
+ *
+ * The envelope (time, H, T_K_mod, window maximum, running maximum) is written
+ * every few readings. Each run of consecutive readings above the installed
+ * depth is reported as a critical event with its start, end, duration and
+ * peak. Readings with H <= 0 need no embedment and count as T_K_mod = 0.
+ *
+ * @author phoenix
+ *
+ */
+public final class HydrographEnvelope {
+
+	/** Maximum number of reported malformed lines */
+	private static final int MAX_REPORTED_ERRORS = 10;
+	/** Maximum length of a stored time label, longer ones are truncated */
+	private static final int MAX_LABEL = 64;
+
+	/** Width of the excavation in meter */
+	private final double width;
+	/** Coefficients of the calculation */
+	private final CoefficientProfile profile;
+	/** Number of readings in the sliding window */
+	private final int window;
+	/** Number of readings between two lines of the envelope */
+	private final int step;
+	/** Installed embedment depth in meter or NaN */
+	private final double installed;
+	/** Number of decimals in the output */
+	private final int decimals;
+
+	/* Monotonic deque of the sliding window, ring buffer */
+	private final double[] dequeValue;
+	private final long[] dequeIndex;
+	private int dequeHead = 0;
+	private int dequeSize = 0;
+
+	/** Number of evaluated readings */
+	private long readings = 0;
+	/** Number of skipped malformed lines */
+	private long skipped = 0;
+	/** Running maximum of T_K_mod */
+	private double max = Double.NEGATIVE_INFINITY;
+	/** Time of the running maximum */
+	private final Label maxTime = new Label();
+	/** Number of readings until the next line of the envelope */
+	private int untilEnvelope;
+	/** Number of readings above the installed depth */
+	private long exceedances = 0;
+	/** Number of critical events */
+	private long events = 0;
+
+	/* Current critical event */
+	private boolean inEvent = false;
+	private long eventStart;
+	private double eventPeak;
+	private final Label eventStartTime = new Label();
+	private final Label eventEndTime = new Label();
+	private final Label eventPeakTime = new Label();
+
+	/** Copy of a time label, reused to avoid allocation per reading */
+	private static final class Label {
+		final byte[] data = new byte[MAX_LABEL];
+		int length = 0;
+
+		void set(final byte[] src, final int offset, final int length) {
+			this.length = Math.min(length, MAX_LABEL);
+			System.arraycopy(src, offset, data, 0, this.length);
+		}
+
+		void set(final Label label) {
+			set(label.data, 0, label.length);
+		}
+
+		@Override
+		public String toString() {
+			return new String(data, 0, length);
+		}
+	}
+
+	/**
+	 * Creates a new evaluation
+	 *
+	 * @param width
+	 *            width of the excavation B in meter
+	 * @param profile
+	 *            coefficients of the calculation
+	 * @param window
+	 *            number of readings in the sliding window
+	 * @param step
+	 *            number of readings between two lines of the envelope
+	 * @param installed
+	 *            installed embedment depth in meter or NaN to report no
+	 *            events
+	 * @param decimals
+	 *            number of decimals in the output, 0 to 9
+	 */
+	public HydrographEnvelope(final double width, final CoefficientProfile profile, final int window, final int step,
+			final double installed, final int decimals) {
+		if (!(width > 0))
+			throw new IllegalArgumentException("Width must be positive");
+		if (window < 1 || step < 1)
+			throw new IllegalArgumentException("Window and step must be at least one reading");
+		if (decimals < 0 || decimals > 9)
+			throw new IllegalArgumentException("Decimals must be between 0 and 9");
+		this.width = width;
+		this.profile = profile;
+		this.window = window;
+		this.step = step;
+		this.installed = installed;
+		this.decimals = decimals;
+		this.untilEnvelope = step;
+		this.dequeValue = new double[window];
+		this.dequeIndex = new long[window];
+	}
+
+	/**
+	 * @return the number of evaluated readings
+	 */
+	public long getReadings() {
+		return readings;
+	}
+
+	/**
+	 * @return the number of skipped malformed lines
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return the maximum of T_K_mod over all readings in meter
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @return the time of the maximum of T_K_mod
+	 */
+	public String getMaxTime() {
+		return maxTime.toString();
+	}
+
+	/**
+	 * @return the number of readings above the installed depth
+	 */
+	public long getExceedances() {
+		return exceedances;
+	}
+
+	/**
+	 * @return the number of critical events
+	 */
+	public long getEvents() {
+		return events;
+	}
+
+	/**
+	 * Calculate T_K_mod for one reading
+	 *
+	 * @param h
+	 *            head difference in meter
+	 * @return T_K_mod in meter, 0 if there is no head difference
+	 */
+	double tkMod(final double h) {
+		return h > 0 ? profile.tkMod(width, h) : 0;
+	}
+
+	/**
+	 * Add a value to the sliding window and return the maximum of the window
+	 *
+	 * @param index
+	 *            number of the reading
+	 * @param value
+	 *            T_K_mod of the reading
+	 * @return the maximum of the last {@link #window} values
+	 */
+	double slide(final long index, final double value) {
+		final int capacity = dequeValue.length;
+		// Values that are not larger than the new one can never be the maximum
+		while (dequeSize > 0) {
+			int tail = dequeHead + dequeSize - 1;
+			if (tail >= capacity)
+				tail -= capacity;
+			if (dequeValue[tail] > value)
+				break;
+			dequeSize--;
+		}
+		if (dequeSize > 0 && dequeIndex[dequeHead] <= index - window) {
+			if (++dequeHead == capacity)
+				dequeHead = 0;
+			dequeSize--;
+		}
+		int tail = dequeHead + dequeSize;
+		if (tail >= capacity)
+			tail -= capacity;
+		dequeValue[tail] = value;
+		dequeIndex[tail] = index;
+		dequeSize++;
+		return dequeValue[dequeHead];
+	}
+
+	/**
+	 * Process all readings of the scanner
+	 *
+	 * @param in
+	 *            readings, time and H per line. With only one field per line
+	 *            the number of the reading is used as time
+	 * @param envelope
+	 *            output for the envelope
+	 * @param critical
+	 *            output for the critical events or null
+	 * @throws IOException
+	 *             if reading or writing fails
+	 */
+	void process(final CsvScanner in, final CsvOutput envelope, final CsvOutput critical) throws IOException {
+		boolean header = true;
+		byte delimiter = ',';
+		while (in.nextLine()) {
+			delimiter = in.getDelimiter() != 0 ? in.getDelimiter() : (byte) ',';
+			final int field = in.getFieldCount() > 1 ? 1 : 0;
+			final double h;
+			try {
+				h = in.parseDouble(field);
+				if (Double.isNaN(h))
+					throw new NumberFormatException("Not a number in " + in.getLocation());
+			} catch (NumberFormatException e) {
+				if (header) {
+					header = false;
+					writeHeaders(envelope, critical, delimiter);
+					continue;
+				}
+				if (++skipped <= MAX_REPORTED_ERRORS)
+					System.err.println(e.getMessage());
+				continue;
+			}
+			if (header) {
+				header = false;
+				writeHeaders(envelope, critical, delimiter);
+			}
+
+			add(in, field, h, envelope, critical, delimiter);
+		}
+		if (inEvent)
+			endEvent(critical, delimiter, readings);
+		envelope.flush();
+		if (critical != null)
+			critical.flush();
+	}
+
+	/**
+	 * Evaluate one reading. Kept apart from the parsing loop so that it is
+	 * compiled early and inlined
+	 */
+	private void add(final CsvScanner in, final int field, final double h, final CsvOutput envelope,
+			final CsvOutput critical, final byte delimiter) throws IOException {
+		final long index = readings++;
+		final double t = tkMod(h);
+		final double windowMax = slide(index, t);
+		if (t > max) {
+			max = t;
+			setTime(maxTime, in, field, index);
+		}
+		if (t > installed) {
+			exceedances++;
+			if (!inEvent) {
+				inEvent = true;
+				eventStart = index;
+				eventPeak = t;
+				setTime(eventStartTime, in, field, index);
+				eventPeakTime.set(eventStartTime);
+			} else if (t > eventPeak) {
+				eventPeak = t;
+				setTime(eventPeakTime, in, field, index);
+			}
+			setTime(eventEndTime, in, field, index);
+		} else if (inEvent) {
+			endEvent(critical, delimiter, index);
+		}
+
+		if (--untilEnvelope == 0) {
+			untilEnvelope = step;
+			putTime(envelope, in, field, index);
+			envelope.put(delimiter);
+			envelope.put(h, decimals);
+			envelope.put(delimiter);
+			envelope.put(t, decimals);
+			envelope.put(delimiter);
+			envelope.put(windowMax, decimals);
+			envelope.put(delimiter);
+			envelope.put(max, decimals);
+			envelope.newLine();
+		}
+	}
+
+	/** Report the current critical event */
+	private void endEvent(final CsvOutput critical, final byte delimiter, final long end) throws IOException {
+		inEvent = false;
+		events++;
+		if (critical == null)
+			return;
+		critical.put(eventStartTime.data, 0, eventStartTime.length);
+		critical.put(delimiter);
+		critical.put(eventEndTime.data, 0, eventEndTime.length);
+		critical.put(delimiter);
+		critical.put(Long.toString(end - eventStart));
+		critical.put(delimiter);
+		critical.put(eventPeak, decimals);
+		critical.put(delimiter);
+		critical.put(eventPeakTime.data, 0, eventPeakTime.length);
+		critical.newLine();
+	}
+
+	/** Store the time of the current reading */
+	private static void setTime(final Label label, final CsvScanner in, final int field, final long index) {
+		if (field > 0) {
+			label.set(in.getData(), in.getFieldStart(0), in.getFieldLength(0));
+		} else {
+			final String number = Long.toString(index);
+			label.length = number.length();
+			for (int i = 0; i < label.length; i++)
+				label.data[i] = (byte) number.charAt(i);
+		}
+	}
+
+	/** Write the time of the current reading */
+	private static void putTime(final CsvOutput out, final CsvScanner in, final int field, final long index)
+			throws IOException {
+		if (field > 0)
+			out.put(in.getData(), in.getFieldStart(0), in.getFieldLength(0));
+		else
+			out.put(Long.toString(index));
+	}
+
+	/** Write the header lines */
+	private static void writeHeaders(final CsvOutput envelope, final CsvOutput critical, final byte delimiter)
+			throws IOException {
+		putNames(envelope, delimiter, new String[] { "time", "H", "T_K_mod", "window_max", "running_max" });
+		if (critical != null)
+			putNames(critical, delimiter, new String[] { "start", "end", "readings", "peak", "peak_time" });
+	}
+
+	private static void putNames(final CsvOutput out, final byte delimiter, final String[] names) throws IOException {
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0)
+				out.put(delimiter);
+			out.put(names[i]);
+		}
+		out.newLine();
+	}
+
+	/**
+	 * Command line entry point
+	 *
+	 * @param args
+	 *            -b width [-t installed depth] [-w window] [-s step] [-e
+	 *            events] [-d decimals] [-p profiles -n name] input output. The
+	 *            window and step are numbers of readings and default to 1440
+	 *            (one day of minute readings). Use - for stdin or stdout
+	 * @throws Exception
+	 *             if processing fails
+	 */
+	public static void main(final String[] args) throws Exception {
+		double width = Double.NaN;
+		double installed = Double.NaN;
+		int window = 1440;
+		int step = -1;
+		int decimals = 4;
+		String eventFile = null;
+		String profileFile = null;
+		String profileName = null;
+		int i = 0;
+		try {
+			for (; i < args.length - 2; i++) {
+				if (args[i].equals("-b"))
+					width = Double.parseDouble(args[++i]);
+				else if (args[i].equals("-t"))
+					installed = Double.parseDouble(args[++i]);
+				else if (args[i].equals("-w"))
+					window = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-s"))
+					step = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-e"))
+					eventFile = args[++i];
+				else if (args[i].equals("-d"))
+					decimals = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-p"))
+					profileFile = args[++i];
+				else if (args[i].equals("-n"))
+					profileName = args[++i];
+				else
+					break;
+			}
+			if (args.length - i != 2 || Double.isNaN(width) || (profileName != null && profileFile == null))
+				throw new IllegalArgumentException();
+		} catch (RuntimeException e) {
+			System.err.println("Usage: HydrographEnvelope -b width [-t installed depth] [-w window] [-s step] "
+					+ "[-e events] [-d decimals] [-p profiles -n name] input output");
+			System.exit(1);
+			return;
+		}
+		CoefficientProfile profile = CoefficientProfile.SCRIPT;
+		if (profileFile != null) {
+			final List<CoefficientProfile> loaded = CoefficientProfile.load(new File(profileFile));
+			profile = profileName != null ? CoefficientProfile.find(loaded, profileName) : loaded.size() == 1 ? loaded
+					.get(0) : null;
+			if (profile == null) {
+				System.err.println(profileName != null ? "No profile " + profileName + " in " + profileFile
+						: "Select one of the profiles in " + profileFile + " with -n");
+				System.exit(1);
+			}
+		}
+		final String input = args[i];
+		final String output = args[i + 1];
+
+		final HydrographEnvelope envelope = new HydrographEnvelope(width, profile, window, step > 0 ? step : window,
+				installed, decimals);
+		final long start = System.nanoTime();
+		final ReadableByteChannel in = input.equals("-") ? Channels.newChannel(System.in) : new FileInputStream(input)
+				.getChannel();
+		final WritableByteChannel out = output.equals("-") ? Channels.newChannel(System.out) : new FileOutputStream(
+				output).getChannel();
+		final WritableByteChannel events = eventFile == null ? null : new FileOutputStream(eventFile).getChannel();
+		try {
+			envelope.process(new CsvScanner(in, CsvScanner.DEFAULT_BUFFER_SIZE), new CsvOutput(out,
+					CsvOutput.DEFAULT_BUFFER_SIZE), events == null ? null : new CsvOutput(events,
+					CsvOutput.DEFAULT_BUFFER_SIZE));
+		} finally {
+			in.close();
+			out.close();
+			if (events != null)
+				events.close();
+		}
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.println(String.format(Locale.US, "%d readings, %d skipped lines in %.3f s (%.0f readings/s)",
+				envelope.getReadings(), envelope.getSkipped(), seconds, envelope.getReadings() / seconds));
+		System.err.println(String.format(Locale.US, "Maximum T_K_mod %.3f m at %s", envelope.getMax(),
+				envelope.getMaxTime()));
+		if (!Double.isNaN(installed))
+			System.err.println(String.format(Locale.US, "%d readings in %d events above the installed depth of %.3f m",
+					envelope.getExceedances(), envelope.getEvents(), installed));
+	}
+}
@@ -0,0 +1,248 @@
+package ac.at.uibk.geotechnik;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
+import android.widget.EditText;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+/**
+ * Shows the result and the draft of the input while it is typed.
+ *
+ * Changes of the input fields are coalesced on the UI thread and the result
+ * is computed on a worker thread; only the latest input is shown, older ones
+ * are dropped. The draft is kept in one bitmap and on every change only the
+ * area that differs from the shown draft is painted again, see
+ * {@link DraftPainter#changedBounds(DraftLayout, DraftLayout, DraftSurface, float[])}
+ * . Must be created and used on the UI thread.
+ *
+ * @author phoenix
+ *
+ */
+final class LivePreview implements TextWatcher {
+
+	/** Tag for the log */
+	private static final String TAG = "LivePreview";
+
+	/** Worker thread for the computation */
+	private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, TAG);
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** Input field for B */
+	private final EditText edB;
+	/** Input field for H */
+	private final EditText edH;
+	/** View of the draft */
+	private final ImageView imgDraft;
+	/** View of the result */
+	private final TextView txtResult;
+	/** Handler of the UI thread */
+	private final Handler handler = new Handler();
+	/** Number of the latest input, older results are dropped */
+	private final AtomicInteger latest = new AtomicInteger();
+
+	/** Surface of the bitmap, UI thread only */
+	private final CanvasSurface surface = new CanvasSurface();
+	/** Area that has to be painted again */
+	private final float[] bounds = new float[4];
+	/** Area to invalidate in view coordinates */
+	private final RectF dirty = new RectF();
+	/** Shown draft or null until the first result */
+	private Bitmap bitmap = null;
+	/** Canvas of the bitmap */
+	private Canvas canvas = null;
+	/** Layout of the shown draft */
+	private DraftLayout layout = null;
+	/** Time of the first change that has not been shown yet, 0 if none */
+	private long changedNanos = 0;
+
+	/** Reads the input after the changes of one event */
+	private final Runnable update = new Runnable() {
+
+		@Override
+		public void run() {
+			final String textB = edB.getText().toString().trim();
+			final String textH = edH.getText().toString().trim();
+			final int input = latest.incrementAndGet();
+			if (textB.length() == 0 || textH.length() == 0) {
+				txtResult.setText("");
+				clear();
+				return;
+			}
+			final double b, h;
+			try {
+				b = Double.parseDouble(textB);
+				h = Double.parseDouble(textH);
+			} catch (NumberFormatException e) {
+				txtResult.setText(R.string.IllegalNumberFormat);
+				clear();
+				return;
+			}
+			// Zero is typed on the way to e.g. 0.5 and is no error yet
+			if (!(b > 0 && h > 0) || Double.isInfinite(b) || Double.isInfinite(h)) {
+				txtResult.setText("");
+				clear();
+				return;
+			}
+			EXECUTOR.execute(new Computation(input, b, h));
+		}
+	};
+
+	/** Computes one input on the worker thread */
+	private final class Computation implements Runnable {
+		private final int input;
+		private final double b;
+		private final double h;
+
+		Computation(final int input, final double b, final double h) {
+			this.input = input;
+			this.b = b;
+			this.h = h;
+		}
+
+		@Override
+		public void run() {
+			if (input != latest.get())
+				return;
+			final ResultCache.Result result = ResultCache.get(b, h, DraftRenderer.WIDTH, DraftRenderer.HEIGHT);
+			final DraftLayout computed = new DraftLayout(EmbedmentSolver.clampedWidth(b, h), h, result.t,
+					DraftRenderer.WIDTH, DraftRenderer.HEIGHT);
+			handler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					if (input == latest.get())
+						show(computed);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Start the preview of the input fields
+	 *
+	 * @param edB
+	 *            input field for B
+	 * @param edH
+	 *            input field for H
+	 * @param imgDraft
+	 *            view of the draft
+	 * @param txtResult
+	 *            view of the result
+	 */
+	LivePreview(final EditText edB, final EditText edH, final ImageView imgDraft, final TextView txtResult) {
+		this.edB = edB;
+		this.edH = edH;
+		this.imgDraft = imgDraft;
+		this.txtResult = txtResult;
+		edB.addTextChangedListener(this);
+		edH.addTextChangedListener(this);
+	}
+
+	@Override
+	public void beforeTextChanged(final CharSequence s, final int start, final int count, final int after) {
+	}
+
+	@Override
+	public void onTextChanged(final CharSequence s, final int start, final int before, final int count) {
+	}
+
+	@Override
+	public void afterTextChanged(final Editable s) {
+		if (changedNanos == 0)
+			changedNanos = System.nanoTime();
+		// Posting again coalesces the changes of one event, e.g. restoring both
+		// fields. No delay is needed, since a case is computed in microseconds
+		handler.removeCallbacks(update);
+		handler.post(update);
+	}
+
+	/**
+	 * @return true once a draft of the input is shown
+	 */
+	boolean isShowing() {
+		return bitmap != null;
+	}
+
+	/** Stop the preview and give back the bitmap */
+	void release() {
+		latest.incrementAndGet();
+		handler.removeCallbacks(update);
+		releaseDraft();
+	}
+
+	/**
+	 * Drop the draft when the input has no result, so it never shows the
+	 * labels of an older input. The next result is painted in full
+	 */
+	private void clear() {
+		changedNanos = 0;
+		releaseDraft();
+	}
+
+	/** Remove the draft from the view and give back the bitmap */
+	private void releaseDraft() {
+		if (bitmap != null) {
+			imgDraft.setImageBitmap(null);
+			DraftRenderer.release(bitmap);
+			bitmap = null;
+			canvas = null;
+		}
+		layout = null;
+	}
+
+	/** Show a computed layout, painting only the changed area */
+	private void show(final DraftLayout next) {
+		txtResult.setText(next.textT);
+		final boolean first = bitmap == null;
+		if (first) {
+			bitmap = DraftRenderer.acquire(DraftRenderer.WIDTH, DraftRenderer.HEIGHT);
+			canvas = new Canvas(bitmap);
+		}
+		surface.setCanvas(canvas);
+		if (DraftPainter.changedBounds(first ? null : layout, next, surface, bounds)) {
+			// Round outwards and add a pixel for anti-aliasing
+			final float left = Math.max(0, (float) Math.floor(bounds[0]) - 1);
+			final float top = Math.max(0, (float) Math.floor(bounds[1]) - 1);
+			final float right = Math.min(next.width, (float) Math.ceil(bounds[2]) + 1);
+			final float bottom = Math.min(next.height, (float) Math.ceil(bounds[3]) + 1);
+			canvas.save();
+			canvas.clipRect(left, top, right, bottom);
+			DraftPainter.paint(next, surface, true);
+			canvas.restore();
+
+			if (first) {
+				imgDraft.setImageBitmap(bitmap);
+			} else {
+				dirty.set(left, top, right, bottom);
+				imgDraft.getImageMatrix().mapRect(dirty);
+				dirty.offset(imgDraft.getPaddingLeft(), imgDraft.getPaddingTop());
+				imgDraft.invalidate((int) Math.floor(dirty.left), (int) Math.floor(dirty.top),
+						(int) Math.ceil(dirty.right), (int) Math.ceil(dirty.bottom));
+			}
+		}
+		surface.setCanvas(null);
+		layout = next;
+		if (changedNanos != 0) {
+			Log.d(TAG, "Result shown " + (System.nanoTime() - changedNanos) / 1000 + " us after the change");
+			changedNanos = 0;
+		}
+	}
+}
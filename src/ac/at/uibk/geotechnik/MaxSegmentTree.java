@@ -0,0 +1,94 @@
+package ac.at.uibk.geotechnik;
+
+/**
+ * Static segment tree answering range maximum queries over an array in
+ * logarithmic time.
+ *
+ * The tree is stored bottom up in one int array of twice the number of
+ * values: the leaves are at [n, 2n) and node i covers its children 2i and
+ * 2i + 1. Nodes hold the index of the maximum instead of the value, so a
+ * query also tells where the maximum is. It is built in linear time and uses
+ * 8 bytes per value in addition to the values themselves.
+ *
+ * @author phoenix
+ *
+ */
+final class MaxSegmentTree {
+
+	/** Indexed values, not copied */
+	private final double[] values;
+	/** Number of values */
+	private final int n;
+	/** Index of the maximum per node */
+	private final int[] tree;
+
+	/**
+	 * Build the tree
+	 *
+	 * @param values
+	 *            values to index. Must not be changed afterwards and must not
+	 *            contain NaN
+	 * @param count
+	 *            number of values to index, starting at 0
+	 */
+	MaxSegmentTree(final double[] values, final int count) {
+		if (count < 1 || count > values.length || count > Integer.MAX_VALUE / 2)
+			throw new IllegalArgumentException("Illegal number of values: " + count);
+		this.values = values;
+		this.n = count;
+		this.tree = new int[2 * count];
+		for (int i = 0; i < count; i++)
+			tree[count + i] = i;
+		for (int i = count - 1; i > 0; i--)
+			tree[i] = larger(tree[2 * i], tree[2 * i + 1]);
+	}
+
+	/** Index of the larger value, the lower index on ties */
+	private int larger(final int a, final int b) {
+		if (values[b] > values[a] || (values[b] == values[a] && b < a))
+			return b;
+		return a;
+	}
+
+	/**
+	 * @return the number of indexed values
+	 */
+	int size() {
+		return n;
+	}
+
+	/**
+	 * Find the maximum in a range
+	 *
+	 * @param from
+	 *            first index of the range
+	 * @param to
+	 *            last index of the range, inclusive
+	 * @return index of the largest value in the range, the first one on ties
+	 */
+	int argMax(final int from, final int to) {
+		if (from < 0 || to >= n || from > to)
+			throw new IndexOutOfBoundsException("Range " + from + " to " + to + " outside of 0 to " + (n - 1));
+		int best = from;
+		for (int l = from + n, r = to + n + 1; l < r; l >>= 1, r >>= 1) {
+			if ((l & 1) != 0)
+				best = larger(best, tree[l++]);
+			if ((r & 1) != 0)
+				best = larger(best, tree[--r]);
+		}
+		return best;
+	}
+
+	/**
+	 * Find the maximum in a range
+	 *
+	 * @param from
+	 *            first index of the range
+	 * @param to
+	 *            last index of the range, inclusive
+	 * @return the largest value in the range
+	 */
+	double max(final int from, final int to) {
+		return values[argMax(from, to)];
+	}
+}
@@ -0,0 +1,426 @@
+package ac.at.uibk.geotechnik;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monte Carlo propagation of the uncertainty of B, H and the coefficients c1,
+ * c2 and i_zul to T_K_mod.
+ *
+ * The samples are split into blocks of {@link #BLOCK_SIZE}. Every block has
+ * its own random stream derived from the seed and the block number, and the
+ * moments of every block are merged in block order at the end, so a run is
+ * reproducible from its seed regardless of the number of threads. The quantile
+ * sketch and the histogram only hold counts and are merged per thread. No
+ * samples are stored.
+ *
+ * Samples with a non-positive B, H or i_zul or a non-finite result are
+ * counted as invalid and not included in the statistics.
+ *
+ * @author phoenix
+ *
+ */
+public final class MonteCarlo {
+
+	/** Number of samples per block */
+	public static final int BLOCK_SIZE = 1 << 14;
+	/** Default number of histogram bins */
+	public static final int DEFAULT_BINS = 40;
+	/** Number of samples of the pilot run for the histogram range */
+	private static final int PILOT_SAMPLES = 1 << 12;
+
+	/** Distribution of the width in meter */
+	private final Distribution b;
+	/** Distribution of the head difference in meter */
+	private final Distribution h;
+	/** Distribution of c1 */
+	private final Distribution c1;
+	/** Distribution of c2 */
+	private final Distribution c2;
+	/** Distribution of i_zul */
+	private final Distribution iZul;
+	/** Seed of the simulation */
+	private final long seed;
+
+	/** Lower bound of the histogram, NaN for automatic */
+	private double histogramMin = Double.NaN;
+	/** Upper bound of the histogram, NaN for automatic */
+	private double histogramMax = Double.NaN;
+	/** Number of histogram bins */
+	private int bins = DEFAULT_BINS;
+
+	/** Set if the simulation should stop as soon as possible */
+	private volatile boolean cancelled = false;
+	/** Number of samples that have been calculated in the last run */
+	private final AtomicLong completed = new AtomicLong();
+	/** Duration of the last run in nanoseconds */
+	private volatile long duration = 0;
+
+	/** Moments of the valid results of the last run */
+	private RunningStatistics statistics = new RunningStatistics();
+	/** Quantile sketch of the valid results of the last run */
+	private QuantileSketch sketch = new QuantileSketch();
+	/** Histogram of the valid results of the last run */
+	private Histogram histogram = null;
+	/** Number of invalid samples of the last run */
+	private long invalid = 0;
+
+	/**
+	 * Creates a new simulation
+	 *
+	 * @param b
+	 *            distribution of the width in meter
+	 * @param h
+	 *            distribution of the head difference in meter
+	 * @param c1
+	 *            distribution of c1
+	 * @param c2
+	 *            distribution of c2
+	 * @param iZul
+	 *            distribution of the allowed gradient
+	 * @param seed
+	 *            seed of the random numbers
+	 */
+	public MonteCarlo(final Distribution b, final Distribution h, final Distribution c1, final Distribution c2,
+			final Distribution iZul, final long seed) {
+		this.b = b;
+		this.h = h;
+		this.c1 = c1;
+		this.c2 = c2;
+		this.iZul = iZul;
+		this.seed = seed;
+	}
+
+	/**
+	 * Set the range of the histogram. By default the range is chosen from a
+	 * small pilot run
+	 *
+	 * @param min
+	 *            lower bound of the first bin in meter
+	 * @param max
+	 *            upper bound of the last bin in meter
+	 * @param bins
+	 *            number of bins
+	 */
+	public void setHistogram(final double min, final double max, final int bins) {
+		if (!(max > min) || bins < 1)
+			throw new IllegalArgumentException("Illegal histogram range");
+		histogramMin = min;
+		histogramMax = max;
+		this.bins = bins;
+	}
+
+	/**
+	 * Request the simulation to stop. Blocks already in progress are
+	 * finished. A cancel before the simulation has started is not lost: the
+	 * next run returns at once. It stays in effect until {@link #reset()}
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/** Clear a cancel request so the simulation can be run again */
+	public void reset() {
+		cancelled = false;
+	}
+
+	/**
+	 * Run the simulation
+	 *
+	 * @param samples
+	 *            number of samples
+	 * @param threads
+	 *            number of worker threads
+	 * @param listener
+	 *            progress listener or null
+	 * @return true if the simulation finished, false if it has been cancelled
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the workers
+	 */
+	public boolean run(final long samples, final int threads, final GridSweep.ProgressListener listener)
+			throws InterruptedException {
+		final long blockCount = (samples + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		if (samples < 0 || blockCount > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Illegal number of samples: " + samples);
+		final int blocks = (int) blockCount;
+		completed.set(0);
+		if (Double.isNaN(histogramMin))
+			pilot();
+
+		// Moments per block, merged in block order for reproducibility
+		final long[] blockN = new long[blocks];
+		final double[] blockMean = new double[blocks];
+		final double[] blockM2 = new double[blocks];
+		final double[] blockMin = new double[blocks];
+		final double[] blockMax = new double[blocks];
+		final AtomicInteger nextBlock = new AtomicInteger();
+		final int workers = Math.max(1, Math.min(threads, blocks));
+		final Worker[] worker = new Worker[workers];
+
+		final long start = System.nanoTime();
+		final ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			for (int w = 0; w < workers; w++) {
+				worker[w] = new Worker(new Histogram(histogramMin, histogramMax, bins));
+				final Worker current = worker[w];
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						int block;
+						while (!cancelled && (block = nextBlock.getAndIncrement()) < blocks) {
+							final int length = (int) Math.min(BLOCK_SIZE, samples - (long) block * BLOCK_SIZE);
+							current.run(block, length);
+							blockN[block] = current.n;
+							blockMean[block] = current.mean;
+							blockM2[block] = current.m2;
+							blockMin[block] = current.min;
+							blockMax[block] = current.max;
+							final long done = completed.addAndGet(length);
+							if (listener != null)
+								listener.onProgress(done, samples);
+						}
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				cancelled = true;
+				executor.shutdownNow();
+				throw e;
+			} finally {
+				duration = System.nanoTime() - start;
+			}
+		}
+
+		statistics = new RunningStatistics();
+		for (int block = 0; block < blocks; block++)
+			statistics.merge(blockN[block], blockMean[block], blockM2[block], blockMin[block], blockMax[block]);
+		sketch = new QuantileSketch();
+		histogram = new Histogram(histogramMin, histogramMax, bins);
+		invalid = 0;
+		for (Worker w : worker) {
+			sketch.merge(w.sketch);
+			histogram.merge(w.histogram);
+			invalid += w.invalid;
+		}
+		return completed.get() == samples;
+	}
+
+	/** Choose the histogram range from a small run on a separate stream */
+	private void pilot() {
+		final Worker worker = new Worker(null);
+		worker.sample(SplitMix64.forStream(seed, -1), PILOT_SAMPLES);
+		final RunningStatistics pilot = new RunningStatistics();
+		for (int i = 0; i < PILOT_SAMPLES; i++) {
+			if (worker.isValid(i))
+				pilot.add(worker.t[i]);
+		}
+		double sd = pilot.getStandardDeviation();
+		if (!(sd > 0))
+			sd = Math.max(1e-3, 0.01 * Math.abs(pilot.getMean()));
+		if (Double.isNaN(pilot.getMean()))
+			throw new IllegalArgumentException("No valid samples in the pilot run");
+		histogramMin = pilot.getMean() - 5 * sd;
+		histogramMax = pilot.getMean() + 5 * sd;
+	}
+
+	/** State of one worker thread */
+	private final class Worker {
+		final double[] vb = new double[BLOCK_SIZE];
+		final double[] vh = new double[BLOCK_SIZE];
+		final double[] vc1 = new double[BLOCK_SIZE];
+		final double[] vc2 = new double[BLOCK_SIZE];
+		final double[] vi = new double[BLOCK_SIZE];
+		final double[] t = new double[BLOCK_SIZE];
+		final QuantileSketch sketch = new QuantileSketch();
+		final Histogram histogram;
+		long invalid = 0;
+		/** Moments of the last block */
+		long n;
+		double mean;
+		double m2;
+		double min;
+		double max;
+
+		Worker(final Histogram histogram) {
+			this.histogram = histogram;
+		}
+
+		/** Draw the inputs and calculate T_K_mod */
+		void sample(final SplitMix64 random, final int length) {
+			b.fill(random, vb, length);
+			h.fill(random, vh, length);
+			c1.fill(random, vc1, length);
+			c2.fill(random, vc2, length);
+			iZul.fill(random, vi, length);
+			EmbedmentKernel.solve(vb, vh, vc1, vc2, vi, t, 0, length);
+		}
+
+		boolean isValid(final int i) {
+			final double ti = t[i];
+			return vb[i] > 0 && vh[i] > 0 && vi[i] > 0 && ti - ti == 0;
+		}
+
+		/** Process one block */
+		void run(final int block, final int length) {
+			sample(SplitMix64.forStream(seed, block), length);
+			long count = 0;
+			double blockMean = 0;
+			double blockM2 = 0;
+			double blockMin = Double.POSITIVE_INFINITY;
+			double blockMax = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < length; i++) {
+				if (!isValid(i)) {
+					invalid++;
+					continue;
+				}
+				final double value = t[i];
+				count++;
+				final double delta = value - blockMean;
+				blockMean += delta / count;
+				blockM2 += delta * (value - blockMean);
+				blockMin = Math.min(blockMin, value);
+				blockMax = Math.max(blockMax, value);
+				sketch.add(value);
+				histogram.add(value);
+			}
+			n = count;
+			mean = blockMean;
+			m2 = blockM2;
+			min = blockMin;
+			max = blockMax;
+		}
+	}
+
+	/**
+	 * @return the moments of the valid results of the last run
+	 */
+	public RunningStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @return the quantile sketch of the valid results of the last run
+	 */
+	public QuantileSketch getSketch() {
+		return sketch;
+	}
+
+	/**
+	 * @return the histogram of the valid results of the last run
+	 */
+	public Histogram getHistogram() {
+		return histogram;
+	}
+
+	/**
+	 * @return the number of invalid samples of the last run
+	 */
+	public long getInvalidCount() {
+		return invalid;
+	}
+
+	/**
+	 * @return the duration of the last run in seconds
+	 */
+	public double getSeconds() {
+		return duration / 1e9;
+	}
+
+	/**
+	 * @return the samples per second of the last run
+	 */
+	public double getSamplesPerSecond() {
+		return duration == 0 ? 0 : completed.get() / (duration / 1e9);
+	}
+
+	/**
+	 * Command line entry point
+	 *
+	 * @param args
+	 *            [-n samples] [-s seed] [-j threads] B=dist H=dist [c1=dist]
+	 *            [c2=dist] [i_zul=dist], see {@link Distribution#parse(String)}
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	public static void main(final String[] args) throws InterruptedException {
+		long samples = 1000000;
+		long seed = 1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		Distribution b = null;
+		Distribution h = null;
+		Distribution c1 = Distribution.constant(EmbedmentSolver.C1);
+		Distribution c2 = Distribution.constant(EmbedmentSolver.C2);
+		Distribution iZul = Distribution.constant(EmbedmentSolver.I_ZUL);
+		try {
+			for (int i = 0; i < args.length; i++) {
+				final String arg = args[i];
+				if (arg.equals("-n") && i + 1 < args.length)
+					samples = (long) Double.parseDouble(args[++i]);
+				else if (arg.equals("-s") && i + 1 < args.length)
+					seed = Long.parseLong(args[++i]);
+				else if (arg.equals("-j") && i + 1 < args.length)
+					threads = Integer.parseInt(args[++i]);
+				else if (arg.startsWith("B="))
+					b = Distribution.parse(arg.substring(2));
+				else if (arg.startsWith("H="))
+					h = Distribution.parse(arg.substring(2));
+				else if (arg.startsWith("c1="))
+					c1 = Distribution.parse(arg.substring(3));
+				else if (arg.startsWith("c2="))
+					c2 = Distribution.parse(arg.substring(3));
+				else if (arg.startsWith("i_zul="))
+					iZul = Distribution.parse(arg.substring(6));
+				else
+					throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+			if (b == null || h == null)
+				throw new IllegalArgumentException("B and H are required");
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: MonteCarlo [-n samples] [-s seed] [-j threads] B=dist H=dist [c1=dist] [c2=dist] [i_zul=dist]");
+			System.err.println("dist: value | uniform:min,max | normal:mean,sd | lognormal:mean,sd | triangular:min,mode,max");
+			System.exit(1);
+			return;
+		}
+
+		final MonteCarlo simulation = new MonteCarlo(b, h, c1, c2, iZul, seed);
+		simulation.run(samples, threads, null);
+		final RunningStatistics stats = simulation.getStatistics();
+		final QuantileSketch quantiles = simulation.getSketch();
+		System.out.println(String.format(Locale.US, "B = %s, H = %s, c1 = %s, c2 = %s, i_zul = %s, seed %d", b, h, c1, c2,
+				iZul, seed));
+		System.out.println(String.format(Locale.US, "%d samples (%d invalid) on %d threads in %.3f s (%.3e samples/s)",
+				samples, simulation.getInvalidCount(), threads, simulation.getSeconds(), simulation.getSamplesPerSecond()));
+		System.out.println(String.format(Locale.US, "T_K_mod mean %.4f m, sd %.4f m, min %.4f m, max %.4f m",
+				stats.getMean(), stats.getStandardDeviation(), stats.getMin(), stats.getMax()));
+		final double[] q = { 0.001, 0.01, 0.05, 0.5, 0.95, 0.99, 0.999 };
+		final StringBuilder line = new StringBuilder("Quantiles");
+		for (double p : q)
+			line.append(String.format(Locale.US, "  %.1f%%: %.4f", 100 * p, quantiles.getQuantile(p)));
+		System.out.println(line);
+
+		final Histogram histogram = simulation.getHistogram();
+		long peak = 1;
+		for (int i = 0; i < histogram.getBinCount(); i++)
+			peak = Math.max(peak, histogram.getCount(i));
+		System.out.println(String.format(Locale.US, "  below %8.4f %12d", histogram.getBinStart(0), histogram.getUnderflow()));
+		for (int i = 0; i < histogram.getBinCount(); i++) {
+			final StringBuilder bar = new StringBuilder();
+			for (long k = histogram.getCount(i) * 50 / peak; k > 0; k--)
+				bar.append('#');
+			System.out.println(String.format(Locale.US, "  %8.4f %12d %s", histogram.getBinStart(i), histogram.getCount(i),
+					bar));
+		}
+		System.out.println(String.format(Locale.US, "  above %8.4f %12d",
+				histogram.getBinStart(histogram.getBinCount()), histogram.getOverflow()));
+	}
+}
@@ -0,0 +1,643 @@
+package ac.at.uibk.geotechnik;
+
+import java.util.Arrays;
+
+/**
+ * Conjugate gradient solver with a geometric multigrid preconditioner for
+ * symmetric five point operators on structured nx * ny grids.
+ *
+ * The operator is given by conductances: cE[k] couples cell k with its east
+ * neighbour k + 1, cS[k] couples it with its south neighbour k + nx, and
+ * diag[k] is the sum of all conductances of the cell including those to
+ * fixed potential boundaries. Inactive cells have no conductances and a
+ * diagonal of 1.
+ *
+ * Coarse levels aggregate 2 x 2 cells. Coarse conductances are half the sum
+ * of the fine conductances crossing the coarse face, which keeps the coarse
+ * operator consistent with the fine one for piecewise constant transfer. The
+ * V-cycle uses an exact Cholesky solve on the coarsest level and alternating
+ * zebra line Gauss-Seidel as smoother: rows and then columns of one parity
+ * are solved exactly, then those of the other parity, and the sweeps after
+ * the coarse correction run in reverse order, so the cycle is a valid
+ * preconditioner for conjugate gradients. Point smoothers fail on the graded
+ * grids of {@link AdaptiveSeepage}, where refined columns cross coarse rows
+ * and cells get aspect ratios of several hundred; line smoothing keeps the
+ * iteration count nearly independent of the grading. The tridiagonal line
+ * systems are factorized once per level. All sweeps run in parallel over
+ * bands of lines.
+ *
+ * @author phoenix
+ *
+ */
+final class MultigridSolver {
+
+	/** Maximum number of cells of the coarsest level */
+	private static final int COARSEST_CELLS = 256;
+	/** Minimum number of rows per parallel band */
+	private static final int MIN_ROWS = 16;
+	/**
+	 * Number of cells per partial sum of the dot products. Fixed, so the
+	 * summation order and thus the result do not depend on the number of
+	 * threads
+	 */
+	private static final int CHUNK = MIN_ROWS * 1024;
+	/** Number of smoothing sweeps before and after the coarse correction */
+	private static final int SMOOTHING_STEPS = 1;
+
+	/** One level of the hierarchy */
+	private static final class Level {
+		final int nx;
+		final int ny;
+		final double[] diag;
+		final double[] cE;
+		final double[] cS;
+		final boolean[] active;
+		/** Right hand side of the level */
+		final double[] b;
+		/** Solution of the level */
+		final double[] x;
+		/** Residual of the level */
+		final double[] r;
+		/** Reciprocal pivots of the row and column factorizations */
+		final double[] pivotRow;
+		final double[] pivotColumn;
+
+		Level(final int nx, final int ny, final double[] diag, final double[] cE, final double[] cS, final boolean[] active,
+				final boolean allocate) {
+			this.nx = nx;
+			this.ny = ny;
+			this.diag = diag;
+			this.cE = cE;
+			this.cS = cS;
+			this.active = active;
+			final int n = nx * ny;
+			this.b = allocate ? new double[n] : null;
+			this.x = allocate ? new double[n] : null;
+			this.r = new double[n];
+			this.pivotRow = new double[n];
+			this.pivotColumn = new double[n];
+		}
+
+		/** Factorize the tridiagonal systems of the rows and columns */
+		void factorizeLines() {
+			for (int j = 0; j < ny; j++) {
+				for (int i = 0; i < nx; i++) {
+					final int k = j * nx + i;
+					pivotRow[k] = 1 / (i > 0 ? diag[k] - cE[k - 1] * cE[k - 1] * pivotRow[k - 1] : diag[k]);
+					pivotColumn[k] = 1 / (j > 0 ? diag[k] - cS[k - nx] * cS[k - nx] * pivotColumn[k - nx] : diag[k]);
+				}
+			}
+		}
+	}
+
+	/** Levels from fine to coarse */
+	private final Level[] levels;
+	/** Cholesky factor of the coarsest level, row major lower triangle */
+	private final double[] cholesky;
+	/** Parallel loop for all sweeps */
+	private final ParallelLoop loop;
+
+	/** Vectors of the conjugate gradient method */
+	private final double[] r;
+	private final double[] z;
+	private final double[] p;
+	private final double[] q;
+	/** Partial sums per chunk of {@link #CHUNK} cells */
+	private final double[] partial;
+
+	/** Number of iterations of the last solve */
+	private int iterations = 0;
+	/** Relative residual of the last solve */
+	private double residual = 0;
+
+	/**
+	 * Creates a new solver. The arrays are used directly; changes of the
+	 * conductances must be followed by {@link #update()}
+	 *
+	 * @param nx
+	 *            number of cells in x direction
+	 * @param ny
+	 *            number of cells in y direction
+	 * @param diag
+	 *            diagonal of the operator
+	 * @param cE
+	 *            conductances to the east neighbours
+	 * @param cS
+	 *            conductances to the south neighbours
+	 * @param active
+	 *            mask of the active cells
+	 * @param loop
+	 *            parallel loop to run the sweeps on
+	 */
+	MultigridSolver(final int nx, final int ny, final double[] diag, final double[] cE, final double[] cS,
+			final boolean[] active, final ParallelLoop loop) {
+		this.loop = loop;
+		int count = 1;
+		for (int cx = nx, cy = ny; cx * cy > COARSEST_CELLS; count++) {
+			cx = (cx + 1) / 2;
+			cy = (cy + 1) / 2;
+		}
+		levels = new Level[count];
+		levels[0] = new Level(nx, ny, diag, cE, cS, active, count == 1);
+		for (int l = 1; l < count; l++) {
+			final int cnx = (levels[l - 1].nx + 1) / 2;
+			final int cny = (levels[l - 1].ny + 1) / 2;
+			final int cn = cnx * cny;
+			levels[l] = new Level(cnx, cny, new double[cn], new double[cn], new double[cn], new boolean[cn], true);
+		}
+		final int coarsest = levels[count - 1].nx * levels[count - 1].ny;
+		cholesky = new double[coarsest * coarsest];
+		update();
+
+		final int n = nx * ny;
+		r = new double[n];
+		z = new double[n];
+		p = new double[n];
+		q = new double[n];
+		partial = new double[(n + CHUNK - 1) / CHUNK];
+	}
+
+	/**
+	 * Rebuild the coarse levels and the factorizations after the conductances
+	 * of the finest level have been changed in place. The aggregation and all
+	 * arrays are reused; the active cells must not change
+	 */
+	void update() {
+		for (int l = 1; l < levels.length; l++)
+			coarsen(levels[l - 1], levels[l]);
+		for (int l = 0; l < levels.length - 1; l++)
+			levels[l].factorizeLines();
+		factorize(levels[levels.length - 1], cholesky);
+	}
+
+	/** Compute the operator of the next coarser level */
+	private static void coarsen(final Level fine, final Level coarse) {
+		final int fnx = fine.nx;
+		final int fny = fine.ny;
+		final int nx = coarse.nx;
+		final int ny = coarse.ny;
+		final double[] diag = coarse.diag;
+		final double[] cE = coarse.cE;
+		final double[] cS = coarse.cS;
+		final boolean[] active = coarse.active;
+		// The residual of the coarse level is free during the setup
+		final double[] dirichlet = coarse.r;
+		Arrays.fill(cE, 0);
+		Arrays.fill(cS, 0);
+		Arrays.fill(active, false);
+		Arrays.fill(dirichlet, 0);
+
+		for (int j = 0; j < fny; j++) {
+			for (int i = 0; i < fnx; i++) {
+				final int k = j * fnx + i;
+				if (!fine.active[k])
+					continue;
+				final int c = (j / 2) * nx + i / 2;
+				active[c] = true;
+				// Conductances to fixed potentials
+				double sum = fine.cE[k] + fine.cS[k];
+				if (i > 0)
+					sum += fine.cE[k - 1];
+				if (j > 0)
+					sum += fine.cS[k - fnx];
+				dirichlet[c] += 0.5 * Math.max(0, fine.diag[k] - sum);
+				// Faces crossing the coarse cell boundary
+				if ((i & 1) == 1 && i + 1 < fnx)
+					cE[c] += 0.5 * fine.cE[k];
+				if ((j & 1) == 1 && j + 1 < fny)
+					cS[c] += 0.5 * fine.cS[k];
+			}
+		}
+		for (int j = 0; j < ny; j++) {
+			for (int i = 0; i < nx; i++) {
+				final int c = j * nx + i;
+				if (!active[c]) {
+					diag[c] = 1;
+					continue;
+				}
+				double sum = dirichlet[c] + cE[c] + cS[c];
+				if (i > 0)
+					sum += cE[c - 1];
+				if (j > 0)
+					sum += cS[c - nx];
+				diag[c] = sum > 0 ? sum : 1;
+			}
+		}
+	}
+
+	/** Dense Cholesky factorization of the coarsest level */
+	private static void factorize(final Level level, final double[] a) {
+		final int n = level.nx * level.ny;
+		Arrays.fill(a, 0);
+		for (int k = 0; k < n; k++) {
+			final int i = k % level.nx;
+			a[k * n + k] = level.diag[k];
+			if (i + 1 < level.nx) {
+				a[k * n + k + 1] = -level.cE[k];
+				a[(k + 1) * n + k] = -level.cE[k];
+			}
+			if (k + level.nx < n) {
+				a[k * n + k + level.nx] = -level.cS[k];
+				a[(k + level.nx) * n + k] = -level.cS[k];
+			}
+		}
+		for (int j = 0; j < n; j++) {
+			double d = a[j * n + j];
+			for (int m = 0; m < j; m++)
+				d -= a[j * n + m] * a[j * n + m];
+			if (!(d > 0))
+				throw new IllegalStateException("Coarse operator is not positive definite");
+			d = Math.sqrt(d);
+			a[j * n + j] = d;
+			for (int i = j + 1; i < n; i++) {
+				double s = a[i * n + j];
+				for (int m = 0; m < j; m++)
+					s -= a[i * n + m] * a[j * n + m];
+				a[i * n + j] = s / d;
+			}
+		}
+	}
+
+	/** Solve the coarsest level exactly */
+	private void solveCoarsest(final Level level) {
+		final int n = level.nx * level.ny;
+		final double[] a = cholesky;
+		final double[] x = level.x;
+		for (int i = 0; i < n; i++) {
+			double s = level.b[i];
+			for (int m = 0; m < i; m++)
+				s -= a[i * n + m] * x[m];
+			x[i] = s / a[i * n + i];
+		}
+		for (int i = n - 1; i >= 0; i--) {
+			double s = x[i];
+			for (int m = i + 1; m < n; m++)
+				s -= a[m * n + i] * x[m];
+			x[i] = s / a[i * n + i];
+		}
+	}
+
+	/**
+	 * @return the number of levels
+	 */
+	int getLevelCount() {
+		return levels.length;
+	}
+
+	/**
+	 * @return the number of iterations of the last solve
+	 */
+	int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return the relative residual of the last solve
+	 */
+	double getResidual() {
+		return residual;
+	}
+
+	/**
+	 * @return the memory allocated by the solver in bytes, excluding the
+	 *         arrays of the finest operator
+	 */
+	long getMemoryBytes() {
+		long bytes = 8L * (r.length + z.length + p.length + q.length + 3L * levels[0].r.length);
+		for (int l = 1; l < levels.length; l++)
+			bytes += 9L * 8 * levels[l].r.length;
+		return bytes + 8L * cholesky.length;
+	}
+
+	/**
+	 * Solve the system with the conjugate gradient method
+	 *
+	 * @param b
+	 *            right hand side
+	 * @param x
+	 *            initial guess, overwritten with the solution
+	 * @param tolerance
+	 *            relative residual to be reached
+	 * @param maxIterations
+	 *            maximum number of iterations
+	 * @return true if the tolerance has been reached
+	 */
+	boolean solve(final double[] b, final double[] x, final double tolerance, final int maxIterations) {
+		final Level fine = levels[0];
+		final double normB = Math.sqrt(dot(b, b));
+		if (normB == 0) {
+			Arrays.fill(x, 0);
+			iterations = 0;
+			residual = 0;
+			return true;
+		}
+		residual(fine, x, b, r);
+		double normR = Math.sqrt(dot(r, r));
+		iterations = 0;
+		residual = normR / normB;
+		if (residual <= tolerance)
+			return true;
+
+		precondition(r, z);
+		System.arraycopy(z, 0, p, 0, z.length);
+		double rz = dot(r, z);
+		while (iterations < maxIterations) {
+			iterations++;
+			apply(fine, p, q);
+			final double alpha = rz / dot(p, q);
+			normR = Math.sqrt(update(x, r, alpha));
+			residual = normR / normB;
+			if (residual <= tolerance)
+				return true;
+			precondition(r, z);
+			final double rzNew = dot(r, z);
+			final double beta = rzNew / rz;
+			rz = rzNew;
+			direction(beta);
+		}
+		return false;
+	}
+
+	/** Apply one V-cycle to r, result in z */
+	private void precondition(final double[] r, final double[] z) {
+		vcycle(0, r, z);
+	}
+
+	/** V-cycle on the given level */
+	private void vcycle(final int l, final double[] b, final double[] x) {
+		final Level level = levels[l];
+		if (l == levels.length - 1) {
+			System.arraycopy(b, 0, level.b, 0, b.length);
+			solveCoarsest(level);
+			System.arraycopy(level.x, 0, x, 0, x.length);
+			return;
+		}
+		Arrays.fill(x, 0);
+		for (int s = 0; s < SMOOTHING_STEPS; s++) {
+			smoothRows(level, b, x, 0);
+			smoothRows(level, b, x, 1);
+			smoothColumns(level, b, x, 0);
+			smoothColumns(level, b, x, 1);
+		}
+		residual(level, x, b, level.r);
+		final Level coarse = levels[l + 1];
+		restrict(level, level.r, coarse);
+		vcycle(l + 1, coarse.b, coarse.x);
+		prolongate(coarse, level, x);
+		for (int s = 0; s < SMOOTHING_STEPS; s++) {
+			smoothColumns(level, b, x, 1);
+			smoothColumns(level, b, x, 0);
+			smoothRows(level, b, x, 1);
+			smoothRows(level, b, x, 0);
+		}
+	}
+
+	/**
+	 * One Gauss-Seidel sweep over the rows of the given color, every row is
+	 * solved exactly with the Thomas algorithm
+	 */
+	private void smoothRows(final Level level, final double[] b, final double[] x, final int color) {
+		final int nx = level.nx;
+		final int ny = level.ny;
+		final double[] cE = level.cE;
+		final double[] cS = level.cS;
+		final double[] pivot = level.pivotRow;
+		loop.run(0, (ny + 1 - color) / 2, MIN_ROWS / 2, new ParallelLoop.Body() {
+
+			@Override
+			public void run(final int band, final int from, final int to) {
+				for (int j = 2 * from + color; j < 2 * to + color && j < ny; j += 2) {
+					final int row = j * nx;
+					// Forward elimination, x holds the eliminated right hand side
+					for (int i = 0; i < nx; i++) {
+						final int k = row + i;
+						double s = b[k];
+						if (j > 0)
+							s += cS[k - nx] * x[k - nx];
+						if (j + 1 < ny)
+							s += cS[k] * x[k + nx];
+						if (i > 0)
+							s += cE[k - 1] * x[k - 1];
+						x[k] = s * pivot[k];
+					}
+					for (int k = row + nx - 2; k >= row; k--)
+						x[k] += cE[k] * pivot[k] * x[k + 1];
+				}
+			}
+		});
+	}
+
+	/**
+	 * One Gauss-Seidel sweep over the columns of the given color, every column
+	 * is solved exactly with the Thomas algorithm. The columns of a band are
+	 * eliminated together row by row to keep the memory access sequential
+	 */
+	private void smoothColumns(final Level level, final double[] b, final double[] x, final int color) {
+		final int nx = level.nx;
+		final int ny = level.ny;
+		final double[] cE = level.cE;
+		final double[] cS = level.cS;
+		final double[] pivot = level.pivotColumn;
+		loop.run(0, (nx + 1 - color) / 2, MIN_ROWS / 2, new ParallelLoop.Body() {
+
+			@Override
+			public void run(final int band, final int from, final int to) {
+				final int first = 2 * from + color;
+				final int end = Math.min(2 * to + color, nx);
+				for (int j = 0; j < ny; j++) {
+					final int row = j * nx;
+					for (int i = first; i < end; i += 2) {
+						final int k = row + i;
+						double s = b[k];
+						if (i > 0)
+							s += cE[k - 1] * x[k - 1];
+						if (i + 1 < nx)
+							s += cE[k] * x[k + 1];
+						if (j > 0)
+							s += cS[k - nx] * x[k - nx];
+						x[k] = s * pivot[k];
+					}
+				}
+				for (int j = ny - 2; j >= 0; j--) {
+					final int row = j * nx;
+					for (int i = first; i < end; i += 2) {
+						final int k = row + i;
+						x[k] += cS[k] * pivot[k] * x[k + nx];
+					}
+				}
+			}
+		});
+	}
+
+	/** Compute r = b - A x */
+	private void residual(final Level level, final double[] x, final double[] b, final double[] r) {
+		final int nx = level.nx;
+		final int ny = level.ny;
+		final double[] diag = level.diag;
+		final double[] cE = level.cE;
+		final double[] cS = level.cS;
+		loop.run(0, ny, MIN_ROWS, new ParallelLoop.Body() {
+
+			@Override
+			public void run(final int band, final int from, final int to) {
+				for (int j = from; j < to; j++) {
+					for (int i = 0; i < nx; i++) {
+						final int k = j * nx + i;
+						double s = b[k] - diag[k] * x[k];
+						if (i > 0)
+							s += cE[k - 1] * x[k - 1];
+						if (i + 1 < nx)
+							s += cE[k] * x[k + 1];
+						if (j > 0)
+							s += cS[k - nx] * x[k - nx];
+						if (j + 1 < ny)
+							s += cS[k] * x[k + nx];
+						r[k] = s;
+					}
+				}
+			}
+		});
+	}
+
+	/** Compute q = A p on the given level */
+	private void apply(final Level level, final double[] p, final double[] q) {
+		final int nx = level.nx;
+		final int ny = level.ny;
+		final double[] diag = level.diag;
+		final double[] cE = level.cE;
+		final double[] cS = level.cS;
+		loop.run(0, ny, MIN_ROWS, new ParallelLoop.Body() {
+
+			@Override
+			public void run(final int band, final int from, final int to) {
+				for (int j = from; j < to; j++) {
+					for (int i = 0; i < nx; i++) {
+						final int k = j * nx + i;
+						double s = diag[k] * p[k];
+						if (i > 0)
+							s -= cE[k - 1] * p[k - 1];
+						if (i + 1 < nx)
+							s -= cE[k] * p[k + 1];
+						if (j > 0)
+							s -= cS[k - nx] * p[k - nx];
+						if (j + 1 < ny)
+							s -= cS[k] * p[k + nx];
+						q[k] = s;
+					}
+				}
+			}
+		});
+	}
+
+	/** Sum the residuals of the 2 x 2 children into the coarse right hand side */
+	private void restrict(final Level fine, final double[] r, final Level coarse) {
+		final int fnx = fine.nx;
+		final int fny = fine.ny;
+		final int nx = coarse.nx;
+		final double[] b = coarse.b;
+		loop.run(0, coarse.ny, MIN_ROWS, new ParallelLoop.Body() {
+
+			@Override
+			public void run(final int band, final int from, final int to) {
+				for (int J = from; J < to; J++) {
+					for (int I = 0; I < nx; I++) {
+						final int i = 2 * I;
+						final int j = 2 * J;
+						final int k = j * fnx + i;
+						double s = r[k];
+						if (i + 1 < fnx)
+							s += r[k + 1];
+						if (j + 1 < fny) {
+							s += r[k + fnx];
+							if (i + 1 < fnx)
+								s += r[k + fnx + 1];
+						}
+						b[J * nx + I] = s;
+					}
+				}
+			}
+		});
+	}
+
+	/** Add the coarse correction to the fine solution */
+	private void prolongate(final Level coarse, final Level fine, final double[] x) {
+		final int fnx = fine.nx;
+		final int nx = coarse.nx;
+		final double[] xc = coarse.x;
+		final boolean[] active = fine.active;
+		loop.run(0, fine.ny, MIN_ROWS, new ParallelLoop.Body() {
+
+			@Override
+			public void run(final int band, final int from, final int to) {
+				for (int j = from; j < to; j++) {
+					final int row = (j / 2) * nx;
+					for (int i = 0; i < fnx; i++) {
+						final int k = j * fnx + i;
+						if (active[k])
+							x[k] += xc[row + i / 2];
+					}
+				}
+			}
+		});
+	}
+
+	/** Parallel dot product with a deterministic summation order */
+	private double dot(final double[] a, final double[] b) {
+		final int n = a.length;
+		loop.run(0, partial.length, 1, new ParallelLoop.Body() {
+
+			@Override
+			public void run(final int band, final int from, final int to) {
+				for (int c = from; c < to; c++) {
+					final int end = Math.min(n, (c + 1) * CHUNK);
+					double s = 0;
+					for (int k = c * CHUNK; k < end; k++)
+						s += a[k] * b[k];
+					partial[c] = s;
+				}
+			}
+		});
+		double sum = 0;
+		for (double s : partial)
+			sum += s;
+		return sum;
+	}
+
+	/** x += alpha p, r -= alpha q; returns the new r . r */
+	private double update(final double[] x, final double[] r, final double alpha) {
+		final int n = x.length;
+		loop.run(0, partial.length, 1, new ParallelLoop.Body() {
+
+			@Override
+			public void run(final int band, final int from, final int to) {
+				for (int c = from; c < to; c++) {
+					final int end = Math.min(n, (c + 1) * CHUNK);
+					double s = 0;
+					for (int k = c * CHUNK; k < end; k++) {
+						x[k] += alpha * p[k];
+						final double rk = r[k] - alpha * q[k];
+						r[k] = rk;
+						s += rk * rk;
+					}
+					partial[c] = s;
+				}
+			}
+		});
+		double sum = 0;
+		for (double s : partial)
+			sum += s;
+		return sum;
+	}
+
+	/** p = z + beta p */
+	private void direction(final double beta) {
+		loop.run(0, p.length, MIN_ROWS * 1024, new ParallelLoop.Body() {
+
+			@Override
+			public void run(final int band, final int from, final int to) {
+				for (int k = from; k < to; k++)
+					p[k] = z[k] + beta * p[k];
+			}
+		});
+	}
+}
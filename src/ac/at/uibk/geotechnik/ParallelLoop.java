@@ -0,0 +1,131 @@
+package ac.at.uibk.geotechnik;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Simple parallel for loop over index ranges on a fixed set of threads. The
+ * range is split into one contiguous band per thread; the calling thread
+ * processes the first band itself.
+ *
+ * @author phoenix
+ *
+ */
+final class ParallelLoop {
+
+	/** Body of a parallel loop */
+	interface Body {
+		/**
+		 * Process one band of the range
+		 *
+		 * @param band
+		 *            index of the band, 0 to {@link ParallelLoop#getThreads()}
+		 *            - 1
+		 * @param from
+		 *            first index, inclusive
+		 * @param to
+		 *            last index, exclusive
+		 */
+		void run(int band, int from, int to);
+	}
+
+	/** Number of threads including the caller */
+	private final int threads;
+	/** Executor for the additional threads or null if single threaded */
+	private final ExecutorService executor;
+
+	/**
+	 * Creates a new loop
+	 *
+	 * @param threads
+	 *            number of threads including the calling thread
+	 */
+	ParallelLoop(final int threads) {
+		this.threads = Math.max(1, threads);
+		if (this.threads > 1) {
+			executor = Executors.newFixedThreadPool(this.threads - 1, new ThreadFactory() {
+
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "ParallelLoop");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		} else {
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return the number of threads including the calling thread
+	 */
+	int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Run the body over the given range. Ranges shorter than minBand per
+	 * thread are processed by the calling thread only
+	 *
+	 * @param from
+	 *            first index, inclusive
+	 * @param to
+	 *            last index, exclusive
+	 * @param minBand
+	 *            minimum number of indices per band
+	 * @param body
+	 *            to be run
+	 */
+	void run(final int from, final int to, final int minBand, final Body body) {
+		final int length = to - from;
+		final int bands = Math.min(threads, Math.max(1, length / Math.max(1, minBand)));
+		if (bands <= 1) {
+			body.run(0, from, to);
+			return;
+		}
+		final CountDownLatch latch = new CountDownLatch(bands - 1);
+		final Throwable[] failure = new Throwable[1];
+		for (int band = 1; band < bands; band++) {
+			final int b = band;
+			final int start = from + (int) ((long) length * band / bands);
+			final int end = from + (int) ((long) length * (band + 1) / bands);
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						body.run(b, start, end);
+					} catch (Throwable e) {
+						synchronized (failure) {
+							failure[0] = e;
+						}
+					} finally {
+						latch.countDown();
+					}
+				}
+			});
+		}
+		body.run(0, from, from + length / bands);
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the workers");
+		}
+		synchronized (failure) {
+			if (failure[0] instanceof RuntimeException)
+				throw (RuntimeException) failure[0];
+			if (failure[0] instanceof Error)
+				throw (Error) failure[0];
+		}
+	}
+
+	/** Stop the worker threads */
+	void shutdown() {
+		if (executor != null)
+			executor.shutdown();
+	}
+}
@@ -0,0 +1,208 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming writer for PDF documents with any number of pages.
+ *
+ * Each page is written as soon as its content is complete: the content
+ * stream is written directly to the output and its length is stored in an
+ * indirect object after it. The page tree, the catalog and the cross
+ * reference table are written by {@link #close()}, so only the object
+ * offsets and the page numbers are kept in memory. All pages share the
+ * standard Helvetica font as /F1, which is not embedded. Content is written
+ * as Latin-1, matching WinAnsi for all letters.
+ *
+ * @author phoenix
+ *
+ */
+public final class PdfDocument implements Closeable {
+
+	/* Object numbers of the fixed objects */
+	private static final int CATALOG = 1;
+	private static final int PAGES = 2;
+	private static final int FONT = 3;
+
+	/** Target of the document */
+	private final OutputStream out;
+	/** Reused for encoding */
+	private byte[] bytes = new byte[1024];
+	/** Reused for building objects */
+	private final StringBuilder line = new StringBuilder(256);
+	/** Byte offsets of the objects, index 0 is unused */
+	private long[] offsets = new long[64];
+	/** Next free object number */
+	private int nextObject = FONT + 1;
+	/** Object numbers of the pages */
+	private int[] pages = new int[16];
+	/** Number of pages */
+	private int pageCount = 0;
+	/** Bytes written so far */
+	private long position = 0;
+
+	/** Object number of the length of the open page, 0 if no page is open */
+	private int lengthObject = 0;
+	/** Position of the first byte of the content of the open page */
+	private long contentStart = 0;
+
+	/**
+	 * Start a new document
+	 *
+	 * @param out
+	 *            target of the document. Not buffered here
+	 * @throws IOException
+	 *             if the header cannot be written
+	 */
+	public PdfDocument(final OutputStream out) throws IOException {
+		this.out = out;
+		line.append("%PDF-1.4\n%âãÏÓ\n");
+		flush();
+	}
+
+	/**
+	 * Start a new page. An open page is finished first
+	 *
+	 * @param width
+	 *            of the page in point
+	 * @param height
+	 *            of the page in point
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void beginPage(final int width, final int height) throws IOException {
+		if (lengthObject != 0)
+			endPage();
+		final int page = nextObject++;
+		final int content = nextObject++;
+		lengthObject = nextObject++;
+		if (pageCount == pages.length) {
+			final int[] grown = new int[2 * pages.length];
+			System.arraycopy(pages, 0, grown, 0, pageCount);
+			pages = grown;
+		}
+		pages[pageCount++] = page;
+
+		startObject(page);
+		line.append("<< /Type /Page /Parent ").append(PAGES).append(" 0 R /MediaBox [0 0 ").append(width).append(' ')
+				.append(height).append("] /Resources << /Font << /F1 ").append(FONT).append(" 0 R >> >> /Contents ")
+				.append(content).append(" 0 R >>\nendobj\n");
+		startObject(content);
+		line.append("<< /Length ").append(lengthObject).append(" 0 R >>\nstream\n");
+		flush();
+		contentStart = position;
+	}
+
+	/**
+	 * Append drawing operators to the content of the open page
+	 *
+	 * @param operators
+	 *            content stream operators, Latin-1 only
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void write(final CharSequence operators) throws IOException {
+		if (lengthObject == 0)
+			throw new IllegalStateException("No open page");
+		writeLatin1(operators);
+	}
+
+	/**
+	 * Finish the open page
+	 *
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void endPage() throws IOException {
+		if (lengthObject == 0)
+			throw new IllegalStateException("No open page");
+		final long length = position - contentStart;
+		line.append("endstream\nendobj\n");
+		startObject(lengthObject);
+		line.append(length).append("\nendobj\n");
+		flush();
+		lengthObject = 0;
+	}
+
+	/**
+	 * @return the number of pages begun so far
+	 */
+	public int getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * Finish the open page, write the page tree and the cross reference table
+	 * and close the stream
+	 *
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (lengthObject != 0)
+				endPage();
+			if (pageCount == 0)
+				throw new IOException("Document has no pages");
+			startObject(PAGES);
+			line.append("<< /Type /Pages /Kids [");
+			for (int i = 0; i < pageCount; i++) {
+				if (i > 0)
+					line.append(' ');
+				line.append(pages[i]).append(" 0 R");
+			}
+			line.append("] /Count ").append(pageCount).append(" >>\nendobj\n");
+			startObject(CATALOG);
+			line.append("<< /Type /Catalog /Pages ").append(PAGES).append(" 0 R >>\nendobj\n");
+			startObject(FONT);
+			line.append("<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica /Encoding /WinAnsiEncoding >>\nendobj\n");
+			flush();
+
+			final long xref = position;
+			line.append("xref\n0 ").append(nextObject).append("\n0000000000 65535 f \n");
+			for (int i = 1; i < nextObject; i++) {
+				final String offset = Long.toString(offsets[i]);
+				for (int j = offset.length(); j < 10; j++)
+					line.append('0');
+				line.append(offset).append(" 00000 n \n");
+				if (line.length() > 8192)
+					flush();
+			}
+			line.append("trailer\n<< /Size ").append(nextObject).append(" /Root ").append(CATALOG)
+					.append(" 0 R >>\nstartxref\n").append(xref).append("\n%%EOF\n");
+			flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Start an object at the current end of the line */
+	private void startObject(final int number) {
+		if (number >= offsets.length) {
+			final long[] grown = new long[Math.max(2 * offsets.length, number + 1)];
+			System.arraycopy(offsets, 0, grown, 0, offsets.length);
+			offsets = grown;
+		}
+		offsets[number] = position + line.length();
+		line.append(number).append(" 0 obj\n");
+	}
+
+	/** Write and clear the line */
+	private void flush() throws IOException {
+		writeLatin1(line);
+		line.setLength(0);
+	}
+
+	/** Write a text as Latin-1 */
+	private void writeLatin1(final CharSequence text) throws IOException {
+		final int length = text.length();
+		if (bytes.length < length)
+			bytes = new byte[Math.max(length, 2 * bytes.length)];
+		for (int i = 0; i < length; i++)
+			bytes[i] = (byte) text.charAt(i);
+		out.write(bytes, 0, length);
+		position += length;
+	}
+}
@@ -0,0 +1,187 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link DraftSurface} writing PDF drawing operators.
+ *
+ * With the public constructor the surface streams a single page
+ * {@link PdfDocument}; the operators are written as they are drawn. For
+ * multi page documents the operators of a part of a page can also be
+ * collected in memory and placed on a page later, see
+ * {@link #PdfSurface(StringBuilder, float)}. One pixel is one point, texts
+ * use the standard Helvetica font /F1.
+ *
+ * @author phoenix
+ *
+ */
+public final class PdfSurface implements DraftSurface, Closeable {
+
+	/** Document of the page or null if the operators are collected */
+	private final PdfDocument document;
+	/** Target of collected operators or null */
+	private final StringBuilder target;
+	/** Height of the drawing area, for flipping the y axis */
+	private final float height;
+	/** Operators that are being written */
+	private final StringBuilder line = new StringBuilder(128);
+	/** First error while writing or null */
+	private IOException error = null;
+
+	/* Current graphics state, to avoid repeated operators. Unknown at first */
+	private int fillColor = 0;
+	private int strokeColor = 0;
+	private float lineWidth = -1;
+
+	/**
+	 * Start a new PDF document with one page
+	 *
+	 * @param out
+	 *            target of the document. Not buffered here
+	 * @param width
+	 *            of the page in pixel (point)
+	 * @param height
+	 *            of the page in pixel (point)
+	 * @throws IOException
+	 *             if the header cannot be written
+	 */
+	public PdfSurface(final OutputStream out, final int width, final int height) throws IOException {
+		document = new PdfDocument(out);
+		document.beginPage(width, height);
+		target = null;
+		this.height = height;
+	}
+
+	/**
+	 * Collect the operators in memory. The origin is the lower left corner of
+	 * the drawing area, so the operators can be placed on a page with a
+	 * translation
+	 *
+	 * @param target
+	 *            the operators are appended to
+	 * @param height
+	 *            of the drawing area
+	 */
+	PdfSurface(final StringBuilder target, final float height) {
+		this.document = null;
+		this.target = target;
+		this.height = height;
+	}
+
+	@Override
+	public void fillRect(final float left, final float top, final float right, final float bottom, final int color) {
+		setFillColor(color);
+		append(left);
+		append(height - bottom);
+		append(right - left);
+		append(bottom - top);
+		line.append("re f\n");
+		write();
+	}
+
+	@Override
+	public void drawLine(final float startX, final float startY, final float endX, final float endY,
+			final float width, final int color) {
+		if (color != strokeColor) {
+			appendColor(color);
+			line.append("RG\n");
+			strokeColor = color;
+		}
+		if (width != lineWidth) {
+			append(width);
+			line.append("w\n");
+			lineWidth = width;
+		}
+		append(startX);
+		append(height - startY);
+		line.append("m ");
+		append(endX);
+		append(height - endY);
+		line.append("l S\n");
+		write();
+	}
+
+	@Override
+	public void drawText(final String text, final float x, final float y, final float size, final int color) {
+		setFillColor(color);
+		line.append("BT /F1 ");
+		append(size);
+		line.append("Tf ");
+		append(x);
+		append(height - y);
+		line.append("Td (");
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			if (c == '(' || c == ')' || c == '\\')
+				line.append('\\');
+			// Only Latin-1 is written, which matches WinAnsi for all letters
+			line.append(c < 256 ? c : '?');
+		}
+		line.append(") Tj ET\n");
+		write();
+	}
+
+	@Override
+	public float measureText(final String text, final float size) {
+		return HelveticaMetrics.measure(text, size);
+	}
+
+	/**
+	 * Finish the document and close the stream. Does nothing if the operators
+	 * are collected
+	 *
+	 * @throws IOException
+	 *             if writing failed at any time
+	 */
+	@Override
+	public void close() throws IOException {
+		if (document == null)
+			return;
+		if (error != null) {
+			try {
+				document.close();
+			} catch (IOException e) {
+				// The first error is reported
+			}
+			throw error;
+		}
+		document.close();
+	}
+
+	private void setFillColor(final int color) {
+		if (color != fillColor) {
+			appendColor(color);
+			line.append("rg\n");
+			fillColor = color;
+		}
+	}
+
+	/** Append a number followed by a space */
+	private void append(final float value) {
+		SvgSurface.appendNumber(line, value);
+		line.append(' ');
+	}
+
+	/** Append the RGB components of a colour */
+	private void appendColor(final int color) {
+		append(((color >> 16) & 0xFF) / 255F);
+		append(((color >> 8) & 0xFF) / 255F);
+		append((color & 0xFF) / 255F);
+	}
+
+	/** Write the line, remembering the first error */
+	private void write() {
+		if (target != null) {
+			target.append(line);
+		} else if (error == null) {
+			try {
+				document.write(line);
+			} catch (final IOException e) {
+				error = e;
+			}
+		}
+		line.setLength(0);
+	}
+}
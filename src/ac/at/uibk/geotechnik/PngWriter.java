@@ -0,0 +1,225 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Incremental PNG encoder for opaque 8 bit RGB images.
+ *
+ * The image is passed in bands of rows and compressed immediately, so only
+ * two rows and the deflate window are kept in memory, independent of the
+ * image size. Each row uses the filter (none, sub or up) with the smallest
+ * sum of absolute differences.
+ *
+ * @author phoenix
+ *
+ */
+final class PngWriter implements Closeable {
+
+	/** PNG file signature */
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	/** Maximum size of one IDAT chunk */
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private static final byte FILTER_NONE = 0;
+	private static final byte FILTER_SUB = 1;
+	private static final byte FILTER_UP = 2;
+
+	/** Target of the image */
+	private final OutputStream out;
+	private final int width;
+	private final int height;
+
+	private final Deflater deflater;
+	private final CRC32 crc = new CRC32();
+	/** Compressed data of the current chunk */
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+	/** Unfiltered current and previous row */
+	private byte[] row;
+	private byte[] previous;
+	/** Filtered row including the filter type byte */
+	private final byte[] sub;
+	private final byte[] up;
+	private final byte[] none;
+
+	/** Number of bytes in the current chunk */
+	private int fill = 0;
+	/** Number of rows written so far */
+	private int rows = 0;
+
+	/**
+	 * Start a new image and write the header
+	 *
+	 * @param out
+	 *            target of the image
+	 * @param width
+	 *            of the image in pixel
+	 * @param height
+	 *            of the image in pixel
+	 * @param level
+	 *            compression level of the {@link Deflater}
+	 * @throws IOException
+	 *             if the header cannot be written
+	 */
+	PngWriter(final OutputStream out, final int width, final int height, final int level) throws IOException {
+		if (width < 1 || height < 1 || (long) width * 3 + 1 > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Illegal image size " + width + " x " + height);
+		this.out = out;
+		this.width = width;
+		this.height = height;
+		deflater = new Deflater(level);
+		row = new byte[width * 3];
+		previous = new byte[width * 3];
+		sub = new byte[width * 3 + 1];
+		up = new byte[width * 3 + 1];
+		none = new byte[width * 3 + 1];
+		sub[0] = FILTER_SUB;
+		up[0] = FILTER_UP;
+		none[0] = FILTER_NONE;
+
+		out.write(SIGNATURE);
+		final byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 8; // Bit depth
+		header[9] = 2; // Colour type RGB
+		writeChunk("IHDR", header, 13);
+	}
+
+	/**
+	 * Compress the next rows of the image
+	 *
+	 * @param argb
+	 *            pixels in ARGB, the alpha channel is ignored
+	 * @param offset
+	 *            index of the first pixel of the first row
+	 * @param stride
+	 *            distance between the rows in pixel
+	 * @param count
+	 *            number of rows
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	void writeRows(final int[] argb, final int offset, final int stride, final int count) throws IOException {
+		if (rows + count > height)
+			throw new IllegalStateException("Image has only " + height + " rows");
+		for (int r = 0; r < count; r++) {
+			final byte[] swap = previous;
+			previous = row;
+			row = swap;
+			int p = offset + r * stride;
+			for (int i = 0; i < row.length; p++) {
+				final int color = argb[p];
+				row[i++] = (byte) (color >> 16);
+				row[i++] = (byte) (color >> 8);
+				row[i++] = (byte) color;
+			}
+			final byte[] filtered = filter();
+			deflater.setInput(filtered, 0, filtered.length);
+			while (!deflater.needsInput())
+				deflate();
+			rows++;
+		}
+	}
+
+	/** Filter the current row, returns the filter with the smallest sum */
+	private byte[] filter() {
+		long sumNone = 0, sumSub = 0, sumUp = 0;
+		final int length = row.length;
+		for (int i = 0; i < length; i++) {
+			final int value = row[i];
+			final byte s = (byte) (value - (i >= 3 ? row[i - 3] : 0));
+			final byte u = (byte) (value - (rows > 0 ? previous[i] : 0));
+			none[i + 1] = (byte) value;
+			sub[i + 1] = s;
+			up[i + 1] = u;
+			sumNone += Math.abs((byte) value);
+			sumSub += Math.abs(s);
+			sumUp += Math.abs(u);
+		}
+		if (sumUp <= sumSub && sumUp <= sumNone)
+			return up;
+		return sumSub <= sumNone ? sub : none;
+	}
+
+	/**
+	 * @return the number of rows written so far
+	 */
+	int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Finish the image and close the stream
+	 *
+	 * @throws IOException
+	 *             if writing fails or not all rows have been written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (rows != height)
+				throw new IOException("Image incomplete, " + rows + " of " + height + " rows written");
+			deflater.finish();
+			while (!deflater.finished())
+				deflate();
+			if (fill > 0)
+				flushChunk();
+			writeChunk("IEND", chunk, 0);
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+
+	/**
+	 * Close the stream without finishing the image, e.g. after an error. Errors
+	 * while closing are ignored
+	 */
+	void abort() {
+		deflater.end();
+		try {
+			out.close();
+		} catch (IOException e) {
+			// Ignore
+		}
+	}
+
+	/** Deflate into the current chunk, writing it when full */
+	private void deflate() throws IOException {
+		fill += deflater.deflate(chunk, fill, CHUNK_SIZE - fill);
+		if (fill == CHUNK_SIZE)
+			flushChunk();
+	}
+
+	private void flushChunk() throws IOException {
+		writeChunk("IDAT", chunk, fill);
+		fill = 0;
+	}
+
+	/** Write a chunk with length, type and CRC */
+	private void writeChunk(final String type, final byte[] data, final int length) throws IOException {
+		final byte[] head = new byte[8];
+		putInt(head, 0, length);
+		for (int i = 0; i < 4; i++)
+			head[4 + i] = (byte) type.charAt(i);
+		crc.reset();
+		crc.update(head, 4, 4);
+		crc.update(data, 0, length);
+		out.write(head);
+		out.write(data, 0, length);
+		final byte[] tail = new byte[4];
+		putInt(tail, 0, (int) crc.getValue());
+		out.write(tail);
+	}
+
+	private static void putInt(final byte[] data, final int offset, final int value) {
+		data[offset] = (byte) (value >>> 24);
+		data[offset + 1] = (byte) (value >>> 16);
+		data[offset + 2] = (byte) (value >>> 8);
+		data[offset + 3] = (byte) value;
+	}
+}
@@ -0,0 +1,194 @@
+package ac.at.uibk.geotechnik;
+
+/**
+ * Mergeable quantile sketch with a guaranteed relative accuracy (DDSketch,
+ * Masson, Rim and Lee).
+ *
+ * Values are counted in logarithmic buckets: bucket i holds the magnitudes in
+ * (gamma^(i-1), gamma^i] with gamma = (1 + a) / (1 - a). Every quantile is
+ * returned with a relative error of at most a, and the number of buckets only
+ * grows with the logarithm of the value range, not with the number of values.
+ * Since the sketch only holds counts, merging is exact and independent of the
+ * order.
+ *
+ * @author phoenix
+ *
+ */
+public final class QuantileSketch {
+
+	/** Default relative accuracy */
+	public static final double DEFAULT_ACCURACY = 0.001;
+	/** Magnitudes below this value are counted as zero */
+	private static final double MIN_MAGNITUDE = 1e-12;
+
+	/** Relative accuracy */
+	private final double accuracy;
+	/** Ratio of the bucket bounds */
+	private final double gamma;
+	/** 1 / ln(gamma) */
+	private final double multiplier;
+	/** Buckets of the positive values */
+	private final Store positive = new Store();
+	/** Buckets of the magnitudes of the negative values */
+	private final Store negative = new Store();
+	/** Number of values counted as zero */
+	private long zeroCount = 0;
+	/** Number of values */
+	private long count = 0;
+
+	/** Creates a sketch with the default accuracy */
+	public QuantileSketch() {
+		this(DEFAULT_ACCURACY);
+	}
+
+	/**
+	 * Creates a new sketch
+	 *
+	 * @param accuracy
+	 *            relative accuracy of the quantiles, e.g. 0.001
+	 */
+	public QuantileSketch(final double accuracy) {
+		if (!(accuracy > 0 && accuracy < 1))
+			throw new IllegalArgumentException("Accuracy must be in (0, 1)");
+		this.accuracy = accuracy;
+		gamma = (1 + accuracy) / (1 - accuracy);
+		multiplier = 1 / Math.log(gamma);
+	}
+
+	/**
+	 * Add a value. NaN is ignored
+	 *
+	 * @param value
+	 *            to be added
+	 */
+	public void add(final double value) {
+		if (value > MIN_MAGNITUDE)
+			positive.add(index(value), 1);
+		else if (value < -MIN_MAGNITUDE)
+			negative.add(index(-value), 1);
+		else if (value == value)
+			zeroCount++;
+		else
+			return;
+		count++;
+	}
+
+	/** Index of the bucket of a positive value */
+	private int index(final double value) {
+		return (int) Math.ceil(Math.log(value) * multiplier);
+	}
+
+	/** Representative value of a bucket, relative error at most accuracy */
+	private double value(final int index) {
+		return 2 * Math.pow(gamma, index) / (gamma + 1);
+	}
+
+	/**
+	 * Merge the values of another sketch into this one
+	 *
+	 * @param other
+	 *            sketch with the same accuracy, not changed
+	 */
+	public void merge(final QuantileSketch other) {
+		if (other.gamma != gamma)
+			throw new IllegalArgumentException("Sketches have different accuracies");
+		positive.merge(other.positive);
+		negative.merge(other.negative);
+		zeroCount += other.zeroCount;
+		count += other.count;
+	}
+
+	/**
+	 * Estimate a quantile
+	 *
+	 * @param q
+	 *            probability, 0 to 1
+	 * @return the quantile with a relative error of at most the accuracy or
+	 *         NaN if the sketch is empty
+	 */
+	public double getQuantile(final double q) {
+		if (!(q >= 0 && q <= 1))
+			throw new IllegalArgumentException("q must be in [0, 1]");
+		if (count == 0)
+			return Double.NaN;
+		final long rank = (long) (q * (count - 1));
+		long n = 0;
+		// Negative values from the largest magnitude down
+		for (int k = negative.length() - 1; k >= 0; k--) {
+			n += negative.counts[k];
+			if (n > rank)
+				return -value(negative.offset + k);
+		}
+		n += zeroCount;
+		if (n > rank)
+			return 0;
+		for (int k = 0; k < positive.length(); k++) {
+			n += positive.counts[k];
+			if (n > rank)
+				return value(positive.offset + k);
+		}
+		return value(positive.offset + positive.length() - 1);
+	}
+
+	/**
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the relative accuracy of the quantiles
+	 */
+	public double getAccuracy() {
+		return accuracy;
+	}
+
+	/**
+	 * @return the number of allocated buckets
+	 */
+	public int getBucketCount() {
+		return positive.length() + negative.length();
+	}
+
+	/** Contiguous range of bucket counters that grows on demand */
+	private static final class Store {
+		/** Counters, counts[k] belongs to bucket offset + k */
+		long[] counts = new long[0];
+		/** Index of the first bucket */
+		int offset = 0;
+
+		int length() {
+			return counts.length;
+		}
+
+		void add(final int index, final long n) {
+			if (counts.length == 0) {
+				counts = new long[64];
+				offset = index - 32;
+			} else if (index < offset || index >= offset + counts.length) {
+				grow(index);
+			}
+			counts[index - offset] += n;
+		}
+
+		/** Extend the range so that it contains the index */
+		private void grow(final int index) {
+			final int lo = Math.min(offset, index);
+			final int hi = Math.max(offset + counts.length - 1, index);
+			final int length = Math.max(2 * counts.length, hi - lo + 1);
+			final int newOffset = index < offset ? hi - length + 1 : lo;
+			final long[] grown = new long[length];
+			System.arraycopy(counts, 0, grown, offset - newOffset, counts.length);
+			counts = grown;
+			offset = newOffset;
+		}
+
+		void merge(final Store other) {
+			for (int k = 0; k < other.counts.length; k++) {
+				if (other.counts[k] != 0)
+					add(other.offset + k, other.counts[k]);
+			}
+		}
+	}
+}
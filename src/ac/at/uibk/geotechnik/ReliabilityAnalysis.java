@@ -0,0 +1,494 @@
+package ac.at.uibk.geotechnik;
+
+import java.util.Locale;
+
+/**
+ * First and second order reliability method (FORM/SORM) for the embedment
+ * depth.
+ *
+ * The limit state is g = T - T_K_mod(B, H, c1, c2, i_zul): the wall fails if
+ * the provided embedment depth T is smaller than the depth required by
+ * equation 25b. The random variables are transformed into independent
+ * standard normal variables u and the design point, the point of the limit
+ * state surface closest to the origin, is searched with the iteration of
+ * Hasofer, Lind, Rackwitz and Fiessler, with the step length controlled by a
+ * merit function (Zhang and Der Kiureghian), using the analytic gradient of
+ * {@link EmbedmentSolver#tkModGradient}. Its distance is the reliability
+ * index beta, the FORM failure probability is Phi(-beta). SORM corrects it
+ * with the curvatures of the surface at the design point (Breitung), taken
+ * from a finite difference Hessian of the analytic gradient.
+ *
+ * An instance holds all work arrays, so repeated analyses do not allocate
+ * anything. Instances are not thread safe.
+ *
+ * @author phoenix
+ *
+ */
+public final class ReliabilityAnalysis {
+
+	/** Index of the width B */
+	public static final int B = 0;
+	/** Index of the head difference H */
+	public static final int H = 1;
+	/** Index of the coefficient c1 */
+	public static final int C1 = 2;
+	/** Index of the coefficient c2 */
+	public static final int C2 = 3;
+	/** Index of the allowed gradient i_zul */
+	public static final int I_ZUL = 4;
+	/** Number of random variables */
+	public static final int VARIABLES = 5;
+	/** Names of the variables */
+	private static final String[] NAMES = { "B", "H", "c1", "c2", "i_zul" };
+
+	/** Maximum number of iterations */
+	private static final int MAX_ITERATIONS = 100;
+	/** Convergence tolerance of the design point */
+	private static final double TOLERANCE = 1e-8;
+	/** Maximum number of step halvings of the line search */
+	private static final int MAX_HALVINGS = 10;
+	/** Step of the finite differences in standard normal space */
+	private static final double STEP = 1e-4;
+
+	/** Distributions of the variables */
+	private final Distribution[] variables = new Distribution[VARIABLES];
+
+	/** Point in standard normal space */
+	private final double[] u = new double[VARIABLES];
+	/** Point in physical space */
+	private final double[] x = new double[VARIABLES];
+	/** dx/du */
+	private final double[] dxdu = new double[VARIABLES];
+	/** Gradient of T_K_mod in physical space */
+	private final double[] gradientX = new double[VARIABLES];
+	/** Gradient of g in standard normal space */
+	private final double[] gradient = new double[VARIABLES];
+	/** Search direction in standard normal space */
+	private final double[] direction = new double[VARIABLES];
+	/** Trial point of the line search */
+	private final double[] trial = new double[VARIABLES];
+	/** Gradient of g at the design point */
+	private final double[] gradientAtDesign = new double[VARIABLES];
+	/** Gradient of g at a shifted point */
+	private final double[] gradientShifted = new double[VARIABLES];
+	/** Hessian of g in standard normal space, later I + beta K */
+	private final double[][] matrix = new double[VARIABLES][VARIABLES];
+
+	/** Provided embedment depth in meter */
+	private double embedment = Double.NaN;
+	/** Reliability index of the last analysis */
+	private double beta = Double.NaN;
+	/** FORM failure probability of the last analysis */
+	private double pfForm = Double.NaN;
+	/** SORM failure probability of the last analysis */
+	private double pfSorm = Double.NaN;
+	/** Iterations of the last analysis */
+	private int iterations = 0;
+	/** Whether the last analysis converged */
+	private boolean converged = false;
+	/** Design point of the last analysis in physical space */
+	private final double[] design = new double[VARIABLES];
+	/** Sensitivities (direction cosines) of the last analysis */
+	private final double[] alpha = new double[VARIABLES];
+
+	/**
+	 * Creates a new analysis
+	 *
+	 * @param b
+	 *            distribution of the width in meter
+	 * @param h
+	 *            distribution of the head difference in meter
+	 * @param c1
+	 *            distribution of c1
+	 * @param c2
+	 *            distribution of c2
+	 * @param iZul
+	 *            distribution of the allowed gradient
+	 */
+	public ReliabilityAnalysis(final Distribution b, final Distribution h, final Distribution c1,
+			final Distribution c2, final Distribution iZul) {
+		variables[B] = b;
+		variables[H] = h;
+		variables[C1] = c1;
+		variables[C2] = c2;
+		variables[I_ZUL] = iZul;
+	}
+
+	/**
+	 * Replace the distribution of one variable
+	 *
+	 * @param index
+	 *            index of the variable, e.g. {@link #B}
+	 * @param distribution
+	 *            new distribution
+	 */
+	public void setVariable(final int index, final Distribution distribution) {
+		variables[index] = distribution;
+	}
+
+	/**
+	 * Evaluate the limit state and its gradient in standard normal space
+	 *
+	 * @param point
+	 *            point in standard normal space
+	 * @param grad
+	 *            output array for the gradient
+	 * @return the value of the limit state
+	 */
+	private double limitState(final double[] point, final double[] grad) {
+		for (int i = 0; i < VARIABLES; i++) {
+			x[i] = variables[i].fromStandardNormal(point[i]);
+			dxdu[i] = variables[i].derivative(point[i], x[i]);
+		}
+		final double t = EmbedmentSolver.tkModGradient(x[B], x[H], x[C1], x[C2], x[I_ZUL], gradientX);
+		for (int i = 0; i < VARIABLES; i++)
+			grad[i] = -gradientX[i] * dxdu[i];
+		return embedment - t;
+	}
+
+	/**
+	 * Analyse the reliability of a wall
+	 *
+	 * @param t
+	 *            provided embedment depth in meter
+	 * @return true if the design point has been found
+	 */
+	public boolean analyse(final double t) {
+		embedment = t;
+		iterations = 0;
+		converged = false;
+		for (int i = 0; i < VARIABLES; i++) {
+			u[i] = 0;
+			direction[i] = 0;
+		}
+
+		double g = limitState(u, gradient);
+		final double g0 = g;
+		double norm = 0;
+		while (iterations < MAX_ITERATIONS) {
+			iterations++;
+			double dot = 0;
+			double norm2 = 0;
+			double length2 = 0;
+			for (int i = 0; i < VARIABLES; i++) {
+				dot += gradient[i] * u[i];
+				norm2 += gradient[i] * gradient[i];
+				length2 += u[i] * u[i];
+			}
+			if (!(norm2 > 0) || Double.isNaN(g))
+				break;
+			norm = Math.sqrt(norm2);
+			// HL-RF direction towards u_new = (grad . u - g) / |grad|^2 * grad
+			final double factor = (dot - g) / norm2;
+			double change = 0;
+			double next2 = 0;
+			double reversal = 0;
+			for (int i = 0; i < VARIABLES; i++) {
+				final double next = factor * gradient[i];
+				final double d = next - u[i];
+				reversal += d * direction[i];
+				direction[i] = d;
+				change += d * d;
+				next2 += next * next;
+			}
+			if (Math.sqrt(change) <= TOLERANCE * (1 + Math.sqrt(next2))
+					&& Math.abs(g) <= TOLERANCE * Math.max(1, Math.abs(embedment))) {
+				converged = true;
+				break;
+			}
+			// Step length by the merit function 0.5 |u|^2 + c |g|. Half steps
+			// damp the oscillation around strongly curved surfaces
+			final double c = 2 * Math.max(Math.sqrt(length2), Math.sqrt(next2)) / norm + 1;
+			final double merit = 0.5 * length2 + c * Math.abs(g);
+			double step = reversal < 0 ? 0.5 : 1;
+			for (int k = 0; k < MAX_HALVINGS; k++) {
+				double trial2 = 0;
+				for (int i = 0; i < VARIABLES; i++) {
+					trial[i] = u[i] + step * direction[i];
+					trial2 += trial[i] * trial[i];
+				}
+				g = limitState(trial, gradient);
+				if (0.5 * trial2 + c * Math.abs(g) < merit)
+					break;
+				step *= 0.5;
+			}
+			System.arraycopy(trial, 0, u, 0, VARIABLES);
+		}
+		if (!converged) {
+			beta = Double.NaN;
+			pfForm = Double.NaN;
+			pfSorm = Double.NaN;
+			return false;
+		}
+
+		double distance = 0;
+		for (int i = 0; i < VARIABLES; i++) {
+			distance += u[i] * u[i];
+			design[i] = x[i];
+			alpha[i] = -gradient[i] / norm;
+			gradientAtDesign[i] = gradient[i];
+		}
+		beta = g0 >= 0 ? Math.sqrt(distance) : -Math.sqrt(distance);
+		pfForm = StandardNormal.cdf(-beta);
+		pfSorm = beta > 0 ? pfForm / Math.sqrt(curvatureDeterminant(norm)) : pfForm;
+		return true;
+	}
+
+	/**
+	 * Calculate det(I + beta K) at the design point, where K is the matrix of
+	 * the main curvatures of the limit state surface
+	 */
+	private double curvatureDeterminant(final double norm) {
+		// Hessian by central differences of the analytic gradient
+		for (int j = 0; j < VARIABLES; j++) {
+			final double uj = u[j];
+			u[j] = uj + STEP;
+			limitState(u, gradientShifted);
+			for (int i = 0; i < VARIABLES; i++)
+				matrix[i][j] = gradientShifted[i];
+			u[j] = uj - STEP;
+			limitState(u, gradientShifted);
+			for (int i = 0; i < VARIABLES; i++)
+				matrix[i][j] = (matrix[i][j] - gradientShifted[i]) / (2 * STEP);
+			u[j] = uj;
+		}
+		// Restore the state of the design point
+		limitState(u, gradientShifted);
+
+		// K = P A P / |grad| with the projection P = I - n n^T onto the
+		// tangent plane, n = grad / |grad|
+		final double[][] a = matrix;
+		for (int i = 0; i < VARIABLES; i++) {
+			for (int j = i + 1; j < VARIABLES; j++) {
+				final double mean = 0.5 * (a[i][j] + a[j][i]);
+				a[i][j] = mean;
+				a[j][i] = mean;
+			}
+		}
+		final double[] n = gradientShifted;
+		for (int i = 0; i < VARIABLES; i++)
+			n[i] = gradientAtDesign[i] / norm;
+		// A n and n^T A n
+		final double[] an = gradient;
+		double nan = 0;
+		for (int i = 0; i < VARIABLES; i++) {
+			double sum = 0;
+			for (int j = 0; j < VARIABLES; j++)
+				sum += a[i][j] * n[j];
+			an[i] = sum;
+			nan += n[i] * sum;
+		}
+		// P A P = A - n (A n)^T - (A n) n^T + (n^T A n) n n^T
+		for (int i = 0; i < VARIABLES; i++) {
+			for (int j = 0; j < VARIABLES; j++) {
+				final double k = (a[i][j] - n[i] * an[j] - an[i] * n[j] + nan * n[i] * n[j]) / norm;
+				a[i][j] = (i == j ? 1 : 0) + beta * k;
+			}
+		}
+		for (int i = 0; i < VARIABLES; i++)
+			gradient[i] = gradientAtDesign[i];
+		final double det = determinant(a);
+		return det > 0 ? det : Double.NaN;
+	}
+
+	/** Determinant by Gaussian elimination with partial pivoting, destroys a */
+	private static double determinant(final double[][] a) {
+		final int n = a.length;
+		double det = 1;
+		for (int c = 0; c < n; c++) {
+			int pivot = c;
+			for (int r = c + 1; r < n; r++) {
+				if (Math.abs(a[r][c]) > Math.abs(a[pivot][c]))
+					pivot = r;
+			}
+			if (a[pivot][c] == 0)
+				return 0;
+			if (pivot != c) {
+				final double[] row = a[pivot];
+				a[pivot] = a[c];
+				a[c] = row;
+				det = -det;
+			}
+			det *= a[c][c];
+			for (int r = c + 1; r < n; r++) {
+				final double f = a[r][c] / a[c][c];
+				for (int k = c; k < n; k++)
+					a[r][k] -= f * a[c][k];
+			}
+		}
+		return det;
+	}
+
+	/**
+	 * @return the reliability index of the last analysis, negative if the
+	 *         mean values already fail
+	 */
+	public double getBeta() {
+		return beta;
+	}
+
+	/**
+	 * @return the FORM failure probability Phi(-beta) of the last analysis
+	 */
+	public double getFailureProbabilityForm() {
+		return pfForm;
+	}
+
+	/**
+	 * @return the SORM failure probability (Breitung) of the last analysis or
+	 *         NaN if the curvatures do not allow it
+	 */
+	public double getFailureProbabilitySorm() {
+		return pfSorm;
+	}
+
+	/**
+	 * @param index
+	 *            index of the variable, e.g. {@link #B}
+	 * @return the value of the variable at the design point
+	 */
+	public double getDesignPoint(final int index) {
+		return design[index];
+	}
+
+	/**
+	 * @param index
+	 *            index of the variable, e.g. {@link #B}
+	 * @return the sensitivity (direction cosine) of the variable, positive if
+	 *         a larger value makes failure more likely; the squares sum up
+	 *         to 1
+	 */
+	public double getSensitivity(final int index) {
+		return alpha[index];
+	}
+
+	/**
+	 * @return the number of iterations of the last analysis
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return true if the last analysis converged
+	 */
+	public boolean isConverged() {
+		return converged;
+	}
+
+	/**
+	 * Analyse many walls with lognormal B and H and common coefficients. B and
+	 * H are given by their mean values and common coefficients of variation;
+	 * a coefficient of variation of 0 makes the variable deterministic.
+	 * Results of walls without convergence are NaN
+	 *
+	 * @param bMean
+	 *            mean widths in meter
+	 * @param hMean
+	 *            mean head differences in meter
+	 * @param t
+	 *            provided embedment depths in meter
+	 * @param covB
+	 *            coefficient of variation of B
+	 * @param covH
+	 *            coefficient of variation of H
+	 * @param c1
+	 *            distribution of c1
+	 * @param c2
+	 *            distribution of c2
+	 * @param iZul
+	 *            distribution of the allowed gradient
+	 * @param beta
+	 *            output array for the reliability indices
+	 * @param pfForm
+	 *            output array for the FORM failure probabilities
+	 * @param pfSorm
+	 *            output array for the SORM failure probabilities
+	 * @param offset
+	 *            index of the first wall
+	 * @param length
+	 *            number of walls
+	 * @return the number of converged analyses
+	 */
+	public static int analyse(final double[] bMean, final double[] hMean, final double[] t, final double covB,
+			final double covH, final Distribution c1, final Distribution c2, final Distribution iZul,
+			final double[] beta, final double[] pfForm, final double[] pfSorm, final int offset, final int length) {
+		final ReliabilityAnalysis analysis = new ReliabilityAnalysis(null, null, c1, c2, iZul);
+		int count = 0;
+		final int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			analysis.setVariable(B, covB > 0 ? Distribution.lognormal(bMean[i], covB * bMean[i])
+					: Distribution.constant(bMean[i]));
+			analysis.setVariable(H, covH > 0 ? Distribution.lognormal(hMean[i], covH * hMean[i])
+					: Distribution.constant(hMean[i]));
+			if (analysis.analyse(t[i]))
+				count++;
+			beta[i] = analysis.beta;
+			pfForm[i] = analysis.pfForm;
+			pfSorm[i] = analysis.pfSorm;
+		}
+		return count;
+	}
+
+	/**
+	 * Command line entry point
+	 *
+	 * @param args
+	 *            T B=dist H=dist [c1=dist] [c2=dist] [i_zul=dist], see
+	 *            {@link Distribution#parse(String)}
+	 */
+	public static void main(final String[] args) {
+		double t = Double.NaN;
+		final Distribution[] dist = { null, null, Distribution.constant(EmbedmentSolver.C1),
+				Distribution.constant(EmbedmentSolver.C2), Distribution.constant(EmbedmentSolver.I_ZUL) };
+		try {
+			for (String arg : args) {
+				final int eq = arg.indexOf('=');
+				if (eq < 0) {
+					t = Double.parseDouble(arg);
+					continue;
+				}
+				final String name = arg.substring(0, eq);
+				int index = -1;
+				for (int i = 0; i < VARIABLES; i++) {
+					if (NAMES[i].equals(name))
+						index = i;
+				}
+				if (index < 0)
+					throw new IllegalArgumentException("Unknown variable: " + name);
+				dist[index] = Distribution.parse(arg.substring(eq + 1));
+			}
+			if (Double.isNaN(t) || dist[B] == null || dist[H] == null)
+				throw new IllegalArgumentException("T, B and H are required");
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: ReliabilityAnalysis T B=dist H=dist [c1=dist] [c2=dist] [i_zul=dist]");
+			System.err.println("dist: value | uniform:min,max | normal:mean,sd | lognormal:mean,sd | triangular:min,mode,max");
+			System.exit(1);
+			return;
+		}
+
+		final ReliabilityAnalysis analysis = new ReliabilityAnalysis(dist[B], dist[H], dist[C1], dist[C2], dist[I_ZUL]);
+		if (!analysis.analyse(t)) {
+			System.out.println("No design point found after " + analysis.getIterations() + " iterations");
+			return;
+		}
+		// Time repeated analyses after the warm up
+		final int repetitions = 100000;
+		final long start = System.nanoTime();
+		for (int r = 0; r < repetitions; r++)
+			analysis.analyse(t);
+		final double micros = (System.nanoTime() - start) / 1e3 / repetitions;
+
+		System.out.println(String.format(Locale.US, "T = %.3f m, T_K_mod at the means = %.3f m", t,
+				EmbedmentSolver.tkMod(dist[B].getMean(), dist[H].getMean(), dist[C1].getMean(), dist[C2].getMean(),
+						dist[I_ZUL].getMean())));
+		System.out.println(String.format(Locale.US, "beta = %.4f, pf FORM = %.4e, pf SORM = %.4e (%d iterations, %.2f us)",
+				analysis.getBeta(), analysis.getFailureProbabilityForm(), analysis.getFailureProbabilitySorm(),
+				analysis.getIterations(), micros));
+		System.out.println("variable   distribution                 design point   alpha");
+		for (int i = 0; i < VARIABLES; i++)
+			System.out.println(String.format(Locale.US, "%-8s   %-28s %12.5f %7.4f", NAMES[i], dist[i],
+					analysis.getDesignPoint(i), analysis.getSensitivity(i)));
+	}
+}
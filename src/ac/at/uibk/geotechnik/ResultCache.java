@@ -0,0 +1,192 @@
+package ac.at.uibk.geotechnik;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+/**
+ * Process wide cache of computed results and their rendered drafts, so that
+ * switching between a few cases or recreating {@link Calculation} after a
+ * rotation neither recomputes nor repaints.
+ *
+ * The cache is keyed by the exact input values B and H and the size of the
+ * draft, and results are computed from the values of the caller, so a cached
+ * T_K_mod is bit-identical to {@link EmbedmentSolver#tkMod(double, double)}
+ * for the same input. Entries are evicted least recently used first when
+ * the bytes of the cached bitmaps exceed the budget. A cached bitmap holds
+ * one reference of the {@link DraftRenderer} pool, which is given back when
+ * the entry is removed.
+ *
+ * @author phoenix
+ *
+ */
+final class ResultCache {
+
+	/** Tag for the log */
+	private static final String TAG = "ResultCache";
+	/** Estimated size of an entry without bitmap in bytes */
+	private static final int ENTRY_SIZE = 64;
+	/** Upper limit of the budget in bytes */
+	private static final int MAX_BUDGET = 16 << 20;
+
+	/** Key of a cached result */
+	private static final class Key {
+		final long b;
+		final long h;
+		final int width;
+		final int height;
+
+		Key(final double b, final double h, final int width, final int height) {
+			// Adding 0.0 turns -0.0 into 0.0
+			this.b = Double.doubleToLongBits(b + 0.0);
+			this.h = Double.doubleToLongBits(h + 0.0);
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof Key))
+				return false;
+			final Key key = (Key) other;
+			return b == key.b && h == key.h && width == key.width && height == key.height;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = (int) (b ^ (b >>> 32));
+			hash = 31 * hash + (int) (h ^ (h >>> 32));
+			hash = 31 * hash + width;
+			return 31 * hash + height;
+		}
+	}
+
+	/** Cached result, immutable */
+	static final class Result {
+		/** Input width of the excavation in meter */
+		final double b;
+		/** Head difference in meter */
+		final double h;
+		/** Embedment depth T_K_mod in meter */
+		final double t;
+		/** Rendered draft or null */
+		private final Bitmap draft;
+
+		private Result(final double b, final double h, final double t, final Bitmap draft) {
+			this.b = b;
+			this.h = h;
+			this.t = t;
+			this.draft = draft;
+		}
+	}
+
+	/** The cache */
+	private static final LruCache<Key, Result> cache = new LruCache<Key, Result>(budget()) {
+
+		@Override
+		protected int sizeOf(final Key key, final Result result) {
+			if (result.draft == null)
+				return ENTRY_SIZE;
+			return ENTRY_SIZE + result.draft.getRowBytes() * result.draft.getHeight();
+		}
+
+		@Override
+		protected void entryRemoved(final boolean evicted, final Key key, final Result old, final Result replacement) {
+			if (old.draft != null && (replacement == null || replacement.draft != old.draft))
+				DraftRenderer.release(old.draft);
+		}
+	};
+
+	private ResultCache() {
+	}
+
+	/** Budget of the cache, an eighth of the heap */
+	private static int budget() {
+		return (int) Math.min(Runtime.getRuntime().maxMemory() / 8, MAX_BUDGET);
+	}
+
+	/**
+	 * Get the result of a case, computing it if it is not cached
+	 *
+	 * @param b
+	 *            effective width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @param width
+	 *            width of the draft in pixel
+	 * @param height
+	 *            height of the draft in pixel
+	 * @return the result
+	 */
+	static Result get(final double b, final double h, final int width, final int height) {
+		final Key key = new Key(b, h, width, height);
+		// Locked so a concurrent miss cannot replace a draft put meanwhile
+		synchronized (cache) {
+			Result result = cache.get(key);
+			if (result == null) {
+				result = new Result(b, h, EmbedmentSolver.tkMod(b, h), null);
+				cache.put(key, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Take a reference of the cached draft of a result
+	 *
+	 * @param result
+	 *            from {@link #get(double, double, int, int)}
+	 * @return the draft, to be given back with
+	 *         {@link DraftRenderer#release(Bitmap)}, or null if no draft is
+	 *         cached
+	 */
+	static Bitmap acquireDraft(final Result result) {
+		final Bitmap draft = result.draft;
+		if (draft == null || !DraftRenderer.retain(draft))
+			return null;
+		return draft;
+	}
+
+	/**
+	 * Cache the rendered draft of a result. The cache takes its own reference
+	 *
+	 * @param result
+	 *            from {@link #get(double, double, int, int)}
+	 * @param draft
+	 *            the rendered draft
+	 */
+	static void putDraft(final Result result, final Bitmap draft) {
+		if (!DraftRenderer.retain(draft))
+			return;
+		cache.put(new Key(result.b, result.h, draft.getWidth(), draft.getHeight()), new Result(result.b, result.h,
+				result.t, draft));
+	}
+
+	/** Remove all entries, e.g. when memory is low */
+	static void clear() {
+		Log.i(TAG, "Clearing " + cache);
+		cache.evictAll();
+	}
+
+	/**
+	 * @return the number of lookups that found a cached result
+	 */
+	static int getHitCount() {
+		return cache.hitCount();
+	}
+
+	/**
+	 * @return the number of lookups that had to compute the result
+	 */
+	static int getMissCount() {
+		return cache.missCount();
+	}
+
+	/**
+	 * @return the number of entries removed because of the budget or
+	 *         {@link #clear()}
+	 */
+	static int getEvictionCount() {
+		return cache.evictionCount();
+	}
+}
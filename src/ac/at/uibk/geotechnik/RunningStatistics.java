@@ -0,0 +1,143 @@
+package ac.at.uibk.geotechnik;
+
+/**
+ * Streaming mean, variance, minimum and maximum of a sequence of values
+ * (Welford's algorithm). Two instances can be merged, so partial results of
+ * independent blocks can be combined without storing the values.
+ *
+ * @author phoenix
+ *
+ */
+public final class RunningStatistics {
+
+	/** Number of values */
+	private long count = 0;
+	/** Mean of the values */
+	private double mean = 0;
+	/** Sum of the squared deviations from the mean */
+	private double m2 = 0;
+	/** Smallest value */
+	private double min = Double.POSITIVE_INFINITY;
+	/** Largest value */
+	private double max = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Add a value
+	 *
+	 * @param value
+	 *            to be added
+	 */
+	public void add(final double value) {
+		count++;
+		final double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		if (value < min)
+			min = value;
+		if (value > max)
+			max = value;
+	}
+
+	/**
+	 * Merge the values of another instance into this one (Chan et al.)
+	 *
+	 * @param other
+	 *            statistics to be merged, not changed
+	 */
+	public void merge(final RunningStatistics other) {
+		merge(other.count, other.mean, other.m2, other.min, other.max);
+	}
+
+	/**
+	 * Merge a partial result given by its moments
+	 *
+	 * @param n
+	 *            number of values
+	 * @param otherMean
+	 *            mean of the values
+	 * @param otherM2
+	 *            sum of the squared deviations from the mean
+	 * @param otherMin
+	 *            smallest value
+	 * @param otherMax
+	 *            largest value
+	 */
+	void merge(final long n, final double otherMean, final double otherM2, final double otherMin,
+			final double otherMax) {
+		if (n == 0)
+			return;
+		if (count == 0) {
+			count = n;
+			mean = otherMean;
+			m2 = otherM2;
+			min = otherMin;
+			max = otherMax;
+			return;
+		}
+		final long total = count + n;
+		final double delta = otherMean - mean;
+		mean += delta * n / total;
+		m2 += otherM2 + delta * delta * ((double) count * n / total);
+		count = total;
+		min = Math.min(min, otherMin);
+		max = Math.max(max, otherMax);
+	}
+
+	/** Remove all values */
+	public void clear() {
+		count = 0;
+		mean = 0;
+		m2 = 0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the mean or NaN if empty
+	 */
+	public double getMean() {
+		return count == 0 ? Double.NaN : mean;
+	}
+
+	/**
+	 * @return the sum of the squared deviations from the mean
+	 */
+	double getM2() {
+		return m2;
+	}
+
+	/**
+	 * @return the sample variance or NaN if less than two values
+	 */
+	public double getVariance() {
+		return count < 2 ? Double.NaN : m2 / (count - 1);
+	}
+
+	/**
+	 * @return the sample standard deviation or NaN if less than two values
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * @return the smallest value
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return the largest value
+	 */
+	public double getMax() {
+		return max;
+	}
+}
@@ -0,0 +1,205 @@
+package ac.at.uibk.geotechnik;
+
+/**
+ * Rectilinear grid for the seepage model, given by the coordinates of the
+ * column edges (x, horizontal) and the row edges (y, depth below the outer
+ * water level). Cells may have different sizes.
+ *
+ * @author phoenix
+ *
+ */
+public final class SeepageGrid {
+
+	/** Relative tolerance when looking up edges */
+	private static final double EDGE_TOLERANCE = 1e-9;
+
+	/** Coordinates of the column edges in meter */
+	private final double[] xEdges;
+	/** Coordinates of the row edges in meter */
+	private final double[] yEdges;
+
+	/**
+	 * Creates a new grid
+	 *
+	 * @param xEdges
+	 *            strictly increasing coordinates of the column edges
+	 * @param yEdges
+	 *            strictly increasing coordinates of the row edges
+	 */
+	public SeepageGrid(final double[] xEdges, final double[] yEdges) {
+		checkEdges(xEdges);
+		checkEdges(yEdges);
+		this.xEdges = xEdges.clone();
+		this.yEdges = yEdges.clone();
+	}
+
+	/** Checks that the edges are strictly increasing */
+	private static void checkEdges(final double[] edges) {
+		if (edges.length < 2)
+			throw new IllegalArgumentException("At least one cell required");
+		for (int i = 1; i < edges.length; i++) {
+			if (!(edges[i] > edges[i - 1]))
+				throw new IllegalArgumentException("Edges must be strictly increasing");
+		}
+	}
+
+	/**
+	 * Creates a grid that is uniform between the given break points. The
+	 * cells are distributed over the segments proportional to their length,
+	 * with at least one cell per segment
+	 *
+	 * @param xBreaks
+	 *            increasing break points in x direction, including both ends
+	 * @param nx
+	 *            total number of columns
+	 * @param yBreaks
+	 *            increasing break points in y direction, including both ends
+	 * @param ny
+	 *            total number of rows
+	 * @return the created grid
+	 */
+	public static SeepageGrid piecewiseUniform(final double[] xBreaks, final int nx, final double[] yBreaks, final int ny) {
+		return new SeepageGrid(distribute(xBreaks, nx), distribute(yBreaks, ny));
+	}
+
+	/** Distribute n cells uniformly over the segments of the break points */
+	static double[] distribute(final double[] breaks, final int n) {
+		final int segments = breaks.length - 1;
+		final double total = breaks[segments] - breaks[0];
+		final int[] counts = new int[segments];
+		int sum = 0;
+		int largest = 0;
+		for (int s = 0; s < segments; s++) {
+			final double length = breaks[s + 1] - breaks[s];
+			counts[s] = Math.max(1, (int) Math.round(n * length / total));
+			sum += counts[s];
+			if (counts[s] > counts[largest])
+				largest = s;
+		}
+		counts[largest] = Math.max(1, counts[largest] + n - sum);
+		sum = 0;
+		for (int s = 0; s < segments; s++)
+			sum += counts[s];
+
+		final double[] edges = new double[sum + 1];
+		int e = 0;
+		for (int s = 0; s < segments; s++) {
+			for (int c = 0; c < counts[s]; c++)
+				edges[e++] = breaks[s] + (breaks[s + 1] - breaks[s]) * c / counts[s];
+		}
+		edges[sum] = breaks[segments];
+		return edges;
+	}
+
+	/**
+	 * @return the number of columns
+	 */
+	public int getNx() {
+		return xEdges.length - 1;
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int getNy() {
+		return yEdges.length - 1;
+	}
+
+	/**
+	 * @return the number of cells
+	 */
+	public long getCellCount() {
+		return (long) getNx() * getNy();
+	}
+
+	/**
+	 * @param i
+	 *            index of the edge, 0 to {@link #getNx()}
+	 * @return the x coordinate of the column edge in meter
+	 */
+	public double getXEdge(final int i) {
+		return xEdges[i];
+	}
+
+	/**
+	 * @param j
+	 *            index of the edge, 0 to {@link #getNy()}
+	 * @return the depth of the row edge in meter
+	 */
+	public double getYEdge(final int j) {
+		return yEdges[j];
+	}
+
+	/**
+	 * @param i
+	 *            index of the column
+	 * @return the width of the column in meter
+	 */
+	public double getDx(final int i) {
+		return xEdges[i + 1] - xEdges[i];
+	}
+
+	/**
+	 * @param j
+	 *            index of the row
+	 * @return the height of the row in meter
+	 */
+	public double getDy(final int j) {
+		return yEdges[j + 1] - yEdges[j];
+	}
+
+	/**
+	 * @param i
+	 *            index of the column
+	 * @return the x coordinate of the column center in meter
+	 */
+	public double getXCenter(final int i) {
+		return 0.5 * (xEdges[i] + xEdges[i + 1]);
+	}
+
+	/**
+	 * @param j
+	 *            index of the row
+	 * @return the depth of the row center in meter
+	 */
+	public double getYCenter(final int j) {
+		return 0.5 * (yEdges[j] + yEdges[j + 1]);
+	}
+
+	/**
+	 * Find the column edge at the given coordinate
+	 *
+	 * @param x
+	 *            coordinate in meter
+	 * @return index of the edge or -1 if no edge is at this coordinate
+	 */
+	public int findXEdge(final double x) {
+		return findEdge(xEdges, x);
+	}
+
+	/**
+	 * Find the row edge at the given depth
+	 *
+	 * @param y
+	 *            depth in meter
+	 * @return index of the edge or -1 if no edge is at this depth
+	 */
+	public int findYEdge(final double y) {
+		return findEdge(yEdges, y);
+	}
+
+	/** Binary search for an edge within the tolerance */
+	private static int findEdge(final double[] edges, final double value) {
+		final double tolerance = EDGE_TOLERANCE * (edges[edges.length - 1] - edges[0]);
+		int lo = 0;
+		int hi = edges.length - 1;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (edges[mid] < value - tolerance)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return Math.abs(edges[lo] - value) <= tolerance ? lo : -1;
+	}
+}
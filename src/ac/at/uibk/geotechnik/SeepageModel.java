@@ -0,0 +1,466 @@
+package ac.at.uibk.geotechnik;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Numerical seepage model for a sheet pile excavation, used to verify the
+ * empirical equation 25b.
+ *
+ * Because of symmetry only one half of the excavation is modelled. x is the
+ * distance from the centre line, y the depth below the outer water level. The
+ * excavation of width B is H deep, its water level is held at the excavation
+ * floor. The sheet pile wall at x = B/2 reaches from the surface to the depth
+ * H + T and is impermeable. The potential (total head above the excavation
+ * floor) is H at the outer surface and 0 at the excavation floor; the centre
+ * line, the far field and the base of the domain are impermeable.
+ *
+ * The Laplace equation for the potential is discretised with cell centred
+ * finite volumes on a {@link SeepageGrid} and solved by
+ * {@link MultigridSolver}. The result is the exit gradient at the excavation
+ * floor, which is compared with the allowed gradient
+ * {@link EmbedmentSolver#I_ZUL}.
+ *
+ * @author phoenix
+ *
+ */
+public final class SeepageModel {
+
+	/** Default lateral extent of the domain outside the wall, times (H + T) */
+	public static final double LATERAL_EXTENT = 4.0;
+	/** Default depth of the impermeable base below the pile toe, times (H + T) */
+	public static final double BASE_DEPTH = 3.0;
+	/** Relative residual of the linear solver */
+	private static final double TOLERANCE = 1e-9;
+	/** Maximum number of solver iterations */
+	private static final int MAX_ITERATIONS = 500;
+
+	/** Grid of the model */
+	private final SeepageGrid grid;
+	/** Width of the excavation in meter */
+	private final double b;
+	/** Head difference in meter */
+	private final double h;
+	/** Embedment depth in meter */
+	private double t;
+
+	/** Column edge index of the wall */
+	private final int wallEdge;
+	/** Row edge index of the excavation floor */
+	private final int floorEdge;
+	/** Row edge index of the pile toe */
+	private int toeEdge;
+
+	/** Diagonal of the operator */
+	private final double[] diag;
+	/** Conductances to the east neighbours */
+	private final double[] cE;
+	/** Conductances to the south neighbours */
+	private final double[] cS;
+	/** Active cells */
+	private final boolean[] active;
+	/** Right hand side */
+	private final double[] rhs;
+	/** Potential in meter */
+	private final double[] potential;
+
+	/** Parallel loop for the solver */
+	private final ParallelLoop loop;
+	/** Whether the parallel loop has been created by this model */
+	private final boolean ownsLoop;
+	/** Solver, created on demand */
+	private MultigridSolver solver = null;
+
+	/** Maximum exit gradient of the last solve */
+	private double maxExitGradient = Double.NaN;
+	/** Mean exit gradient of the last solve */
+	private double meanExitGradient = Double.NaN;
+	/** Duration of the last solve in nanoseconds */
+	private long solveNanos = 0;
+	/** Whether the last solve converged */
+	private boolean converged = false;
+
+	/**
+	 * Creates a new model. B/2, H and H + T must be edges of the grid
+	 *
+	 * @param grid
+	 *            grid of the model
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @param t
+	 *            embedment depth below the excavation floor in meter
+	 * @param threads
+	 *            number of threads for the solver
+	 */
+	public SeepageModel(final SeepageGrid grid, final double b, final double h, final double t, final int threads) {
+		this(grid, b, h, t, new ParallelLoop(threads), true);
+	}
+
+	/**
+	 * Creates a new model sharing the given parallel loop
+	 *
+	 * @param grid
+	 *            grid of the model
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @param t
+	 *            embedment depth below the excavation floor in meter
+	 * @param loop
+	 *            parallel loop for the solver
+	 */
+	SeepageModel(final SeepageGrid grid, final double b, final double h, final double t, final ParallelLoop loop) {
+		this(grid, b, h, t, loop, false);
+	}
+
+	private SeepageModel(final SeepageGrid grid, final double b, final double h, final double t, final ParallelLoop loop,
+			final boolean ownsLoop) {
+		if (!(b > 0 && h > 0 && t > 0))
+			throw new IllegalArgumentException("B, H and T must be positive");
+		this.grid = grid;
+		this.b = b;
+		this.h = h;
+		this.t = t;
+		wallEdge = grid.findXEdge(b / 2);
+		floorEdge = grid.findYEdge(h);
+		toeEdge = grid.findYEdge(h + t);
+		if (wallEdge <= 0 || wallEdge >= grid.getNx())
+			throw new IllegalArgumentException("The wall at B/2 must be an inner column edge of the grid");
+		if (floorEdge <= 0 || toeEdge <= floorEdge || toeEdge >= grid.getNy())
+			throw new IllegalArgumentException("H and H + T must be inner row edges of the grid");
+
+		final int n = grid.getNx() * grid.getNy();
+		diag = new double[n];
+		cE = new double[n];
+		cS = new double[n];
+		active = new boolean[n];
+		rhs = new double[n];
+		potential = new double[n];
+		this.loop = loop;
+		this.ownsLoop = ownsLoop;
+		assemble();
+	}
+
+	/**
+	 * Creates a model on the default domain with a grid that is uniform
+	 * between the geometric break points
+	 *
+	 * @param b
+	 *            width of the excavation in meter
+	 * @param h
+	 *            head difference in meter
+	 * @param t
+	 *            embedment depth below the excavation floor in meter
+	 * @param nx
+	 *            number of columns
+	 * @param ny
+	 *            number of rows
+	 * @param threads
+	 *            number of threads for the solver
+	 * @return the created model
+	 */
+	public static SeepageModel create(final double b, final double h, final double t, final int nx, final int ny,
+			final int threads) {
+		final double length = h + t;
+		final double[] xBreaks = { 0, b / 2, b / 2 + LATERAL_EXTENT * length };
+		final double[] yBreaks = { 0, h, h + t, h + t + BASE_DEPTH * length };
+		return new SeepageModel(SeepageGrid.piecewiseUniform(xBreaks, nx, yBreaks, ny), b, h, t, threads);
+	}
+
+	/** Build the operator and the right hand side */
+	private void assemble() {
+		final int nx = grid.getNx();
+		final int ny = grid.getNy();
+		for (int j = 0; j < ny; j++) {
+			for (int i = 0; i < nx; i++) {
+				final int k = j * nx + i;
+				// The excavation itself is not part of the domain
+				active[k] = !(i < wallEdge && j < floorEdge);
+				cE[k] = 0;
+				cS[k] = 0;
+				diag[k] = 0;
+				rhs[k] = 0;
+			}
+		}
+		for (int j = 0; j < ny; j++) {
+			for (int i = 0; i < nx; i++) {
+				final int k = j * nx + i;
+				if (!active[k]) {
+					diag[k] = 1;
+					continue;
+				}
+				final double dx = grid.getDx(i);
+				final double dy = grid.getDy(j);
+				if (i + 1 < nx && active[k + 1] && !(i + 1 == wallEdge && j < toeEdge))
+					cE[k] = dy / (grid.getXCenter(i + 1) - grid.getXCenter(i));
+				if (j + 1 < ny && active[k + nx])
+					cS[k] = dx / (grid.getYCenter(j + 1) - grid.getYCenter(j));
+				// Fixed potentials at the outer surface and the excavation floor
+				if (j == 0 && i >= wallEdge) {
+					final double c = dx / (0.5 * dy);
+					diag[k] += c;
+					rhs[k] += c * h;
+				} else if (j == floorEdge && i < wallEdge) {
+					diag[k] += dx / (0.5 * dy);
+				}
+			}
+		}
+		for (int j = 0; j < ny; j++) {
+			for (int i = 0; i < nx; i++) {
+				final int k = j * nx + i;
+				if (!active[k])
+					continue;
+				diag[k] += cE[k] + cS[k];
+				if (i > 0)
+					diag[k] += cE[k - 1];
+				if (j > 0)
+					diag[k] += cS[k - nx];
+			}
+		}
+	}
+
+	/**
+	 * Solve the model starting from the current potential
+	 *
+	 * @return true if the solver converged
+	 */
+	public boolean solve() {
+		final long start = System.nanoTime();
+		if (solver == null)
+			solver = new MultigridSolver(grid.getNx(), grid.getNy(), diag, cE, cS, active, loop);
+		converged = solver.solve(rhs, potential, TOLERANCE, MAX_ITERATIONS);
+		evaluateExitGradient();
+		solveNanos = System.nanoTime() - start;
+		return converged;
+	}
+
+	/** Evaluate the exit gradient along the excavation floor */
+	private void evaluateExitGradient() {
+		final int nx = grid.getNx();
+		final int j = floorEdge;
+		final double dy = grid.getDy(j);
+		double max = 0;
+		double sum = 0;
+		for (int i = 0; i < wallEdge; i++) {
+			final double gradient = potential[j * nx + i] / (0.5 * dy);
+			max = Math.max(max, gradient);
+			sum += gradient * grid.getDx(i);
+		}
+		maxExitGradient = max;
+		meanExitGradient = sum / (b / 2);
+	}
+
+	/**
+	 * Move the pile toe to a new depth. The current potential is kept as
+	 * initial guess of the next solve
+	 *
+	 * @param t
+	 *            embedment depth below the excavation floor in meter, H + T
+	 *            must be an inner row edge of the grid
+	 */
+	public void setEmbedment(final double t) {
+		final int edge = grid.findYEdge(h + t);
+		if (!(t > 0) || edge <= floorEdge || edge >= grid.getNy())
+			throw new IllegalArgumentException("H + T must be an inner row edge below the excavation floor");
+		this.t = t;
+		toeEdge = edge;
+		assemble();
+		// The coarse levels depend on the operator, the aggregation does not
+		if (solver != null)
+			solver.update();
+	}
+
+	/**
+	 * Set the initial guess of the next solve, e.g. the solution of a similar
+	 * model
+	 *
+	 * @param values
+	 *            potential of all cells, row major
+	 */
+	public void setInitialPotential(final double[] values) {
+		if (values.length != potential.length)
+			throw new IllegalArgumentException("Wrong number of cells");
+		System.arraycopy(values, 0, potential, 0, values.length);
+	}
+
+	/**
+	 * Compute refinement indicators from the current potential. The
+	 * indicator of a cell is its size times the jump of the potential
+	 * gradient across the cell, which estimates the local discretisation
+	 * error. Columns and rows get the maximum of their cells
+	 *
+	 * @param columns
+	 *            output array for the indicators of the columns
+	 * @param rows
+	 *            output array for the indicators of the rows
+	 */
+	void computeIndicators(final double[] columns, final double[] rows) {
+		final int nx = grid.getNx();
+		final int ny = grid.getNy();
+		Arrays.fill(columns, 0);
+		Arrays.fill(rows, 0);
+		for (int j = 0; j < ny; j++) {
+			for (int i = 0; i < nx; i++) {
+				final int k = j * nx + i;
+				if (!active[k])
+					continue;
+				final double phi = potential[k];
+				final double dx = grid.getDx(i);
+				final double dy = grid.getDy(j);
+				// Gradients across the faces, 0 for impermeable faces
+				final double gW = i > 0 && cE[k - 1] > 0 ? (phi - potential[k - 1]) * cE[k - 1] / dy : 0;
+				final double gE = cE[k] > 0 ? (potential[k + 1] - phi) * cE[k] / dy : 0;
+				double gN = j > 0 && cS[k - nx] > 0 ? (phi - potential[k - nx]) * cS[k - nx] / dx : 0;
+				final double gS = cS[k] > 0 ? (potential[k + nx] - phi) * cS[k] / dx : 0;
+				if (j == 0 && i >= wallEdge)
+					gN = (phi - h) / (0.5 * dy);
+				else if (j == floorEdge && i < wallEdge)
+					gN = phi / (0.5 * dy);
+				columns[i] = Math.max(columns[i], dx * Math.abs(gE - gW));
+				rows[j] = Math.max(rows[j], dy * Math.abs(gS - gN));
+			}
+		}
+	}
+
+	/** Stop the worker threads of the solver if owned by this model */
+	public void shutdown() {
+		if (ownsLoop)
+			loop.shutdown();
+	}
+
+	/**
+	 * @return the grid of the model
+	 */
+	public SeepageGrid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * @return the width of the excavation in meter
+	 */
+	public double getB() {
+		return b;
+	}
+
+	/**
+	 * @return the head difference in meter
+	 */
+	public double getH() {
+		return h;
+	}
+
+	/**
+	 * @return the embedment depth in meter
+	 */
+	public double getT() {
+		return t;
+	}
+
+	/**
+	 * @return the potential of all cells, row major. Inactive cells are 0
+	 */
+	public double[] getPotential() {
+		return potential;
+	}
+
+	/**
+	 * @return the maximum exit gradient at the excavation floor
+	 */
+	public double getMaxExitGradient() {
+		return maxExitGradient;
+	}
+
+	/**
+	 * @return the mean exit gradient at the excavation floor
+	 */
+	public double getMeanExitGradient() {
+		return meanExitGradient;
+	}
+
+	/**
+	 * @return the ratio of the maximum exit gradient and the allowed gradient
+	 *         i_zul. Values above 1 mean the embedment depth is insufficient
+	 */
+	public double getUtilisation() {
+		return maxExitGradient / EmbedmentSolver.I_ZUL;
+	}
+
+	/**
+	 * @return true if the last solve converged
+	 */
+	public boolean isConverged() {
+		return converged;
+	}
+
+	/**
+	 * @return the number of iterations of the last solve
+	 */
+	public int getIterations() {
+		return solver == null ? 0 : solver.getIterations();
+	}
+
+	/**
+	 * @return the relative residual of the last solve
+	 */
+	public double getResidual() {
+		return solver == null ? Double.NaN : solver.getResidual();
+	}
+
+	/**
+	 * @return the number of multigrid levels
+	 */
+	public int getLevelCount() {
+		return solver == null ? 0 : solver.getLevelCount();
+	}
+
+	/**
+	 * @return the duration of the last solve in seconds
+	 */
+	public double getSolveSeconds() {
+		return solveNanos / 1e9;
+	}
+
+	/**
+	 * @return the memory used by the model and the solver in bytes
+	 */
+	public long getMemoryBytes() {
+		final long n = grid.getCellCount();
+		return n * (5 * 8 + 1) + (solver == null ? 0 : solver.getMemoryBytes());
+	}
+
+	/**
+	 * Command line entry point. Solves the model and compares the exit
+	 * gradient with i_zul
+	 *
+	 * @param args
+	 *            B H [T [n [threads]]]. T defaults to T_K_mod, n to 1000
+	 */
+	public static void main(final String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: SeepageModel B H [T [n [threads]]]");
+			System.exit(1);
+		}
+		final double b = Double.parseDouble(args[0]);
+		final double h = Double.parseDouble(args[1]);
+		final double t = args.length > 2 ? Double.parseDouble(args[2]) : EmbedmentSolver.tkMod(b, h);
+		final int n = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+		final int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+		final SeepageModel model = create(b, h, t, n, n, threads);
+		try {
+			model.solve();
+			System.out.println(String.format(Locale.US, "B = %.2f m, H = %.2f m, T = %.2f m (T_K_mod = %.2f m)", b, h, t,
+					EmbedmentSolver.tkMod(b, h)));
+			System.out.println(String.format(Locale.US, "Grid %d x %d, %d levels, %d iterations, residual %s, %.3f s, %.1f MB",
+					model.grid.getNx(), model.grid.getNy(), model.getLevelCount(), model.getIterations(),
+					model.isConverged() ? "ok" : "NOT CONVERGED", model.getSolveSeconds(), model.getMemoryBytes() / 1048576.0));
+			System.out.println(String.format(Locale.US, "Exit gradient max %.4f, mean %.4f, i_zul %.3f, utilisation %.3f",
+					model.getMaxExitGradient(), model.getMeanExitGradient(), EmbedmentSolver.I_ZUL, model.getUtilisation()));
+		} finally {
+			model.shutdown();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package ac.at.uibk.geotechnik;
+
+/**
+ * Small and fast pseudo random generator (SplitMix64, Steele, Lea and Flood).
+ *
+ * Independent streams are derived from a seed and a stream index, so a
+ * simulation split into numbered blocks gives the same numbers regardless of
+ * how the blocks are distributed over threads.
+ *
+ * @author phoenix
+ *
+ */
+final class SplitMix64 {
+
+	/** Increment of the state, the golden ratio as 64 bit fraction */
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	/** State of the generator */
+	private long state;
+	/** Second normal variate of the last polar step */
+	private double nextGaussian;
+	/** Whether nextGaussian is valid */
+	private boolean haveNextGaussian = false;
+
+	/**
+	 * Creates a new generator
+	 *
+	 * @param seed
+	 *            initial state
+	 */
+	SplitMix64(final long seed) {
+		state = seed;
+	}
+
+	/**
+	 * Creates the generator of one stream
+	 *
+	 * @param seed
+	 *            seed of the simulation
+	 * @param stream
+	 *            index of the stream, e.g. the block number
+	 * @return the generator
+	 */
+	static SplitMix64 forStream(final long seed, final long stream) {
+		return new SplitMix64(mix(seed ^ mix(stream * GOLDEN_GAMMA + GOLDEN_GAMMA)));
+	}
+
+	/** Finalizer of SplitMix64, a bijective mixing function */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return the next uniformly distributed long
+	 */
+	long nextLong() {
+		return mix(state += GOLDEN_GAMMA);
+	}
+
+	/**
+	 * @return the next uniformly distributed double in [0, 1)
+	 */
+	double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * @return the next standard normally distributed double, by the polar
+	 *         method of Marsaglia
+	 */
+	double nextGaussian() {
+		if (haveNextGaussian) {
+			haveNextGaussian = false;
+			return nextGaussian;
+		}
+		double u;
+		double v;
+		double s;
+		do {
+			u = 2 * nextDouble() - 1;
+			v = 2 * nextDouble() - 1;
+			s = u * u + v * v;
+		} while (s >= 1 || s == 0);
+		final double factor = Math.sqrt(-2 * Math.log(s) / s);
+		nextGaussian = v * factor;
+		haveNextGaussian = true;
+		return u * factor;
+	}
+}
@@ -0,0 +1,105 @@
+package ac.at.uibk.geotechnik;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Records the phases of a cold start and logs them once the app is
+ * interactive.
+ *
+ * The trace starts when the {@link EinbindetiefeApplication} is created,
+ * which is the first code of the app that runs in a new process. The first
+ * frame is the first pre-draw of the input screen; the app is interactive
+ * once the first frame has been drawn and the draft picture is shown. Only
+ * the first start of a process is recorded, later activities do not change
+ * the trace. All times are taken from {@link SystemClock#uptimeMillis()} on
+ * the UI thread.
+ *
+ * @author phoenix
+ *
+ */
+final class StartupTrace {
+
+	/** Tag for the log */
+	private static final String TAG = "StartupTrace";
+
+	/* Phases of the start */
+	static final int PROCESS = 0;
+	static final int APPLICATION = 1;
+	static final int ACTIVITY = 2;
+	static final int FIRST_FRAME = 3;
+	static final int DRAFT = 4;
+
+	/** Names of the phases for the report */
+	private static final String[] NAMES = { "process", "application", "activity", "first frame", "draft" };
+
+	/** Time of each phase, 0 if not yet reached */
+	private static final long[] times = new long[NAMES.length];
+	/** Set once the report has been logged */
+	private static boolean reported = false;
+
+	private StartupTrace() {
+	}
+
+	/**
+	 * Record a phase. Phases that have been recorded before are ignored
+	 *
+	 * @param phase
+	 *            one of the phase constants
+	 */
+	static void mark(final int phase) {
+		if (times[phase] != 0)
+			return;
+		times[phase] = SystemClock.uptimeMillis();
+		if (!reported && times[FIRST_FRAME] != 0 && times[DRAFT] != 0) {
+			reported = true;
+			Log.i(TAG, report());
+		}
+	}
+
+	/**
+	 * Record the first frame of a view hierarchy, i.e. the first time it is
+	 * about to be drawn
+	 *
+	 * @param view
+	 *            any view of the hierarchy
+	 * @param next
+	 *            called after the first frame has been recorded, e.g. to
+	 *            start work that needs the size of the view, or null
+	 */
+	static void watchFirstFrame(final View view, final Runnable next) {
+		view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+
+			@Override
+			public boolean onPreDraw() {
+				final ViewTreeObserver observer = view.getViewTreeObserver();
+				if (observer.isAlive())
+					observer.removeOnPreDrawListener(this);
+				mark(FIRST_FRAME);
+				if (next != null)
+					next.run();
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * @return the phases reached so far in milliseconds after the start of the
+	 *         process, and the time until the app was interactive
+	 */
+	static String report() {
+		final long start = times[PROCESS] != 0 ? times[PROCESS] : times[APPLICATION];
+		final StringBuilder report = new StringBuilder("Cold start:");
+		for (int i = 1; i < NAMES.length; i++) {
+			if (times[i] != 0)
+				report.append(' ').append(NAMES[i]).append(' ').append(times[i] - start).append(" ms,");
+		}
+		if (times[FIRST_FRAME] != 0 && times[DRAFT] != 0)
+			report.append(" interactive ").append(Math.max(times[FIRST_FRAME], times[DRAFT]) - start).append(" ms");
+		else
+			report.setLength(report.length() - 1);
+		return report.toString();
+	}
+}
@@ -0,0 +1,208 @@
+package ac.at.uibk.geotechnik;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * {@link DraftSurface} that streams an SVG document to a {@link Writer}.
+ *
+ * Every primitive is written as soon as it is drawn, so the document is never
+ * held in memory. Texts are measured with the Helvetica metrics, the viewer
+ * is asked for a sans serif font. The writer is not buffered here; pass a
+ * {@link java.io.BufferedWriter} for files.
+ *
+ * @author phoenix
+ *
+ */
+public final class SvgSurface implements DraftSurface, Closeable {
+
+	/** Target of the document */
+	private final Writer out;
+	/** Element that is being written */
+	private final StringBuilder line = new StringBuilder(128);
+	/** First error while writing or null */
+	private IOException error = null;
+
+	/**
+	 * Start a new SVG document
+	 *
+	 * @param out
+	 *            target of the document
+	 * @param width
+	 *            of the picture in pixel
+	 * @param height
+	 *            of the picture in pixel
+	 * @throws IOException
+	 *             if the header cannot be written
+	 */
+	public SvgSurface(final Writer out, final int width, final int height) throws IOException {
+		this(out, width, height, true);
+	}
+
+	/**
+	 * Start a new SVG element
+	 *
+	 * @param out
+	 *            target of the element
+	 * @param width
+	 *            of the picture in pixel
+	 * @param height
+	 *            of the picture in pixel
+	 * @param declaration
+	 *            false to omit the XML declaration, for SVG embedded into
+	 *            HTML
+	 * @throws IOException
+	 *             if the header cannot be written
+	 */
+	SvgSurface(final Writer out, final int width, final int height, final boolean declaration) throws IOException {
+		this.out = out;
+		if (declaration)
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" width=\"" + width + "\" height=\""
+				+ height + "\" viewBox=\"0 0 " + width + " " + height + "\">\n");
+	}
+
+	@Override
+	public void fillRect(final float left, final float top, final float right, final float bottom, final int color) {
+		line.setLength(0);
+		line.append("<rect x=\"");
+		append(left);
+		line.append("\" y=\"");
+		append(top);
+		line.append("\" width=\"");
+		append(right - left);
+		line.append("\" height=\"");
+		append(bottom - top);
+		appendColor("fill", color);
+		line.append("/>\n");
+		write();
+	}
+
+	@Override
+	public void drawLine(final float startX, final float startY, final float endX, final float endY,
+			final float width, final int color) {
+		line.setLength(0);
+		line.append("<line x1=\"");
+		append(startX);
+		line.append("\" y1=\"");
+		append(startY);
+		line.append("\" x2=\"");
+		append(endX);
+		line.append("\" y2=\"");
+		append(endY);
+		line.append("\" stroke-width=\"");
+		append(width);
+		appendColor("stroke", color);
+		line.append("/>\n");
+		write();
+	}
+
+	@Override
+	public void drawText(final String text, final float x, final float y, final float size, final int color) {
+		line.setLength(0);
+		line.append("<text x=\"");
+		append(x);
+		line.append("\" y=\"");
+		append(y);
+		line.append("\" font-family=\"Helvetica,Arial,sans-serif\" font-size=\"");
+		append(size);
+		appendColor("fill", color);
+		line.append(">");
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			switch (c) {
+			case '<':
+				line.append("&lt;");
+				break;
+			case '>':
+				line.append("&gt;");
+				break;
+			case '&':
+				line.append("&amp;");
+				break;
+			default:
+				line.append(c);
+			}
+		}
+		line.append("</text>\n");
+		write();
+	}
+
+	@Override
+	public float measureText(final String text, final float size) {
+		return HelveticaMetrics.measure(text, size);
+	}
+
+	/**
+	 * Finish the document and close the writer
+	 *
+	 * @throws IOException
+	 *             if writing failed at any time
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (error == null)
+				out.write("</svg>\n");
+		} finally {
+			out.close();
+		}
+		if (error != null)
+			throw error;
+	}
+
+	/** Write the current line, remembering the first error */
+	private void write() {
+		if (error != null)
+			return;
+		try {
+			out.append(line);
+		} catch (final IOException e) {
+			error = e;
+		}
+	}
+
+	/** Append a coordinate */
+	private void append(final float value) {
+		appendNumber(line, value);
+	}
+
+	/**
+	 * Append a number with at most two decimals, without exponent and
+	 * trailing zeros, as used by SVG and PDF
+	 *
+	 * @param line
+	 *            to append to
+	 * @param value
+	 *            to be appended
+	 */
+	static void appendNumber(final StringBuilder line, final float value) {
+		long scaled = Math.round(value * 100.0);
+		if (scaled < 0) {
+			line.append('-');
+			scaled = -scaled;
+		}
+		line.append(scaled / 100);
+		final int fraction = (int) (scaled % 100);
+		if (fraction != 0) {
+			line.append('.');
+			if (fraction < 10)
+				line.append('0');
+			line.append(fraction % 10 == 0 ? fraction / 10 : fraction);
+		}
+	}
+
+	/** Close the previous attribute and append a colour attribute as #rrggbb */
+	private void appendColor(final String attribute, final int color) {
+		line.append("\" ").append(attribute).append("=\"#");
+		final String hex = Integer.toHexString(color & 0xFFFFFF | 0x1000000);
+		line.append(hex, 1, 7).append('"');
+		final int alpha = color >>> 24;
+		if (alpha != 0xFF) {
+			line.append(' ').append(attribute).append("-opacity=\"");
+			append(alpha / 255F);
+			line.append('"');
+		}
+	}
+}